@@ -20,14 +20,16 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.rfksystems.meson.jackson.MesonDeserializer;
 import com.rfksystems.meson.jackson.MesonSerializer;
 
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.security.SecureRandom;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Arrays;
-import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static com.rfksystems.meson.MesonUtils.*;
 
@@ -74,21 +76,24 @@ public class Meson implements Serializable, Comparable<Meson> {
 
     private static final long serialVersionUID = 4304780938665765028L;
 
-    /**
-     * Instance counter. For every created Meson identity using this.
-     */
-    private final static AtomicInteger COUNTER = new AtomicInteger(new SecureRandom().nextInt());
     private final long time;
     private final int sequence;
+
+    /**
+     * Generator ID bytes, for decoded identities the canonical array of {@link MesonGeneratorIds}. Never modified.
+     */
     private final byte[] generatorId;
 
+    /**
+     * Generator ID as big-endian integer, restored by {@link #readResolve()} after deserialization.
+     */
+    private final transient int generatorIdValue;
+
     /**
      * Create a new Meson identity for current time, with current machine identity and current sequence.
      */
     public Meson() {
-        this.time = System.currentTimeMillis();
-        this.sequence = getSequenceAndIncrement();
-        this.generatorId = MesonGeneratorIdentity.get();
+        this(currentTime(), MesonSequence.next(), MesonGeneratorIdentity.get());
     }
 
     /**
@@ -101,8 +106,9 @@ public class Meson implements Serializable, Comparable<Meson> {
         }
 
         this.time = time;
-        this.sequence = getSequenceAndIncrement();
+        this.sequence = MesonSequence.next();
         this.generatorId = MesonGeneratorIdentity.get();
+        this.generatorIdValue = intFromBytes(generatorId, 0);
     }
 
     /**
@@ -110,16 +116,33 @@ public class Meson implements Serializable, Comparable<Meson> {
      *
      * @param time        UNIX timestamp in milliseconds since epoch start, with minimum value of {@link Meson#MIN_TIME} and
      *                    maximum value of {@link Meson#MAX_TIME}.
-     * @param generatorId ID of the generator, exactly {@link Meson#GENERATOR_ID_SIZE_BYTES} in size.
+     * @param generatorId ID of the generator, exactly {@link Meson#GENERATOR_ID_SIZE_BYTES} in size. Not retained,
+     *                    identities share one canonical copy per generator ID.
      * @param sequence    Sequence number of this identity, signed 32 bit integer between 0 and {@link Integer#MAX_VALUE}.
      */
     public Meson(final long time, final byte[] generatorId, final int sequence) {
+        if (GENERATOR_ID_SIZE_BYTES != generatorId.length) {
+            MesonMetrics.recordValidationFailure();
+            throw new IllegalArgumentException(String.format("Generator ID must be %d bytes", GENERATOR_ID_SIZE_BYTES));
+        }
+
         this.time = time;
         this.sequence = sequence;
-        this.generatorId = generatorId;
+        this.generatorIdValue = intFromBytes(generatorId, 0);
+        this.generatorId = MesonGeneratorIds.intern(generatorIdValue);
         validate();
     }
 
+    /**
+     * Create instance of Meson identity from trusted values, skipping validation.
+     */
+    private Meson(final long time, final int sequence, final byte[] generatorId) {
+        this.time = time;
+        this.sequence = sequence;
+        this.generatorId = generatorId;
+        this.generatorIdValue = intFromBytes(generatorId, 0);
+    }
+
     /**
      * Create instance of Meson identity from a hex string.
      *
@@ -131,6 +154,7 @@ public class Meson implements Serializable, Comparable<Meson> {
                 : string.replaceAll("-", "").toLowerCase();
 
         if (28 != hexString.length()) {
+            MesonMetrics.recordParseFailure();
             throw new IllegalArgumentException();
         }
 
@@ -138,12 +162,8 @@ public class Meson implements Serializable, Comparable<Meson> {
 
         this.time = longFromUInt48(bytes, 0);
 
-        this.generatorId = new byte[]{
-                bytes[6],
-                bytes[7],
-                bytes[8],
-                bytes[9]
-        };
+        this.generatorIdValue = intFromBytes(bytes, 6);
+        this.generatorId = MesonGeneratorIds.intern(generatorIdValue);
 
         this.sequence = intFromBytes(bytes, 10);
         validate();
@@ -165,22 +185,55 @@ public class Meson implements Serializable, Comparable<Meson> {
      */
     public Meson(final byte[] bytes) {
         if (BUFFER_SIZE_BYTES != bytes.length) {
+            MesonMetrics.recordParseFailure();
             throw new IllegalArgumentException();
         }
 
         this.time = longFromUInt48(bytes, 0);
 
-        this.generatorId = new byte[]{
-                bytes[6],
-                bytes[7],
-                bytes[8],
-                bytes[9]
-        };
+        this.generatorIdValue = intFromBytes(bytes, 6);
+        this.generatorId = MesonGeneratorIds.intern(generatorIdValue);
 
         this.sequence = intFromBytes(bytes, 10);
         validate();
     }
 
+    /**
+     * Create instance of Meson from its 128 bit representation, as returned by {@link #getMostSignificantBits()} and
+     * {@link #getLeastSignificantBits()}.
+     *
+     * @param mostSignificantBits  48 bit time followed by upper 16 bits of generator id.
+     * @param leastSignificantBits 16 zero bits, followed by lower 16 bits of generator id and 32 bit sequence.
+     */
+    public Meson(final long mostSignificantBits, final long leastSignificantBits) {
+        if (0 != leastSignificantBits >>> 48) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException("Upper 16 bits of least significant bits must be zero");
+        }
+
+        this.time = timeFromBits(mostSignificantBits);
+        this.generatorIdValue = generatorIdFromBits(mostSignificantBits, leastSignificantBits);
+        this.generatorId = MesonGeneratorIds.intern(generatorIdValue);
+        this.sequence = sequenceFromBits(leastSignificantBits);
+        validate();
+    }
+
+    /**
+     * Create instance of Meson from its {@link UUID} representation, as returned by {@link #toUuid()}.
+     *
+     * @param uuid UUID representation of Meson identity.
+     */
+    public Meson(final UUID uuid) {
+        this(MesonUuid.fromUuid(uuid));
+    }
+
+    private Meson(final Meson meson) {
+        this.time = meson.time;
+        this.generatorId = meson.generatorId;
+        this.generatorIdValue = meson.generatorIdValue;
+        this.sequence = meson.sequence;
+    }
+
     /**
      * Check if given string could represent a Meson id.
      *
@@ -189,12 +242,14 @@ public class Meson implements Serializable, Comparable<Meson> {
      */
     public static boolean isValidHexString(final String string) {
         if (null == string) {
+            MesonMetrics.recordValidationFailure();
             return false;
         }
 
         final int hexLength = string.length();
 
         if (string.isEmpty() || (hexLength != 28 && hexLength != 30)) {
+            MesonMetrics.recordValidationFailure();
             return false;
         }
 
@@ -203,12 +258,14 @@ public class Meson implements Serializable, Comparable<Meson> {
                 : string.replaceAll("-", "").toLowerCase();
 
         if (28 != hexString.length()) {
+            MesonMetrics.recordValidationFailure();
             return false;
         }
 
         final byte[] bytes = hexToBytes(hexString);
 
         if (bytes.length != BUFFER_SIZE_BYTES) {
+            MesonMetrics.recordValidationFailure();
             return false;
         }
 
@@ -223,7 +280,122 @@ public class Meson implements Serializable, Comparable<Meson> {
         }
 
         final int sequence = intFromBytes(bytes, 10);
-        return 0 <= sequence;
+
+        if (0 > sequence) {
+            MesonMetrics.recordValidationFailure();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Create a new Meson identity for current time, taking the sequence number from a block held by one of several
+     * padded stripes the calling thread maps to, instead of the single shared counter.
+     * <p>
+     * Meant for massive concurrency, such as tens of thousands of virtual threads: the shared counter is touched
+     * once per block, and nothing on the path blocks, holds a monitor or relies on thread locals. Sequence numbers
+     * keep increasing for every calling thread, except across sequence counter resets, where the next block starts
+     * over from a new seed. Unlike {@link #Meson()} they are not handed out in global call order, and sequence
+     * numbers left in blocks of idle stripes are skipped.
+     *
+     * @return new Meson identity.
+     */
+    public static Meson createConcurrent() {
+        final int sequence = MesonSequence.nextStriped();
+        return new Meson(currentTime(), sequence, MesonGeneratorIdentity.get());
+    }
+
+    /**
+     * Create given number of Meson identities for current time at once. Sequence numbers of up to 65536 identities
+     * are reserved with a single update of the shared counter, and the clock is read once per reservation.
+     * Identities in the returned array are in ascending order; should the sequence counter reset between two
+     * reservations within the same millisecond, the array is sorted before it is returned.
+     *
+     * @param count number of identities to create.
+     * @return array of new Meson identities.
+     */
+    public static Meson[] batch(final int count) {
+        if (0 > count) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+
+        final Meson[] batch = new Meson[count];
+        final byte[] generatorId = MesonGeneratorIdentity.get();
+
+        boolean sorted = true;
+
+        for (int offset = 0; offset < count; offset += MesonSequence.MAX_RESERVATION) {
+            final int size = Math.min(MesonSequence.MAX_RESERVATION, count - offset);
+            final int first = MesonSequence.reserve(size);
+            final long time = currentTime();
+
+            for (int i = 0; i < size; i++) {
+                batch[offset + i] = new Meson(time, first + i, generatorId);
+            }
+
+            if (0 < offset && 0 < batch[offset - 1].compareTo(batch[offset])) {
+                sorted = false;
+            }
+
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordBatch(size);
+            }
+        }
+
+        if (!sorted) {
+            Arrays.sort(batch);
+        }
+
+        return batch;
+    }
+
+    /**
+     * Create an unbounded stream of Meson identities for current time. Sequence numbers are reserved in blocks, so
+     * the shared counter is updated once per block rather than once per identity, also when the stream is parallel.
+     * Identities from a sequential stream are in ascending order, except across a reset of the sequence counter.
+     *
+     * @return unbounded stream of new Meson identities.
+     */
+    public static Stream<Meson> stream() {
+        return StreamSupport.stream(new MesonSpliterator(), false);
+    }
+
+    /**
+     * Create a stream of given number of Meson identities for current time, as {@link #stream()} does.
+     *
+     * @param count number of identities in the stream.
+     * @return stream of new Meson identities.
+     */
+    public static Stream<Meson> stream(final long count) {
+        if (0 > count) {
+            throw new IllegalArgumentException("Count must not be negative");
+        }
+
+        return StreamSupport.stream(new MesonSpliterator(count), false);
+    }
+
+    /**
+     * Create a new Meson identity for current time and given sequence number, taken from a reserved block.
+     *
+     * @param sequence    reserved sequence number.
+     * @param generatorId generator identity.
+     * @return new Meson identity.
+     */
+    static Meson reserved(final int sequence, final byte[] generatorId) {
+        return new Meson(currentTime(), sequence, generatorId);
+    }
+
+    /**
+     * Create a new Meson identity for given time and sequence number, both taken from a reserved block.
+     *
+     * @param time        reserved time.
+     * @param sequence    reserved sequence number.
+     * @param generatorId generator identity.
+     * @return new Meson identity.
+     */
+    static Meson reserved(final long time, final int sequence, final byte[] generatorId) {
+        return new Meson(time, sequence, generatorId);
     }
 
     /**
@@ -233,9 +405,9 @@ public class Meson implements Serializable, Comparable<Meson> {
      */
     public static byte[] directToByteArray() {
         return toByteArray(
-                System.currentTimeMillis(),
+                currentTime(),
                 MesonGeneratorIdentity.get(),
-                getSequenceAndIncrement()
+                MesonSequence.next()
         );
     }
 
@@ -263,24 +435,22 @@ public class Meson implements Serializable, Comparable<Meson> {
      * @return Pretty-format String representation of Meson identity.
      */
     public static String directToFormatString() {
-        return bytesToHex(uInt48ToBytes(System.currentTimeMillis()))
+        return bytesToHex(uInt48ToBytes(currentTime()))
                 + "-" + bytesToHex(MesonGeneratorIdentity.get())
-                + "-" + bytesToHex(intToBytes(getSequenceAndIncrement()));
+                + "-" + bytesToHex(intToBytes(MesonSequence.next()));
     }
 
     /**
-     * Retrieve current sequence number and increment the counter to next value.
+     * Read the wall clock, observing it for regressions if metrics are enabled.
      *
-     * @return current sequence number.
+     * @return current time in milliseconds.
      */
-    private static int getSequenceAndIncrement() {
-        final int sequence = COUNTER.getAndIncrement();
-
-        if (sequence > BORDERLINE_COUNTER_VALUE) {
-            COUNTER.set(new SecureRandom().nextInt());
+    private static long currentTime() {
+        if (MesonMetrics.enabled) {
+            return MesonMetrics.observeClock();
         }
 
-        return sequence;
+        return System.currentTimeMillis();
     }
 
     /**
@@ -328,7 +498,7 @@ public class Meson implements Serializable, Comparable<Meson> {
      * @return current value of the counter.
      */
     public static int currentCounterValue() {
-        return COUNTER.get();
+        return MesonSequence.current();
     }
 
     /**
@@ -367,6 +537,15 @@ public class Meson implements Serializable, Comparable<Meson> {
         return ByteBuffer.wrap(toByteArray());
     }
 
+    /**
+     * Create an order preserving version 8 {@link UUID} representation of this Meson identity, see {@link MesonUuid}.
+     *
+     * @return UUID representing this Meson identity.
+     */
+    public UUID toUuid() {
+        return MesonUuid.toUuid(this);
+    }
+
     /**
      * Create a compact-format String representation of this Meson identity.
      *
@@ -461,10 +640,19 @@ public class Meson implements Serializable, Comparable<Meson> {
     /**
      * Get an byte array representation of generator id of this {@link Meson} instance.
      *
-     * @return generator id value as byte array
+     * @return generator id value as byte array, a copy
      */
     public byte[] getGeneratorId() {
-        return generatorId;
+        return generatorId.clone();
+    }
+
+    /**
+     * Get generator id of this {@link Meson} instance as big-endian integer.
+     *
+     * @return generator id value as integer
+     */
+    public int getGeneratorIdAsInt() {
+        return generatorIdValue;
     }
 
     /**
@@ -476,27 +664,45 @@ public class Meson implements Serializable, Comparable<Meson> {
         return bytesToHex(generatorId);
     }
 
+    /**
+     * Get the most significant 64 bits of this Meson identity: 48 bit time followed by upper 16 bits of generator id.
+     * <p>
+     * Together with {@link #getLeastSignificantBits()}, unsigned comparison of the two values gives the same order as
+     * {@link #compareTo(Meson)}.
+     *
+     * @return most significant 64 bits of this Meson identity.
+     */
+    public long getMostSignificantBits() {
+        return mostSignificantBits(time, generatorIdValue);
+    }
+
+    /**
+     * Get the least significant 64 bits of this Meson identity: 16 zero bits, followed by lower 16 bits of generator
+     * id and the 32 bit sequence.
+     *
+     * @return least significant 64 bits of this Meson identity.
+     */
+    public long getLeastSignificantBits() {
+        return leastSignificantBits(generatorIdValue, sequence);
+    }
+
     @Override
     public int compareTo(final Meson other) {
         if (null == other) {
             throw new NullPointerException();
         }
 
-        final byte[] selfBytes = toByteArray();
-        final byte[] otherBytes = other.toByteArray();
-
-        for (int i = 0; i < BUFFER_SIZE_BYTES; i++) {
-            if (selfBytes[i] != otherBytes[i]) {
-                return ((selfBytes[i] & 0xff) < (otherBytes[i] & 0xff)) ? -1 : 1;
-            }
-        }
-
-        return 0;
+        return Integer.signum(compareBits(
+                getMostSignificantBits(),
+                getLeastSignificantBits(),
+                other.getMostSignificantBits(),
+                other.getLeastSignificantBits()
+        ));
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(time, sequence, Arrays.hashCode(generatorId));
+        return MesonHashing.hash32(getMostSignificantBits(), getLeastSignificantBits());
     }
 
     @Override
@@ -513,7 +719,7 @@ public class Meson implements Serializable, Comparable<Meson> {
 
         return time == meson.time &&
                 sequence == meson.sequence &&
-                Arrays.equals(generatorId, meson.generatorId);
+                generatorIdValue == meson.generatorIdValue;
     }
 
     @Override
@@ -521,17 +727,35 @@ public class Meson implements Serializable, Comparable<Meson> {
         return "Meson{" + toHexString() + '}';
     }
 
+    /**
+     * Validate deserialized fields, and replace generator ID with its canonical array.
+     */
+    private Object readResolve() throws ObjectStreamException {
+        if (null == generatorId) {
+            throw new InvalidObjectException("Generator ID missing");
+        }
+
+        try {
+            return new Meson(time, generatorId, sequence);
+        } catch (final IllegalArgumentException e) {
+            throw new InvalidObjectException(e.getMessage());
+        }
+    }
+
     private void validate() {
         if (time > MAX_TIME || time < MIN_TIME) {
+            MesonMetrics.recordValidationFailure();
             throw new IllegalArgumentException(String.format(
                     "Time must be between MIN_TIME %d and MAX_TIME %d", MIN_TIME, MAX_TIME));
         }
 
         if (GENERATOR_ID_SIZE_BYTES != this.generatorId.length) {
+            MesonMetrics.recordValidationFailure();
             throw new IllegalArgumentException(String.format("Generator ID must be %d bytes", GENERATOR_ID_SIZE_BYTES));
         }
 
         if (0 > sequence) {
+            MesonMetrics.recordValidationFailure();
             throw new IllegalArgumentException("Sequence must start from positive zero");
         }
     }
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+/**
+ * Block of sequence numbers reserved from the shared counter, handed out as identities one at a time. The clock is
+ * read per identity, so identities from a block held by a slow consumer still carry the time they were taken at.
+ * <p>
+ * Not thread safe, every consumer holds its own block.
+ */
+final class MesonBlock {
+    /**
+     * Largest number of sequence numbers reserved at once.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    private int next;
+    private int limit;
+
+    /**
+     * Take next identity, reserving a new block if this one is used up.
+     *
+     * @param wanted number of identities the consumer expects to take, bounds the size of a new block.
+     * @return new Meson identity.
+     */
+    Meson next(final long wanted) {
+        if (next == limit) {
+            final int size = (int) Math.max(1, Math.min(BLOCK_SIZE, wanted));
+            next = MesonSequence.reserve(size);
+            limit = next + size;
+
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordBatch(size);
+            }
+        }
+
+        return Meson.reserved(next++, MesonGeneratorIdentity.get());
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+
+import static com.rfksystems.meson.MesonUtils.compareBits;
+import static com.rfksystems.meson.MesonUtils.generatorIdFromBits;
+import static com.rfksystems.meson.MesonUtils.sequenceFromBits;
+import static com.rfksystems.meson.MesonUtils.timeFromBits;
+
+/**
+ * Growable off-heap list of Meson identities.
+ * <p>
+ * Identities are held in direct memory in their 128 bit form (see {@link Meson#getMostSignificantBits()} and
+ * {@link Meson#getLeastSignificantBits()}), 16 bytes each, so millions of identities cost no heap objects and no
+ * garbage collection work. Not thread safe.
+ */
+public final class MesonBuffer {
+    /**
+     * Largest number of identities a buffer can hold.
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE / 16;
+
+    private static final int SLOT_BYTES = 16;
+
+    private ByteBuffer buffer;
+    private int size;
+
+    /**
+     * Create an empty buffer with room for 1024 identities.
+     */
+    public MesonBuffer() {
+        this(1024);
+    }
+
+    /**
+     * Create an empty buffer.
+     *
+     * @param initialCapacity number of identities to make room for.
+     */
+    public MesonBuffer(final int initialCapacity) {
+        if (0 > initialCapacity || MAX_CAPACITY < initialCapacity) {
+            throw new IllegalArgumentException(String.format("Capacity must be between 0 and %d", MAX_CAPACITY));
+        }
+
+        this.buffer = ByteBuffer.allocateDirect(Math.max(1, initialCapacity) * SLOT_BYTES);
+    }
+
+    /**
+     * Append an identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     */
+    public void add(final long mostSignificantBits, final long leastSignificantBits) {
+        ensureCapacity(size + 1);
+        buffer.putLong(size * SLOT_BYTES, mostSignificantBits);
+        buffer.putLong(size * SLOT_BYTES + 8, leastSignificantBits);
+        size++;
+    }
+
+    /**
+     * Append an identity.
+     *
+     * @param meson identity to append.
+     */
+    public void add(final Meson meson) {
+        add(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Append all identities of another buffer.
+     *
+     * @param other buffer to append identities of.
+     */
+    public void addAll(final MesonBuffer other) {
+        ensureCapacity(size + other.size);
+
+        final ByteBuffer source = other.buffer.duplicate();
+        source.limit(other.size * SLOT_BYTES).position(0);
+
+        final ByteBuffer target = buffer.duplicate();
+        target.position(size * SLOT_BYTES);
+        target.put(source);
+
+        size += other.size;
+    }
+
+    /**
+     * Replace identity at given index.
+     *
+     * @param index                index of the identity.
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     */
+    public void set(final int index, final long mostSignificantBits, final long leastSignificantBits) {
+        checkIndex(index);
+        buffer.putLong(index * SLOT_BYTES, mostSignificantBits);
+        buffer.putLong(index * SLOT_BYTES + 8, leastSignificantBits);
+    }
+
+    /**
+     * Get number of identities in the buffer.
+     *
+     * @return number of identities.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the buffer holds no identities.
+     *
+     * @return whether or not the buffer is empty.
+     */
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Remove all identities, keeping allocated memory.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Get most significant bits of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return most significant bits.
+     */
+    public long getMostSignificantBits(final int index) {
+        checkIndex(index);
+        return buffer.getLong(index * SLOT_BYTES);
+    }
+
+    /**
+     * Get least significant bits of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return least significant bits.
+     */
+    public long getLeastSignificantBits(final int index) {
+        checkIndex(index);
+        return buffer.getLong(index * SLOT_BYTES + 8);
+    }
+
+    /**
+     * Get time of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return UNIX timestamp in milliseconds.
+     */
+    public long getTime(final int index) {
+        return timeFromBits(getMostSignificantBits(index));
+    }
+
+    /**
+     * Get generator ID of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return generator ID as Big-Endian integer.
+     */
+    public int getGeneratorId(final int index) {
+        return generatorIdFromBits(getMostSignificantBits(index), getLeastSignificantBits(index));
+    }
+
+    /**
+     * Get sequence of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return sequence number.
+     */
+    public int getSequence(final int index) {
+        return sequenceFromBits(getLeastSignificantBits(index));
+    }
+
+    /**
+     * Create a {@link Meson} object of identity at given index.
+     *
+     * @param index index of the identity.
+     * @return Meson identity.
+     */
+    public Meson get(final int index) {
+        return new Meson(getMostSignificantBits(index), getLeastSignificantBits(index));
+    }
+
+    /**
+     * Create a cursor over identities of this buffer, from the first one. Identities added while the cursor is in use
+     * are visited too.
+     *
+     * @return cursor over the buffer.
+     */
+    public MesonCursor cursor() {
+        return new MesonCursor() {
+            private int index = -1;
+
+            @Override
+            public boolean advance() {
+                if (index + 1 >= size) {
+                    return false;
+                }
+
+                index++;
+                return true;
+            }
+
+            @Override
+            public long getMostSignificantBits() {
+                return MesonBuffer.this.getMostSignificantBits(index);
+            }
+
+            @Override
+            public long getLeastSignificantBits() {
+                return MesonBuffer.this.getLeastSignificantBits(index);
+            }
+        };
+    }
+
+    /**
+     * Compare identities at given indexes.
+     *
+     * @param index      index of the first identity.
+     * @param otherIndex index of the second identity.
+     * @return negative, zero or positive if first identity sorts before, same as or after the second one.
+     */
+    public int compare(final int index, final int otherIndex) {
+        return compareBits(
+                getMostSignificantBits(index),
+                getLeastSignificantBits(index),
+                getMostSignificantBits(otherIndex),
+                getLeastSignificantBits(otherIndex)
+        );
+    }
+
+    /**
+     * Check if identities are in ascending order.
+     *
+     * @return whether or not the buffer is sorted.
+     */
+    public boolean isSorted() {
+        for (int i = 1; i < size; i++) {
+            if (0 < compare(i - 1, i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Sort identities in ascending order, in place. Already sorted buffers are detected in a single pass, the rest
+     * is heap sorted without allocating.
+     */
+    public void sort() {
+        if (isSorted()) {
+            return;
+        }
+
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i, size);
+        }
+
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+    }
+
+    private void siftDown(int index, final int end) {
+        while (true) {
+            int child = 2 * index + 1;
+
+            if (child >= end) {
+                return;
+            }
+
+            if (child + 1 < end && 0 < compare(child + 1, child)) {
+                child++;
+            }
+
+            if (0 <= compare(index, child)) {
+                return;
+            }
+
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private void swap(final int index, final int otherIndex) {
+        final long msb = buffer.getLong(index * SLOT_BYTES);
+        final long lsb = buffer.getLong(index * SLOT_BYTES + 8);
+        buffer.putLong(index * SLOT_BYTES, buffer.getLong(otherIndex * SLOT_BYTES));
+        buffer.putLong(index * SLOT_BYTES + 8, buffer.getLong(otherIndex * SLOT_BYTES + 8));
+        buffer.putLong(otherIndex * SLOT_BYTES, msb);
+        buffer.putLong(otherIndex * SLOT_BYTES + 8, lsb);
+    }
+
+    /**
+     * Grow or shrink to given size, leaving identities at added indexes undefined until {@link #set} is called for
+     * them. Distinct indexes may then be set from several threads.
+     */
+    void resize(final int newSize) {
+        ensureCapacity(newSize);
+        size = newSize;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity <= buffer.capacity() / SLOT_BYTES) {
+            return;
+        }
+
+        if (0 > capacity || MAX_CAPACITY < capacity) {
+            throw new IllegalStateException(String.format("Buffer can not hold more than %d identities", MAX_CAPACITY));
+        }
+
+        final int grown = (int) Math.min(MAX_CAPACITY, Math.max(capacity, buffer.capacity() / SLOT_BYTES * 2L));
+        final ByteBuffer source = buffer.duplicate();
+        source.limit(size * SLOT_BYTES).position(0);
+
+        final ByteBuffer target = ByteBuffer.allocateDirect(grown * SLOT_BYTES);
+        target.put(source);
+        buffer = target;
+    }
+
+    private void checkIndex(final int index) {
+        if (0 > index || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MesonBuffer{size=" + size + '}';
+    }
+}
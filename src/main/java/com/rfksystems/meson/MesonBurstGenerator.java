@@ -0,0 +1,365 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+
+/**
+ * Generator of strictly ordered Meson identities with a fixed sequence space per millisecond, which borrows future
+ * milliseconds when a millisecond's space is used up, as Snowflake's "time borrowing" does.
+ * <p>
+ * Every identity is a tick: time in milliseconds times {@link #getSequencesPerMillisecond()} plus the sequence
+ * number, which starts at zero each millisecond. Ticks come from one counter that never falls behind the wall clock
+ * and never repeats, so identities are unique and ordered in call order without the sequence resets of
+ * {@link Meson#Meson()}. Under a burst, logical time runs ahead of the wall clock by at most
+ * {@link #getMaxDriftMillis()}; once that bound is reached callers wait for the clock to catch up, counted as stalls.
+ * When the burst passes, the wall clock overtakes logical time and identities are stamped with wall time again.
+ * <p>
+ * A wall clock set back, e.g. stepped by NTP, is not drift: while the clock is behind its latest reading, identities
+ * continue from the last tick however far back the clock went, and drift is measured against the latest reading
+ * plus the time elapsed since it was taken, by {@link System#nanoTime()}. The drift bound keeps applying, so a burst
+ * during a regression waits for the monotonic clock rather than for the wall clock to catch up. Such reservations
+ * are counted as clock regressions.
+ * <p>
+ * A generator ID must not be used by two generators at once, nor by a new generator within the drift bound of the
+ * previous one, as they would issue the same ticks; this includes {@link Meson#Meson()}, so generators are always
+ * created for an explicit generator ID rather than the one of this process. Sequence numbers stay below
+ * {@link #getSequencesPerMillisecond()}, which is at most {@link #MAX_SEQUENCES_PER_MILLISECOND} (2^15), so with a
+ * 16 bit generator ID identities always fit the 24 bit sequence of {@link MesonLayout#COMPACT}.
+ */
+public final class MesonBurstGenerator {
+    /**
+     * Default sequence space per millisecond.
+     */
+    public static final int DEFAULT_SEQUENCES_PER_MILLISECOND = 4096;
+
+    /**
+     * Largest sequence space per millisecond, keeping ticks of any valid time within a long.
+     */
+    public static final int MAX_SEQUENCES_PER_MILLISECOND = 1 << 15;
+
+    /**
+     * Default bound on logical time running ahead of the wall clock, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_DRIFT_MILLIS = 1000L;
+
+    private static final long STALL_PARK_NANOS = 100_000L;
+
+    private final int sequencesPerMillisecond;
+    private final long maxDriftMillis;
+    private final byte[] generatorId;
+    private final LongSupplier clock;
+    private final LongSupplier nanoClock;
+    private final AtomicLong ticks;
+    private final AtomicReference<Reading> latestClock;
+    private final AtomicLong largestDrift = new AtomicLong();
+    private final AtomicLong largestRegression = new AtomicLong();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder stalls = new LongAdder();
+    private final LongAdder regressions = new LongAdder();
+
+    /**
+     * Latest wall clock reading, with the monotonic clock at the time it was taken.
+     */
+    private static final class Reading {
+        private final long millis;
+        private final long nanos;
+
+        private Reading(final long millis, final long nanos) {
+            this.millis = millis;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Create a generator with default sequence space and drift bound.
+     *
+     * @param generatorId 4 byte generator ID, see {@link #MesonBurstGenerator(int, long, byte[])}.
+     */
+    public MesonBurstGenerator(final byte[] generatorId) {
+        this(DEFAULT_SEQUENCES_PER_MILLISECOND, DEFAULT_MAX_DRIFT_MILLIS, generatorId);
+    }
+
+    /**
+     * Create a generator for given generator ID. The generator ID must be this generator's alone: neither the one
+     * {@link Meson#Meson()} uses in this process, whose sequences would collide with ticks, nor one of another
+     * generator, so each instance needs an ID of its own, e.g. assigned by configuration or claimed with
+     * {@link MesonGeneratorLease} by a process that generates with this generator only.
+     *
+     * @param sequencesPerMillisecond sequence space per millisecond, between 1 and
+     *                                {@link #MAX_SEQUENCES_PER_MILLISECOND}.
+     * @param maxDriftMillis          bound on logical time running ahead of the wall clock, in milliseconds.
+     * @param generatorId             4 byte generator ID.
+     */
+    public MesonBurstGenerator(final int sequencesPerMillisecond, final long maxDriftMillis, final byte[] generatorId) {
+        this(sequencesPerMillisecond, maxDriftMillis, generatorId, System::currentTimeMillis, System::nanoTime);
+    }
+
+    MesonBurstGenerator(
+            final int sequencesPerMillisecond,
+            final long maxDriftMillis,
+            final byte[] generatorId,
+            final LongSupplier clock,
+            final LongSupplier nanoClock
+    ) {
+        if (1 > sequencesPerMillisecond || MAX_SEQUENCES_PER_MILLISECOND < sequencesPerMillisecond) {
+            throw new IllegalArgumentException(String.format(
+                    "Sequences per millisecond must be between 1 and %d", MAX_SEQUENCES_PER_MILLISECOND));
+        }
+
+        if (0 > maxDriftMillis) {
+            throw new IllegalArgumentException("Max drift must not be negative");
+        }
+
+        if (Meson.GENERATOR_ID_SIZE_BYTES != generatorId.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Generator ID must be %d bytes", Meson.GENERATOR_ID_SIZE_BYTES));
+        }
+
+        this.sequencesPerMillisecond = sequencesPerMillisecond;
+        this.maxDriftMillis = maxDriftMillis;
+        this.generatorId = MesonGeneratorIds.intern(generatorId, 0);
+        this.clock = clock;
+        this.nanoClock = nanoClock;
+
+        final long now = clock.getAsLong();
+        this.ticks = new AtomicLong(now * sequencesPerMillisecond - 1);
+        this.latestClock = new AtomicReference<>(new Reading(now, nanoClock.getAsLong()));
+    }
+
+    /**
+     * Create a new Meson identity, greater than all identities created by this generator before.
+     *
+     * @return new Meson identity.
+     */
+    public Meson next() {
+        final long tick = reserve(1);
+
+        if (MesonMetrics.enabled) {
+            MesonMetrics.recordGenerated();
+        }
+
+        return Meson.reserved(tick / sequencesPerMillisecond, (int) (tick % sequencesPerMillisecond), generatorId);
+    }
+
+    /**
+     * Create given number of Meson identities at once, reserving their ticks with a single update.
+     * Identities in the returned array are in ascending order.
+     *
+     * @param count number of identities, at most 65536 and at most the sequence space of the drift bound,
+     *              {@code sequencesPerMillisecond * (maxDriftMillis + 1)}.
+     * @return array of new Meson identities.
+     */
+    public Meson[] batch(final int count) {
+        if (0 > count || MesonSequence.MAX_RESERVATION < count
+                || (long) sequencesPerMillisecond * (maxDriftMillis + 1) < count) {
+            throw new IllegalArgumentException(String.format(
+                    "Count must be between 0 and %d, and fit the drift bound",
+                    MesonSequence.MAX_RESERVATION));
+        }
+
+        final Meson[] batch = new Meson[count];
+
+        if (0 == count) {
+            return batch;
+        }
+
+        final long first = reserve(count);
+
+        for (int i = 0; i < count; i++) {
+            final long tick = first + i;
+            batch[i] = Meson.reserved(
+                    tick / sequencesPerMillisecond, (int) (tick % sequencesPerMillisecond), generatorId);
+        }
+
+        if (MesonMetrics.enabled) {
+            MesonMetrics.recordBatch(count);
+        }
+
+        return batch;
+    }
+
+    private long reserve(final int count) {
+        while (true) {
+            final long now = clock.getAsLong();
+            final Reading latest = latestClock.get();
+
+            if (now > latest.millis) {
+                latestClock.compareAndSet(latest, new Reading(now, nanoClock.getAsLong()));
+            }
+
+            final long previous = ticks.get();
+            final long first = Math.max(previous + 1, now * sequencesPerMillisecond);
+            final long last = first + count - 1;
+            final boolean regressed = now < latest.millis;
+            final long wall = wallTime(now, latest);
+            final long drift = last / sequencesPerMillisecond - wall;
+
+            if (drift > maxDriftMillis) {
+                stalls.increment();
+                LockSupport.parkNanos(STALL_PARK_NANOS);
+                continue;
+            }
+
+            if (!ticks.compareAndSet(previous, last)) {
+                if (MesonMetrics.enabled) {
+                    MesonMetrics.recordContentionRetry();
+                }
+
+                continue;
+            }
+
+            if (regressed) {
+                regressions.increment();
+                recordLargest(largestRegression, latest.millis - now);
+            }
+
+            if (0 < drift) {
+                // Milliseconds ahead of the clock entered by this reservation
+                final long entered = last / sequencesPerMillisecond
+                        - Math.max(previous / sequencesPerMillisecond, wall);
+
+                if (0 < entered) {
+                    borrowed.add(entered);
+                }
+
+                recordLargest(largestDrift, drift);
+            }
+
+            return first;
+        }
+    }
+
+    /**
+     * Get wall clock time drift is measured against: the clock itself, or while it is behind its latest reading, the
+     * latest reading plus time elapsed since by the monotonic clock, as the wall clock tells nothing about it then.
+     */
+    private long wallTime(final long now, final Reading latest) {
+        if (now >= latest.millis) {
+            return now;
+        }
+
+        return latest.millis + Math.max(0L, (nanoClock.getAsLong() - latest.nanos) / 1_000_000L);
+    }
+
+    private static void recordLargest(final AtomicLong largest, final long value) {
+        long current = largest.get();
+
+        while (value > current && !largest.compareAndSet(current, value)) {
+            current = largest.get();
+        }
+    }
+
+    /**
+     * Get sequence space per millisecond.
+     *
+     * @return number of identities per millisecond before time is borrowed.
+     */
+    public int getSequencesPerMillisecond() {
+        return sequencesPerMillisecond;
+    }
+
+    /**
+     * Get bound on logical time running ahead of the wall clock.
+     *
+     * @return drift bound in milliseconds.
+     */
+    public long getMaxDriftMillis() {
+        return maxDriftMillis;
+    }
+
+    /**
+     * Get how far logical time of the last identity is ahead of the wall clock now, or of the latest clock reading
+     * plus the time elapsed since while the clock is behind it.
+     *
+     * @return drift in milliseconds, zero once converged.
+     */
+    public long getDrift() {
+        final long wall = wallTime(clock.getAsLong(), latestClock.get());
+        return Math.max(0L, ticks.get() / sequencesPerMillisecond - wall);
+    }
+
+    /**
+     * Get largest drift observed when an identity was created.
+     *
+     * @return drift in milliseconds.
+     */
+    public long getLargestDrift() {
+        return largestDrift.get();
+    }
+
+    /**
+     * Get number of milliseconds borrowed from the future.
+     *
+     * @return borrowed milliseconds.
+     */
+    public long getBorrowed() {
+        return borrowed.sum();
+    }
+
+    /**
+     * Get number of times a caller waited for the wall clock because the drift bound was reached.
+     *
+     * @return number of stalls.
+     */
+    public long getStalls() {
+        return stalls.sum();
+    }
+
+    /**
+     * Get number of reservations made while the wall clock was behind its latest reading, which measure drift with
+     * the monotonic clock.
+     *
+     * @return number of reservations during clock regressions.
+     */
+    public long getClockRegressions() {
+        return regressions.sum();
+    }
+
+    /**
+     * Get largest distance observed between the wall clock and its latest reading when it was set back.
+     *
+     * @return clock regression in milliseconds.
+     */
+    public long getLargestClockRegression() {
+        return largestRegression.get();
+    }
+
+    /**
+     * Expose drift metrics through a metrics registry.
+     *
+     * @param registry registry adapter to register the metrics with.
+     */
+    public void bindTo(final MesonMetricsRegistry registry) {
+        registry.gauge("meson.burst.drift", "Milliseconds logical time is ahead of the clock", this::getDrift);
+        registry.gauge("meson.burst.drift.largest", "Largest drift observed in milliseconds", this::getLargestDrift);
+        registry.counter("meson.burst.borrowed", "Milliseconds borrowed from the future", borrowed::sum);
+        registry.counter("meson.burst.stalls", "Waits for the clock at the drift bound", stalls::sum);
+        registry.counter("meson.burst.regressions", "Reservations while the clock was set back", regressions::sum);
+        registry.gauge("meson.burst.regression.largest", "Largest clock regression in milliseconds",
+                this::getLargestClockRegression);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MesonBurstGenerator{sequencesPerMillisecond=%d, maxDriftMillis=%d, drift=%d}",
+                sequencesPerMillisecond, maxDriftMillis, getDrift());
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+/**
+ * Forward only cursor over a sequence of Meson identities in their 128 bit form (see
+ * {@link Meson#getMostSignificantBits()} and {@link Meson#getLeastSignificantBits()}).
+ * <p>
+ * Unlike an {@link java.util.Iterator} of {@link Meson}, moving a cursor allocates nothing. A cursor starts before
+ * the first identity, {@link #advance()} has to be called before the current identity can be read.
+ */
+public interface MesonCursor {
+    /**
+     * Move to the next identity.
+     *
+     * @return whether or not there was a next identity.
+     */
+    boolean advance();
+
+    /**
+     * Get most significant bits of the current identity.
+     *
+     * @return most significant bits.
+     */
+    long getMostSignificantBits();
+
+    /**
+     * Get least significant bits of the current identity.
+     *
+     * @return least significant bits.
+     */
+    long getLeastSignificantBits();
+}
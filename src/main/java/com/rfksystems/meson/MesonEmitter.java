@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Demand driven emission of new identities to a single subscriber, following Reactive Streams rules: nothing is
+ * emitted beyond the demand requested, signals are serial, and requests made from within {@code onNext} do not
+ * recurse. Demand of a request is reserved from the shared counter as one block (up to {@link MesonBlock#BLOCK_SIZE}).
+ * <p>
+ * Backs the {@code java.util.concurrent.Flow} publisher of {@code MesonFlow}, with no dependency on Java 9 API.
+ */
+final class MesonEmitter {
+    private final Consumer<? super Meson> onNext;
+    private final Consumer<? super Throwable> onError;
+    private final Executor executor;
+    private final MesonBlock block = new MesonBlock();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+
+    /**
+     * @param onNext   receiver of identities.
+     * @param onError  receiver of the error signal.
+     * @param executor executor running emission, {@code Runnable::run} to emit on the requesting thread.
+     */
+    MesonEmitter(
+            final Consumer<? super Meson> onNext,
+            final Consumer<? super Throwable> onError,
+            final Executor executor
+    ) {
+        this.onNext = onNext;
+        this.onError = onError;
+        this.executor = executor;
+    }
+
+    /**
+     * Add demand, and emit up to it unless already emitting.
+     *
+     * @param count number of identities requested, non-positive requests are signalled as an error.
+     */
+    void request(final long count) {
+        if (0 >= count) {
+            error = new IllegalArgumentException(String.format("Requested %d, must be positive", count));
+        } else {
+            long current;
+            long next;
+
+            do {
+                current = demand.get();
+                next = current + count;
+
+                // Saturate, Long.MAX_VALUE is unbounded demand
+                if (0 > next) {
+                    next = Long.MAX_VALUE;
+                }
+            } while (!demand.compareAndSet(current, next));
+        }
+
+        if (0 == work.getAndIncrement()) {
+            executor.execute(this::drain);
+        }
+    }
+
+    /**
+     * Stop emitting. Identities already handed over stay handed over.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    private void drain() {
+        int missed = 1;
+
+        do {
+            final long requested = demand.get();
+            long emitted = 0;
+
+            while (true) {
+                if (cancelled) {
+                    return;
+                }
+
+                final Throwable failure = error;
+
+                if (null != failure) {
+                    cancelled = true;
+                    onError.accept(failure);
+                    return;
+                }
+
+                if (emitted == requested) {
+                    break;
+                }
+
+                try {
+                    onNext.accept(block.next(requested - emitted));
+                } catch (final RuntimeException | Error e) {
+                    // Subscriber broke the rules, stop talking to it
+                    cancelled = true;
+                    throw e;
+                }
+
+                emitted++;
+            }
+
+            if (Long.MAX_VALUE != requested) {
+                demand.addAndGet(-emitted);
+            }
+
+            missed = work.addAndGet(-missed);
+        } while (0 != missed);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of sequence counter seeds, drawn when the counter is first used and on every counter reset.
+ * <p>
+ * Seeds only spread sequence numbers of restarted processes, uniqueness rests on time and generator identity. The
+ * strategy is chosen with {@link #useFast()}, {@link #useSecure()} and {@link #useSeed(long)}, or with the
+ * {@link #PROPERTY} system property set to {@code fast}, {@code secure} or a decimal seed, any other value falls back
+ * to {@link Strategy#FAST} rather than failing class initialization:
+ * <ul>
+ * <li>{@link Strategy#FAST} (default) draws from {@link ThreadLocalRandom}, no allocation, no system calls;</li>
+ * <li>{@link Strategy#SECURE} draws from a single shared {@link SecureRandom}, preferring the non-blocking
+ * {@code NativePRNGNonBlocking}, created and seeded once;</li>
+ * <li>{@link Strategy#SEEDED} draws from a SplitMix style sequence started at a configured seed, for reproducible
+ * runs.</li>
+ * </ul>
+ * None of the strategies block after the source is set up, so seeding and reset latency is deterministic. Seeds are
+ * always between 0 and {@link Integer#MAX_VALUE}.
+ */
+public final class MesonEntropy {
+    /**
+     * System property holding the strategy to start with.
+     */
+    public static final String PROPERTY = "meson.entropy";
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static final AtomicLong SEEDED_STATE = new AtomicLong();
+
+    private static volatile Strategy strategy = configured();
+
+    /**
+     * Entropy strategy in use.
+     */
+    public enum Strategy {
+        /**
+         * {@link ThreadLocalRandom}.
+         */
+        FAST,
+
+        /**
+         * Shared non-blocking {@link SecureRandom}.
+         */
+        SECURE,
+
+        /**
+         * Sequence started at a configured seed.
+         */
+        SEEDED
+    }
+
+    /**
+     * Holder of shared secure source, initialized on first use.
+     */
+    private static final class Secure {
+        private static final SecureRandom RANDOM = create();
+
+        private static SecureRandom create() {
+            SecureRandom random;
+
+            try {
+                random = SecureRandom.getInstance("NativePRNGNonBlocking");
+            } catch (final NoSuchAlgorithmException e) {
+                random = new SecureRandom();
+            }
+
+            // Self-seed now rather than on first reset
+            random.nextInt();
+            return random;
+        }
+    }
+
+    private MesonEntropy() {
+    }
+
+    private static Strategy configured() {
+        final String configured = System.getProperty(PROPERTY);
+
+        if (null == configured || "fast".equals(configured)) {
+            return Strategy.FAST;
+        }
+
+        if ("secure".equals(configured)) {
+            return Strategy.SECURE;
+        }
+
+        try {
+            SEEDED_STATE.set(Long.parseLong(configured));
+        } catch (final NumberFormatException e) {
+            // Seeds only spread sequence numbers, not worth leaving MesonSequence uninitializable for the JVM
+            return Strategy.FAST;
+        }
+
+        return Strategy.SEEDED;
+    }
+
+    /**
+     * Draw seeds from {@link ThreadLocalRandom}.
+     */
+    public static void useFast() {
+        strategy = Strategy.FAST;
+    }
+
+    /**
+     * Draw seeds from the shared {@link SecureRandom}, setting it up now if not done yet.
+     */
+    public static void useSecure() {
+        Secure.RANDOM.nextInt();
+        strategy = Strategy.SECURE;
+    }
+
+    /**
+     * Draw seeds from a sequence started at given seed.
+     *
+     * @param seed seed of the sequence.
+     */
+    public static void useSeed(final long seed) {
+        SEEDED_STATE.set(seed);
+        strategy = Strategy.SEEDED;
+    }
+
+    /**
+     * Get entropy strategy in use.
+     *
+     * @return entropy strategy.
+     */
+    public static Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Draw a sequence counter seed.
+     *
+     * @return seed between 0 and {@link Integer#MAX_VALUE}.
+     */
+    static int nextSeed() {
+        final Strategy current = strategy;
+
+        if (Strategy.FAST == current) {
+            return ThreadLocalRandom.current().nextInt() & Integer.MAX_VALUE;
+        }
+
+        if (Strategy.SECURE == current) {
+            return Secure.RANDOM.nextInt() & Integer.MAX_VALUE;
+        }
+
+        return (int) (MesonHashing.fmix64(SEEDED_STATE.addAndGet(GOLDEN_GAMMA)) >>> 33);
+    }
+}
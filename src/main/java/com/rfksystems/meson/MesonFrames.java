@@ -0,0 +1,292 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectableChannel;
+
+import static com.rfksystems.meson.Meson.BUFFER_SIZE_BYTES;
+import static com.rfksystems.meson.MesonUtils.generatorIdFromBits;
+import static com.rfksystems.meson.MesonUtils.sequenceFromBits;
+
+/**
+ * Batched wire frames of Meson identities: a 4 byte big-endian count followed by that many identities in their
+ * 14 byte binary form ({@link Meson#toByteArray()}).
+ * <p>
+ * Frames are encoded straight from the 128 bit form into heap or direct buffers and decoded straight into a
+ * {@link MesonBuffer}, with no array per identity. Identities already stored back to back in binary form, e.g.
+ * written with {@link MesonLayout#STANDARD} or read from a file, are written to a {@link GatheringByteChannel}
+ * together with their frame headers in a single gathering write, without copying them. The decoder works on
+ * partial input, so it can sit behind any transport that delivers bytes in arbitrary pieces, such as a Netty
+ * {@code ByteToMessageDecoder} over {@code ByteBuf#nioBuffer()}.
+ * <p>
+ * Buffers must be big-endian, as they are by default; others are rejected. Channels must be in blocking mode, as
+ * writes complete before returning; non-blocking channels, such as those of a selector driven event loop, are
+ * rejected and must be given frames encoded into buffers instead.
+ */
+public final class MesonFrames {
+    /**
+     * Size of the frame header in bytes.
+     */
+    public static final int HEADER_SIZE_BYTES = 4;
+
+    /**
+     * Largest number of identities in a frame; longer batches are split into several frames.
+     */
+    public static final int MAX_IDS = 1 << 20;
+
+    private MesonFrames() {
+    }
+
+    /**
+     * Get size of a frame.
+     *
+     * @param count number of identities in the frame.
+     * @return size in bytes.
+     */
+    public static int sizeOf(final int count) {
+        checkCount(count);
+        return HEADER_SIZE_BYTES + count * BUFFER_SIZE_BYTES;
+    }
+
+    /**
+     * Encode identities as a frame at the position of a buffer, advancing it.
+     *
+     * @param target big-endian buffer with {@link #sizeOf(int)} bytes remaining.
+     * @param mesons identities, at most {@link #MAX_IDS}.
+     */
+    public static void write(final ByteBuffer target, final Meson[] mesons) {
+        checkOrder(target);
+        checkCount(mesons.length);
+        checkRemaining(target, mesons.length);
+        target.putInt(mesons.length);
+
+        for (final Meson meson : mesons) {
+            put(target, meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+        }
+    }
+
+    /**
+     * Encode a range of identities as a frame at the position of a buffer, advancing it.
+     *
+     * @param target big-endian buffer with {@link #sizeOf(int)} bytes remaining.
+     * @param ids    identities.
+     * @param from   index of the first identity, inclusive.
+     * @param to     index of the last identity, exclusive, at most {@link #MAX_IDS} after the first.
+     */
+    public static void write(final ByteBuffer target, final MesonBuffer ids, final int from, final int to) {
+        checkOrder(target);
+        checkRange(ids, from, to);
+        checkRemaining(target, to - from);
+        target.putInt(to - from);
+
+        for (int i = from; i < to; i++) {
+            put(target, ids.getMostSignificantBits(i), ids.getLeastSignificantBits(i));
+        }
+    }
+
+    /**
+     * Decode a frame at the position of a buffer into a Meson buffer, if the whole frame is there.
+     *
+     * @param source big-endian buffer holding the frame from its position.
+     * @param target buffer to append the identities to.
+     * @return number of identities decoded and the position advanced past the frame, or -1 if the frame is not
+     * complete yet, with the position left as is.
+     * @throws IllegalArgumentException if the buffer is not big-endian, or the frame header or an identity is not
+     *                                  valid. The position is left as is.
+     */
+    public static int read(final ByteBuffer source, final MesonBuffer target) {
+        checkOrder(source);
+
+        if (HEADER_SIZE_BYTES > source.remaining()) {
+            return -1;
+        }
+
+        final int start = source.position();
+        final int count = source.getInt(start);
+
+        if (0 > count || MAX_IDS < count) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException(String.format("Frame of %d identities exceeds %d", count, MAX_IDS));
+        }
+
+        if ((long) count * BUFFER_SIZE_BYTES > source.remaining() - HEADER_SIZE_BYTES) {
+            return -1;
+        }
+
+        final int first = start + HEADER_SIZE_BYTES;
+
+        for (int i = 0; i < count; i++) {
+            if (0 > source.getInt(first + i * BUFFER_SIZE_BYTES + 10)) {
+                MesonMetrics.recordParseFailure();
+                throw new IllegalArgumentException(String.format("Identity %d of frame has negative sequence", i));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            final int index = first + i * BUFFER_SIZE_BYTES;
+            target.add(source.getLong(index), source.getLong(index + 6) & 0xFFFFFFFFFFFFL);
+        }
+
+        source.position(first + count * BUFFER_SIZE_BYTES);
+        return count;
+    }
+
+    /**
+     * Write identities stored back to back in binary form as frames, one per buffer, with a single gathering write
+     * where the channel takes it all. Identities are not copied, buffer positions advance past written bytes.
+     *
+     * @param channel channel to write to, in blocking mode.
+     * @param batches big-endian buffers each holding identities between position and limit, at most
+     *                {@link #MAX_IDS} per buffer.
+     * @return number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    public static long write(final GatheringByteChannel channel, final ByteBuffer... batches) throws IOException {
+        checkBlocking(channel);
+
+        final ByteBuffer headers = ByteBuffer.allocate(batches.length * HEADER_SIZE_BYTES);
+        final ByteBuffer[] gathered = new ByteBuffer[batches.length * 2];
+
+        for (int i = 0; i < batches.length; i++) {
+            final int remaining = batches[i].remaining();
+
+            if (0 != remaining % BUFFER_SIZE_BYTES) {
+                throw new IllegalArgumentException(String.format(
+                        "Batch %d of %d bytes is not a whole number of identities", i, remaining));
+            }
+
+            checkCount(remaining / BUFFER_SIZE_BYTES);
+            headers.putInt(i * HEADER_SIZE_BYTES, remaining / BUFFER_SIZE_BYTES);
+
+            final ByteBuffer header = headers.duplicate();
+            header.limit((i + 1) * HEADER_SIZE_BYTES).position(i * HEADER_SIZE_BYTES);
+            gathered[2 * i] = header;
+            gathered[2 * i + 1] = batches[i];
+        }
+
+        return writeFully(channel, gathered);
+    }
+
+    /**
+     * Write identities as frames of up to {@link #MAX_IDS}, encoding them through a scratch buffer which is written
+     * together with the frame header with gathering writes, so batches of any size take no more memory than the
+     * scratch buffer.
+     *
+     * @param channel channel to write to, in blocking mode.
+     * @param ids     identities.
+     * @param scratch big-endian buffer to encode through, with room for at least one identity.
+     * @return number of bytes written.
+     * @throws IOException if writing fails.
+     */
+    public static long write(final GatheringByteChannel channel, final MesonBuffer ids, final ByteBuffer scratch)
+            throws IOException {
+        checkBlocking(channel);
+        checkOrder(scratch);
+
+        final int perChunk = scratch.capacity() / BUFFER_SIZE_BYTES;
+
+        if (0 == perChunk) {
+            throw new IllegalArgumentException("Scratch buffer must have room for an identity");
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE_BYTES);
+        final ByteBuffer[] gathered = {header, scratch};
+        long written = 0;
+        int next = 0;
+
+        do {
+            final int frameEnd = Math.min(ids.size(), next + MAX_IDS);
+            header.clear();
+            header.putInt(frameEnd - next).flip();
+
+            do {
+                final int chunkEnd = Math.min(frameEnd, next + perChunk);
+                scratch.clear();
+
+                for (int i = next; i < chunkEnd; i++) {
+                    put(scratch, ids.getMostSignificantBits(i), ids.getLeastSignificantBits(i));
+                }
+
+                scratch.flip();
+                written += writeFully(channel, gathered);
+                next = chunkEnd;
+            } while (next < frameEnd);
+        } while (next < ids.size());
+
+        return written;
+    }
+
+    private static long writeFully(final GatheringByteChannel channel, final ByteBuffer[] buffers) throws IOException {
+        long written = 0;
+        int first = 0;
+
+        while (first < buffers.length) {
+            if (!buffers[first].hasRemaining()) {
+                first++;
+                continue;
+            }
+
+            written += channel.write(buffers, first, buffers.length - first);
+        }
+
+        return written;
+    }
+
+    private static void put(final ByteBuffer target, final long mostSignificantBits, final long leastSignificantBits) {
+        target.putLong(mostSignificantBits);
+        target.putShort((short) (generatorIdFromBits(mostSignificantBits, leastSignificantBits)));
+        target.putInt(sequenceFromBits(leastSignificantBits));
+    }
+
+    private static void checkBlocking(final GatheringByteChannel channel) {
+        // Would spin on zero byte writes until the peer reads
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("Channel must be in blocking mode");
+        }
+    }
+
+    private static void checkOrder(final ByteBuffer buffer) {
+        if (ByteOrder.BIG_ENDIAN != buffer.order()) {
+            throw new IllegalArgumentException("Buffer must be big-endian");
+        }
+    }
+
+    private static void checkCount(final int count) {
+        if (0 > count || MAX_IDS < count) {
+            throw new IllegalArgumentException(String.format("Frame must hold between 0 and %d identities", MAX_IDS));
+        }
+    }
+
+    private static void checkRange(final MesonBuffer ids, final int from, final int to) {
+        if (0 > from || from > to || to > ids.size()) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Range %d to %d out of bounds for size %d", from, to, ids.size()));
+        }
+
+        checkCount(to - from);
+    }
+
+    private static void checkRemaining(final ByteBuffer target, final int count) {
+        if (sizeOf(count) > target.remaining()) {
+            throw new IllegalArgumentException(String.format(
+                    "Frame of %d bytes exceeds %d bytes remaining", sizeOf(count), target.remaining()));
+        }
+    }
+}
@@ -22,8 +22,6 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -34,8 +32,67 @@ import static com.rfksystems.meson.MesonUtils.intToBytes;
 import static com.rfksystems.meson.MesonUtils.longToBytes;
 import static java.lang.management.ManagementFactory.getRuntimeMXBean;
 
+/**
+ * Generator identity of this process.
+ * <p>
+ * Derivation reads {@code /proc}, enumerates network interfaces and may resolve the local host name, so it is
+ * deferred to the first identity generated, and skipped altogether when {@link #PROPERTY} is set. Nothing here runs
+ * in static initializers reachable at native image build time.
+ */
 class MesonGeneratorIdentity {
-    private final static byte[] IDENTITY = createMachineId();
+    /**
+     * System property holding generator ID as 8 hex characters, used instead of deriving one from the environment.
+     */
+    static final String PROPERTY = "meson.generatorId";
+
+    /**
+     * Generator identity in use. Derived one, unless replaced or released by a {@link MesonGeneratorLease}.
+     */
+    private static volatile byte[] identity;
+
+    /**
+     * Marker of an identity that must no longer be used, see {@link #release()}.
+     */
+    private static final byte[] RELEASED = new byte[0];
+
+    /**
+     * {@link System#nanoTime()} from which a leased identity must no longer be used, unless renewed by a heartbeat.
+     */
+    private static volatile long leasedUntil;
+
+    /**
+     * Whether or not the identity in use is leased, and bound by {@link #leasedUntil}.
+     */
+    private static volatile boolean leased;
+
+    /**
+     * Holder of derived identity, initialized on first access. An invalid {@link #PROPERTY} leaves the identity null,
+     * so that every generation attempt fails the same way, instead of failing class initialization once.
+     */
+    private static final class Derived {
+        private static final String CONFIGURED = System.getProperty(PROPERTY);
+        private static final byte[] ID = null == CONFIGURED ? createMachineId() : parseConfigured(CONFIGURED);
+    }
+
+    private static byte[] parseConfigured(final String configured) {
+        if (8 != configured.length()) {
+            return null;
+        }
+
+        int generatorId = 0;
+
+        for (int i = 0; i < 8; i++) {
+            final int digit = Character.digit(configured.charAt(i), 16);
+
+            if (0 > digit) {
+                return null;
+            }
+
+            generatorId = generatorId << 4 | digit;
+        }
+
+        return intToBytes(generatorId);
+    }
 
     private static byte[] createMachineId() {
         final CRC32 crc32 = new CRC32();
@@ -98,22 +155,29 @@ class MesonGeneratorIdentity {
             return new byte[0];
         }
 
-        final FileInputStream fileInputStream = new FileInputStream(file);
-        final FileChannel channel = fileInputStream.getChannel();
+        // Plain reads, procfs reports a size of zero, and mapping would pull in the channel machinery at startup
         final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[4096];
 
-        final int length = (int) channel.size();
-        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        try (final FileInputStream stream = new FileInputStream(file)) {
+            int read;
 
-        for (int p = 0; p < length; p++) {
-            final byte c = buffer.get(p);
-            crc.update(c);
+            while (-1 != (read = stream.read(buffer))) {
+                crc.update(buffer, 0, read);
+            }
         }
 
         return intToBytes((int) crc.getValue());
     }
 
     private static byte[] tryGetNetworkHostname() {
+        // Set by shells and container runtimes, spares a possibly slow name service lookup
+        final String hostname = System.getenv("HOSTNAME");
+
+        if (null != hostname && !hostname.isEmpty()) {
+            return hostname.getBytes(Charset.forName("UTF-8"));
+        }
+
         try {
             return InetAddress.getLocalHost().getHostName().getBytes(Charset.forName("UTF-8"));
         } catch (final UnknownHostException | NullPointerException e) {
@@ -122,6 +186,14 @@ class MesonGeneratorIdentity {
     }
 
     private static byte[] createProcessIdentifier() {
+        // Linux, without bringing up the management subsystem
+        try {
+            final File self = new File("/proc/self").getCanonicalFile();
+            return intToBytes(Integer.parseInt(self.getName()));
+        } catch (final IOException | NumberFormatException | SecurityException e) {
+            // Fall through
+        }
+
         try {
             final String processName = getRuntimeMXBean().getName();
 
@@ -136,6 +208,61 @@ class MesonGeneratorIdentity {
     }
 
     static byte[] get() {
-        return IDENTITY;
+        final byte[] current = identity;
+
+        if (null == current) {
+            return derived();
+        }
+
+        if (RELEASED == current || leased && 0 <= System.nanoTime() - leasedUntil) {
+            throw new IllegalStateException("Generator ID lease was released or lost, acquire a new lease");
+        }
+
+        return current;
+    }
+
+    /**
+     * Get identity configured with {@link #PROPERTY}, or derived from the environment.
+     *
+     * @throws IllegalStateException if {@link #PROPERTY} is set but does not hold a generator ID.
+     */
+    static byte[] derived() {
+        final byte[] derived = Derived.ID;
+
+        if (null == derived) {
+            throw new IllegalStateException(String.format(
+                    "System property %s must hold 8 hex characters, got %s", PROPERTY, Derived.CONFIGURED));
+        }
+
+        return derived;
+    }
+
+    /**
+     * Use a leased identity until given {@link System#nanoTime()}, see {@link #renew(long)}.
+     */
+    static void lease(final byte[] generatorId, final long until) {
+        leasedUntil = until;
+        leased = true;
+        identity = generatorId;
+    }
+
+    /**
+     * Extend use of the leased identity after a successful heartbeat.
+     */
+    static void renew(final long until) {
+        leasedUntil = until;
+    }
+
+    /**
+     * Stop generation until another identity is set, for a generator ID that may now be used by someone else.
+     */
+    static void release() {
+        identity = RELEASED;
+        leased = false;
+    }
+
+    static void reset() {
+        identity = null;
+        leased = false;
     }
 }
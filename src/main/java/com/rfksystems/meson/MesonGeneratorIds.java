@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.rfksystems.meson.MesonUtils.intFromBytes;
+import static com.rfksystems.meson.MesonUtils.intToBytes;
+
+/**
+ * Table of canonical generator ID arrays, so that decoded identities of the same generator share one array.
+ * <p>
+ * Open addressing with linear probing over a fixed number of slots, filled with compare-and-set and never cleared:
+ * readers take no locks, and an array once published is returned for its generator ID for the life of the process.
+ * When probing finds no room, a fresh array is returned, so a dataset with more distinct generators than
+ * {@link #CAPACITY} still decodes correctly, only without sharing for the overflow.
+ * <p>
+ * Canonical arrays are shared and must never be modified; {@link Meson#getGeneratorId()} hands out copies.
+ */
+final class MesonGeneratorIds {
+    /**
+     * Number of slots, distinct generator ID's that can be interned.
+     */
+    static final int CAPACITY = 1 << 14;
+
+    private static final int MAX_PROBES = 32;
+
+    private static final MesonGeneratorIds SHARED = new MesonGeneratorIds(CAPACITY);
+
+    private final AtomicReferenceArray<byte[]> table;
+    private final int mask;
+
+    /**
+     * @param capacity number of slots, power of two.
+     */
+    MesonGeneratorIds(final int capacity) {
+        this.table = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get canonical array of a generator ID from the process wide table.
+     *
+     * @param generatorId generator ID as big-endian integer.
+     * @return shared 4 byte array, not to be modified.
+     */
+    static byte[] intern(final int generatorId) {
+        return SHARED.get(generatorId);
+    }
+
+    /**
+     * Get canonical array of a generator ID given as bytes.
+     *
+     * @param bytes  array holding the generator ID.
+     * @param offset offset of the generator ID in the array.
+     * @return shared 4 byte array, not to be modified.
+     */
+    static byte[] intern(final byte[] bytes, final int offset) {
+        return intern(intFromBytes(bytes, offset));
+    }
+
+    /**
+     * Get canonical array of a generator ID from this table.
+     *
+     * @param generatorId generator ID as big-endian integer.
+     * @return shared 4 byte array, or a fresh one if the table has no room left around the slot of the ID.
+     */
+    byte[] get(final int generatorId) {
+        int slot = (int) MesonHashing.fmix64(generatorId) & mask;
+
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            byte[] existing = table.get(slot);
+
+            if (null == existing) {
+                final byte[] created = intToBytes(generatorId);
+
+                if (table.compareAndSet(slot, null, created)) {
+                    return created;
+                }
+
+                existing = table.get(slot);
+            }
+
+            if (generatorId == intFromBytes(existing, 0)) {
+                return existing;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        return intToBytes(generatorId);
+    }
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.rfksystems.meson.MesonUtils.bytesToHex;
+import static com.rfksystems.meson.MesonUtils.intFromBytes;
+import static com.rfksystems.meson.MesonUtils.intToBytes;
+import static java.lang.management.ManagementFactory.getRuntimeMXBean;
+
+/**
+ * Coordinated generator identity, claimed from a directory shared by all generators of a fleet.
+ * <p>
+ * Every claim is a file named after the hex generator ID, held under an exclusive file lock and refreshed with a
+ * heartbeat timestamp. The heartbeat covers file systems (such as some NFS setups) where locks of other hosts are
+ * not visible: a claim with a fresh heartbeat is never taken over, a claim with a heartbeat older than the stale
+ * threshold is reclaimed. Claiming starts from the derived (CRC32) generator ID and probes further candidates on
+ * collision; every collision seen on the way is reported by {@link #getCollisions()}. Where the file system does not
+ * support locks at all, claims rely on heartbeats alone. A claim is only taken once its nonce survived one heartbeat
+ * interval, so of two generators taking the same stale claim at once only the last writer keeps it.
+ * <p>
+ * While the lease is open, its generator ID is used for every Meson identity created in this process. Only one lease
+ * per process can be open. Once the claim is lost, or the lease is closed, creating identities with the process
+ * generator ID fails with {@link IllegalStateException} until a new lease is acquired, as the generator ID may be
+ * taken by another generator by then. {@link #release(boolean)} can restore the derived generator ID instead.
+ * <p>
+ * Generation also stops while the heartbeat is stalled, by a blocked write, a long GC pause or a starved heartbeat
+ * thread: once the last successful heartbeat is older than the stale threshold less one heartbeat interval, as
+ * measured by {@link System#nanoTime()}, creating identities fails with {@link IllegalStateException} until the next
+ * heartbeat renews the claim. Another generator tells a stale claim by comparing the heartbeat, written from the
+ * {@link System#currentTimeMillis()} of this host, with its own clock. Clock skew between hosts sharing the directory
+ * must stay well below the stale threshold, or a live claim may be taken over.
+ */
+public final class MesonGeneratorLease implements Closeable {
+    /**
+     * Default interval between heartbeats, in milliseconds.
+     */
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MILLIS = 5000L;
+
+    /**
+     * Default age of heartbeat after which claim is considered abandoned, in milliseconds.
+     */
+    public static final long DEFAULT_STALE_AFTER_MILLIS = 60000L;
+
+    /**
+     * Maximum number of candidate generator ID's probed before giving up.
+     */
+    public static final int MAX_ATTEMPTS = 4096;
+
+    private static final String CLAIM_SUFFIX = ".claim";
+
+    /**
+     * Odd constant used to step between candidates, visits every 32 bit value before repeating.
+     */
+    private static final int PROBE_STEP = 0x9E3779B9;
+
+    /**
+     * Whether or not a lease is open in this process.
+     */
+    private static final AtomicBoolean OPEN = new AtomicBoolean();
+
+    private final byte[] generatorId;
+    private final List<String> collisions;
+    private final File file;
+    private final RandomAccessFile claimFile;
+    /**
+     * Lock of the claim file, {@code null} where the file system does not support locks.
+     */
+    private final FileLock lock;
+    private final long nonce;
+    /**
+     * Time a heartbeat keeps the generator ID usable for, in nanoseconds.
+     */
+    private final long validForNanos;
+    private final ScheduledExecutorService heartbeat;
+    private volatile boolean valid = true;
+    private volatile boolean closed;
+
+    private MesonGeneratorLease(
+            final byte[] generatorId,
+            final List<String> collisions,
+            final File file,
+            final RandomAccessFile claimFile,
+            final FileLock lock,
+            final long nonce,
+            final long heartbeatIntervalMillis,
+            final long validForNanos
+    ) {
+        this.generatorId = generatorId;
+        this.collisions = Collections.unmodifiableList(collisions);
+        this.file = file;
+        this.claimFile = claimFile;
+        this.lock = lock;
+        this.nonce = nonce;
+        this.validForNanos = validForNanos;
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "meson-generator-lease-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.heartbeat.scheduleWithFixedDelay(
+                this::beat,
+                heartbeatIntervalMillis,
+                heartbeatIntervalMillis,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Claim a generator ID from given directory with default heartbeat interval and stale threshold.
+     *
+     * @param directory directory shared between generators, created if missing.
+     * @return open lease, its generator ID is installed as the current generator identity.
+     * @throws IOException           if directory is not usable or no generator ID could be claimed.
+     * @throws IllegalStateException if a lease is already open in this process.
+     */
+    public static MesonGeneratorLease acquire(final File directory) throws IOException {
+        return acquire(directory, DEFAULT_HEARTBEAT_INTERVAL_MILLIS, DEFAULT_STALE_AFTER_MILLIS);
+    }
+
+    /**
+     * Claim a generator ID from given directory. Takes at least one heartbeat interval, to verify the claim.
+     *
+     * @param directory               directory shared between generators, created if missing.
+     * @param heartbeatIntervalMillis interval between heartbeats, in milliseconds.
+     * @param staleAfterMillis        age of heartbeat after which claim of another generator is reclaimed, in
+     *                                milliseconds. Must be greater than heartbeat interval.
+     * @return open lease, its generator ID is installed as the current generator identity.
+     * @throws IOException           if directory is not usable or no generator ID could be claimed.
+     * @throws IllegalStateException if a lease is already open in this process.
+     */
+    public static MesonGeneratorLease acquire(
+            final File directory,
+            final long heartbeatIntervalMillis,
+            final long staleAfterMillis
+    ) throws IOException {
+        if (0 >= heartbeatIntervalMillis || staleAfterMillis <= heartbeatIntervalMillis) {
+            throw new IllegalArgumentException(String.format(
+                    "Stale threshold %d must be greater than heartbeat interval %d",
+                    staleAfterMillis,
+                    heartbeatIntervalMillis
+            ));
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create generator lease directory " + directory);
+        }
+
+        if (!OPEN.compareAndSet(false, true)) {
+            throw new IllegalStateException("A generator lease is already open in this process");
+        }
+
+        try {
+            return claim(directory, heartbeatIntervalMillis, staleAfterMillis);
+        } catch (final IOException | RuntimeException e) {
+            OPEN.set(false);
+            throw e;
+        }
+    }
+
+    private static MesonGeneratorLease claim(
+            final File directory,
+            final long heartbeatIntervalMillis,
+            final long staleAfterMillis
+    ) throws IOException {
+        final long nonce = new SecureRandom().nextLong();
+        final List<String> collisions = new ArrayList<>();
+        int candidate = intFromBytes(MesonGeneratorIdentity.derived(), 0);
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++, candidate += PROBE_STEP) {
+            final byte[] generatorId = intToBytes(candidate);
+            final File file = new File(directory, bytesToHex(generatorId) + CLAIM_SUFFIX);
+            final RandomAccessFile claimFile = new RandomAccessFile(file, "rw");
+            FileLock lock = null;
+            boolean claimed = false;
+
+            try {
+                try {
+                    lock = claimFile.getChannel().tryLock();
+
+                    if (null == lock) {
+                        collisions.add(bytesToHex(generatorId));
+                        continue;
+                    }
+                } catch (final OverlappingFileLockException e) {
+                    // Held by this very process
+                    collisions.add(bytesToHex(generatorId));
+                    continue;
+                } catch (final IOException e) {
+                    // Locks not supported, such as NFS without a lock manager, heartbeat alone protects the claim
+                }
+
+                final long heartbeat = readHeartbeat(claimFile);
+
+                if (0 != heartbeat && System.currentTimeMillis() - heartbeat < staleAfterMillis) {
+                    collisions.add(bytesToHex(generatorId));
+                    continue;
+                }
+
+                writeClaim(claimFile, System.currentTimeMillis(), nonce);
+
+                // Another generator that took the claim at the same time either overwrote ours by now, or sees ours
+                sleep(heartbeatIntervalMillis);
+
+                if (nonce != readNonce(claimFile)) {
+                    collisions.add(bytesToHex(generatorId));
+                    continue;
+                }
+
+                // Heartbeat of the verified claim starts the time the generator ID may be used for
+                final long validForNanos = TimeUnit.MILLISECONDS.toNanos(staleAfterMillis - heartbeatIntervalMillis);
+                final long written = System.nanoTime();
+                writeHeartbeat(claimFile);
+
+                final MesonGeneratorLease lease = new MesonGeneratorLease(
+                        generatorId,
+                        collisions,
+                        file,
+                        claimFile,
+                        lock,
+                        nonce,
+                        heartbeatIntervalMillis,
+                        validForNanos
+                );
+
+                MesonGeneratorIdentity.lease(generatorId, written + validForNanos);
+
+                claimed = true;
+                return lease;
+            } finally {
+                if (!claimed) {
+                    if (null != lock) {
+                        lock.release();
+                    }
+
+                    claimFile.close();
+                }
+            }
+        }
+
+        throw new IOException(String.format(
+                "Unable to claim generator ID in %s after %d attempts", directory, MAX_ATTEMPTS));
+    }
+
+    private static void sleep(final long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying generator ID claim");
+        }
+    }
+
+    private static long readNonce(final RandomAccessFile claimFile) throws IOException {
+        if (2 * Long.BYTES > claimFile.length()) {
+            return 0L;
+        }
+
+        claimFile.seek(Long.BYTES);
+        return claimFile.readLong();
+    }
+
+    private static long readHeartbeat(final RandomAccessFile claimFile) throws IOException {
+        if (Long.BYTES > claimFile.length()) {
+            return 0L;
+        }
+
+        claimFile.seek(0);
+        return claimFile.readLong();
+    }
+
+    private static void writeHeartbeat(final RandomAccessFile claimFile) throws IOException {
+        claimFile.seek(0);
+        claimFile.writeLong(System.currentTimeMillis());
+        claimFile.getChannel().force(false);
+    }
+
+    private static void writeClaim(
+            final RandomAccessFile claimFile,
+            final long heartbeat,
+            final long nonce
+    ) throws IOException {
+        claimFile.seek(0);
+        claimFile.writeLong(heartbeat);
+        claimFile.writeLong(nonce);
+        claimFile.writeUTF(getRuntimeMXBean().getName());
+        claimFile.setLength(claimFile.getFilePointer());
+        claimFile.getChannel().force(false);
+    }
+
+    /**
+     * Get a byte array representation of claimed generator ID.
+     *
+     * @return claimed generator ID.
+     */
+    public byte[] getGeneratorId() {
+        return generatorId.clone();
+    }
+
+    /**
+     * Get a hex string representation of claimed generator ID.
+     *
+     * @return claimed generator ID as hex string.
+     */
+    public String getGeneratorIdHex() {
+        return bytesToHex(generatorId);
+    }
+
+    /**
+     * Check if derived generator ID of this process was already claimed by another generator.
+     *
+     * @return whether or not derived generator ID collides with a live claim.
+     */
+    public boolean isCollisionDetected() {
+        return !collisions.isEmpty()
+                && collisions.get(0).equals(bytesToHex(MesonGeneratorIdentity.derived()));
+    }
+
+    /**
+     * Get hex generator ID's found claimed by other generators while acquiring this lease, in probing order.
+     *
+     * @return list of colliding generator ID's.
+     */
+    public List<String> getCollisions() {
+        return collisions;
+    }
+
+    /**
+     * Check if the claim is still held. Claim is lost if heartbeat could not be written, or another generator
+     * reclaimed it after heartbeat stalled for longer than the stale threshold. Losing the claim stops generation
+     * with the process generator ID right away. A stalled heartbeat stops generation before the claim turns stale,
+     * but the claim is only found lost once the heartbeat runs again.
+     *
+     * @return whether or not the claim is still held.
+     */
+    public boolean isValid() {
+        return valid && !closed;
+    }
+
+    private synchronized void beat() {
+        if (closed || !valid) {
+            return;
+        }
+
+        try {
+            if (nonce == readNonce(claimFile)) {
+                final long written = System.nanoTime();
+                writeHeartbeat(claimFile);
+                MesonGeneratorIdentity.renew(written + validForNanos);
+                return;
+            }
+        } catch (final IOException e) {
+            // Heartbeat stalls, another generator reclaims the ID once it turns stale
+        }
+
+        valid = false;
+        MesonGeneratorIdentity.release();
+    }
+
+    /**
+     * Release the claim. Creating identities with the process generator ID fails until a new lease is acquired.
+     *
+     * @throws IOException if the claim file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        release(false);
+    }
+
+    /**
+     * Release the claim.
+     * <p>
+     * Claim file is kept with a zero heartbeat, so the generator ID can be reclaimed right away without racing
+     * against deletion of the file.
+     *
+     * @param restoreDerived whether or not to go back to the derived generator ID, which may be used by another
+     *                       generator when {@link #isCollisionDetected()}. Otherwise creating identities with the
+     *                       process generator ID fails until a new lease is acquired.
+     * @throws IOException if the claim file could not be written.
+     */
+    public synchronized void release(final boolean restoreDerived) throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        heartbeat.shutdownNow();
+
+        if (restoreDerived) {
+            MesonGeneratorIdentity.reset();
+        } else {
+            MesonGeneratorIdentity.release();
+        }
+
+        OPEN.set(false);
+
+        try {
+            if (valid && nonce == readNonce(claimFile)) {
+                writeClaim(claimFile, 0L, 0L);
+            }
+        } finally {
+            if (null != lock) {
+                lock.release();
+            }
+
+            claimFile.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MesonGeneratorLease{" + getGeneratorIdHex() + ", " + file + '}';
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import static com.rfksystems.meson.MesonUtils.timeFromBits;
+
+/**
+ * Hashing, sharding and partitioning functions over Meson identities.
+ * <p>
+ * All functions work on the 128 bit form of identities (see {@link Meson#getMostSignificantBits()} and
+ * {@link Meson#getLeastSignificantBits()}) and neither allocate nor look at hex strings. Hashes mix every bit of both
+ * halves through the MurmurHash3 finalizer, so identities that differ only in the last bits of the sequence or share
+ * the low entropy time prefix still spread evenly. Hashes are stable across processes and releases, so they are safe
+ * to route persisted data with.
+ */
+public final class MesonHashing {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private MesonHashing() {
+    }
+
+    /**
+     * Hash a Meson identity to 64 bits.
+     *
+     * @param meson Meson identity.
+     * @return 64 bit hash.
+     */
+    public static long hash64(final Meson meson) {
+        return hash64(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Hash a Meson identity to 64 bits.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return 64 bit hash.
+     */
+    public static long hash64(final long mostSignificantBits, final long leastSignificantBits) {
+        return fmix64(fmix64(mostSignificantBits + GOLDEN_GAMMA) ^ leastSignificantBits);
+    }
+
+    /**
+     * Hash a Meson identity to 32 bits.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return 32 bit hash.
+     */
+    public static int hash32(final long mostSignificantBits, final long leastSignificantBits) {
+        final long hash = hash64(mostSignificantBits, leastSignificantBits);
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    /**
+     * Map a Meson identity to one of given number of buckets with jump consistent hash. Growing from {@code n} to
+     * {@code n + 1} buckets moves only {@code 1 / (n + 1)} of identities, all of them into the new bucket.
+     *
+     * @param meson   Meson identity.
+     * @param buckets number of buckets, at least 1.
+     * @return bucket between 0 and {@code buckets - 1}.
+     */
+    public static int jumpConsistentHash(final Meson meson, final int buckets) {
+        return jumpConsistentHash(hash64(meson), buckets);
+    }
+
+    /**
+     * Map a 64 bit key, such as {@link #hash64(long, long)}, to one of given number of buckets with jump consistent
+     * hash of Lamping and Veach.
+     *
+     * @param key     key to map.
+     * @param buckets number of buckets, at least 1.
+     * @return bucket between 0 and {@code buckets - 1}.
+     */
+    public static int jumpConsistentHash(long key, final int buckets) {
+        if (1 > buckets) {
+            throw new IllegalArgumentException("Number of buckets must be positive");
+        }
+
+        long bucket = -1;
+        long jump = 0;
+
+        while (jump < buckets) {
+            bucket = jump;
+            key = key * 2862933555777941757L + 1;
+            jump = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+
+        return (int) bucket;
+    }
+
+    /**
+     * Pick the node with highest random weight for a Meson identity. Removing a node moves only the identities that
+     * were on it, and unlike {@link #jumpConsistentHash(Meson, int)} any node may be removed.
+     *
+     * @param meson Meson identity.
+     * @param nodes 64 bit identities of the nodes, such as hashes of their names, at least one.
+     * @return index of the chosen node in {@code nodes}.
+     */
+    public static int rendezvous(final Meson meson, final long[] nodes) {
+        return rendezvous(meson.getMostSignificantBits(), meson.getLeastSignificantBits(), nodes);
+    }
+
+    /**
+     * Pick the node with highest random weight for a Meson identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @param nodes                64 bit identities of the nodes, such as hashes of their names, at least one.
+     * @return index of the chosen node in {@code nodes}.
+     */
+    public static int rendezvous(final long mostSignificantBits, final long leastSignificantBits, final long[] nodes) {
+        if (0 == nodes.length) {
+            throw new IllegalArgumentException("At least one node is required");
+        }
+
+        final long hash = hash64(mostSignificantBits, leastSignificantBits);
+        int best = 0;
+        long bestWeight = Long.MIN_VALUE;
+
+        for (int i = 0; i < nodes.length; i++) {
+            final long weight = fmix64(hash ^ fmix64(nodes[i] + GOLDEN_GAMMA));
+
+            if (weight > bestWeight || (weight == bestWeight && nodes[i] < nodes[best])) {
+                best = i;
+                bestWeight = weight;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Get time bucket of a Meson identity, read straight from its time prefix.
+     *
+     * @param mostSignificantBits most significant bits of the identity.
+     * @param bucketMillis        width of a bucket in milliseconds, at least 1.
+     * @return number of the bucket since UNIX epoch.
+     */
+    public static long timeBucket(final long mostSignificantBits, final long bucketMillis) {
+        if (1 > bucketMillis) {
+            throw new IllegalArgumentException("Bucket width must be positive");
+        }
+
+        return timeFromBits(mostSignificantBits) / bucketMillis;
+    }
+
+    /**
+     * Map a Meson identity to one of given number of partitions by time, consecutive buckets of
+     * {@code bucketMillis} going to consecutive partitions, round robin. Identities created close in time stay
+     * together, which suits time range scans and retention by dropping partitions.
+     *
+     * @param meson        Meson identity.
+     * @param bucketMillis width of a bucket in milliseconds, at least 1.
+     * @param partitions   number of partitions, at least 1.
+     * @return partition between 0 and {@code partitions - 1}.
+     */
+    public static int timePartition(final Meson meson, final long bucketMillis, final int partitions) {
+        if (1 > partitions) {
+            throw new IllegalArgumentException("Number of partitions must be positive");
+        }
+
+        return (int) (timeBucket(meson.getMostSignificantBits(), bucketMillis) % partitions);
+    }
+
+    /**
+     * MurmurHash3 64 bit finalizer.
+     */
+    static long fmix64(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.rfksystems.meson.Meson.BUFFER_SIZE_BYTES;
+
+/**
+ * Bulk hex encoding and decoding of contiguous Meson identities.
+ * <p>
+ * Binary identities are {@link Meson#BUFFER_SIZE_BYTES} bytes each, back to back. Hex identities are ASCII, back to
+ * back, either compact ({@link #HEX_LENGTH} characters) or formatted with dashes ({@link #FORMAT_LENGTH}
+ * characters). Encoding emits lower case, decoding accepts either case.
+ * <p>
+ * Both directions work on eight characters at a time with SWAR (SIMD within a register) arithmetic on longs: four
+ * bytes are spread into eight nibbles and turned into ASCII digits without branches or lookup tables, and eight
+ * characters are validated and folded back into four bytes the same way.
+ */
+public final class MesonHex {
+    /**
+     * Length of compact hex representation of Meson identity.
+     */
+    public static final int HEX_LENGTH = 28;
+
+    /**
+     * Length of formatted hex representation of Meson identity.
+     */
+    public static final int FORMAT_LENGTH = 30;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long NIBBLES = 0x0F0F0F0F0F0F0F0FL;
+    private static final long INVALID = -1L;
+
+    private MesonHex() {
+    }
+
+    /**
+     * Get length of hex representation of single Meson identity.
+     *
+     * @param format whether or not the representation is formatted with dashes.
+     * @return number of characters in single hex representation.
+     */
+    public static int length(final boolean format) {
+        return format ? FORMAT_LENGTH : HEX_LENGTH;
+    }
+
+    /**
+     * Encode binary Meson identities as hex.
+     *
+     * @param source binary identities, length must be a multiple of {@link Meson#BUFFER_SIZE_BYTES}.
+     * @param format whether or not to format identities with dashes.
+     * @return ASCII hex identities, back to back.
+     */
+    public static byte[] encode(final byte[] source, final boolean format) {
+        if (0 != source.length % BUFFER_SIZE_BYTES) {
+            throw new IllegalArgumentException(String.format(
+                    "Source length must be a multiple of %d", BUFFER_SIZE_BYTES));
+        }
+
+        final int count = source.length / BUFFER_SIZE_BYTES;
+        final byte[] target = new byte[count * length(format)];
+        encode(source, 0, target, 0, count, format);
+        return target;
+    }
+
+    /**
+     * Encode binary Meson identities as hex.
+     *
+     * @param source       array holding binary identities.
+     * @param sourceOffset offset of the first identity in source.
+     * @param target       array to write ASCII hex identities to.
+     * @param targetOffset offset to write the first identity at.
+     * @param count        number of identities to encode.
+     * @param format       whether or not to format identities with dashes.
+     */
+    public static void encode(
+            final byte[] source,
+            final int sourceOffset,
+            final byte[] target,
+            final int targetOffset,
+            final int count,
+            final boolean format
+    ) {
+        checkBounds(source.length, sourceOffset, count, BUFFER_SIZE_BYTES);
+        checkBounds(target.length, targetOffset, count, length(format));
+
+        final ByteBuffer sourceBuffer = ByteBuffer.wrap(source);
+        final ByteBuffer targetBuffer = ByteBuffer.wrap(target);
+
+        for (int i = 0; i < count; i++) {
+            encode(
+                    sourceBuffer,
+                    sourceOffset + i * BUFFER_SIZE_BYTES,
+                    targetBuffer,
+                    targetOffset + i * length(format),
+                    format
+            );
+        }
+    }
+
+    /**
+     * Encode binary Meson identities from source buffer as hex into target buffer, advancing positions of both.
+     *
+     * @param source buffer holding binary identities from its position.
+     * @param target buffer to write ASCII hex identities to from its position.
+     * @param count  number of identities to encode.
+     * @param format whether or not to format identities with dashes.
+     */
+    public static void encode(final ByteBuffer source, final ByteBuffer target, final int count, final boolean format) {
+        final int width = length(format);
+        checkBounds(source.limit(), source.position(), count, BUFFER_SIZE_BYTES);
+        checkBounds(target.limit(), target.position(), count, width);
+
+        final ByteBuffer sourceBuffer = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final ByteBuffer targetBuffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        for (int i = 0; i < count; i++) {
+            encode(
+                    sourceBuffer,
+                    source.position() + i * BUFFER_SIZE_BYTES,
+                    targetBuffer,
+                    target.position() + i * width,
+                    format
+            );
+        }
+
+        source.position(source.position() + count * BUFFER_SIZE_BYTES);
+        target.position(target.position() + count * width);
+    }
+
+    /**
+     * Decode hex Meson identities into binary.
+     *
+     * @param source ASCII hex identities, back to back.
+     * @param format whether or not identities are formatted with dashes.
+     * @return binary identities, back to back.
+     * @throws IllegalArgumentException if source holds anything else than hex identities in given format.
+     */
+    public static byte[] decode(final byte[] source, final boolean format) {
+        if (0 != source.length % length(format)) {
+            throw new IllegalArgumentException(String.format(
+                    "Source length must be a multiple of %d", length(format)));
+        }
+
+        final int count = source.length / length(format);
+        final byte[] target = new byte[count * BUFFER_SIZE_BYTES];
+        decode(source, 0, target, 0, count, format);
+        return target;
+    }
+
+    /**
+     * Decode hex Meson identities into binary.
+     *
+     * @param source       array holding ASCII hex identities.
+     * @param sourceOffset offset of the first identity in source.
+     * @param target       array to write binary identities to.
+     * @param targetOffset offset to write the first identity at.
+     * @param count        number of identities to decode.
+     * @param format       whether or not identities are formatted with dashes.
+     * @throws IllegalArgumentException if source holds anything else than hex identities in given format.
+     */
+    public static void decode(
+            final byte[] source,
+            final int sourceOffset,
+            final byte[] target,
+            final int targetOffset,
+            final int count,
+            final boolean format
+    ) {
+        checkBounds(source.length, sourceOffset, count, length(format));
+        checkBounds(target.length, targetOffset, count, BUFFER_SIZE_BYTES);
+
+        final ByteBuffer sourceBuffer = ByteBuffer.wrap(source);
+        final ByteBuffer targetBuffer = ByteBuffer.wrap(target);
+
+        for (int i = 0; i < count; i++) {
+            if (!decode(
+                    sourceBuffer,
+                    sourceOffset + i * length(format),
+                    targetBuffer,
+                    targetOffset + i * BUFFER_SIZE_BYTES,
+                    format
+            )) {
+                throw invalid(i);
+            }
+        }
+    }
+
+    /**
+     * Decode hex Meson identities from source buffer into binary in target buffer, advancing positions of both.
+     *
+     * @param source buffer holding ASCII hex identities from its position.
+     * @param target buffer to write binary identities to from its position.
+     * @param count  number of identities to decode.
+     * @param format whether or not identities are formatted with dashes.
+     * @throws IllegalArgumentException if source holds anything else than hex identities in given format.
+     */
+    public static void decode(final ByteBuffer source, final ByteBuffer target, final int count, final boolean format) {
+        final int width = length(format);
+        checkBounds(source.limit(), source.position(), count, width);
+        checkBounds(target.limit(), target.position(), count, BUFFER_SIZE_BYTES);
+
+        final ByteBuffer sourceBuffer = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final ByteBuffer targetBuffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+
+        for (int i = 0; i < count; i++) {
+            if (!decode(
+                    sourceBuffer,
+                    source.position() + i * width,
+                    targetBuffer,
+                    target.position() + i * BUFFER_SIZE_BYTES,
+                    format
+            )) {
+                throw invalid(i);
+            }
+        }
+
+        source.position(source.position() + count * width);
+        target.position(target.position() + count * BUFFER_SIZE_BYTES);
+    }
+
+    /**
+     * Encode single binary identity at given index of big-endian source into given index of big-endian target.
+     */
+    static void encode(
+            final ByteBuffer source,
+            final int sourceIndex,
+            final ByteBuffer target,
+            final int targetIndex,
+            final boolean format
+    ) {
+        target.putLong(targetIndex, spread(source.getInt(sourceIndex)));
+        target.putInt(targetIndex + 8, (int) (spread(source.getShort(sourceIndex + 4) << 16) >>> 32));
+
+        if (format) {
+            target.put(targetIndex + 12, (byte) '-');
+            target.putLong(targetIndex + 13, spread(source.getInt(sourceIndex + 6)));
+            target.put(targetIndex + 21, (byte) '-');
+            target.putLong(targetIndex + 22, spread(source.getInt(sourceIndex + 10)));
+        } else {
+            target.putLong(targetIndex + 12, spread(source.getInt(sourceIndex + 6)));
+            target.putLong(targetIndex + 20, spread(source.getInt(sourceIndex + 10)));
+        }
+    }
+
+    /**
+     * Decode single hex identity at given index of big-endian source into given index of big-endian target.
+     *
+     * @return whether or not the source held a valid hex identity, target is left partially written if not.
+     */
+    static boolean decode(
+            final ByteBuffer source,
+            final int sourceIndex,
+            final ByteBuffer target,
+            final int targetIndex,
+            final boolean format
+    ) {
+        final long time = unspread(source.getLong(sourceIndex));
+        // Last four characters of time, padded with four '0' characters
+        final long timeTail = unspread((long) source.getInt(sourceIndex + 8) << 32 | 0x30303030L);
+
+        final long generatorId;
+        final long sequence;
+
+        if (format) {
+            if ('-' != source.get(sourceIndex + 12) || '-' != source.get(sourceIndex + 21)) {
+                return false;
+            }
+
+            generatorId = unspread(source.getLong(sourceIndex + 13));
+            sequence = unspread(source.getLong(sourceIndex + 22));
+        } else {
+            generatorId = unspread(source.getLong(sourceIndex + 12));
+            sequence = unspread(source.getLong(sourceIndex + 20));
+        }
+
+        if (INVALID == time || INVALID == timeTail || INVALID == generatorId || INVALID == sequence) {
+            return false;
+        }
+
+        target.putInt(targetIndex, (int) time);
+        target.putShort(targetIndex + 4, (short) (timeTail >>> 16));
+        target.putInt(targetIndex + 6, (int) generatorId);
+        target.putInt(targetIndex + 10, (int) sequence);
+        return true;
+    }
+
+    /**
+     * Spread four bytes into eight lower case ASCII hex digits, most significant first.
+     */
+    static long spread(final int value) {
+        long v = value & 0xFFFFFFFFL;
+        v = (v | v << 16) & 0x0000FFFF0000FFFFL;
+        v = (v | v << 8) & 0x00FF00FF00FF00FFL;
+        v = (v << 4 | v) & NIBBLES;
+
+        // '0' + nibble, plus the distance between '9' + 1 and 'a' for nibbles above 9
+        return v + 0x3030303030303030L + (((v + 0x0606060606060606L) >>> 4) & ONES) * ('a' - '9' - 1);
+    }
+
+    /**
+     * Validate eight ASCII hex digits and fold them into four bytes.
+     *
+     * @return folded value in lower 32 bits, or {@link #INVALID} if any of the characters is not a hex digit.
+     */
+    static long unspread(final long chars) {
+        if (0 != (chars & HIGH_BITS)) {
+            return INVALID;
+        }
+
+        // High bit of every byte is set where the byte is in range, bytes are below 0x80 so nothing carries over
+        final long lower = chars | 0x2020202020202020L;
+        final long digit = (chars + ONES * (0x80 - '0')) & ~(chars + ONES * (0x80 - '9' - 1));
+        final long alpha = (lower + ONES * (0x80 - 'a')) & ~(lower + ONES * (0x80 - 'f' - 1));
+
+        if (HIGH_BITS != ((digit | alpha) & HIGH_BITS)) {
+            return INVALID;
+        }
+
+        long v = (lower & NIBBLES) + ((alpha & HIGH_BITS) >>> 7) * 9;
+        v = (v | v >>> 4) & 0x00FF00FF00FF00FFL;
+        v = (v | v >>> 8) & 0x0000FFFF0000FFFFL;
+        return (v | v >>> 16) & 0xFFFFFFFFL;
+    }
+
+    private static void checkBounds(final int length, final int offset, final int count, final int width) {
+        if (0 > offset || 0 > count || (long) offset + (long) count * width > length) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "%d identities of %d bytes at offset %d exceed length %d", count, width, offset, length));
+        }
+    }
+
+    private static IllegalArgumentException invalid(final int index) {
+        MesonMetrics.recordParseFailure();
+        return new IllegalArgumentException("Invalid hex Meson identity at index " + index);
+    }
+}
@@ -0,0 +1,816 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.rfksystems.meson.MesonUtils.compareBits;
+
+/**
+ * Embedded, memory mapped index from Meson identities to non-negative {@code long} values, such as record offsets.
+ * <p>
+ * Keys are kept in ascending order in fixed size leaf pages of {@link #PAGE_SIZE} bytes, filled by appending keys
+ * in ascending order, as time-ordered inserts produce them. Each page stores the leading key bytes all its keys
+ * share once, and per entry only the remaining key bytes and the value. Generator ID bytes follow the 6 time bytes,
+ * so they are only shared when the whole page falls within one millisecond, as batches of one generator do: such
+ * entries take about 10 bytes instead of 22. Keys spread over milliseconds share only the upper time bytes, and
+ * entries take about 17 to 18 bytes.
+ * <p>
+ * The first key of every page is kept in memory, 16 bytes per page, so a lookup reads one page. {@link #flush()} and
+ * {@link #close()} write this directory of first keys after the last leaf page, so opening the index reads it back
+ * from a few contiguous pages rather than touching every leaf page; only an index that was not flushed after its
+ * last page was added rebuilds it from the leaf pages.
+ * <p>
+ * The file starts with a header page and grows in regions of 64 MiB, mapped as needed; the file is extended to
+ * whole regions, unused space at its end is sparse on most file systems. Appends and {@link #bulkLoad(File,
+ * MesonBuffer, long[])} write straight into mapped pages, {@link #flush()} forces them to disk. Not thread safe:
+ * lookups and scans may run concurrently with each other, but not with appends.
+ */
+public final class MesonIndex implements Closeable {
+    /**
+     * Size of a page in bytes.
+     */
+    public static final int PAGE_SIZE = 4096;
+
+    /**
+     * Value returned by lookups of absent keys.
+     */
+    public static final long NOT_FOUND = -1L;
+
+    private static final long MAGIC = 0x4D45534F4E494458L;
+    private static final int VERSION = 1;
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+    private static final int PAGES_PER_REGION = REGION_SIZE / PAGE_SIZE;
+
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_PAGE_SIZE = 12;
+    private static final int HEADER_PAGE_COUNT = 16;
+    private static final int HEADER_ENTRY_COUNT = 24;
+    private static final int HEADER_DIRECTORY_PAGE_COUNT = 32;
+
+    /**
+     * Directory entries of most and least significant bits of the first key of each page, 16 bytes each.
+     */
+    private static final int DIRECTORY_ENTRY_SIZE = 16;
+    private static final int DIRECTORY_ENTRIES_PER_PAGE = PAGE_SIZE / DIRECTORY_ENTRY_SIZE;
+
+    /**
+     * Page layout: entry count (2 bytes), prefix length (1 byte), padding (1 byte), first key (14 bytes), entries of
+     * key suffix and 8 byte value.
+     */
+    private static final int PAGE_PREFIX = 2;
+    private static final int PAGE_FIRST_KEY = 4;
+    private static final int PAGE_ENTRIES = 18;
+    private static final int KEY_SIZE_BYTES = Meson.BUFFER_SIZE_BYTES;
+    private static final int VALUE_SIZE_BYTES = 8;
+    private static final int MAX_ENTRIES = capacity(KEY_SIZE_BYTES);
+
+    /**
+     * Receives entries found by a scan.
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        /**
+         * Accept an entry.
+         *
+         * @param mostSignificantBits  most significant bits of the key.
+         * @param leastSignificantBits least significant bits of the key.
+         * @param value                value of the key.
+         */
+        void accept(long mostSignificantBits, long leastSignificantBits, long value);
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private final MesonBuffer directory = new MesonBuffer();
+    private final long[] scratchMsb = new long[MAX_ENTRIES];
+    private final long[] scratchLsb = new long[MAX_ENTRIES];
+    private final long[] scratchValues = new long[MAX_ENTRIES];
+    private int pageCount;
+    private int directoryPageCount;
+    private long entryCount;
+    private long lastMsb;
+    private long lastLsb;
+    private boolean hasLast;
+    private boolean closed;
+
+    private MesonIndex(final File path) throws IOException {
+        this.file = new RandomAccessFile(path, "rw");
+        this.channel = file.getChannel();
+
+        try {
+            if (0 == channel.size()) {
+                final MappedByteBuffer header = region(0);
+                header.putLong(0, MAGIC);
+                header.putInt(HEADER_VERSION, VERSION);
+                header.putInt(HEADER_PAGE_SIZE, PAGE_SIZE);
+                return;
+            }
+
+            if (PAGE_SIZE > channel.size()) {
+                throw new IOException("Not a Meson index: " + path);
+            }
+
+            final MappedByteBuffer header = region(0);
+
+            if (MAGIC != header.getLong(0)) {
+                throw new IOException("Not a Meson index: " + path);
+            }
+
+            if (VERSION != header.getInt(HEADER_VERSION) || PAGE_SIZE != header.getInt(HEADER_PAGE_SIZE)) {
+                throw new IOException(String.format("Unsupported Meson index version %d, page size %d: %s",
+                        header.getInt(HEADER_VERSION), header.getInt(HEADER_PAGE_SIZE), path));
+            }
+
+            entryCount = header.getLong(HEADER_ENTRY_COUNT);
+            final int pages = (int) header.getLong(HEADER_PAGE_COUNT);
+
+            if (pages == header.getLong(HEADER_DIRECTORY_PAGE_COUNT)) {
+                // Directory written after the leaf pages is up to date
+                for (int entry = 0; entry < pages; entry++) {
+                    final int page = pages + entry / DIRECTORY_ENTRIES_PER_PAGE;
+                    final int offset = pageBase(page) + entry % DIRECTORY_ENTRIES_PER_PAGE * DIRECTORY_ENTRY_SIZE;
+                    final MappedByteBuffer buffer = mapPage(page);
+                    directory.add(buffer.getLong(offset), buffer.getLong(offset + 8));
+                }
+
+                directoryPageCount = pages;
+            } else {
+                for (int page = 0; page < pages; page++) {
+                    final MappedByteBuffer buffer = mapPage(page);
+                    final int base = pageBase(page);
+                    directory.add(firstMsb(buffer, base), firstLsb(buffer, base));
+                }
+
+                directoryPageCount = -1;
+            }
+
+            pageCount = pages;
+
+            if (0 < pageCount) {
+                final int page = pageCount - 1;
+                final MappedByteBuffer buffer = pageRegion(page);
+                final int base = pageBase(page);
+                final int count = count(buffer, base);
+                final int prefix = prefix(buffer, base);
+                last(entryMsb(buffer, base, prefix, count - 1), entryLsb(buffer, base, prefix, count - 1));
+            }
+        } catch (final IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an index, creating an empty one if the file does not exist or is empty.
+     *
+     * @param path file of the index.
+     * @return open index.
+     * @throws IOException if the file can not be opened or is not an index.
+     */
+    public static MesonIndex open(final File path) throws IOException {
+        return new MesonIndex(path);
+    }
+
+    /**
+     * Create an index from keys in ascending order and their values, filling every page in one pass.
+     *
+     * @param path   file of the index, must not exist or be empty.
+     * @param keys   keys in strictly ascending order.
+     * @param values value of each key, non-negative.
+     * @return open index.
+     * @throws IOException if the file can not be opened.
+     */
+    public static MesonIndex bulkLoad(final File path, final MesonBuffer keys, final long[] values) throws IOException {
+        if (keys.size() != values.length) {
+            throw new IllegalArgumentException("Number of keys and values must match");
+        }
+
+        if (path.exists() && 0 != path.length()) {
+            throw new IllegalArgumentException("Index file must not exist or be empty: " + path);
+        }
+
+        final MesonIndex index = open(path);
+
+        try {
+            index.load(keys, values);
+        } catch (final IOException | RuntimeException e) {
+            try {
+                index.close();
+            } catch (final IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw e;
+        }
+
+        return index;
+    }
+
+    private void load(final MesonBuffer keys, final long[] values) throws IOException {
+        final int size = keys.size();
+        int from = 0;
+
+        while (from < size) {
+            final long firstMsb = keys.getMostSignificantBits(from);
+            final long firstLsb = keys.getLeastSignificantBits(from);
+            checkEntry(firstMsb, firstLsb, values[from]);
+
+            int prefix = KEY_SIZE_BYTES;
+            int to = from + 1;
+
+            // Take keys while they fit the page with the prefix they leave
+            while (to < size) {
+                final long msb = keys.getMostSignificantBits(to);
+                final long lsb = keys.getLeastSignificantBits(to);
+                final int shared = Math.min(prefix, commonPrefix(firstMsb, firstLsb, msb, lsb));
+
+                if (to - from + 1 > capacity(shared)) {
+                    break;
+                }
+
+                checkEntry(true, keys.getMostSignificantBits(to - 1), keys.getLeastSignificantBits(to - 1),
+                        msb, lsb, values[to]);
+                prefix = shared;
+                to++;
+            }
+
+            final int page = pageCount;
+            final MappedByteBuffer buffer = mapPage(page);
+            final int base = pageBase(page);
+            buffer.putLong(base + PAGE_FIRST_KEY, firstMsb);
+            buffer.putShort(base + PAGE_FIRST_KEY + 8, (short) (firstLsb >>> 32));
+            buffer.putInt(base + PAGE_FIRST_KEY + 10, (int) firstLsb);
+            buffer.put(base + PAGE_PREFIX, (byte) prefix);
+
+            for (int i = from; i < to; i++) {
+                putEntry(buffer, base, prefix, i - from,
+                        keys.getMostSignificantBits(i), keys.getLeastSignificantBits(i), values[i]);
+            }
+
+            buffer.putChar(base, (char) (to - from));
+            directory.add(firstMsb, firstLsb);
+            pageCount++;
+            entryCount += to - from;
+            last(keys.getMostSignificantBits(to - 1), keys.getLeastSignificantBits(to - 1));
+            from = to;
+        }
+
+        writeCounts();
+    }
+
+    /**
+     * Append an entry with a key greater than all keys in the index.
+     *
+     * @param meson key.
+     * @param value non-negative value.
+     * @throws IOException if the index can not grow.
+     */
+    public void append(final Meson meson, final long value) throws IOException {
+        append(meson.getMostSignificantBits(), meson.getLeastSignificantBits(), value);
+    }
+
+    /**
+     * Append an entry with a key greater than all keys in the index.
+     *
+     * @param mostSignificantBits  most significant bits of the key.
+     * @param leastSignificantBits least significant bits of the key.
+     * @param value                non-negative value.
+     * @throws IOException if the index can not grow.
+     */
+    public void append(final long mostSignificantBits, final long leastSignificantBits, final long value)
+            throws IOException {
+        checkOpen();
+        checkEntry(mostSignificantBits, leastSignificantBits, value);
+
+        if (0 < pageCount) {
+            final int page = pageCount - 1;
+            final MappedByteBuffer buffer = pageRegion(page);
+            final int base = pageBase(page);
+            final int count = count(buffer, base);
+            final int prefix = prefix(buffer, base);
+            final int shared = Math.min(prefix, commonPrefix(
+                    firstMsb(buffer, base), firstLsb(buffer, base), mostSignificantBits, leastSignificantBits));
+
+            if (count + 1 <= capacity(shared)) {
+                if (shared < prefix) {
+                    reencode(buffer, base, count, prefix, shared);
+                }
+
+                putEntry(buffer, base, shared, count, mostSignificantBits, leastSignificantBits, value);
+                buffer.putChar(base, (char) (count + 1));
+                appended(mostSignificantBits, leastSignificantBits);
+                return;
+            }
+        }
+
+        final int page = pageCount;
+        final MappedByteBuffer buffer = mapPage(page);
+        final int base = pageBase(page);
+        buffer.putLong(base + PAGE_FIRST_KEY, mostSignificantBits);
+        buffer.putShort(base + PAGE_FIRST_KEY + 8, (short) (leastSignificantBits >>> 32));
+        buffer.putInt(base + PAGE_FIRST_KEY + 10, (int) leastSignificantBits);
+        buffer.put(base + PAGE_PREFIX, (byte) KEY_SIZE_BYTES);
+        putEntry(buffer, base, KEY_SIZE_BYTES, 0, mostSignificantBits, leastSignificantBits, value);
+        buffer.putChar(base, (char) 1);
+        directory.add(mostSignificantBits, leastSignificantBits);
+        pageCount++;
+        appended(mostSignificantBits, leastSignificantBits);
+    }
+
+    private void appended(final long mostSignificantBits, final long leastSignificantBits) {
+        entryCount++;
+        writeCounts();
+        last(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Remember last key stored, only once its entry is written, so a failed write leaves the key free to retry.
+     */
+    private void last(final long mostSignificantBits, final long leastSignificantBits) {
+        hasLast = true;
+        lastMsb = mostSignificantBits;
+        lastLsb = leastSignificantBits;
+    }
+
+    private void checkEntry(final long mostSignificantBits, final long leastSignificantBits, final long value) {
+        checkEntry(hasLast, lastMsb, lastLsb, mostSignificantBits, leastSignificantBits, value);
+    }
+
+    private static void checkEntry(
+            final boolean hasPrevious,
+            final long previousMsb,
+            final long previousLsb,
+            final long mostSignificantBits,
+            final long leastSignificantBits,
+            final long value
+    ) {
+        if (0 != leastSignificantBits >>> 48) {
+            throw new IllegalArgumentException("Upper 16 bits of least significant bits must be zero");
+        }
+
+        if (0 > value) {
+            throw new IllegalArgumentException("Value must not be negative");
+        }
+
+        if (hasPrevious && 0 <= compareBits(previousMsb, previousLsb, mostSignificantBits, leastSignificantBits)) {
+            throw new IllegalArgumentException("Keys must be appended in strictly ascending order");
+        }
+    }
+
+    /**
+     * Look up value of a key.
+     *
+     * @param meson key.
+     * @return value, or {@link #NOT_FOUND} if the key is not in the index.
+     */
+    public long get(final Meson meson) {
+        return get(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Look up value of a key.
+     *
+     * @param mostSignificantBits  most significant bits of the key.
+     * @param leastSignificantBits least significant bits of the key.
+     * @return value, or {@link #NOT_FOUND} if the key is not in the index.
+     */
+    public long get(final long mostSignificantBits, final long leastSignificantBits) {
+        checkOpen();
+        final int page = floorPage(mostSignificantBits, leastSignificantBits);
+
+        if (0 > page) {
+            return NOT_FOUND;
+        }
+
+        final MappedByteBuffer buffer = pageRegion(page);
+        final int base = pageBase(page);
+        final int count = count(buffer, base);
+        final int prefix = prefix(buffer, base);
+        final int entry = lowerBound(buffer, base, prefix, count, mostSignificantBits, leastSignificantBits);
+
+        if (entry < count
+                && mostSignificantBits == entryMsb(buffer, base, prefix, entry)
+                && leastSignificantBits == entryLsb(buffer, base, prefix, entry)) {
+            return value(buffer, base, prefix, entry);
+        }
+
+        return NOT_FOUND;
+    }
+
+    /**
+     * Visit entries with key time in a range, in ascending order of keys.
+     *
+     * @param fromTime first UNIX timestamp in milliseconds, inclusive.
+     * @param toTime   last UNIX timestamp in milliseconds, exclusive.
+     * @param visitor  visitor to receive the entries.
+     * @return number of entries visited.
+     */
+    public long scan(final long fromTime, final long toTime, final Visitor visitor) {
+        checkOpen();
+
+        // Times past MAX_TIME would shift out of the key, no identity is that late
+        if (fromTime >= toTime || fromTime > Meson.MAX_TIME) {
+            return 0;
+        }
+
+        final long to = Math.min(toTime, Meson.MAX_TIME + 1);
+        final long fromMsb = Math.max(0, fromTime) << 16;
+        int page = Math.max(0, floorPage(fromMsb, 0));
+        long visited = 0;
+
+        for (; page < pageCount; page++) {
+            final MappedByteBuffer buffer = pageRegion(page);
+            final int base = pageBase(page);
+            final int count = count(buffer, base);
+            final int prefix = prefix(buffer, base);
+
+            for (int entry = lowerBound(buffer, base, prefix, count, fromMsb, 0); entry < count; entry++) {
+                final long msb = entryMsb(buffer, base, prefix, entry);
+
+                if (msb >>> 16 >= to) {
+                    return visited;
+                }
+
+                visitor.accept(msb, entryLsb(buffer, base, prefix, entry), value(buffer, base, prefix, entry));
+                visited++;
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * Get number of entries.
+     *
+     * @return number of entries.
+     */
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * Get number of leaf pages.
+     *
+     * @return number of pages.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Get size of header and leaf pages in use.
+     *
+     * @return size in bytes.
+     */
+    public long getSizeInBytes() {
+        return (pageCount + 1L) * PAGE_SIZE;
+    }
+
+    /**
+     * Write the directory of first keys after the last leaf page and force written pages to disk.
+     *
+     * @throws IOException if the index can not grow to hold the directory.
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        writeDirectory();
+
+        for (final MappedByteBuffer region : regions) {
+            region.force();
+        }
+    }
+
+    /**
+     * Flush and close the file. Mapped regions are released once garbage collected. The file is closed even if
+     * flushing fails.
+     *
+     * @throws IOException if the index can not be flushed or the file can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            flush();
+        } catch (final IOException | RuntimeException e) {
+            try {
+                release();
+            } catch (final IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw e;
+        }
+
+        release();
+    }
+
+    private void release() throws IOException {
+        closed = true;
+        regions.clear();
+        file.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MesonIndex{entries=%d, pages=%d}", entryCount, pageCount);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Index is closed");
+        }
+    }
+
+    /**
+     * Write first key of every page to the pages after the last leaf page, unless already written for all pages. The
+     * next page added overwrites them, and the header no longer matches until it is written again.
+     */
+    private void writeDirectory() throws IOException {
+        if (pageCount == directoryPageCount) {
+            return;
+        }
+
+        for (int entry = 0; entry < pageCount; entry++) {
+            final int page = pageCount + entry / DIRECTORY_ENTRIES_PER_PAGE;
+            final int offset = pageBase(page) + entry % DIRECTORY_ENTRIES_PER_PAGE * DIRECTORY_ENTRY_SIZE;
+            final MappedByteBuffer buffer = mapPage(page);
+            buffer.putLong(offset, directory.getMostSignificantBits(entry));
+            buffer.putLong(offset + 8, directory.getLeastSignificantBits(entry));
+        }
+
+        regions.get(0).putLong(HEADER_DIRECTORY_PAGE_COUNT, pageCount);
+        directoryPageCount = pageCount;
+    }
+
+    private void writeCounts() {
+        final MappedByteBuffer header = regions.get(0);
+        header.putLong(HEADER_PAGE_COUNT, pageCount);
+        header.putLong(HEADER_ENTRY_COUNT, entryCount);
+    }
+
+    /**
+     * Find last page with first key not greater than given key.
+     */
+    private int floorPage(final long mostSignificantBits, final long leastSignificantBits) {
+        int low = 0;
+        int high = pageCount - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int result = compareBits(
+                    directory.getMostSignificantBits(middle),
+                    directory.getLeastSignificantBits(middle),
+                    mostSignificantBits,
+                    leastSignificantBits
+            );
+
+            if (0 < result) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+
+        return high;
+    }
+
+    /**
+     * Find first entry of a page with key not less than given key.
+     */
+    private static int lowerBound(
+            final MappedByteBuffer buffer,
+            final int base,
+            final int prefix,
+            final int count,
+            final long mostSignificantBits,
+            final long leastSignificantBits
+    ) {
+        final long msbMask = msbMask(prefix);
+        final long lsbMask = lsbMask(prefix);
+        final int shared = compareBits(
+                mostSignificantBits & msbMask,
+                leastSignificantBits & lsbMask,
+                firstMsb(buffer, base) & msbMask,
+                firstLsb(buffer, base) & lsbMask
+        );
+
+        // Keys with another prefix sort before or after the whole page
+        if (0 != shared) {
+            return 0 > shared ? 0 : count;
+        }
+
+        final int suffix = KEY_SIZE_BYTES - prefix;
+        int low = 0;
+        int high = count;
+
+        if (8 < suffix) {
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                final int result = compareBits(
+                        entryMsb(buffer, base, prefix, middle),
+                        entryLsb(buffer, base, prefix, middle),
+                        mostSignificantBits,
+                        leastSignificantBits
+                );
+
+                if (0 > result) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            return low;
+        }
+
+        if (0 == suffix) {
+            return 0;
+        }
+
+        // Suffixes of up to 8 bytes compare as unsigned longs, read with a single load each
+        final int shift = 64 - 8 * suffix;
+        final long key = (6 >= suffix ? leastSignificantBits : mostSignificantBits << 48 | leastSignificantBits)
+                << shift >>> shift;
+        final int size = entrySize(prefix);
+        final int entries = base + PAGE_ENTRIES;
+
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final long entry = buffer.getLong(entries + middle * size) >>> shift;
+
+            if (0 > Long.compareUnsigned(entry, key)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    private void reencode(
+            final MappedByteBuffer buffer,
+            final int base,
+            final int count,
+            final int prefix,
+            final int shared
+    ) {
+        for (int i = 0; i < count; i++) {
+            scratchMsb[i] = entryMsb(buffer, base, prefix, i);
+            scratchLsb[i] = entryLsb(buffer, base, prefix, i);
+            scratchValues[i] = value(buffer, base, prefix, i);
+        }
+
+        for (int i = 0; i < count; i++) {
+            putEntry(buffer, base, shared, i, scratchMsb[i], scratchLsb[i], scratchValues[i]);
+        }
+
+        buffer.put(base + PAGE_PREFIX, (byte) shared);
+    }
+
+    private static void putEntry(
+            final MappedByteBuffer buffer,
+            final int base,
+            final int prefix,
+            final int entry,
+            final long mostSignificantBits,
+            final long leastSignificantBits,
+            final long value
+    ) {
+        final int offset = base + PAGE_ENTRIES + entry * entrySize(prefix);
+
+        for (int b = prefix; b < KEY_SIZE_BYTES; b++) {
+            buffer.put(offset + b - prefix, (byte) keyByte(mostSignificantBits, leastSignificantBits, b));
+        }
+
+        buffer.putLong(offset + KEY_SIZE_BYTES - prefix, value);
+    }
+
+    private static long entryMsb(final MappedByteBuffer buffer, final int base, final int prefix, final int entry) {
+        long msb = firstMsb(buffer, base) & msbMask(prefix);
+        final int offset = base + PAGE_ENTRIES + entry * entrySize(prefix) - prefix;
+
+        for (int b = prefix; b < 8; b++) {
+            msb |= (buffer.get(offset + b) & 0xFFL) << (56 - 8 * b);
+        }
+
+        return msb;
+    }
+
+    private static long entryLsb(final MappedByteBuffer buffer, final int base, final int prefix, final int entry) {
+        long lsb = firstLsb(buffer, base) & lsbMask(prefix);
+        final int offset = base + PAGE_ENTRIES + entry * entrySize(prefix) - prefix;
+
+        for (int b = Math.max(8, prefix); b < KEY_SIZE_BYTES; b++) {
+            lsb |= (buffer.get(offset + b) & 0xFFL) << (40 - 8 * (b - 8));
+        }
+
+        return lsb;
+    }
+
+    private static long value(final MappedByteBuffer buffer, final int base, final int prefix, final int entry) {
+        return buffer.getLong(base + PAGE_ENTRIES + entry * entrySize(prefix) + KEY_SIZE_BYTES - prefix);
+    }
+
+    private static int count(final MappedByteBuffer buffer, final int base) {
+        return buffer.getChar(base);
+    }
+
+    private static int prefix(final MappedByteBuffer buffer, final int base) {
+        return buffer.get(base + PAGE_PREFIX);
+    }
+
+    private static long firstMsb(final MappedByteBuffer buffer, final int base) {
+        return buffer.getLong(base + PAGE_FIRST_KEY);
+    }
+
+    private static long firstLsb(final MappedByteBuffer buffer, final int base) {
+        return (buffer.getShort(base + PAGE_FIRST_KEY + 8) & 0xFFFFL) << 32
+                | buffer.getInt(base + PAGE_FIRST_KEY + 10) & 0xFFFFFFFFL;
+    }
+
+    private static int keyByte(final long mostSignificantBits, final long leastSignificantBits, final int b) {
+        return (int) (8 > b ? mostSignificantBits >>> (56 - 8 * b) : leastSignificantBits >>> (40 - 8 * (b - 8)));
+    }
+
+    private static long msbMask(final int prefix) {
+        return 8 <= prefix ? -1L : 0 == prefix ? 0L : -1L << (64 - 8 * prefix);
+    }
+
+    private static long lsbMask(final int prefix) {
+        return 8 >= prefix ? 0L : -1L << (48 - 8 * (prefix - 8)) & 0xFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Number of leading key bytes two keys share.
+     */
+    private static int commonPrefix(final long msb, final long lsb, final long otherMsb, final long otherLsb) {
+        final long high = msb ^ otherMsb;
+
+        if (0 != high) {
+            return Long.numberOfLeadingZeros(high) / 8;
+        }
+
+        final long low = lsb ^ otherLsb;
+        return 0 == low ? KEY_SIZE_BYTES : 8 + (Long.numberOfLeadingZeros(low) - 16) / 8;
+    }
+
+    private static int entrySize(final int prefix) {
+        return KEY_SIZE_BYTES - prefix + VALUE_SIZE_BYTES;
+    }
+
+    private static int capacity(final int prefix) {
+        return (PAGE_SIZE - PAGE_ENTRIES) / entrySize(prefix);
+    }
+
+    /**
+     * Get mapped region holding a page, mapping it and extending the file as needed.
+     */
+    private MappedByteBuffer mapPage(final int page) throws IOException {
+        return region((page + 1) / PAGES_PER_REGION);
+    }
+
+    private MappedByteBuffer region(final int region) throws IOException {
+        while (regions.size() <= region) {
+            regions.add(channel.map(FileChannel.MapMode.READ_WRITE, (long) regions.size() * REGION_SIZE, REGION_SIZE));
+        }
+
+        return regions.get(region);
+    }
+
+    /**
+     * Get mapped region holding a page already in the index.
+     */
+    private MappedByteBuffer pageRegion(final int page) {
+        return regions.get((page + 1) / PAGES_PER_REGION);
+    }
+
+    private static int pageBase(final int page) {
+        return (page + 1) % PAGES_PER_REGION * PAGE_SIZE;
+    }
+}
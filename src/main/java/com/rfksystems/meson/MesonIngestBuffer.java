@@ -0,0 +1,425 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.rfksystems.meson.MesonUtils.compareBits;
+
+/**
+ * Bounded concurrent buffer of Meson identities, written by many threads and drained in sorted order, such as the
+ * ingest side of a write path that flushes periodically.
+ * <p>
+ * Writers are spread over stripes by thread ID and append the 128 bit form of identities to the block of primitive
+ * longs of their stripe, reserving a slot with a single atomic increment; no locks are taken and no objects are
+ * created. {@link #drainTo(MesonBuffer)} swaps every block for an empty one, waits for writes already in flight, and
+ * merges the ascending runs of the blocks with {@link MesonMerge}. Identities of a thread usually arrive in order, so
+ * runs are long and draining costs little more than copying; blocks with mostly short runs are sorted first. Equal
+ * identities are drained once, like a set.
+ * <p>
+ * The buffer holds at most {@link #getCapacity()} identities, split evenly over stripes. A writer whose stripe is
+ * full moves on to the others, and once all are full {@link #offer(long, long)} refuses identities and
+ * {@link #put(long, long)} waits for a drain. Drained blocks are kept for reuse, so memory stays at two blocks per
+ * stripe, 32 bytes per identity of capacity.
+ */
+public final class MesonIngestBuffer {
+    /**
+     * Default number of identities held before writers are refused.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * Largest number of stripes.
+     */
+    public static final int MAX_STRIPES = 1024;
+
+    private static final long PUT_PARK_NANOS = 100_000L;
+
+    /**
+     * Blocks with runs shorter than this on average are sorted, instead of merged run by run.
+     */
+    private static final int MIN_AVERAGE_RUN = 64;
+
+    private final int capacity;
+    private final int blockCapacity;
+    private final AtomicReferenceArray<Block> active;
+    private final Block[] spares;
+    private final LongAdder rejected = new LongAdder();
+    private final Object drainLock = new Object();
+
+    /**
+     * Create a buffer of {@link #DEFAULT_CAPACITY} identities with stripes for the available processors.
+     */
+    public MesonIngestBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a buffer with stripes for the available processors.
+     *
+     * @param capacity number of identities held before writers are refused.
+     */
+    public MesonIngestBuffer(final int capacity) {
+        this(capacity, defaultStripes());
+    }
+
+    /**
+     * Create a buffer.
+     *
+     * @param capacity number of identities held before writers are refused, at least the number of stripes.
+     * @param stripes  number of stripes, a power of two up to {@link #MAX_STRIPES}.
+     */
+    public MesonIngestBuffer(final int capacity, final int stripes) {
+        if (1 > stripes || MAX_STRIPES < stripes || 0 != (stripes & stripes - 1)) {
+            throw new IllegalArgumentException(String.format(
+                    "Stripes must be a power of two between 1 and %d, got %d", MAX_STRIPES, stripes));
+        }
+
+        if (stripes > capacity || MesonBuffer.MAX_CAPACITY < capacity) {
+            throw new IllegalArgumentException(String.format(
+                    "Capacity must be between %d and %d, got %d", stripes, MesonBuffer.MAX_CAPACITY, capacity));
+        }
+
+        this.blockCapacity = capacity / stripes;
+        this.capacity = blockCapacity * stripes;
+        this.active = new AtomicReferenceArray<>(stripes);
+        this.spares = new Block[stripes];
+
+        for (int i = 0; i < stripes; i++) {
+            active.set(i, new Block(blockCapacity));
+            spares[i] = new Block(blockCapacity);
+            spares[i].reset();
+        }
+    }
+
+    private static int defaultStripes() {
+        final int wanted = Runtime.getRuntime().availableProcessors() * 4;
+        return Math.min(MAX_STRIPES, Integer.highestOneBit(wanted - 1) << 1);
+    }
+
+    /**
+     * Add identity if there is room for it.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return whether or not the identity was added.
+     */
+    public boolean offer(final long mostSignificantBits, final long leastSignificantBits) {
+        final int stripes = active.length();
+        final int first = stripe(stripes);
+
+        for (int i = 0; i < stripes; i++) {
+            final int index = (first + i) & (stripes - 1);
+            Block block = active.get(index);
+
+            while (true) {
+                if (block.append(mostSignificantBits, leastSignificantBits)) {
+                    return true;
+                }
+
+                // Block full, or closed by a drain that swapped in an empty one
+                final Block current = active.get(index);
+
+                if (current == block) {
+                    break;
+                }
+
+                block = current;
+            }
+        }
+
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Add identity if there is room for it.
+     *
+     * @param meson Meson identity.
+     * @return whether or not the identity was added.
+     */
+    public boolean offer(final Meson meson) {
+        return offer(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Add identity, waiting for a drain while the buffer is full.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(final long mostSignificantBits, final long leastSignificantBits) throws InterruptedException {
+        while (!offer(mostSignificantBits, leastSignificantBits)) {
+            LockSupport.parkNanos(PUT_PARK_NANOS);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Add identity, waiting for a drain while the buffer is full.
+     *
+     * @param meson Meson identity.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void put(final Meson meson) throws InterruptedException {
+        put(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Remove all identities added so far and append them to a buffer in ascending order, each distinct identity once.
+     * Writers are not blocked and identities added while draining are left for the next drain. Drains run one at a
+     * time.
+     *
+     * @param target buffer to append identities to.
+     * @return number of identities appended.
+     */
+    public int drainTo(final MesonBuffer target) {
+        synchronized (drainLock) {
+            final int stripes = active.length();
+            final Block[] drained = new Block[stripes];
+            final List<MesonCursor> runs = new ArrayList<>();
+
+            for (int i = 0; i < stripes; i++) {
+                spares[i].open();
+                drained[i] = active.getAndSet(i, spares[i]);
+                final int count = drained[i].close();
+                addRuns(drained[i].slots, count, runs);
+            }
+
+            final int appended = runs.isEmpty() ? 0 : (int) new MesonMerge(runs, true).drainTo(target);
+
+            for (int i = 0; i < stripes; i++) {
+                drained[i].reset();
+                spares[i] = drained[i];
+            }
+
+            return appended;
+        }
+    }
+
+    /**
+     * Remove all identities added so far, see {@link #drainTo(MesonBuffer)}.
+     *
+     * @return identities in ascending order, each distinct identity once.
+     */
+    public MesonBuffer drain() {
+        final MesonBuffer buffer = new MesonBuffer(Math.max(1, size()));
+        drainTo(buffer);
+        return buffer;
+    }
+
+    /**
+     * Get number of identities held, including duplicates, as of the time of calling.
+     *
+     * @return number of identities.
+     */
+    public int size() {
+        int size = 0;
+
+        for (int i = 0; i < active.length(); i++) {
+            size += Math.min(blockCapacity, active.get(i).committed.get());
+        }
+
+        return size;
+    }
+
+    /**
+     * Get number of identities held before writers are refused, rounded down to a multiple of stripes.
+     *
+     * @return capacity.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get number of stripes.
+     *
+     * @return number of stripes.
+     */
+    public int getStripes() {
+        return active.length();
+    }
+
+    /**
+     * Get number of identities refused while the buffer was full, including attempts of waiting puts.
+     *
+     * @return number of refused identities.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Expose buffer metrics through a metrics registry.
+     *
+     * @param registry registry adapter to register the metrics with.
+     */
+    public void bindTo(final MesonMetricsRegistry registry) {
+        registry.gauge("meson.ingest.size", "Identities waiting to be drained", this::size);
+        registry.gauge("meson.ingest.capacity", "Identities held before writers are refused", this::getCapacity);
+        registry.counter("meson.ingest.rejected", "Identities refused while the buffer was full", rejected::sum);
+    }
+
+    /**
+     * Add cursors over the ascending runs of a block, or over a sorted copy if runs are short.
+     */
+    private static void addRuns(final long[] slots, final int count, final List<MesonCursor> runs) {
+        if (0 == count) {
+            return;
+        }
+
+        final List<MesonCursor> blockRuns = new ArrayList<>();
+        int start = 0;
+
+        for (int i = 1; i <= count; i++) {
+            if (i == count || 0 < compareBits(slots[2 * i - 2], slots[2 * i - 1], slots[2 * i], slots[2 * i + 1])) {
+                blockRuns.add(cursor(slots, start, i));
+                start = i;
+
+                if (blockRuns.size() * MIN_AVERAGE_RUN > count) {
+                    break;
+                }
+            }
+        }
+
+        if (blockRuns.size() * MIN_AVERAGE_RUN <= count) {
+            runs.addAll(blockRuns);
+            return;
+        }
+
+        final MesonBuffer sorted = new MesonBuffer(count);
+
+        for (int i = 0; i < count; i++) {
+            sorted.add(slots[2 * i], slots[2 * i + 1]);
+        }
+
+        sorted.sort();
+        runs.add(sorted.cursor());
+    }
+
+    private static MesonCursor cursor(final long[] slots, final int from, final int to) {
+        return new MesonCursor() {
+            private int index = from - 1;
+
+            @Override
+            public boolean advance() {
+                return ++index < to;
+            }
+
+            @Override
+            public long getMostSignificantBits() {
+                return slots[2 * index];
+            }
+
+            @Override
+            public long getLeastSignificantBits() {
+                return slots[2 * index + 1];
+            }
+        };
+    }
+
+    private static int stripe(final int stripes) {
+        long id = Thread.currentThread().getId();
+
+        // Murmur3 finalizer, thread ID's are sequential
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+
+        return (int) id & (stripes - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MesonIngestBuffer{capacity=%d, stripes=%d, size=%d}",
+                capacity, active.length(), size());
+    }
+
+    /**
+     * Fixed block of slots. Writers reserve slots by incrementing {@link #reserved} and count them in
+     * {@link #committed} once written; a drain closes the block by pushing {@link #reserved} past capacity. Spare
+     * blocks stay closed, so writers that still hold them from before a drain move on to the active block.
+     */
+    private static final class Block {
+        private final long[] slots;
+        private final int capacity;
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+
+        private Block(final int capacity) {
+            this.slots = new long[2 * capacity];
+            this.capacity = capacity;
+        }
+
+        private boolean append(final long mostSignificantBits, final long leastSignificantBits) {
+            // Checked first so writers of a full block do not keep incrementing
+            if (capacity <= reserved.get()) {
+                return false;
+            }
+
+            final int slot = reserved.getAndIncrement();
+
+            if (capacity <= slot) {
+                return false;
+            }
+
+            slots[2 * slot] = mostSignificantBits;
+            slots[2 * slot + 1] = leastSignificantBits;
+            committed.incrementAndGet();
+            return true;
+        }
+
+        /**
+         * Refuse further writes and wait for writes in flight.
+         *
+         * @return number of identities written.
+         */
+        private int close() {
+            final int count = Math.min(capacity, reserved.getAndAdd(capacity));
+
+            while (committed.get() < count) {
+                Thread.yield();
+            }
+
+            return count;
+        }
+
+        /**
+         * Empty the block, keeping it closed until {@link #open()}.
+         */
+        private void reset() {
+            committed.set(0);
+            reserved.set(capacity);
+        }
+
+        /**
+         * Open the block for writes, right before a drain swaps it in as active.
+         */
+        private void open() {
+            reserved.set(0);
+        }
+    }
+}
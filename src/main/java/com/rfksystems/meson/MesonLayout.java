@@ -0,0 +1,551 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary layout of Meson identities: bit widths of time, generator ID and sequence, packed big-endian in that order
+ * into the fewest whole bytes, so that unsigned byte order of encoded identities is the order of the identities.
+ * Time is stored relative to an epoch.
+ * <p>
+ * Predefined layouts are implemented by their own final classes with widths and offsets as constants, so the JIT
+ * reduces encoding, decoding and comparison to a few wide loads and stores, as for the fixed format:
+ * <ul>
+ * <li>{@link #STANDARD}, 14 bytes, the format of {@link Meson#toByteArray()}: 48 bit time, 32 bit generator ID,
+ * 32 bit sequence;</li>
+ * <li>{@link #COMPACT}, 10 bytes: 40 bit time since 2020-01-01T00:00:00Z (until year 2054), 16 bit generator ID,
+ * 24 bit sequence. Only fits identities with generator IDs below 2<sup>16</sup> and small sequences, such as those
+ * of a {@link MesonBurstGenerator} given a 16 bit generator ID, not those of {@code new Meson()};</li>
+ * <li>{@link #ALIGNED}, 16 bytes: the standard layout followed by two zero bytes, as {@link MesonUuid} pads it.</li>
+ * </ul>
+ * Other widths are available through {@link #of(int, int, int, long)}, which packs bits generically.
+ * <p>
+ * Buffers must be big-endian, as they are by default. Encoding fails with {@link IllegalArgumentException} when a
+ * field does not fit the layout, see {@link #fits(long, int, int)}.
+ */
+public abstract class MesonLayout {
+    /**
+     * 14 byte layout of {@link Meson#toByteArray()}.
+     */
+    public static final MesonLayout STANDARD = new Standard();
+
+    /**
+     * 10 byte layout: 40 bit time since {@link #COMPACT_EPOCH}, 16 bit generator ID, 24 bit sequence.
+     * <p>
+     * Identities of {@code new Meson()} carry a 32 bit derived generator ID and a random 31 bit sequence, and almost
+     * never fit. Use it for identities of a {@link MesonBurstGenerator} given a generator ID below 2<sup>16</sup>,
+     * whose sequences start at zero every millisecond.
+     */
+    public static final MesonLayout COMPACT = new Compact();
+
+    /**
+     * 16 byte layout: {@link #STANDARD} followed by two zero bytes.
+     */
+    public static final MesonLayout ALIGNED = new Aligned();
+
+    /**
+     * Epoch of {@link #COMPACT} layout, 2020-01-01T00:00:00Z.
+     */
+    public static final long COMPACT_EPOCH = 1577836800000L;
+
+    private final int timeBits;
+    private final int generatorIdBits;
+    private final int sequenceBits;
+    private final long epoch;
+    private final int sizeBytes;
+    private final long maxTime;
+
+    MesonLayout(
+            final int timeBits,
+            final int generatorIdBits,
+            final int sequenceBits,
+            final long epoch,
+            final int sizeBytes
+    ) {
+        if (1 > timeBits || 48 < timeBits) {
+            throw new IllegalArgumentException("Time must take between 1 and 48 bits");
+        }
+
+        if (1 > generatorIdBits || 32 < generatorIdBits) {
+            throw new IllegalArgumentException("Generator ID must take between 1 and 32 bits");
+        }
+
+        if (1 > sequenceBits || 32 < sequenceBits) {
+            throw new IllegalArgumentException("Sequence must take between 1 and 32 bits");
+        }
+
+        if (Meson.MIN_TIME > epoch || Meson.MAX_TIME < epoch) {
+            throw new IllegalArgumentException(String.format(
+                    "Epoch must be between MIN_TIME %d and MAX_TIME %d", Meson.MIN_TIME, Meson.MAX_TIME));
+        }
+
+        this.timeBits = timeBits;
+        this.generatorIdBits = generatorIdBits;
+        this.sequenceBits = sequenceBits;
+        this.epoch = epoch;
+        this.sizeBytes = sizeBytes;
+        this.maxTime = Math.min(Meson.MAX_TIME, epoch + ((1L << timeBits) - 1));
+    }
+
+    /**
+     * Create a layout of given bit widths, packed generically.
+     *
+     * @param timeBits        bits of time, between 1 and 48.
+     * @param generatorIdBits bits of generator ID, between 1 and 32.
+     * @param sequenceBits    bits of sequence, between 1 and 32.
+     * @param epoch           UNIX timestamp in milliseconds time is stored relative to.
+     * @return layout.
+     */
+    public static MesonLayout of(
+            final int timeBits,
+            final int generatorIdBits,
+            final int sequenceBits,
+            final long epoch
+    ) {
+        return new Generic(timeBits, generatorIdBits, sequenceBits, epoch);
+    }
+
+    /**
+     * Get bits of time.
+     *
+     * @return bits of time.
+     */
+    public final int getTimeBits() {
+        return timeBits;
+    }
+
+    /**
+     * Get bits of generator ID.
+     *
+     * @return bits of generator ID.
+     */
+    public final int getGeneratorIdBits() {
+        return generatorIdBits;
+    }
+
+    /**
+     * Get bits of sequence.
+     *
+     * @return bits of sequence.
+     */
+    public final int getSequenceBits() {
+        return sequenceBits;
+    }
+
+    /**
+     * Get epoch time is stored relative to.
+     *
+     * @return UNIX timestamp in milliseconds.
+     */
+    public final long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get size of an encoded identity.
+     *
+     * @return size in bytes.
+     */
+    public final int getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Get latest time this layout can store.
+     *
+     * @return UNIX timestamp in milliseconds.
+     */
+    public final long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * Check if an identity fits this layout.
+     *
+     * @param time        UNIX timestamp in milliseconds.
+     * @param generatorId generator ID as big-endian integer.
+     * @param sequence    sequence number.
+     * @return whether or not all fields fit their widths.
+     */
+    public final boolean fits(final long time, final int generatorId, final int sequence) {
+        return epoch <= time && maxTime >= time
+                && (32 == generatorIdBits || 0 == generatorId >>> generatorIdBits)
+                && 0 <= sequence
+                && (31 <= sequenceBits || 0 == sequence >>> sequenceBits);
+    }
+
+    /**
+     * Check if an identity fits this layout.
+     *
+     * @param meson Meson identity.
+     * @return whether or not all fields fit their widths.
+     */
+    public final boolean fits(final Meson meson) {
+        return fits(meson.getTime(), meson.getGeneratorIdAsInt(), meson.getSequence());
+    }
+
+    /**
+     * Encode identity at given index of a buffer, leaving its position as is.
+     *
+     * @param target big-endian buffer with {@link #getSizeBytes()} bytes of room at index.
+     * @param index  index to write at.
+     * @param meson  Meson identity.
+     * @throws IllegalArgumentException if the identity does not fit this layout.
+     */
+    public final void put(final ByteBuffer target, final int index, final Meson meson) {
+        put(target, index, meson.getTime(), meson.getGeneratorIdAsInt(), meson.getSequence());
+    }
+
+    /**
+     * Encode identity given by its fields at given index of a buffer, leaving its position as is.
+     *
+     * @param target      big-endian buffer with {@link #getSizeBytes()} bytes of room at index.
+     * @param index       index to write at.
+     * @param time        UNIX timestamp in milliseconds.
+     * @param generatorId generator ID as big-endian integer.
+     * @param sequence    sequence number.
+     * @throws IllegalArgumentException if the identity does not fit this layout.
+     */
+    public final void put(
+            final ByteBuffer target,
+            final int index,
+            final long time,
+            final int generatorId,
+            final int sequence
+    ) {
+        if (!fits(time, generatorId, sequence)) {
+            MesonMetrics.recordValidationFailure();
+            throw new IllegalArgumentException(String.format(
+                    "Identity (%d, %08x, %d) does not fit %s", time, generatorId, sequence, this));
+        }
+
+        write(target, index, time - epoch, generatorId, sequence);
+    }
+
+    /**
+     * Encode identity into a new array.
+     *
+     * @param meson Meson identity.
+     * @return array of {@link #getSizeBytes()} bytes.
+     * @throws IllegalArgumentException if the identity does not fit this layout.
+     */
+    public final byte[] toBytes(final Meson meson) {
+        final byte[] bytes = new byte[sizeBytes];
+        put(ByteBuffer.wrap(bytes), 0, meson);
+        return bytes;
+    }
+
+    /**
+     * Decode identity at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return Meson identity.
+     * @throws IllegalArgumentException if the encoded identity is not a valid Meson identity.
+     */
+    public final Meson get(final ByteBuffer source, final int index) {
+        final int generatorId = getGeneratorId(source, index);
+
+        return new Meson(
+                MesonUtils.mostSignificantBits(getTime(source, index), generatorId),
+                MesonUtils.leastSignificantBits(generatorId, getSequence(source, index))
+        );
+    }
+
+    /**
+     * Decode identity from an array.
+     *
+     * @param bytes array of {@link #getSizeBytes()} bytes.
+     * @return Meson identity.
+     * @throws IllegalArgumentException if the array is not of the size of this layout, or does not hold a valid
+     *                                  Meson identity.
+     */
+    public final Meson fromBytes(final byte[] bytes) {
+        if (sizeBytes != bytes.length) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException(String.format("Expected %d bytes", sizeBytes));
+        }
+
+        return get(ByteBuffer.wrap(bytes), 0);
+    }
+
+    /**
+     * Read time of identity at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return UNIX timestamp in milliseconds.
+     */
+    public final long getTime(final ByteBuffer source, final int index) {
+        return epoch + readTime(source, index);
+    }
+
+    /**
+     * Read generator ID of identity at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return generator ID as big-endian integer.
+     */
+    public abstract int getGeneratorId(ByteBuffer source, int index);
+
+    /**
+     * Read sequence of identity at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return sequence number.
+     */
+    public abstract int getSequence(ByteBuffer source, int index);
+
+    /**
+     * Compare two encoded identities, in the order of {@link Meson#compareTo(Meson)}.
+     *
+     * @param left       big-endian buffer holding the first identity.
+     * @param leftIndex  index of the first identity.
+     * @param right      big-endian buffer holding the second identity.
+     * @param rightIndex index of the second identity.
+     * @return negative, zero or positive as the first identity is less than, equal to or greater than the second.
+     */
+    public abstract int compare(ByteBuffer left, int leftIndex, ByteBuffer right, int rightIndex);
+
+    /**
+     * Write fields known to fit, time relative to epoch.
+     */
+    abstract void write(ByteBuffer target, int index, long relativeTime, int generatorId, int sequence);
+
+    /**
+     * Read time relative to epoch.
+     */
+    abstract long readTime(ByteBuffer source, int index);
+
+    @Override
+    public String toString() {
+        return String.format("MesonLayout{time=%d, generatorId=%d, sequence=%d, epoch=%d, bytes=%d}",
+                timeBits, generatorIdBits, sequenceBits, epoch, sizeBytes);
+    }
+
+    private static final class Standard extends MesonLayout {
+        Standard() {
+            super(48, 32, 32, 0, Meson.BUFFER_SIZE_BYTES);
+        }
+
+        @Override
+        void write(final ByteBuffer target, final int index, final long relativeTime, final int generatorId, final int sequence) {
+            target.putShort(index, (short) (relativeTime >>> 32));
+            target.putInt(index + 2, (int) relativeTime);
+            target.putInt(index + 6, generatorId);
+            target.putInt(index + 10, sequence);
+        }
+
+        @Override
+        long readTime(final ByteBuffer source, final int index) {
+            return (source.getShort(index) & 0xFFFFL) << 32 | source.getInt(index + 2) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public int getGeneratorId(final ByteBuffer source, final int index) {
+            return source.getInt(index + 6);
+        }
+
+        @Override
+        public int getSequence(final ByteBuffer source, final int index) {
+            return source.getInt(index + 10);
+        }
+
+        @Override
+        public int compare(final ByteBuffer left, final int leftIndex, final ByteBuffer right, final int rightIndex) {
+            final int result = Long.compareUnsigned(left.getLong(leftIndex), right.getLong(rightIndex));
+
+            if (0 != result) {
+                return result;
+            }
+
+            // Last six bytes, overlapping the first eight
+            return Long.compare(
+                    left.getLong(leftIndex + 6) & 0xFFFFFFFFFFFFL,
+                    right.getLong(rightIndex + 6) & 0xFFFFFFFFFFFFL
+            );
+        }
+    }
+
+    private static final class Compact extends MesonLayout {
+        Compact() {
+            super(40, 16, 24, COMPACT_EPOCH, 10);
+        }
+
+        @Override
+        void write(final ByteBuffer target, final int index, final long relativeTime, final int generatorId, final int sequence) {
+            target.putLong(index, relativeTime << 24 | (long) generatorId << 8 | sequence >>> 16);
+            target.putShort(index + 8, (short) sequence);
+        }
+
+        @Override
+        long readTime(final ByteBuffer source, final int index) {
+            return source.getLong(index) >>> 24;
+        }
+
+        @Override
+        public int getGeneratorId(final ByteBuffer source, final int index) {
+            return (int) (source.getLong(index) >>> 8) & 0xFFFF;
+        }
+
+        @Override
+        public int getSequence(final ByteBuffer source, final int index) {
+            return (source.get(index + 7) & 0xFF) << 16 | source.getShort(index + 8) & 0xFFFF;
+        }
+
+        @Override
+        public int compare(final ByteBuffer left, final int leftIndex, final ByteBuffer right, final int rightIndex) {
+            final int result = Long.compareUnsigned(left.getLong(leftIndex), right.getLong(rightIndex));
+
+            if (0 != result) {
+                return result;
+            }
+
+            return Integer.compare(left.getShort(leftIndex + 8) & 0xFFFF, right.getShort(rightIndex + 8) & 0xFFFF);
+        }
+    }
+
+    private static final class Aligned extends MesonLayout {
+        Aligned() {
+            super(48, 32, 32, 0, MesonUuid.PADDED_SIZE_BYTES);
+        }
+
+        @Override
+        void write(final ByteBuffer target, final int index, final long relativeTime, final int generatorId, final int sequence) {
+            MesonUuid.putPadded(
+                    target,
+                    index,
+                    MesonUtils.mostSignificantBits(relativeTime, generatorId),
+                    MesonUtils.leastSignificantBits(generatorId, sequence)
+            );
+        }
+
+        @Override
+        long readTime(final ByteBuffer source, final int index) {
+            return source.getLong(index) >>> 16;
+        }
+
+        @Override
+        public int getGeneratorId(final ByteBuffer source, final int index) {
+            return source.getInt(index + 6);
+        }
+
+        @Override
+        public int getSequence(final ByteBuffer source, final int index) {
+            return source.getInt(index + 10);
+        }
+
+        @Override
+        public int compare(final ByteBuffer left, final int leftIndex, final ByteBuffer right, final int rightIndex) {
+            final int result = Long.compareUnsigned(left.getLong(leftIndex), right.getLong(rightIndex));
+
+            if (0 != result) {
+                return result;
+            }
+
+            return Long.compareUnsigned(left.getLong(leftIndex + 8), right.getLong(rightIndex + 8));
+        }
+    }
+
+    /**
+     * Any widths, fields packed into a 128 bit big-endian value of which the top {@link #getSizeBytes()} bytes are
+     * stored.
+     */
+    static final class Generic extends MesonLayout {
+        private final int shift;
+
+        Generic(final int timeBits, final int generatorIdBits, final int sequenceBits, final long epoch) {
+            super(timeBits, generatorIdBits, sequenceBits, epoch, (timeBits + generatorIdBits + sequenceBits + 7) / 8);
+
+            // Left align the packed bits in 128 bits
+            this.shift = 128 - (timeBits + generatorIdBits + sequenceBits);
+        }
+
+        @Override
+        void write(final ByteBuffer target, final int index, final long relativeTime, final int generatorId, final int sequence) {
+            long high = 0;
+            long low = 0;
+
+            final long[] fields = {relativeTime, generatorId & 0xFFFFFFFFL, sequence & 0xFFFFFFFFL};
+            final int[] widths = {getTimeBits(), getGeneratorIdBits(), getSequenceBits()};
+
+            for (int i = 0; i < fields.length; i++) {
+                // Shift 128 bit value left by width, then add field
+                final int width = widths[i];
+                high = high << width | low >>> (64 - width);
+                low = low << width | fields[i];
+            }
+
+            // Align to the top
+            if (64 <= shift) {
+                high = low << (shift - 64);
+                low = 0;
+            } else if (0 < shift) {
+                high = high << shift | low >>> (64 - shift);
+                low = low << shift;
+            }
+
+            for (int i = 0; i < getSizeBytes(); i++) {
+                final long word = 8 > i ? high : low;
+                target.put(index + i, (byte) (word >>> (56 - 8 * (i & 7))));
+            }
+        }
+
+        @Override
+        long readTime(final ByteBuffer source, final int index) {
+            return bits(source, index, 0, getTimeBits());
+        }
+
+        @Override
+        public int getGeneratorId(final ByteBuffer source, final int index) {
+            return (int) bits(source, index, getTimeBits(), getGeneratorIdBits());
+        }
+
+        @Override
+        public int getSequence(final ByteBuffer source, final int index) {
+            return (int) bits(source, index, getTimeBits() + getGeneratorIdBits(), getSequenceBits());
+        }
+
+        @Override
+        public int compare(final ByteBuffer left, final int leftIndex, final ByteBuffer right, final int rightIndex) {
+            for (int i = 0; i < getSizeBytes(); i++) {
+                final int result = Integer.compare(left.get(leftIndex + i) & 0xFF, right.get(rightIndex + i) & 0xFF);
+
+                if (0 != result) {
+                    return result;
+                }
+            }
+
+            return 0;
+        }
+
+        /**
+         * Read bit field of given width starting at given bit offset, most significant bit first.
+         */
+        private static long bits(final ByteBuffer source, final int index, final int offset, final int width) {
+            long value = 0;
+
+            for (int bit = offset; bit < offset + width; bit++) {
+                value = value << 1 | (source.get(index + (bit >>> 3)) >>> (7 - (bit & 7)) & 1);
+            }
+
+            return value;
+        }
+    }
+}
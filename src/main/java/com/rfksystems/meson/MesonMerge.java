@@ -0,0 +1,347 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static com.rfksystems.meson.Meson.BUFFER_SIZE_BYTES;
+import static com.rfksystems.meson.MesonUtils.compareBits;
+
+/**
+ * K-way merge of sorted Meson identity sources into one sorted sequence.
+ * <p>
+ * Sources are {@link MesonCursor cursors}, see {@link MesonBuffer#cursor()}, {@link #cursor(Iterator)} and
+ * {@link #cursor(ByteBuffer)}, each of which must be sorted in ascending order. The merge is a loser tree keyed on the
+ * primitive halves of the identities: taking the next identity costs one comparison per level of the tree,
+ * {@code log2(k)} for {@code k} sources, and allocates nothing. Equal identities come out in order of their sources,
+ * or only once when the merge is distinct.
+ * <p>
+ * Merging very many sources can be split over a {@link ForkJoinPool} with
+ * {@link #mergeParallel(List, boolean, int, ForkJoinPool)}, which merges groups of sources in parallel into
+ * intermediate buffers and then merges the groups.
+ */
+public final class MesonMerge implements MesonCursor {
+    /**
+     * Default number of sources merged by a single task of the parallel merge.
+     */
+    public static final int DEFAULT_FAN_IN = 64;
+
+    private final MesonCursor[] sources;
+    private final boolean distinct;
+    private final int k;
+    private final long[] msb;
+    private final long[] lsb;
+    private final boolean[] exhausted;
+
+    /**
+     * Loser of the match played at every inner node, nodes {@code 1 .. k - 1}. Node {@code n} has children
+     * {@code 2n} and {@code 2n + 1}, nodes from {@code k} up are leaves standing for source {@code n - k}.
+     */
+    private final int[] losers;
+
+    private int winner = -1;
+    private boolean started;
+    private boolean emitted;
+    private long currentMsb;
+    private long currentLsb;
+
+    /**
+     * Create a merge of given sources.
+     *
+     * @param sources  sorted sources to merge.
+     * @param distinct whether or not to emit equal identities only once.
+     */
+    public MesonMerge(final List<? extends MesonCursor> sources, final boolean distinct) {
+        this.sources = sources.toArray(new MesonCursor[0]);
+        this.distinct = distinct;
+        this.k = this.sources.length;
+        this.msb = new long[k];
+        this.lsb = new long[k];
+        this.exhausted = new boolean[k];
+        this.losers = new int[Math.max(1, k)];
+    }
+
+    /**
+     * Merge given sources into a buffer.
+     *
+     * @param sources  sorted sources to merge.
+     * @param distinct whether or not to emit equal identities only once.
+     * @return merged identities.
+     */
+    public static MesonBuffer merge(final List<? extends MesonCursor> sources, final boolean distinct) {
+        final MesonBuffer buffer = new MesonBuffer();
+        new MesonMerge(sources, distinct).drainTo(buffer);
+        return buffer;
+    }
+
+    /**
+     * Merge given sources into a buffer, merging groups of at most {@code fanIn} sources in parallel first.
+     * Every source is read by a single task.
+     *
+     * @param sources  sorted sources to merge.
+     * @param distinct whether or not to emit equal identities only once.
+     * @param fanIn    largest number of sources merged by a single task, at least 2.
+     * @param pool     pool to merge on.
+     * @return merged identities.
+     */
+    public static MesonBuffer mergeParallel(
+            final List<? extends MesonCursor> sources,
+            final boolean distinct,
+            final int fanIn,
+            final ForkJoinPool pool
+    ) {
+        if (2 > fanIn) {
+            throw new IllegalArgumentException("Fan-in must be at least 2");
+        }
+
+        return pool.invoke(new MergeTask(new ArrayList<>(sources), distinct, fanIn));
+    }
+
+    /**
+     * Adapt an iterator of Meson objects to a cursor.
+     *
+     * @param iterator iterator to adapt.
+     * @return cursor over the iterator.
+     */
+    public static MesonCursor cursor(final Iterator<Meson> iterator) {
+        return new MesonCursor() {
+            private long msb;
+            private long lsb;
+
+            @Override
+            public boolean advance() {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+
+                final Meson meson = iterator.next();
+                msb = meson.getMostSignificantBits();
+                lsb = meson.getLeastSignificantBits();
+                return true;
+            }
+
+            @Override
+            public long getMostSignificantBits() {
+                return msb;
+            }
+
+            @Override
+            public long getLeastSignificantBits() {
+                return lsb;
+            }
+        };
+    }
+
+    /**
+     * Create a cursor over contiguous binary identities of {@link Meson#BUFFER_SIZE_BYTES} bytes each, as written by
+     * {@link Meson#toByteArray()}, between position and limit of given buffer. Memory mapped journal segments can be
+     * merged this way without copying them to the heap. Position of the buffer is not changed.
+     *
+     * @param buffer big-endian buffer of binary identities.
+     * @return cursor over the buffer.
+     */
+    public static MesonCursor cursor(final ByteBuffer buffer) {
+        final int start = buffer.position();
+        final int end = start + buffer.remaining() / BUFFER_SIZE_BYTES * BUFFER_SIZE_BYTES;
+
+        return new MesonCursor() {
+            private int index = start - BUFFER_SIZE_BYTES;
+
+            @Override
+            public boolean advance() {
+                if (index + BUFFER_SIZE_BYTES >= end) {
+                    return false;
+                }
+
+                index += BUFFER_SIZE_BYTES;
+                return true;
+            }
+
+            @Override
+            public long getMostSignificantBits() {
+                return buffer.getLong(index);
+            }
+
+            @Override
+            public long getLeastSignificantBits() {
+                return (buffer.getShort(index + 8) & 0xFFFFL) << 32 | (buffer.getInt(index + 10) & 0xFFFFFFFFL);
+            }
+        };
+    }
+
+    @Override
+    public boolean advance() {
+        while (true) {
+            if (!started) {
+                started = true;
+
+                for (int i = 0; i < k; i++) {
+                    pull(i);
+                }
+
+                winner = 0 == k ? -1 : build(1);
+            } else if (-1 != winner) {
+                pull(winner);
+                replay();
+            }
+
+            if (-1 == winner || exhausted[winner]) {
+                return false;
+            }
+
+            final long nextMsb = msb[winner];
+            final long nextLsb = lsb[winner];
+
+            if (distinct && emitted && nextMsb == currentMsb && nextLsb == currentLsb) {
+                continue;
+            }
+
+            currentMsb = nextMsb;
+            currentLsb = nextLsb;
+            emitted = true;
+            return true;
+        }
+    }
+
+    @Override
+    public long getMostSignificantBits() {
+        return currentMsb;
+    }
+
+    @Override
+    public long getLeastSignificantBits() {
+        return currentLsb;
+    }
+
+    /**
+     * Append all remaining identities to a buffer.
+     *
+     * @param buffer buffer to append identities to.
+     * @return number of identities appended.
+     */
+    public long drainTo(final MesonBuffer buffer) {
+        long count = 0;
+
+        while (advance()) {
+            buffer.add(currentMsb, currentLsb);
+            count++;
+        }
+
+        return count;
+    }
+
+    private void pull(final int source) {
+        if (sources[source].advance()) {
+            msb[source] = sources[source].getMostSignificantBits();
+            lsb[source] = sources[source].getLeastSignificantBits();
+        } else {
+            exhausted[source] = true;
+        }
+    }
+
+    /**
+     * Play the matches below given node, recording losers, and return the winning source.
+     */
+    private int build(final int node) {
+        if (node >= k) {
+            return node - k;
+        }
+
+        final int left = build(2 * node);
+        final int right = build(2 * node + 1);
+
+        if (beats(left, right)) {
+            losers[node] = right;
+            return left;
+        }
+
+        losers[node] = left;
+        return right;
+    }
+
+    /**
+     * Replay matches on the path from the winner's leaf to the root after the winner moved on.
+     */
+    private void replay() {
+        int candidate = winner;
+
+        for (int node = (candidate + k) >>> 1; 0 < node; node >>>= 1) {
+            if (beats(losers[node], candidate)) {
+                final int loser = candidate;
+                candidate = losers[node];
+                losers[node] = loser;
+            }
+        }
+
+        winner = candidate;
+    }
+
+    /**
+     * Exhausted sources lose every match, ties go to the lower source index.
+     */
+    private boolean beats(final int source, final int other) {
+        if (exhausted[source] || exhausted[other]) {
+            return !exhausted[source];
+        }
+
+        final int comparison = compareBits(msb[source], lsb[source], msb[other], lsb[other]);
+        return 0 > comparison || (0 == comparison && source < other);
+    }
+
+    private static final class MergeTask extends RecursiveTask<MesonBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<MesonCursor> sources;
+        private final boolean distinct;
+        private final int fanIn;
+
+        private MergeTask(final List<MesonCursor> sources, final boolean distinct, final int fanIn) {
+            this.sources = sources;
+            this.distinct = distinct;
+            this.fanIn = fanIn;
+        }
+
+        @Override
+        protected MesonBuffer compute() {
+            if (sources.size() <= fanIn) {
+                return merge(sources, distinct);
+            }
+
+            final int groupSize = (sources.size() + fanIn - 1) / fanIn;
+            final List<MergeTask> groups = new ArrayList<>();
+
+            for (int from = 0; from < sources.size(); from += groupSize) {
+                final List<MesonCursor> group = sources.subList(from, Math.min(sources.size(), from + groupSize));
+                groups.add(new MergeTask(new ArrayList<>(group), distinct, fanIn));
+            }
+
+            invokeAll(groups);
+
+            final List<MesonCursor> merged = new ArrayList<>(groups.size());
+
+            for (final MergeTask group : groups) {
+                merged.add(group.join().cursor());
+            }
+
+            return merge(merged, distinct);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional instrumentation of Meson generation and parsing.
+ * <p>
+ * Metrics are disabled by default, and can be enabled with {@link #enable()} or by setting system property
+ * {@code meson.metrics} to {@code true}. When enabled, every generated identity costs a striped {@link LongAdder}
+ * increment and no allocation, so metrics can stay on under full load. When disabled, the cost is a single read of a
+ * volatile flag.
+ * <p>
+ * Counters can be read with {@link #snapshot()}, exposed over JMX with {@link #registerMBean()}, or bound to any
+ * metrics registry through {@link #bindTo(MesonMetricsRegistry)}.
+ */
+public final class MesonMetrics {
+    /**
+     * Name of the MBean registered by {@link #registerMBean()}.
+     */
+    public static final String MBEAN_NAME = "com.rfksystems.meson:type=Metrics";
+
+    static volatile boolean enabled = Boolean.getBoolean("meson.metrics");
+
+    /**
+     * Holder of counters, initialized when first recorded to or read, so that generating identities with metrics
+     * disabled costs no more at startup than reading the flag.
+     */
+    private static final class Counters {
+        static final LongAdder GENERATED = new LongAdder();
+        static final LongAdder SEQUENCE_RESETS = new LongAdder();
+        static final LongAdder CLOCK_REGRESSIONS = new LongAdder();
+        static final LongAdder CONTENTION_RETRIES = new LongAdder();
+        static final LongAdder BATCHES = new LongAdder();
+        static final LongAdder BATCHED_IDS = new LongAdder();
+        static final LongAccumulator LARGEST_BATCH = new LongAccumulator(Math::max, 0L);
+        static final LongAdder PARSE_FAILURES = new LongAdder();
+        static final LongAdder VALIDATION_FAILURES = new LongAdder();
+    }
+
+    /**
+     * Latest wall clock time observed, written only when the millisecond changes.
+     */
+    private static volatile long lastTime;
+
+    /**
+     * Whether or not the clock was last seen behind {@link #lastTime}.
+     */
+    private static final AtomicBoolean BEHIND = new AtomicBoolean();
+
+    private MesonMetrics() {
+    }
+
+    /**
+     * Start recording metrics.
+     */
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Stop recording metrics. Recorded values are kept.
+     */
+    public static void disable() {
+        enabled = false;
+    }
+
+    /**
+     * Check if metrics are being recorded.
+     *
+     * @return whether or not metrics are being recorded.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Reset all recorded values to zero.
+     */
+    public static void reset() {
+        Counters.GENERATED.reset();
+        Counters.SEQUENCE_RESETS.reset();
+        Counters.CLOCK_REGRESSIONS.reset();
+        Counters.CONTENTION_RETRIES.reset();
+        Counters.BATCHES.reset();
+        Counters.BATCHED_IDS.reset();
+        Counters.LARGEST_BATCH.reset();
+        Counters.PARSE_FAILURES.reset();
+        Counters.VALIDATION_FAILURES.reset();
+    }
+
+    /**
+     * Take a point-in-time copy of recorded values.
+     *
+     * @return snapshot of recorded values.
+     */
+    public static MesonMetricsSnapshot snapshot() {
+        return new MesonMetricsSnapshot(
+                System.nanoTime(),
+                Counters.GENERATED.sum(),
+                Counters.SEQUENCE_RESETS.sum(),
+                Counters.CLOCK_REGRESSIONS.sum(),
+                Counters.CONTENTION_RETRIES.sum(),
+                Counters.BATCHES.sum(),
+                Counters.BATCHED_IDS.sum(),
+                Counters.LARGEST_BATCH.get(),
+                Counters.PARSE_FAILURES.sum(),
+                Counters.VALIDATION_FAILURES.sum()
+        );
+    }
+
+    /**
+     * Register {@link MesonMetricsMXBean} with the platform MBean server under {@link #MBEAN_NAME}.
+     * Registering more than once has no effect.
+     *
+     * @throws JMException if the MBean could not be registered.
+     */
+    public static synchronized void registerMBean() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(MBEAN_NAME);
+
+        if (!server.isRegistered(name)) {
+            server.registerMBean(new MesonMetricsJmx(), name);
+        }
+    }
+
+    /**
+     * Unregister {@link MesonMetricsMXBean} from the platform MBean server, if registered.
+     *
+     * @throws JMException if the MBean could not be unregistered.
+     */
+    public static synchronized void unregisterMBean() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(MBEAN_NAME);
+
+        if (server.isRegistered(name)) {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Expose recorded values through a metrics registry.
+     *
+     * @param registry registry adapter to register the metrics with.
+     */
+    public static void bindTo(final MesonMetricsRegistry registry) {
+        registry.counter("meson.generated", "Identities generated", Counters.GENERATED::sum);
+        registry.counter("meson.sequence.resets", "Sequence counter resets", Counters.SEQUENCE_RESETS::sum);
+        registry.counter("meson.clock.regressions", "Wall clock steps back observed", Counters.CLOCK_REGRESSIONS::sum);
+        registry.counter("meson.contention.retries", "Retries on contended generator state", Counters.CONTENTION_RETRIES::sum);
+        registry.counter("meson.batches", "Batches generated", Counters.BATCHES::sum);
+        registry.counter("meson.batches.ids", "Identities generated in batches", Counters.BATCHED_IDS::sum);
+        registry.gauge("meson.batches.largest", "Largest batch generated", Counters.LARGEST_BATCH::doubleValue);
+        registry.counter("meson.parse.failures", "Inputs not parseable as Meson identity", Counters.PARSE_FAILURES::sum);
+        registry.counter("meson.validation.failures", "Identities rejected by validation", Counters.VALIDATION_FAILURES::sum);
+    }
+
+    /**
+     * Read the wall clock, recording a regression if it is behind a time observed earlier by any thread.
+     * <p>
+     * The last observed time is read before the clock, so a concurrent thread publishing a later time in the
+     * meantime can not be mistaken for a regression.
+     *
+     * @return current time in milliseconds.
+     */
+    static long observeClock() {
+        final long previous = lastTime;
+        final long now = System.currentTimeMillis();
+        observeClock(previous, now);
+        return now;
+    }
+
+    /**
+     * Record a regression when the clock falls behind the last observed time, once per step back: the clock stays
+     * behind until it passes that time again, however many identities are generated meanwhile.
+     */
+    static void observeClock(final long previous, final long now) {
+        if (now < previous) {
+            if (!BEHIND.get() && BEHIND.compareAndSet(false, true)) {
+                Counters.CLOCK_REGRESSIONS.increment();
+            }
+        } else if (now > previous) {
+            lastTime = now;
+
+            if (BEHIND.get()) {
+                BEHIND.set(false);
+            }
+        }
+    }
+
+    static void recordGenerated() {
+        Counters.GENERATED.increment();
+    }
+
+    static void recordSequenceReset() {
+        Counters.SEQUENCE_RESETS.increment();
+    }
+
+    static void recordContentionRetry() {
+        Counters.CONTENTION_RETRIES.increment();
+    }
+
+    static void recordBatch(final int size) {
+        Counters.GENERATED.add(size);
+        Counters.BATCHES.increment();
+        Counters.BATCHED_IDS.add(size);
+        Counters.LARGEST_BATCH.accumulate(size);
+    }
+
+    static void recordParseFailure() {
+        if (enabled) {
+            Counters.PARSE_FAILURES.increment();
+        }
+    }
+
+    static void recordValidationFailure() {
+        if (enabled) {
+            Counters.VALIDATION_FAILURES.increment();
+        }
+    }
+}
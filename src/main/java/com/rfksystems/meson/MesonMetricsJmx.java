@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+/**
+ * JMX view of {@link MesonMetrics}, registered by {@link MesonMetrics#registerMBean()}.
+ */
+class MesonMetricsJmx implements MesonMetricsMXBean {
+    private MesonMetricsSnapshot lastRateSample = MesonMetrics.snapshot();
+
+    @Override
+    public boolean isEnabled() {
+        return MesonMetrics.isEnabled();
+    }
+
+    @Override
+    public void setEnabled(final boolean enabled) {
+        if (enabled) {
+            MesonMetrics.enable();
+        } else {
+            MesonMetrics.disable();
+        }
+    }
+
+    @Override
+    public long getGenerated() {
+        return MesonMetrics.snapshot().getGenerated();
+    }
+
+    @Override
+    public synchronized double getGeneratedPerSecond() {
+        final MesonMetricsSnapshot snapshot = MesonMetrics.snapshot();
+        final double rate = snapshot.generatedPerSecond(lastRateSample);
+        lastRateSample = snapshot;
+        return rate;
+    }
+
+    @Override
+    public long getSequenceResets() {
+        return MesonMetrics.snapshot().getSequenceResets();
+    }
+
+    @Override
+    public long getClockRegressions() {
+        return MesonMetrics.snapshot().getClockRegressions();
+    }
+
+    @Override
+    public long getContentionRetries() {
+        return MesonMetrics.snapshot().getContentionRetries();
+    }
+
+    @Override
+    public long getBatches() {
+        return MesonMetrics.snapshot().getBatches();
+    }
+
+    @Override
+    public long getBatchedIds() {
+        return MesonMetrics.snapshot().getBatchedIds();
+    }
+
+    @Override
+    public long getLargestBatch() {
+        return MesonMetrics.snapshot().getLargestBatch();
+    }
+
+    @Override
+    public long getParseFailures() {
+        return MesonMetrics.snapshot().getParseFailures();
+    }
+
+    @Override
+    public long getValidationFailures() {
+        return MesonMetrics.snapshot().getValidationFailures();
+    }
+
+    @Override
+    public void reset() {
+        MesonMetrics.reset();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+/**
+ * JMX view of {@link MesonMetrics}, registered with {@link MesonMetrics#registerMBean()}.
+ */
+public interface MesonMetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getGenerated();
+
+    /**
+     * Rate of generated identities since previous read of this attribute.
+     *
+     * @return identities generated per second.
+     */
+    double getGeneratedPerSecond();
+
+    long getSequenceResets();
+
+    long getClockRegressions();
+
+    long getContentionRetries();
+
+    long getBatches();
+
+    long getBatchedIds();
+
+    long getLargestBatch();
+
+    long getParseFailures();
+
+    long getValidationFailures();
+
+    void reset();
+}
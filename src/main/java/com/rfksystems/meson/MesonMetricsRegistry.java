@@ -0,0 +1,45 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Adapter between Meson metrics and a metrics registry (Micrometer, Dropwizard, Prometheus client and alike).
+ * <p>
+ * Metrics are exposed as functions read by the registry when it samples, so binding costs nothing on the
+ * generation path.
+ */
+public interface MesonMetricsRegistry {
+    /**
+     * Register a monotonically increasing counter.
+     *
+     * @param name        metric name, dot separated, e.g. {@code meson.generated}.
+     * @param description human readable description of the metric.
+     * @param value       function returning current value of the counter.
+     */
+    void counter(String name, String description, LongSupplier value);
+
+    /**
+     * Register a gauge.
+     *
+     * @param name        metric name, dot separated, e.g. {@code meson.pool.occupancy}.
+     * @param description human readable description of the metric.
+     * @param value       function returning current value of the gauge.
+     */
+    void gauge(String name, String description, DoubleSupplier value);
+}
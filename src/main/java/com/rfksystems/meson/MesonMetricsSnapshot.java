@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+/**
+ * Point-in-time copy of {@link MesonMetrics} counters.
+ */
+public final class MesonMetricsSnapshot {
+    private final long nanoTime;
+    private final long generated;
+    private final long sequenceResets;
+    private final long clockRegressions;
+    private final long contentionRetries;
+    private final long batches;
+    private final long batchedIds;
+    private final long largestBatch;
+    private final long parseFailures;
+    private final long validationFailures;
+
+    MesonMetricsSnapshot(
+            final long nanoTime,
+            final long generated,
+            final long sequenceResets,
+            final long clockRegressions,
+            final long contentionRetries,
+            final long batches,
+            final long batchedIds,
+            final long largestBatch,
+            final long parseFailures,
+            final long validationFailures
+    ) {
+        this.nanoTime = nanoTime;
+        this.generated = generated;
+        this.sequenceResets = sequenceResets;
+        this.clockRegressions = clockRegressions;
+        this.contentionRetries = contentionRetries;
+        this.batches = batches;
+        this.batchedIds = batchedIds;
+        this.largestBatch = largestBatch;
+        this.parseFailures = parseFailures;
+        this.validationFailures = validationFailures;
+    }
+
+    /**
+     * Get {@link System#nanoTime()} of when this snapshot was taken.
+     *
+     * @return nano time of the snapshot.
+     */
+    public long getNanoTime() {
+        return nanoTime;
+    }
+
+    /**
+     * Get number of identities generated.
+     *
+     * @return number of generated identities.
+     */
+    public long getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Get number of times the sequence counter passed {@link Meson#BORDERLINE_COUNTER_VALUE} and was reset.
+     *
+     * @return number of sequence resets.
+     */
+    public long getSequenceResets() {
+        return sequenceResets;
+    }
+
+    /**
+     * Get number of times the wall clock was observed going backwards.
+     *
+     * @return number of clock regressions.
+     */
+    public long getClockRegressions() {
+        return clockRegressions;
+    }
+
+    /**
+     * Get number of retries caused by concurrent updates of shared generator state.
+     *
+     * @return number of contention retries.
+     */
+    public long getContentionRetries() {
+        return contentionRetries;
+    }
+
+    /**
+     * Get number of batches generated.
+     *
+     * @return number of batches.
+     */
+    public long getBatches() {
+        return batches;
+    }
+
+    /**
+     * Get number of identities generated in batches.
+     *
+     * @return number of batched identities.
+     */
+    public long getBatchedIds() {
+        return batchedIds;
+    }
+
+    /**
+     * Get size of the largest batch generated.
+     *
+     * @return largest batch size.
+     */
+    public long getLargestBatch() {
+        return largestBatch;
+    }
+
+    /**
+     * Get number of strings or buffers that could not be parsed as Meson identity.
+     *
+     * @return number of parse failures.
+     */
+    public long getParseFailures() {
+        return parseFailures;
+    }
+
+    /**
+     * Get number of identities rejected by validation.
+     *
+     * @return number of validation failures.
+     */
+    public long getValidationFailures() {
+        return validationFailures;
+    }
+
+    /**
+     * Get average batch size.
+     *
+     * @return average number of identities per batch, zero if no batches were generated.
+     */
+    public double getAverageBatchSize() {
+        return 0 == batches ? 0.0 : (double) batchedIds / (double) batches;
+    }
+
+    /**
+     * Compute generation rate between an earlier snapshot and this one.
+     *
+     * @param earlier snapshot taken before this one.
+     * @return identities generated per second.
+     */
+    public double generatedPerSecond(final MesonMetricsSnapshot earlier) {
+        final long elapsed = nanoTime - earlier.nanoTime;
+
+        if (0 >= elapsed) {
+            return 0.0;
+        }
+
+        return (generated - earlier.generated) * 1e9 / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "MesonMetricsSnapshot{" +
+                "generated=" + generated +
+                ", sequenceResets=" + sequenceResets +
+                ", clockRegressions=" + clockRegressions +
+                ", contentionRetries=" + contentionRetries +
+                ", batches=" + batches +
+                ", batchedIds=" + batchedIds +
+                ", largestBatch=" + largestBatch +
+                ", parseFailures=" + parseFailures +
+                ", validationFailures=" + validationFailures +
+                '}';
+    }
+}
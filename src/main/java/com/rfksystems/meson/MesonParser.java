@@ -0,0 +1,341 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Bulk parsing and validation of hex identities, such as the IDs of a bulk lookup request.
+ * <p>
+ * Every input is decoded once, straight into its 128 bit form in a {@link MesonBuffer}, accepting the compact and
+ * formatted ({@link Meson#toFormatString()}) hex representations in either case. Unlike
+ * {@link Meson#isValidHexString(String)}, characters other than hex digits are rejected. Invalid inputs do not throw:
+ * their indexes are set in a {@link BitSet} and their slots in the buffer hold zeros, so results stay aligned with
+ * the input. Inputs above a threshold are split into tasks parsed in parallel on a {@link ForkJoinPool}.
+ */
+public final class MesonParser {
+    /**
+     * Default number of inputs parsed by a single task; smaller inputs are parsed on the calling thread.
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        Arrays.fill(DIGITS, (byte) -1);
+
+        for (int c = '0'; c <= '9'; c++) {
+            DIGITS[c] = (byte) (c - '0');
+        }
+
+        for (int c = 'a'; c <= 'f'; c++) {
+            DIGITS[c] = (byte) (c - 'a' + 10);
+            DIGITS[c - 'a' + 'A'] = (byte) (c - 'a' + 10);
+        }
+    }
+
+    private MesonParser() {
+    }
+
+    /**
+     * Parse strings on the common fork-join pool, splitting above {@link #DEFAULT_THRESHOLD}.
+     *
+     * @param strings hex identities.
+     * @param target  buffer to append one identity per string to, zeros for invalid ones.
+     * @param invalid set to mark indexes of invalid strings in, including {@code null}.
+     * @return number of valid identities.
+     */
+    public static int parse(
+            final List<? extends CharSequence> strings,
+            final MesonBuffer target,
+            final BitSet invalid
+    ) {
+        return parse(strings, target, invalid, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Parse strings.
+     *
+     * @param strings   hex identities, safe to read from several threads.
+     * @param target    buffer to append one identity per string to, zeros for invalid ones.
+     * @param invalid   set to mark indexes of invalid strings in, including {@code null}.
+     * @param pool      pool to parse on when there are more strings than the threshold.
+     * @param threshold number of strings parsed by a single task, at least 64.
+     * @return number of valid identities.
+     */
+    public static int parse(
+            final List<? extends CharSequence> strings,
+            final MesonBuffer target,
+            final BitSet invalid,
+            final ForkJoinPool pool,
+            final int threshold
+    ) {
+        return parse(new Source() {
+            @Override
+            public int size() {
+                return strings.size();
+            }
+
+            @Override
+            public boolean decode(final int index, final ByteBuffer scratch, final MesonBuffer target, final int slot) {
+                return decodeChars(strings.get(index), target, slot);
+            }
+        }, target, invalid, pool, threshold);
+    }
+
+    /**
+     * Parse delimited ASCII hex identities between position and limit of a buffer, on the common fork-join pool,
+     * splitting above {@link #DEFAULT_THRESHOLD}. Position of the buffer is not changed.
+     *
+     * @param source    buffer of identities separated by a delimiter; a delimiter at the very end is ignored.
+     * @param delimiter delimiter byte, such as {@code ','} or {@code '\n'}.
+     * @param target    buffer to append one identity per entry to, zeros for invalid ones.
+     * @param invalid   set to mark indexes of invalid entries in.
+     * @return number of valid identities.
+     */
+    public static int parse(
+            final ByteBuffer source,
+            final byte delimiter,
+            final MesonBuffer target,
+            final BitSet invalid
+    ) {
+        return parse(source, delimiter, target, invalid, ForkJoinPool.commonPool(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Parse delimited ASCII hex identities between position and limit of a buffer. Position of the buffer is not
+     * changed.
+     *
+     * @param source    buffer of identities separated by a delimiter; a delimiter at the very end is ignored.
+     * @param delimiter delimiter byte, such as {@code ','} or {@code '\n'}.
+     * @param target    buffer to append one identity per entry to, zeros for invalid ones.
+     * @param invalid   set to mark indexes of invalid entries in.
+     * @param pool      pool to parse on when there are more entries than the threshold.
+     * @param threshold number of entries parsed by a single task, at least 64.
+     * @return number of valid identities.
+     */
+    public static int parse(
+            final ByteBuffer source,
+            final byte delimiter,
+            final MesonBuffer target,
+            final BitSet invalid,
+            final ForkJoinPool pool,
+            final int threshold
+    ) {
+        final ByteBuffer input = source.duplicate().order(ByteOrder.BIG_ENDIAN);
+        final int end = input.limit();
+        int[] starts = new int[16];
+        int count = 0;
+
+        for (int p = input.position(); p < end; p++) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+
+            starts[count++] = p;
+            p = endOf(input, p, delimiter);
+        }
+
+        final int[] entries = starts;
+        final int size = count;
+
+        return parse(new Source() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean decode(final int index, final ByteBuffer scratch, final MesonBuffer target, final int slot) {
+                final int start = entries[index];
+                final int length = (index + 1 < size ? entries[index + 1] - 1 : endOf(input, start, delimiter)) - start;
+
+                if (MesonHex.HEX_LENGTH != length && MesonHex.FORMAT_LENGTH != length) {
+                    return false;
+                }
+
+                if (!MesonHex.decode(input, start, scratch, 0, MesonHex.FORMAT_LENGTH == length)
+                        || 0 > scratch.getInt(10)) {
+                    return false;
+                }
+
+                target.set(slot, scratch.getLong(0), (scratch.getShort(8) & 0xFFFFL) << 32
+                        | (scratch.getInt(10) & 0xFFFFFFFFL));
+                return true;
+            }
+        }, target, invalid, pool, threshold);
+    }
+
+    private static int parse(
+            final Source source,
+            final MesonBuffer target,
+            final BitSet invalid,
+            final ForkJoinPool pool,
+            final int threshold
+    ) {
+        if (Long.SIZE > threshold) {
+            throw new IllegalArgumentException(String.format("Threshold must be at least %d", Long.SIZE));
+        }
+
+        final int count = source.size();
+        final int base = target.size();
+        target.resize(base + count);
+
+        // Tasks split at multiples of 64 so that each owns whole words of the bit set
+        final long[] words = new long[(count + Long.SIZE - 1) / Long.SIZE];
+        final ParseTask task = new ParseTask(source, target, base, words, 0, count, threshold);
+        final int valid = count <= threshold ? task.compute() : pool.invoke(task);
+
+        invalid.or(BitSet.valueOf(words));
+        return valid;
+    }
+
+    /**
+     * Decode single hex identity in compact or formatted form into given slot.
+     */
+    private static boolean decodeChars(final CharSequence string, final MesonBuffer target, final int slot) {
+        if (null == string) {
+            return false;
+        }
+
+        final int length = string.length();
+        final int generatorStart;
+        final int sequenceStart;
+
+        if (MesonHex.HEX_LENGTH == length) {
+            generatorStart = 12;
+            sequenceStart = 20;
+        } else if (MesonHex.FORMAT_LENGTH == length && '-' == string.charAt(12) && '-' == string.charAt(21)) {
+            generatorStart = 13;
+            sequenceStart = 22;
+        } else {
+            return false;
+        }
+
+        long time = 0;
+        long generatorId = 0;
+        long sequence = 0;
+        int bad = 0;
+
+        for (int i = 0; i < 12; i++) {
+            final int digit = digit(string.charAt(i));
+            bad |= digit;
+            time = time << 4 | digit & 0xF;
+        }
+
+        for (int i = 0; i < 8; i++) {
+            final int generatorDigit = digit(string.charAt(generatorStart + i));
+            final int sequenceDigit = digit(string.charAt(sequenceStart + i));
+            bad |= generatorDigit | sequenceDigit;
+            generatorId = generatorId << 4 | generatorDigit & 0xF;
+            sequence = sequence << 4 | sequenceDigit & 0xF;
+        }
+
+        if (0 > bad || 0 > (int) sequence) {
+            return false;
+        }
+
+        target.set(slot, time << 16 | generatorId >>> 16, (generatorId & 0xFFFF) << 32 | sequence);
+        return true;
+    }
+
+    private static int digit(final char c) {
+        return c < DIGITS.length ? DIGITS[c] : -1;
+    }
+
+    private static int endOf(final ByteBuffer input, final int start, final byte delimiter) {
+        int p = start;
+
+        while (p < input.limit() && delimiter != input.get(p)) {
+            p++;
+        }
+
+        return p;
+    }
+
+    private interface Source {
+        int size();
+
+        boolean decode(int index, ByteBuffer scratch, MesonBuffer target, int slot);
+    }
+
+    private static final class ParseTask extends RecursiveTask<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Source source;
+        private final transient MesonBuffer target;
+        private final int base;
+        private final long[] words;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        private ParseTask(
+                final Source source,
+                final MesonBuffer target,
+                final int base,
+                final long[] words,
+                final int from,
+                final int to,
+                final int threshold
+        ) {
+            this.source = source;
+            this.target = target;
+            this.base = base;
+            this.words = words;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= threshold) {
+                final ByteBuffer scratch = ByteBuffer.allocate(Meson.BUFFER_SIZE_BYTES);
+                int valid = 0;
+
+                for (int i = from; i < to; i++) {
+                    if (source.decode(i, scratch, target, base + i)) {
+                        valid++;
+                        continue;
+                    }
+
+                    target.set(base + i, 0L, 0L);
+                    words[i / Long.SIZE] |= 1L << i;
+
+                    if (MesonMetrics.enabled) {
+                        MesonMetrics.recordValidationFailure();
+                    }
+                }
+
+                return valid;
+            }
+
+            final int middle = from + Math.max(Long.SIZE, (to - from) / 2 / Long.SIZE * Long.SIZE);
+            final ParseTask right = new ParseTask(source, target, base, words, middle, to, threshold);
+            right.fork();
+
+            final int left = new ParseTask(source, target, base, words, from, middle, threshold).compute();
+            return left + right.join();
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of pre-generated Meson identities for latency critical callers.
+ * <p>
+ * A background thread fills a lock-free single-producer/multi-consumer ring buffer with identities created through
+ * {@link Meson#batch(int)}. Taking an identity reads only the monotonic clock, allocates nothing and claims its slot
+ * with a single compare-and-set on the ring head. Once the ring is full, the producer sleeps until a consumer takes it
+ * to the low watermark and wakes it up to fill the ring again.
+ * <p>
+ * When the ring is drained, {@link #take()} falls back to {@link Meson#Meson()} and counts a starvation, so callers
+ * never wait for the producer. Identities taken from the pool are not ordered against the fallback ones.
+ * <p>
+ * Every refill is tagged with the generator identity it was generated under and the {@link System#nanoTime()} it
+ * started at. An identity generated under a generator ID no longer in use, such as one of a released or lost
+ * {@link MesonGeneratorLease}, or one older than the maximum age, is dropped and counted as expired, and
+ * {@link #take()} falls back to {@link Meson#Meson()} instead. Identities taken from the pool thus carry a time at
+ * most the maximum age before they are taken, give or take wall clock adjustments. The producer also drops expired
+ * identities of an idle pool, when it checks the ring every {@link #PARK_INTERVAL_MILLIS}, and refills it.
+ */
+public final class MesonPool implements Closeable {
+    /**
+     * Longest time the producer sleeps before checking the low watermark on its own, in milliseconds.
+     */
+    public static final long PARK_INTERVAL_MILLIS = 100L;
+
+    /**
+     * Default maximum age of pooled identities, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 1000L;
+
+    private final int capacity;
+    private final int mask;
+    private final int lowWatermark;
+    private final int batchSize;
+    private final long maxAgeNanos;
+    private final Meson[] slots;
+
+    /**
+     * Refill each slot was filled by, written and read along with the slot.
+     */
+    private final Refill[] refillOf;
+
+    /**
+     * Per slot publication sequence, Vyukov-style: {@code position + 1} once filled for given position,
+     * {@code position + capacity} once taken and free for the next lap.
+     */
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder taken = new LongAdder();
+    private final LongAdder starvations = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final Thread producer;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Generator identity and start time of a batch put into the ring.
+     */
+    private static final class Refill {
+        private final byte[] generatorId;
+        private final long filledAt;
+
+        private Refill(final byte[] generatorId, final long filledAt) {
+            this.generatorId = generatorId;
+            this.filledAt = filledAt;
+        }
+    }
+
+    /**
+     * Create and start a pool with low watermark and batch size at a quarter of capacity, up to
+     * {@link MesonSequence#MAX_RESERVATION}, and {@link #DEFAULT_MAX_AGE_MILLIS}.
+     *
+     * @param capacity number of identities the ring holds, rounded up to a power of two.
+     */
+    public MesonPool(final int capacity) {
+        this(
+                capacity,
+                Math.min(MesonSequence.MAX_RESERVATION, capacity / 4),
+                Math.min(MesonSequence.MAX_RESERVATION, Math.max(1, capacity / 4))
+        );
+    }
+
+    /**
+     * Create and start a pool with {@link #DEFAULT_MAX_AGE_MILLIS}.
+     *
+     * @param capacity     number of identities the ring holds, rounded up to a power of two.
+     * @param lowWatermark occupancy below which the producer is woken to refill the ring.
+     * @param batchSize    largest number of identities generated by the producer at once.
+     */
+    public MesonPool(final int capacity, final int lowWatermark, final int batchSize) {
+        this(capacity, lowWatermark, batchSize, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Create and start a pool.
+     *
+     * @param capacity     number of identities the ring holds, rounded up to a power of two.
+     * @param lowWatermark occupancy below which the producer is woken to refill the ring.
+     * @param batchSize    largest number of identities generated by the producer at once.
+     * @param maxAgeMillis age past which pooled identities are dropped, in milliseconds.
+     */
+    public MesonPool(final int capacity, final int lowWatermark, final int batchSize, final long maxAgeMillis) {
+        if (1 > capacity || 1 << 30 < capacity) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30");
+        }
+
+        if (0 > lowWatermark || lowWatermark >= capacity) {
+            throw new IllegalArgumentException("Low watermark must be between 0 and capacity");
+        }
+
+        if (1 > batchSize || MesonSequence.MAX_RESERVATION < batchSize) {
+            throw new IllegalArgumentException(String.format(
+                    "Batch size must be between 1 and %d", MesonSequence.MAX_RESERVATION));
+        }
+
+        if (0 >= maxAgeMillis) {
+            throw new IllegalArgumentException("Maximum age must be positive");
+        }
+
+        this.capacity = 1 == capacity ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.lowWatermark = lowWatermark;
+        this.batchSize = batchSize;
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        this.slots = new Meson[this.capacity];
+        this.refillOf = new Refill[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, i);
+        }
+
+        this.producer = new Thread(this::run, "meson-pool-producer");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    /**
+     * Take a pre-generated Meson identity, or generate one directly if the pool is drained, or the identity taken is
+     * expired.
+     *
+     * @return Meson identity.
+     * @throws IllegalStateException if the generator ID lease was released or lost.
+     */
+    public Meson take() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long state = published.get(index);
+
+            if (state == position + 1) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final Meson meson = slots[index];
+                    final Refill refill = refillOf[index];
+                    published.lazySet(index, position + capacity);
+
+                    if (waiting && tail.get() - position <= lowWatermark) {
+                        LockSupport.unpark(producer);
+                    }
+
+                    if (isExpired(refill)) {
+                        expired.increment();
+                        return new Meson();
+                    }
+
+                    taken.increment();
+                    return meson;
+                }
+            } else if (state <= position) {
+                // Not filled yet, ring is drained
+                starvations.increment();
+
+                if (waiting) {
+                    LockSupport.unpark(producer);
+                }
+
+                return new Meson();
+            }
+        }
+    }
+
+    private boolean isExpired(final Refill refill) {
+        return refill.generatorId != MesonGeneratorIdentity.get() || System.nanoTime() - refill.filledAt >= maxAgeNanos;
+    }
+
+    /**
+     * Drop expired identities at the head of the ring, claiming their slots as consumers do.
+     */
+    private void dropExpired() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+
+            if (published.get(index) != position + 1) {
+                return;
+            }
+
+            if (!isExpired(refillOf[index])) {
+                return;
+            }
+
+            // A consumer may take the slot first, then look at the next one
+            if (head.compareAndSet(position, position + 1)) {
+                published.lazySet(index, position + capacity);
+                expired.increment();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            produce();
+        } catch (final RuntimeException | Error e) {
+            failure = e;
+        }
+    }
+
+    private void produce() {
+        long position = 0;
+
+        while (!closed) {
+            int free;
+
+            while (!closed && 0 < (free = (int) (capacity - (position - head.get())))) {
+                final byte[] generatorId = MesonGeneratorIdentity.get();
+                final long filledAt = System.nanoTime();
+                final Meson[] batch = Meson.batch(Math.min(free, batchSize));
+
+                if (generatorId != MesonGeneratorIdentity.get()) {
+                    // Generator identity changed while generating, the batch can not be told apart
+                    continue;
+                }
+
+                final Refill refill = new Refill(generatorId, filledAt);
+
+                for (final Meson meson : batch) {
+                    final int index = (int) position & mask;
+
+                    // Consumer that moved the head past this slot may still be reading it
+                    while (published.get(index) != position) {
+                        Thread.yield();
+                    }
+
+                    slots[index] = meson;
+                    refillOf[index] = refill;
+                    published.lazySet(index, position + 1);
+                    position++;
+                }
+
+                tail.lazySet(position);
+                refills.increment();
+            }
+
+            waiting = true;
+
+            while (!closed && position - head.get() > lowWatermark) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(PARK_INTERVAL_MILLIS));
+                dropExpired();
+            }
+
+            waiting = false;
+        }
+    }
+
+    /**
+     * Get number of identities ready in the ring.
+     *
+     * @return number of pre-generated identities.
+     */
+    public int occupancy() {
+        return (int) Math.max(0L, tail.get() - head.get());
+    }
+
+    /**
+     * Get capacity of the ring.
+     *
+     * @return number of identities the ring holds.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Get number of identities taken from the ring.
+     *
+     * @return number of pre-generated identities taken.
+     */
+    public long getTaken() {
+        return taken.sum();
+    }
+
+    /**
+     * Get number of identities generated directly because the ring was drained.
+     *
+     * @return number of starvations.
+     */
+    public long getStarvations() {
+        return starvations.sum();
+    }
+
+    /**
+     * Get number of pre-generated identities dropped for being too old, or generated under a generator ID no longer in
+     * use.
+     *
+     * @return number of expired identities.
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * Get number of batches the producer put into the ring.
+     *
+     * @return number of refills.
+     */
+    public long getRefills() {
+        return refills.sum();
+    }
+
+    /**
+     * Get the failure that stopped the producer, e.g. an {@link IllegalStateException} from generating identities
+     * after the generator ID lease was released. Once the producer has stopped, {@link #take()} generates every
+     * identity directly after the ring is drained, or its identities expire.
+     *
+     * @return failure of the producer, or null if it is running or was closed.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Expose ring metrics through a metrics registry.
+     *
+     * @param registry registry adapter to register the metrics with.
+     */
+    public void bindTo(final MesonMetricsRegistry registry) {
+        registry.gauge("meson.pool.occupancy", "Identities ready in the pool", this::occupancy);
+        registry.gauge("meson.pool.capacity", "Capacity of the pool", this::capacity);
+        registry.counter("meson.pool.taken", "Identities taken from the pool", taken::sum);
+        registry.counter("meson.pool.starvations", "Identities generated directly on drained pool", starvations::sum);
+        registry.counter("meson.pool.refills", "Batches put into the pool", refills::sum);
+        registry.counter("meson.pool.expired", "Identities dropped as too old or of a replaced generator ID",
+                expired::sum);
+        registry.gauge("meson.pool.failed", "Whether or not the pool producer failed", () -> null == failure ? 0 : 1);
+    }
+
+    /**
+     * Stop the producer. Identities left in the ring can still be taken, after that {@link #take()} keeps
+     * generating identities directly.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(producer);
+
+        try {
+            producer.join();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Extracts Meson identities from text files, such as logs and NDJSON, in a single pass.
+ * <p>
+ * Files are memory mapped in chunks and searched for hex identities in both {@link Meson#toHexString()} and
+ * {@link Meson#toFormatString()} form, standing on word boundaries: a token is only accepted if neither the byte
+ * before nor the byte after it is an ASCII letter, digit or underscore. Tokens are decoded straight from the mapped
+ * bytes into their 128 bit form (see {@link Meson#getMostSignificantBits()}), no Strings or Meson objects are created.
+ * Tokens with an invalid sequence, which {@link Meson#isValidHexString(String)} would reject, are skipped.
+ * <p>
+ * Large files can be split into chunks scanned in parallel on a {@link ForkJoinPool}. Every chunk owns the tokens
+ * starting within it and reads a few bytes past its edges to check word boundaries, so results are the same as a
+ * sequential scan and come back in file order.
+ */
+public final class MesonScanner {
+    /**
+     * Default size of a chunk mapped and scanned at once, in bytes.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int MIN_CHUNK_SIZE = 4096;
+
+    private static final boolean[] WORD = new boolean[256];
+
+    static {
+        for (int c = '0'; c <= '9'; c++) {
+            WORD[c] = true;
+        }
+
+        for (int c = 'a'; c <= 'z'; c++) {
+            WORD[c] = true;
+            WORD[c - 'a' + 'A'] = true;
+        }
+
+        WORD['_'] = true;
+    }
+
+    /**
+     * Receives identities found by the scanner.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        /**
+         * Accept an identity.
+         *
+         * @param mostSignificantBits  most significant bits of the identity.
+         * @param leastSignificantBits least significant bits of the identity.
+         * @param offset               offset of the first character of the token in the file, in bytes.
+         */
+        void accept(long mostSignificantBits, long leastSignificantBits, long offset);
+    }
+
+    private MesonScanner() {
+    }
+
+    /**
+     * Scan a file and collect all identities found in it.
+     *
+     * @param file file to scan.
+     * @return identities in the order they appear in the file.
+     * @throws IOException if the file can not be read.
+     */
+    public static MesonBuffer scan(final File file) throws IOException {
+        final MesonBuffer buffer = new MesonBuffer();
+        scan(file, (msb, lsb, offset) -> buffer.add(msb, lsb));
+        return buffer;
+    }
+
+    /**
+     * Scan a file and pass all identities found in it to a sink, in the order they appear in the file.
+     *
+     * @param file file to scan.
+     * @param sink sink to receive the identities.
+     * @return number of identities found.
+     * @throws IOException if the file can not be read.
+     */
+    public static long scan(final File file, final Sink sink) throws IOException {
+        try (final RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+            long found = 0;
+
+            for (long start = 0; start < size; start += DEFAULT_CHUNK_SIZE) {
+                found += scanChunk(channel, size, start, Math.min(size, start + DEFAULT_CHUNK_SIZE), sink);
+            }
+
+            return found;
+        }
+    }
+
+    /**
+     * Scan a file in parallel on the common fork-join pool.
+     *
+     * @param file file to scan.
+     * @return identities in the order they appear in the file.
+     * @throws IOException if the file can not be read.
+     */
+    public static MesonBuffer scanParallel(final File file) throws IOException {
+        return scanParallel(file, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Scan a file in parallel.
+     *
+     * @param file      file to scan.
+     * @param pool      pool to scan chunks on.
+     * @param chunkSize size of a chunk scanned by a single task, in bytes, at least 4096.
+     * @return identities in the order they appear in the file.
+     * @throws IOException if the file can not be read.
+     */
+    public static MesonBuffer scanParallel(
+            final File file,
+            final ForkJoinPool pool,
+            final int chunkSize
+    ) throws IOException {
+        if (MIN_CHUNK_SIZE > chunkSize) {
+            throw new IllegalArgumentException(String.format("Chunk size must be at least %d", MIN_CHUNK_SIZE));
+        }
+
+        try (final RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+
+            try {
+                return pool.invoke(new ChunkTask(channel, size, 0, size, chunkSize));
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Scan identities starting within {@code [start, end)}, mapping one extra byte before and a token length after
+     * the range to check word boundaries.
+     */
+    private static long scanChunk(
+            final FileChannel channel,
+            final long size,
+            final long start,
+            final long end,
+            final Sink sink
+    ) throws IOException {
+        final long mapStart = Math.max(0, start - 1);
+        final long mapEnd = Math.min(size, end + MesonHex.FORMAT_LENGTH);
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+
+        return scan(mapped, mapStart, (int) (start - mapStart), (int) (end - mapStart), sink);
+    }
+
+    /**
+     * Scan identities starting within {@code [from, to)} of given buffer, which starts at {@code base} of the file.
+     */
+    static long scan(final ByteBuffer buffer, final long base, final int from, final int to, final Sink sink) {
+        final ByteBuffer scratch = ByteBuffer.allocate(Meson.BUFFER_SIZE_BYTES);
+        final int limit = buffer.limit();
+        long found = 0;
+        int p = from;
+
+        // Chunk starting mid-word does not own that word
+        if (0 < p && WORD[buffer.get(p - 1) & 0xFF]) {
+            p = skipWord(buffer, p, limit);
+        }
+
+        while (p < to) {
+            if (!WORD[buffer.get(p) & 0xFF]) {
+                p++;
+                continue;
+            }
+
+            final int compactEnd = p + MesonHex.HEX_LENGTH;
+            final int formatEnd = p + MesonHex.FORMAT_LENGTH;
+
+            if (compactEnd <= limit && isBoundary(buffer, compactEnd, limit)
+                    && MesonHex.decode(buffer, p, scratch, 0, false)) {
+                found += emit(scratch, base + p, sink);
+                p = compactEnd;
+            } else if (formatEnd <= limit && isBoundary(buffer, formatEnd, limit)
+                    && MesonHex.decode(buffer, p, scratch, 0, true)) {
+                found += emit(scratch, base + p, sink);
+                p = formatEnd;
+            } else {
+                p = skipWord(buffer, p, limit);
+            }
+        }
+
+        return found;
+    }
+
+    private static int emit(final ByteBuffer scratch, final long offset, final Sink sink) {
+        final long leastSignificantBits = (scratch.getShort(8) & 0xFFFFL) << 32 | (scratch.getInt(10) & 0xFFFFFFFFL);
+
+        if (0 > scratch.getInt(10)) {
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordValidationFailure();
+            }
+
+            return 0;
+        }
+
+        sink.accept(scratch.getLong(0), leastSignificantBits, offset);
+        return 1;
+    }
+
+    private static boolean isBoundary(final ByteBuffer buffer, final int index, final int limit) {
+        return index == limit || !WORD[buffer.get(index) & 0xFF];
+    }
+
+    private static int skipWord(final ByteBuffer buffer, int index, final int limit) {
+        while (index < limit && WORD[buffer.get(index) & 0xFF]) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static final class ChunkTask extends RecursiveTask<MesonBuffer> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long size;
+        private final long start;
+        private final long end;
+        private final int chunkSize;
+
+        private ChunkTask(
+                final FileChannel channel,
+                final long size,
+                final long start,
+                final long end,
+                final int chunkSize
+        ) {
+            this.channel = channel;
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected MesonBuffer compute() {
+            if (end - start <= chunkSize) {
+                final MesonBuffer buffer = new MesonBuffer();
+
+                try {
+                    scanChunk(channel, size, start, end, (msb, lsb, offset) -> buffer.add(msb, lsb));
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                return buffer;
+            }
+
+            final long middle = start + (end - start) / chunkSize / 2 * chunkSize;
+            final ChunkTask right = new ChunkTask(channel, size, Math.max(middle, start + chunkSize), end, chunkSize);
+            right.fork();
+
+            final MesonBuffer left = new ChunkTask(
+                    channel, size, start, Math.max(middle, start + chunkSize), chunkSize).compute();
+            left.addAll(right.join());
+            return left;
+        }
+    }
+}
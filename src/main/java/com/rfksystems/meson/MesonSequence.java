@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.rfksystems.meson.Meson.BORDERLINE_COUNTER_VALUE;
+
+/**
+ * Process wide sequence counter of Meson identities.
+ * <p>
+ * Besides handing out one sequence number at a time, the counter hands out contiguous blocks of sequence numbers.
+ * Blocks back batch generation, and the striped path: callers are spread over padded stripes by thread ID, and each
+ * stripe serves sequence numbers from its own block, touching the shared counter once per {@link #BLOCK_SIZE}
+ * identities. A thread always maps to the same stripe, so sequence numbers it receives keep increasing, except
+ * when a block is taken across a counter reset.
+ * <p>
+ * Nothing here blocks, parks or holds a monitor, so none of it pins virtual threads to their carriers.
+ */
+class MesonSequence {
+    /**
+     * Number of sequence numbers a stripe takes from the shared counter at once.
+     */
+    static final int BLOCK_SIZE = 64;
+
+    /**
+     * Largest block that can be reserved at once.
+     */
+    static final int MAX_RESERVATION = 1 << 16;
+
+    /**
+     * Stripe state is spaced eight longs (a cache line) apart to avoid false sharing.
+     */
+    private static final int PADDING = 8;
+
+    /**
+     * Seeded on first use, and on every reset, by {@link MesonEntropy}.
+     */
+    private static final AtomicInteger COUNTER = new AtomicInteger(MesonEntropy.nextSeed());
+
+    /**
+     * Holder of stripe state, initialized by the first striped call.
+     */
+    private static final class Stripes {
+        private static final int COUNT = stripeCount();
+
+        /**
+         * Per stripe state, limit of the block in upper 32 bits and next sequence number in lower 32 bits.
+         */
+        private static final AtomicLongArray STATE = new AtomicLongArray(COUNT * PADDING);
+    }
+
+    private static int stripeCount() {
+        final int wanted = Runtime.getRuntime().availableProcessors() * 4;
+        return Math.min(1024, Integer.highestOneBit(wanted - 1) << 1);
+    }
+
+    /**
+     * Retrieve current sequence number and increment the counter to next value.
+     *
+     * @return current sequence number.
+     */
+    static int next() {
+        final int sequence = COUNTER.getAndIncrement();
+
+        if (sequence > BORDERLINE_COUNTER_VALUE) {
+            COUNTER.set(MesonEntropy.nextSeed());
+
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordSequenceReset();
+            }
+        }
+
+        if (MesonMetrics.enabled) {
+            MesonMetrics.recordGenerated();
+        }
+
+        return sequence;
+    }
+
+    /**
+     * Reserve a contiguous block of sequence numbers. The counter is reset before the block would pass
+     * {@link Meson#BORDERLINE_COUNTER_VALUE}, so every number in the block is strictly greater than the previous one.
+     *
+     * @param count number of sequence numbers to reserve, between 1 and {@link #MAX_RESERVATION}.
+     * @return first sequence number of the block.
+     */
+    static int reserve(final int count) {
+        if (1 > count || MAX_RESERVATION < count) {
+            throw new IllegalArgumentException(String.format(
+                    "Reservation must be between 1 and %d", MAX_RESERVATION));
+        }
+
+        while (true) {
+            final int current = COUNTER.get();
+
+            if (current > BORDERLINE_COUNTER_VALUE - count) {
+                if (COUNTER.compareAndSet(current, MesonEntropy.nextSeed()) && MesonMetrics.enabled) {
+                    MesonMetrics.recordSequenceReset();
+                }
+
+                continue;
+            }
+
+            if (COUNTER.compareAndSet(current, current + count)) {
+                return current;
+            }
+
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordContentionRetry();
+            }
+        }
+    }
+
+    /**
+     * Retrieve next sequence number from the stripe of the calling thread.
+     *
+     * @return next sequence number.
+     */
+    static int nextStriped() {
+        final AtomicLongArray striped = Stripes.STATE;
+        final int index = stripe() * PADDING;
+
+        while (true) {
+            final long state = striped.get(index);
+            final int next = (int) state;
+            final int limit = (int) (state >>> 32);
+
+            if (next != limit) {
+                if (striped.compareAndSet(index, state, pack(next + 1, limit))) {
+                    return generated(next);
+                }
+            } else {
+                final int first = reserve(BLOCK_SIZE);
+
+                if (striped.compareAndSet(index, state, pack(first + 1, first + BLOCK_SIZE))) {
+                    return generated(first);
+                }
+            }
+
+            // Stripe shared with another thread that got there first, a refill lost this way leaves a gap
+            if (MesonMetrics.enabled) {
+                MesonMetrics.recordContentionRetry();
+            }
+        }
+    }
+
+    private static int generated(final int sequence) {
+        if (MesonMetrics.enabled) {
+            MesonMetrics.recordGenerated();
+        }
+
+        return sequence;
+    }
+
+    static int current() {
+        return COUNTER.get();
+    }
+
+    private static long pack(final int next, final int limit) {
+        return (long) limit << 32 | (next & 0xFFFFFFFFL);
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+
+        // Murmur3 finalizer, thread ID's are sequential
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+
+        return (int) id & (Stripes.COUNT - 1);
+    }
+}
@@ -0,0 +1,1232 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of Meson identities, in the manner of Roaring bitmaps.
+ * <p>
+ * Identities are partitioned by everything but the lower 16 bits of their sequence: time, generator ID and upper
+ * half of the sequence. Within a partition, lower halves of the sequences are held in a container that suits their
+ * density: a sorted array for sparse partitions, a 65536 bit bitmap for dense ones, or a list of runs for
+ * consecutive sequences, as generators produce them. A partition of consecutive identities from one generator within
+ * one millisecond thus costs a few bytes no matter how many identities it holds. Partitions of a single identity,
+ * as identities spread over many milliseconds make, are packed apart in arrays of their raw 14 byte form, with no
+ * container and no object of their own, and move into a container once a second identity joins them.
+ * <p>
+ * Partitions are kept sorted in identity order, so appending identities in ascending order is cheap, membership is a
+ * binary search, and {@link #union(MesonSet, MesonSet) union}, {@link #intersection(MesonSet, MesonSet) intersection}
+ * and {@link #difference(MesonSet, MesonSet) difference} walk both sets once, combining whole containers at a time.
+ * Arrays and bitmaps are turned into runs where that is smaller by {@link #optimize()} and by set operations. Adding
+ * an identity out of order shifts every partition after it, so building a set from unsorted identities one by one
+ * costs quadratic time; {@link #of(MesonBuffer)} and {@link #addAll(MesonBuffer)} sort them first and append instead.
+ * Not thread safe.
+ */
+public final class MesonSet {
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+    private static final int BITMAP_BYTES = BITMAP_WORDS * 8;
+
+    /**
+     * Most significant bits of identities in every partition.
+     */
+    private long[] highs;
+
+    /**
+     * Lower 16 bits of generator ID and upper 16 bits of sequence of identities in every partition.
+     */
+    private int[] mids;
+
+    private Container[] containers;
+    private int partitions;
+
+    /**
+     * Most significant bits of identities alone in their partition, kept apart of {@link #highs}.
+     */
+    private long[] singleHighs;
+
+    /**
+     * Lower 16 bits of generator ID and upper 16 bits of sequence of identities alone in their partition.
+     */
+    private int[] singleMids;
+
+    /**
+     * Lower 16 bits of sequence of identities alone in their partition.
+     */
+    private char[] singleLows;
+
+    private int singles;
+    private long size;
+
+    /**
+     * Create an empty set.
+     */
+    public MesonSet() {
+        this(16, 16);
+    }
+
+    private MesonSet(final int capacity, final int singleCapacity) {
+        this.highs = new long[capacity];
+        this.mids = new int[capacity];
+        this.containers = new Container[capacity];
+        this.singleHighs = new long[singleCapacity];
+        this.singleMids = new int[singleCapacity];
+        this.singleLows = new char[singleCapacity];
+    }
+
+    /**
+     * Add an identity.
+     *
+     * @param meson identity to add.
+     * @return whether or not the identity was not in the set yet.
+     */
+    public boolean add(final Meson meson) {
+        return add(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Add an identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return whether or not the identity was not in the set yet.
+     */
+    public boolean add(final long mostSignificantBits, final long leastSignificantBits) {
+        final int mid = (int) (leastSignificantBits >>> 16);
+        final int low = (int) leastSignificantBits & 0xFFFF;
+        final int index = find(highs, mids, partitions, mostSignificantBits, mid);
+
+        if (0 <= index) {
+            final Container container = containers[index];
+            final int cardinality = container.cardinality();
+            containers[index] = container.add(low);
+
+            if (containers[index].cardinality() == cardinality) {
+                return false;
+            }
+
+            size++;
+            return true;
+        }
+
+        final int single = find(singleHighs, singleMids, singles, mostSignificantBits, mid);
+
+        if (0 > single) {
+            insertSingle(-single - 1, mostSignificantBits, mid, (char) low);
+        } else if (singleLows[single] == low) {
+            return false;
+        } else {
+            // Second identity of the partition, give it a container
+            final Container container = new ArrayContainer().add(singleLows[single]).add(low);
+            deleteSingle(single);
+            insert(-index - 1, mostSignificantBits, mid, container);
+        }
+
+        size++;
+        return true;
+    }
+
+    /**
+     * Create a set of given identities in O(n log n), sorting the buffer in place and appending every partition
+     * after the previous one.
+     *
+     * @param identities identities to add, sorted in place.
+     * @return set of the identities.
+     */
+    public static MesonSet of(final MesonBuffer identities) {
+        identities.sort();
+
+        final MesonSet set = new MesonSet();
+        final int count = identities.size();
+        int from = 0;
+
+        while (from < count) {
+            final long high = identities.getMostSignificantBits(from);
+            final int mid = (int) (identities.getLeastSignificantBits(from) >>> 16);
+            int to = from + 1;
+
+            while (to < count && high == identities.getMostSignificantBits(to)
+                    && mid == (int) (identities.getLeastSignificantBits(to) >>> 16)) {
+                to++;
+            }
+
+            if (1 == to - from) {
+                set.insertSingle(set.singles, high, mid, (char) identities.getLeastSignificantBits(from));
+                set.size++;
+            } else {
+                // Ascending, every value is appended to the container
+                Container container = new ArrayContainer();
+
+                for (int i = from; i < to; i++) {
+                    container = container.add((int) identities.getLeastSignificantBits(i) & 0xFFFF);
+                }
+
+                set.append(high, mid, container);
+            }
+
+            from = to;
+        }
+
+        return set;
+    }
+
+    /**
+     * Add all identities of a buffer, sorting it in place and merging it with the set in a single pass. Prefer this
+     * to adding unsorted identities one by one, which shifts partitions on every add out of order.
+     *
+     * @param identities identities to add, sorted in place.
+     * @return number of identities that were not in the set yet.
+     */
+    public long addAll(final MesonBuffer identities) {
+        final MesonSet merged = union(this, of(identities));
+        final long added = merged.size - size;
+
+        highs = merged.highs;
+        mids = merged.mids;
+        containers = merged.containers;
+        partitions = merged.partitions;
+        singleHighs = merged.singleHighs;
+        singleMids = merged.singleMids;
+        singleLows = merged.singleLows;
+        singles = merged.singles;
+        size = merged.size;
+        return added;
+    }
+
+    /**
+     * Add all identities of a cursor, one by one. Cheap for identities in ascending order, unsorted ones are better
+     * collected into a {@link MesonBuffer} and added with {@link #addAll(MesonBuffer)}.
+     *
+     * @param cursor cursor to add identities of.
+     * @return number of identities that were not in the set yet.
+     */
+    public long addAll(final MesonCursor cursor) {
+        long added = 0;
+
+        while (cursor.advance()) {
+            if (add(cursor.getMostSignificantBits(), cursor.getLeastSignificantBits())) {
+                added++;
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Remove an identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return whether or not the identity was in the set.
+     */
+    public boolean remove(final long mostSignificantBits, final long leastSignificantBits) {
+        final int mid = (int) (leastSignificantBits >>> 16);
+        final int low = (int) leastSignificantBits & 0xFFFF;
+        final int index = find(highs, mids, partitions, mostSignificantBits, mid);
+
+        if (0 > index) {
+            final int single = find(singleHighs, singleMids, singles, mostSignificantBits, mid);
+
+            if (0 > single || singleLows[single] != low) {
+                return false;
+            }
+
+            deleteSingle(single);
+            size--;
+            return true;
+        }
+
+        final Container container = containers[index];
+        final int cardinality = container.cardinality();
+        final Container removed = container.remove(low);
+
+        if (removed.cardinality() == cardinality) {
+            return false;
+        }
+
+        size--;
+
+        if (0 == removed.cardinality()) {
+            delete(index);
+        } else {
+            containers[index] = removed;
+        }
+
+        return true;
+    }
+
+    /**
+     * Remove an identity.
+     *
+     * @param meson identity to remove.
+     * @return whether or not the identity was in the set.
+     */
+    public boolean remove(final Meson meson) {
+        return remove(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Check if an identity is in the set.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return whether or not the identity is in the set.
+     */
+    public boolean contains(final long mostSignificantBits, final long leastSignificantBits) {
+        final int mid = (int) (leastSignificantBits >>> 16);
+        final int low = (int) leastSignificantBits & 0xFFFF;
+        final int index = find(highs, mids, partitions, mostSignificantBits, mid);
+
+        if (0 <= index) {
+            return containers[index].contains(low);
+        }
+
+        final int single = find(singleHighs, singleMids, singles, mostSignificantBits, mid);
+        return 0 <= single && singleLows[single] == low;
+    }
+
+    /**
+     * Check if an identity is in the set.
+     *
+     * @param meson identity to look up.
+     * @return whether or not the identity is in the set.
+     */
+    public boolean contains(final Meson meson) {
+        return contains(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Get number of identities in the set.
+     *
+     * @return number of identities.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Check if the set holds no identities.
+     *
+     * @return whether or not the set is empty.
+     */
+    public boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Get approximate number of bytes used by the set.
+     *
+     * @return estimated size in bytes.
+     */
+    public long getSizeInBytes() {
+        long bytes = highs.length * 8L + mids.length * 4L + containers.length * 8L;
+        bytes += singleHighs.length * 8L + singleMids.length * 4L + singleLows.length * 2L;
+
+        for (int i = 0; i < partitions; i++) {
+            bytes += 16 + containers[i].sizeInBytes();
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Convert containers to their smallest representation, turning consecutive sequences into runs, and release
+     * memory reserved for identities yet to be added.
+     */
+    public void optimize() {
+        for (int i = 0; i < partitions; i++) {
+            containers[i] = containers[i].optimize();
+        }
+
+        highs = Arrays.copyOf(highs, partitions);
+        mids = Arrays.copyOf(mids, partitions);
+        containers = Arrays.copyOf(containers, partitions);
+        singleHighs = Arrays.copyOf(singleHighs, singles);
+        singleMids = Arrays.copyOf(singleMids, singles);
+        singleLows = Arrays.copyOf(singleLows, singles);
+    }
+
+    /**
+     * Create a cursor over identities of the set, in ascending order. The set must not be changed while the cursor is
+     * in use.
+     *
+     * @return cursor over the set.
+     */
+    public MesonCursor cursor() {
+        return new MesonCursor() {
+            private final Walker walker = new Walker(MesonSet.this);
+            private int low = -1;
+            private long mostSignificantBits;
+            private long leastSignificantBits;
+
+            @Override
+            public boolean advance() {
+                while (walker.hasNext()) {
+                    low = walker.next(low + 1);
+
+                    if (-1 != low) {
+                        mostSignificantBits = walker.high();
+                        leastSignificantBits = (walker.mid() & 0xFFFFFFFFL) << 16 | low;
+                        return true;
+                    }
+
+                    walker.skip();
+                }
+
+                return false;
+            }
+
+            @Override
+            public long getMostSignificantBits() {
+                return mostSignificantBits;
+            }
+
+            @Override
+            public long getLeastSignificantBits() {
+                return leastSignificantBits;
+            }
+        };
+    }
+
+    /**
+     * Create a set of identities in either of given sets.
+     *
+     * @param left  first set.
+     * @param right second set.
+     * @return union of the sets.
+     */
+    public static MesonSet union(final MesonSet left, final MesonSet right) {
+        final MesonSet result = new MesonSet(left.partitions + right.partitions, left.singles + right.singles);
+        final Walker l = new Walker(left);
+        final Walker r = new Walker(right);
+
+        while (l.hasNext() || r.hasNext()) {
+            final int comparison = !l.hasNext() ? 1 : !r.hasNext() ? -1 : l.compareTo(r);
+
+            if (0 > comparison) {
+                l.copyTo(result);
+            } else if (0 < comparison) {
+                r.copyTo(result);
+            } else {
+                result.append(l.high(), l.mid(), or(l.container(), r.container()));
+                l.skip();
+                r.skip();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Create a set of identities in both given sets.
+     *
+     * @param left  first set.
+     * @param right second set.
+     * @return intersection of the sets.
+     */
+    public static MesonSet intersection(final MesonSet left, final MesonSet right) {
+        final MesonSet result = new MesonSet(
+                Math.max(1, Math.min(left.partitions, right.partitions)),
+                Math.max(1, Math.min(left.singles, right.singles))
+        );
+        final Walker l = new Walker(left);
+        final Walker r = new Walker(right);
+
+        while (l.hasNext() && r.hasNext()) {
+            final int comparison = l.compareTo(r);
+
+            if (0 > comparison) {
+                l.seek(r.high(), r.mid());
+            } else if (0 < comparison) {
+                r.seek(l.high(), l.mid());
+            } else {
+                result.append(l.high(), l.mid(), and(l.container(), r.container()));
+                l.skip();
+                r.skip();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Create a set of identities in the first given set but not in the second one.
+     *
+     * @param left  set to take identities of.
+     * @param right set of identities to leave out.
+     * @return difference of the sets.
+     */
+    public static MesonSet difference(final MesonSet left, final MesonSet right) {
+        final MesonSet result = new MesonSet(Math.max(1, left.partitions), Math.max(1, left.singles));
+        final Walker l = new Walker(left);
+        final Walker r = new Walker(right);
+
+        while (l.hasNext()) {
+            final int comparison = !r.hasNext() ? -1 : l.compareTo(r);
+
+            if (0 > comparison) {
+                l.copyTo(result);
+            } else if (0 < comparison) {
+                r.seek(l.high(), l.mid());
+            } else {
+                result.append(l.high(), l.mid(), andNot(l.container(), r.container()));
+                l.skip();
+                r.skip();
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "MesonSet{size=" + size + ", partitions=" + (partitions + singles) + '}';
+    }
+
+    private static int compareKey(final long high, final int mid, final long otherHigh, final int otherMid) {
+        final int comparison = Long.compareUnsigned(high, otherHigh);
+        return 0 != comparison ? comparison : Integer.compareUnsigned(mid, otherMid);
+    }
+
+    private static int find(final long[] highs, final int[] mids, final int count, final long high, final int mid) {
+        // Identities mostly arrive in ascending order
+        if (0 < count) {
+            final int last = compareKey(high, mid, highs[count - 1], mids[count - 1]);
+
+            if (0 == last) {
+                return count - 1;
+            }
+
+            if (0 < last) {
+                return -count - 1;
+            }
+        }
+
+        return search(highs, mids, 0, count, high, mid);
+    }
+
+    /**
+     * Find first key at or after {@code from} that is at or after given key, galloping ahead.
+     */
+    private static int seek(final long[] highs, final int[] mids, final int count, final int from, final long high,
+                            final int mid) {
+        int bound = 1;
+
+        while (from + bound < count && 0 > compareKey(highs[from + bound], mids[from + bound], high, mid)) {
+            bound <<= 1;
+        }
+
+        final int index = search(highs, mids, from + (bound >>> 1), Math.min(count, from + bound + 1), high, mid);
+        return 0 > index ? -index - 1 : index;
+    }
+
+    private static int search(final long[] highs, final int[] mids, int low, int high, final long key, final int mid) {
+        high--;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int comparison = compareKey(highs[middle], mids[middle], key, mid);
+
+            if (0 > comparison) {
+                low = middle + 1;
+            } else if (0 < comparison) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -low - 1;
+    }
+
+    /**
+     * Append a partition after all partitions of the set, packing it apart if it holds a single identity.
+     */
+    private void append(final long high, final int mid, final Container container) {
+        if (null == container || 0 == container.cardinality()) {
+            return;
+        }
+
+        if (1 == container.cardinality()) {
+            insertSingle(singles, high, mid, (char) container.next(0));
+        } else {
+            insert(partitions, high, mid, container);
+        }
+
+        size += container.cardinality();
+    }
+
+    private void insert(final int index, final long high, final int mid, final Container container) {
+        if (partitions == highs.length) {
+            final int capacity = Math.max(16, partitions + (partitions >>> 1));
+            highs = Arrays.copyOf(highs, capacity);
+            mids = Arrays.copyOf(mids, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+
+        System.arraycopy(highs, index, highs, index + 1, partitions - index);
+        System.arraycopy(mids, index, mids, index + 1, partitions - index);
+        System.arraycopy(containers, index, containers, index + 1, partitions - index);
+        highs[index] = high;
+        mids[index] = mid;
+        containers[index] = container;
+        partitions++;
+    }
+
+    private void delete(final int index) {
+        System.arraycopy(highs, index + 1, highs, index, partitions - index - 1);
+        System.arraycopy(mids, index + 1, mids, index, partitions - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, partitions - index - 1);
+        partitions--;
+        containers[partitions] = null;
+    }
+
+    private void insertSingle(final int index, final long high, final int mid, final char low) {
+        if (singles == singleHighs.length) {
+            final int capacity = Math.max(16, singles + (singles >>> 1));
+            singleHighs = Arrays.copyOf(singleHighs, capacity);
+            singleMids = Arrays.copyOf(singleMids, capacity);
+            singleLows = Arrays.copyOf(singleLows, capacity);
+        }
+
+        System.arraycopy(singleHighs, index, singleHighs, index + 1, singles - index);
+        System.arraycopy(singleMids, index, singleMids, index + 1, singles - index);
+        System.arraycopy(singleLows, index, singleLows, index + 1, singles - index);
+        singleHighs[index] = high;
+        singleMids[index] = mid;
+        singleLows[index] = low;
+        singles++;
+    }
+
+    private void deleteSingle(final int index) {
+        System.arraycopy(singleHighs, index + 1, singleHighs, index, singles - index - 1);
+        System.arraycopy(singleMids, index + 1, singleMids, index, singles - index - 1);
+        System.arraycopy(singleLows, index + 1, singleLows, index, singles - index - 1);
+        singles--;
+    }
+
+    /**
+     * Walks partitions of a set and its packed single identities together, in key order. Keys of the two never
+     * overlap.
+     */
+    private static final class Walker {
+        private final MesonSet set;
+        private int partition;
+        private int single;
+
+        private Walker(final MesonSet set) {
+            this.set = set;
+        }
+
+        private boolean hasNext() {
+            return partition < set.partitions || single < set.singles;
+        }
+
+        private boolean atSingle() {
+            return partition == set.partitions || single < set.singles && 0 < compareKey(
+                    set.highs[partition], set.mids[partition], set.singleHighs[single], set.singleMids[single]);
+        }
+
+        private long high() {
+            return atSingle() ? set.singleHighs[single] : set.highs[partition];
+        }
+
+        private int mid() {
+            return atSingle() ? set.singleMids[single] : set.mids[partition];
+        }
+
+        private int compareTo(final Walker other) {
+            return compareKey(high(), mid(), other.high(), other.mid());
+        }
+
+        /**
+         * Smallest lower half of sequence at or above {@code from} in the current partition, or -1 if there is none.
+         */
+        private int next(final int from) {
+            if (atSingle()) {
+                return from <= set.singleLows[single] ? set.singleLows[single] : -1;
+            }
+
+            return set.containers[partition].next(from);
+        }
+
+        private Container container() {
+            return atSingle()
+                    ? new ArrayContainer(new char[]{set.singleLows[single]}, 1)
+                    : set.containers[partition];
+        }
+
+        private void copyTo(final MesonSet result) {
+            if (atSingle()) {
+                result.insertSingle(result.singles, set.singleHighs[single], set.singleMids[single],
+                        set.singleLows[single]);
+                result.size++;
+                single++;
+            } else {
+                result.append(set.highs[partition], set.mids[partition], set.containers[partition].copy());
+                partition++;
+            }
+        }
+
+        private void skip() {
+            if (atSingle()) {
+                single++;
+            } else {
+                partition++;
+            }
+        }
+
+        private void seek(final long high, final int mid) {
+            partition = MesonSet.seek(set.highs, set.mids, set.partitions, partition, high, mid);
+            single = MesonSet.seek(set.singleHighs, set.singleMids, set.singles, single, high, mid);
+        }
+    }
+
+    private static Container or(final Container left, final Container right) {
+        if (left instanceof ArrayContainer && right instanceof ArrayContainer
+                && left.cardinality() + right.cardinality() <= ARRAY_LIMIT) {
+            return ((ArrayContainer) left).or((ArrayContainer) right);
+        }
+
+        final long[] words = left.toWords();
+        right.orInto(words);
+        return fromWords(words).optimize();
+    }
+
+    private static Container and(final Container left, final Container right) {
+        if (left instanceof ArrayContainer) {
+            return ((ArrayContainer) left).filter(right, true);
+        }
+
+        if (right instanceof ArrayContainer) {
+            return ((ArrayContainer) right).filter(left, true);
+        }
+
+        final long[] words = left.toWords();
+        final long[] other = right.toWords();
+
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= other[i];
+        }
+
+        return fromWords(words).optimize();
+    }
+
+    private static Container andNot(final Container left, final Container right) {
+        if (left instanceof ArrayContainer) {
+            return ((ArrayContainer) left).filter(right, false);
+        }
+
+        final long[] words = left.toWords();
+        final long[] other = right.toWords();
+
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            words[i] &= ~other[i];
+        }
+
+        return fromWords(words).optimize();
+    }
+
+    private static Container fromWords(final long[] words) {
+        int cardinality = 0;
+
+        for (final long word : words) {
+            cardinality += Long.bitCount(word);
+        }
+
+        final BitmapContainer bitmap = new BitmapContainer(words, cardinality);
+        return cardinality <= ARRAY_LIMIT ? bitmap.toArray() : bitmap;
+    }
+
+    /**
+     * Container of lower 16 bits of sequences of a partition. Changing operations may return a different container.
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(int value);
+
+        abstract Container add(int value);
+
+        abstract Container remove(int value);
+
+        /**
+         * Smallest value at or above {@code from}, or -1 if there is none.
+         */
+        abstract int next(int from);
+
+        abstract long[] toWords();
+
+        abstract void orInto(long[] words);
+
+        abstract Container copy();
+
+        abstract int sizeInBytes();
+
+        /**
+         * Convert to the smallest of array, bitmap and run representation.
+         */
+        Container optimize() {
+            final long[] words = toWords();
+            int runs = 0;
+
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                final long word = words[i];
+                // Runs start where a bit is set and the bit below it, across word boundaries, is not
+                final long below = word << 1 | (0 == i ? 0 : words[i - 1] >>> 63);
+                runs += Long.bitCount(word & ~below);
+            }
+
+            final int cardinality = cardinality();
+            final int runBytes = runs * 4;
+            final int arrayBytes = cardinality * 2;
+
+            if (runBytes < arrayBytes && runBytes < BITMAP_BYTES) {
+                return this instanceof RunContainer ? this : RunContainer.fromWords(words, runs);
+            }
+
+            if (cardinality <= ARRAY_LIMIT) {
+                return this instanceof ArrayContainer ? this : new BitmapContainer(words, cardinality).toArray();
+            }
+
+            return this instanceof BitmapContainer ? this : new BitmapContainer(words, cardinality);
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        private ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        private ArrayContainer(final char[] values, final int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(final int value) {
+            return 0 <= Arrays.binarySearch(values, 0, cardinality, (char) value);
+        }
+
+        @Override
+        Container add(final int value) {
+            // Sequences mostly arrive in ascending order
+            final int index = 0 < cardinality && values[cardinality - 1] < value
+                    ? -cardinality - 1
+                    : Arrays.binarySearch(values, 0, cardinality, (char) value);
+
+            if (0 <= index) {
+                return this;
+            }
+
+            if (ARRAY_LIMIT == cardinality) {
+                // Consecutive sequences turn into a run here, and keep extending it
+                return toBitmap().add(value).optimize();
+            }
+
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+            }
+
+            final int insertion = -index - 1;
+            System.arraycopy(values, insertion, values, insertion + 1, cardinality - insertion);
+            values[insertion] = (char) value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Container remove(final int value) {
+            final int index = Arrays.binarySearch(values, 0, cardinality, (char) value);
+
+            if (0 <= index) {
+                System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+                cardinality--;
+            }
+
+            return this;
+        }
+
+        @Override
+        int next(final int from) {
+            int index = Arrays.binarySearch(values, 0, cardinality, (char) Math.min(from, 0xFFFF));
+
+            if (0 > index) {
+                index = -index - 1;
+            }
+
+            return from > 0xFFFF || index == cardinality ? -1 : values[index];
+        }
+
+        @Override
+        long[] toWords() {
+            final long[] words = new long[BITMAP_WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override
+        void orInto(final long[] words) {
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        @Override
+        int sizeInBytes() {
+            return values.length * 2;
+        }
+
+        private BitmapContainer toBitmap() {
+            return new BitmapContainer(toWords(), cardinality);
+        }
+
+        private ArrayContainer or(final ArrayContainer other) {
+            final char[] merged = new char[cardinality + other.cardinality];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+
+            while (i < cardinality && j < other.cardinality) {
+                final char a = values[i];
+                final char b = other.values[j];
+
+                if (a < b) {
+                    merged[k++] = a;
+                    i++;
+                } else if (a > b) {
+                    merged[k++] = b;
+                    j++;
+                } else {
+                    merged[k++] = a;
+                    i++;
+                    j++;
+                }
+            }
+
+            while (i < cardinality) {
+                merged[k++] = values[i++];
+            }
+
+            while (j < other.cardinality) {
+                merged[k++] = other.values[j++];
+            }
+
+            return new ArrayContainer(merged, k);
+        }
+
+        private ArrayContainer filter(final Container other, final boolean keep) {
+            final char[] filtered = new char[Math.max(1, cardinality)];
+            int k = 0;
+
+            for (int i = 0; i < cardinality; i++) {
+                if (other.contains(values[i]) == keep) {
+                    filtered[k++] = values[i];
+                }
+            }
+
+            return new ArrayContainer(filtered, k);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        private BitmapContainer(final long[] words, final int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(final int value) {
+            return 0 != (words[value >>> 6] & 1L << value);
+        }
+
+        @Override
+        Container add(final int value) {
+            final long word = words[value >>> 6];
+            final long updated = word | 1L << value;
+
+            if (word != updated) {
+                words[value >>> 6] = updated;
+                cardinality++;
+            }
+
+            return this;
+        }
+
+        @Override
+        Container remove(final int value) {
+            final long word = words[value >>> 6];
+            final long updated = word & ~(1L << value);
+
+            if (word != updated) {
+                words[value >>> 6] = updated;
+                cardinality--;
+            }
+
+            return cardinality <= ARRAY_LIMIT ? toArray() : this;
+        }
+
+        @Override
+        int next(final int from) {
+            if (from > 0xFFFF) {
+                return -1;
+            }
+
+            int index = from >>> 6;
+            long word = words[index] & -1L << from;
+
+            while (0 == word) {
+                if (++index == BITMAP_WORDS) {
+                    return -1;
+                }
+
+                word = words[index];
+            }
+
+            return index << 6 | Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        long[] toWords() {
+            return words.clone();
+        }
+
+        @Override
+        void orInto(final long[] target) {
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                target[i] |= words[i];
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        int sizeInBytes() {
+            return BITMAP_BYTES;
+        }
+
+        private ArrayContainer toArray() {
+            final char[] values = new char[Math.max(1, cardinality)];
+            int k = 0;
+
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                long word = words[i];
+
+                while (0 != word) {
+                    values[k++] = (char) (i << 6 | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+
+            return new ArrayContainer(values, k);
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        /**
+         * Pairs of run start and run length minus one.
+         */
+        private char[] runs;
+        private int count;
+        private int cardinality;
+
+        private RunContainer(final char[] runs, final int count, final int cardinality) {
+            this.runs = runs;
+            this.count = count;
+            this.cardinality = cardinality;
+        }
+
+        private static RunContainer fromWords(final long[] words, final int runCount) {
+            final char[] runs = new char[Math.max(2, runCount * 2)];
+            int count = 0;
+            int cardinality = 0;
+            int index = 0;
+            long word = words[0];
+
+            while (true) {
+                while (0 == word && index < BITMAP_WORDS - 1) {
+                    word = words[++index];
+                }
+
+                if (0 == word) {
+                    break;
+                }
+
+                final int start = index << 6 | Long.numberOfTrailingZeros(word);
+                // Fill zeros below the run, then look for the first zero above it
+                word |= word - 1;
+
+                while (-1L == word && index < BITMAP_WORDS - 1) {
+                    word = words[++index];
+                }
+
+                final int end = -1L == word ? 0x10000 : index << 6 | Long.numberOfTrailingZeros(~word);
+                runs[2 * count] = (char) start;
+                runs[2 * count + 1] = (char) (end - start - 1);
+                cardinality += end - start;
+                count++;
+
+                if (-1L == word) {
+                    break;
+                }
+
+                // Clear the run
+                word &= word + 1;
+            }
+
+            return new RunContainer(runs, count, cardinality);
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(final int value) {
+            final int run = runAtOrBefore(value);
+            return -1 != run && value <= runs[2 * run] + runs[2 * run + 1];
+        }
+
+        @Override
+        Container add(final int value) {
+            if (contains(value)) {
+                return this;
+            }
+
+            // Extending the last run is how consecutive sequences arrive
+            if (0 < count && value == runs[2 * count - 2] + runs[2 * count - 1] + 1) {
+                runs[2 * count - 1]++;
+                cardinality++;
+                return this;
+            }
+
+            return new BitmapContainer(toWords(), cardinality).add(value).optimize();
+        }
+
+        @Override
+        Container remove(final int value) {
+            if (!contains(value)) {
+                return this;
+            }
+
+            final BitmapContainer bitmap = new BitmapContainer(toWords(), cardinality);
+            bitmap.remove(value);
+            return bitmap.optimize();
+        }
+
+        @Override
+        int next(final int from) {
+            if (from > 0xFFFF) {
+                return -1;
+            }
+
+            final int run = runAtOrBefore(from);
+
+            if (-1 != run && from <= runs[2 * run] + runs[2 * run + 1]) {
+                return from;
+            }
+
+            return run + 1 < count ? runs[2 * (run + 1)] : -1;
+        }
+
+        @Override
+        long[] toWords() {
+            final long[] words = new long[BITMAP_WORDS];
+            orInto(words);
+            return words;
+        }
+
+        @Override
+        void orInto(final long[] words) {
+            for (int r = 0; r < count; r++) {
+                final int start = runs[2 * r];
+                final int end = start + runs[2 * r + 1];
+                final int first = start >>> 6;
+                final int last = end >>> 6;
+                final long lastMask = -1L >>> (63 - (end & 63));
+
+                if (first == last) {
+                    words[first] |= -1L << start & lastMask;
+                    continue;
+                }
+
+                words[first] |= -1L << start;
+
+                for (int i = first + 1; i < last; i++) {
+                    words[i] = -1L;
+                }
+
+                words[last] |= lastMask;
+            }
+        }
+
+        @Override
+        Container copy() {
+            return new RunContainer(Arrays.copyOf(runs, Math.max(2, count * 2)), count, cardinality);
+        }
+
+        @Override
+        int sizeInBytes() {
+            return runs.length * 2;
+        }
+
+        /**
+         * Index of last run starting at or before given value, or -1 if there is none.
+         */
+        private int runAtOrBefore(final int value) {
+            int low = 0;
+            int high = count - 1;
+
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+
+                if (runs[2 * middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+
+            return high;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Source of new identities for {@link Meson#stream()}. Every split holds its own {@link MesonBlock}, so parallel
+ * streams touch the shared counter once per block per worker.
+ * <p>
+ * Unbounded sources halve their estimate on every split, as {@link java.util.stream.Stream#generate} does.
+ */
+final class MesonSpliterator implements Spliterator<Meson> {
+    /**
+     * Splits smaller than this are not worth a task of their own.
+     */
+    private static final long MIN_SPLIT = MesonBlock.BLOCK_SIZE;
+
+    private final MesonBlock block = new MesonBlock();
+    private final boolean sized;
+    private long remaining;
+
+    MesonSpliterator() {
+        this(Long.MAX_VALUE, false);
+    }
+
+    MesonSpliterator(final long count) {
+        this(count, true);
+    }
+
+    private MesonSpliterator(final long remaining, final boolean sized) {
+        this.remaining = remaining;
+        this.sized = sized;
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super Meson> action) {
+        if (0 == remaining) {
+            return false;
+        }
+
+        action.accept(block.next(remaining));
+
+        if (sized) {
+            remaining--;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super Meson> action) {
+        if (!sized) {
+            while (true) {
+                action.accept(block.next(Long.MAX_VALUE));
+            }
+        }
+
+        for (; 0 < remaining; remaining--) {
+            action.accept(block.next(remaining));
+        }
+    }
+
+    @Override
+    public Spliterator<Meson> trySplit() {
+        if (2 * MIN_SPLIT > remaining) {
+            return null;
+        }
+
+        final long half = remaining >>> 1;
+        remaining -= half;
+
+        return new MesonSpliterator(half, sized);
+    }
+
+    @Override
+    public long estimateSize() {
+        return remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return DISTINCT | NONNULL | IMMUTABLE | (sized ? SIZED | SUBSIZED : 0);
+    }
+}
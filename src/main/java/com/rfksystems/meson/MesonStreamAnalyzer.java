@@ -0,0 +1,722 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static com.rfksystems.meson.MesonUtils.generatorIdFromBits;
+import static com.rfksystems.meson.MesonUtils.sequenceFromBits;
+import static com.rfksystems.meson.MesonUtils.timeFromBits;
+
+/**
+ * Streaming per-generator health summary of observed Meson identities, from a {@link MesonScanner}, a
+ * {@link MesonCursor}, an iterator or a live feed.
+ * <p>
+ * For every generator ID it keeps, in primitive arrays, the number of identities, the smallest, largest and last
+ * time, ordering violations (an identity smaller than the one before it), time regressions, sequence resets (the
+ * sequence falling while time does not), sequence gaps and duplicates, and a histogram of identities per second of
+ * identity time. Observing an identity allocates nothing once its generator is known.
+ * <p>
+ * Identities observed with their local receive time, see {@link #acceptReceived(long, long, long)}, also estimate
+ * clock skew of their generator: the largest difference between identity time and receive time. Transport delay
+ * only lowers it, so a positive skew is a generator clock running ahead by at least that much, which is what puts
+ * identities out of order in time ordered indexes. Identities from files are observed with {@link #accept(long, long)},
+ * skew is not estimated for them:
+ * <pre>
+ * MesonScanner.scan(file, (msb, lsb, offset) -&gt; analyzer.accept(msb, lsb));
+ * </pre>
+ * {@link #writePrometheus(Appendable)} writes the summaries in Prometheus text exposition format. All methods are
+ * synchronized.
+ */
+public final class MesonStreamAnalyzer {
+    /**
+     * Number of buckets of the identities per second histogram, bucket {@code b} counting seconds with up to
+     * {@code 2^b - 1} identities.
+     */
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    private static final long NO_SKEW = Long.MIN_VALUE;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Table table = new Table(INITIAL_CAPACITY);
+
+    /**
+     * Per generator state in parallel arrays, open addressed by generator ID.
+     */
+    private static final class Table {
+        final int mask;
+        int generators;
+        final boolean[] used;
+        final int[] generatorIds;
+        final long[] counts;
+        final long[] minTimes;
+        final long[] maxTimes;
+        final long[] lastTimes;
+        final int[] lastSequences;
+        final long[] orderingViolations;
+        final long[] timeRegressions;
+        final long[] sequenceResets;
+        final long[] sequenceGaps;
+        final long[] missingSequences;
+        final long[] duplicates;
+        final long[] skews;
+        final long[] currentSeconds;
+        final long[] currentSecondCounts;
+        final long[] peakPerSecond;
+        final long[] histograms;
+
+        Table(final int capacity) {
+            this.mask = capacity - 1;
+            this.used = new boolean[capacity];
+            this.generatorIds = new int[capacity];
+            this.counts = new long[capacity];
+            this.minTimes = new long[capacity];
+            this.maxTimes = new long[capacity];
+            this.lastTimes = new long[capacity];
+            this.lastSequences = new int[capacity];
+            this.orderingViolations = new long[capacity];
+            this.timeRegressions = new long[capacity];
+            this.sequenceResets = new long[capacity];
+            this.sequenceGaps = new long[capacity];
+            this.missingSequences = new long[capacity];
+            this.duplicates = new long[capacity];
+            this.skews = new long[capacity];
+            this.currentSeconds = new long[capacity];
+            this.currentSecondCounts = new long[capacity];
+            this.peakPerSecond = new long[capacity];
+            this.histograms = new long[capacity * HISTOGRAM_BUCKETS];
+        }
+
+        /**
+         * Find slot of a generator, or a free slot for it if absent.
+         */
+        int find(final int generatorId) {
+            int slot = (int) MesonHashing.fmix64(generatorId) & mask;
+
+            while (used[slot] && generatorIds[slot] != generatorId) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        void claim(final int slot, final int generatorId) {
+            used[slot] = true;
+            generatorIds[slot] = generatorId;
+            skews[slot] = NO_SKEW;
+            generators++;
+        }
+
+        Table grow() {
+            final Table grown = new Table((mask + 1) * 2);
+
+            for (int slot = 0; slot <= mask; slot++) {
+                if (used[slot]) {
+                    final int target = grown.find(generatorIds[slot]);
+                    grown.claim(target, generatorIds[slot]);
+                    grown.counts[target] = counts[slot];
+                    grown.minTimes[target] = minTimes[slot];
+                    grown.maxTimes[target] = maxTimes[slot];
+                    grown.lastTimes[target] = lastTimes[slot];
+                    grown.lastSequences[target] = lastSequences[slot];
+                    grown.orderingViolations[target] = orderingViolations[slot];
+                    grown.timeRegressions[target] = timeRegressions[slot];
+                    grown.sequenceResets[target] = sequenceResets[slot];
+                    grown.sequenceGaps[target] = sequenceGaps[slot];
+                    grown.missingSequences[target] = missingSequences[slot];
+                    grown.duplicates[target] = duplicates[slot];
+                    grown.skews[target] = skews[slot];
+                    grown.currentSeconds[target] = currentSeconds[slot];
+                    grown.currentSecondCounts[target] = currentSecondCounts[slot];
+                    grown.peakPerSecond[target] = peakPerSecond[slot];
+                    System.arraycopy(histograms, slot * HISTOGRAM_BUCKETS,
+                            grown.histograms, target * HISTOGRAM_BUCKETS, HISTOGRAM_BUCKETS);
+                }
+            }
+
+            return grown;
+        }
+
+        Summary summary(final int slot) {
+            return new Summary(
+                    generatorIds[slot],
+                    counts[slot],
+                    minTimes[slot],
+                    maxTimes[slot],
+                    lastTimes[slot],
+                    orderingViolations[slot],
+                    timeRegressions[slot],
+                    sequenceResets[slot],
+                    sequenceGaps[slot],
+                    missingSequences[slot],
+                    duplicates[slot],
+                    skews[slot],
+                    peakPerSecond[slot],
+                    Arrays.copyOfRange(histograms, slot * HISTOGRAM_BUCKETS, (slot + 1) * HISTOGRAM_BUCKETS),
+                    counts[slot] - currentSecondCounts[slot]
+            );
+        }
+    }
+
+    /**
+     * Create an empty analyzer.
+     */
+    public MesonStreamAnalyzer() {
+    }
+
+    /**
+     * Observe an identity, without skew estimation.
+     *
+     * @param meson Meson identity.
+     */
+    public void accept(final Meson meson) {
+        accept(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Observe an identity in its 128 bit form, without skew estimation.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     */
+    public synchronized void accept(final long mostSignificantBits, final long leastSignificantBits) {
+        observe(mostSignificantBits, leastSignificantBits);
+    }
+
+    /**
+     * Observe an identity received now, estimating skew against the local clock.
+     *
+     * @param meson Meson identity.
+     */
+    public void acceptReceived(final Meson meson) {
+        acceptReceived(meson.getMostSignificantBits(), meson.getLeastSignificantBits(), System.currentTimeMillis());
+    }
+
+    /**
+     * Observe an identity received at given local time, estimating skew against the local clock.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @param receivedAt           local UNIX timestamp in milliseconds of when the identity was received.
+     */
+    public synchronized void acceptReceived(
+            final long mostSignificantBits,
+            final long leastSignificantBits,
+            final long receivedAt
+    ) {
+        final int slot = observe(mostSignificantBits, leastSignificantBits);
+        final long skew = timeFromBits(mostSignificantBits) - receivedAt;
+
+        if (skew > table.skews[slot]) {
+            table.skews[slot] = skew;
+        }
+    }
+
+    /**
+     * Observe all identities of a cursor, without skew estimation.
+     *
+     * @param cursor cursor over identities.
+     * @return number of identities observed.
+     */
+    public synchronized long acceptAll(final MesonCursor cursor) {
+        long accepted = 0;
+
+        while (cursor.advance()) {
+            observe(cursor.getMostSignificantBits(), cursor.getLeastSignificantBits());
+            accepted++;
+        }
+
+        return accepted;
+    }
+
+    /**
+     * Observe all identities of an iterator, without skew estimation.
+     *
+     * @param iterator iterator over identities.
+     * @return number of identities observed.
+     */
+    public synchronized long acceptAll(final Iterator<Meson> iterator) {
+        long accepted = 0;
+
+        while (iterator.hasNext()) {
+            final Meson meson = iterator.next();
+            observe(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+            accepted++;
+        }
+
+        return accepted;
+    }
+
+    private int observe(final long mostSignificantBits, final long leastSignificantBits) {
+        final long time = timeFromBits(mostSignificantBits);
+        final int sequence = sequenceFromBits(leastSignificantBits);
+        final int generatorId = generatorIdFromBits(mostSignificantBits, leastSignificantBits);
+
+        Table t = table;
+        int slot = t.find(generatorId);
+
+        if (!t.used[slot]) {
+            if (t.generators + 1 > (t.mask + 1) / 2) {
+                t = table = t.grow();
+                slot = t.find(generatorId);
+            }
+
+            t.claim(slot, generatorId);
+        }
+
+        if (0 == t.counts[slot]++) {
+            t.minTimes[slot] = time;
+            t.maxTimes[slot] = time;
+            t.currentSeconds[slot] = time / 1000;
+        } else {
+            final long lastTime = t.lastTimes[slot];
+            final int lastSequence = t.lastSequences[slot];
+
+            if (time < lastTime) {
+                t.timeRegressions[slot]++;
+                t.orderingViolations[slot]++;
+            } else if (sequence < lastSequence) {
+                t.sequenceResets[slot]++;
+
+                if (time == lastTime) {
+                    t.orderingViolations[slot]++;
+                }
+            } else if (sequence == lastSequence) {
+                if (time == lastTime) {
+                    t.duplicates[slot]++;
+                }
+            } else if (sequence - 1 != lastSequence) {
+                t.sequenceGaps[slot]++;
+                t.missingSequences[slot] += (long) sequence - lastSequence - 1;
+            }
+
+            t.minTimes[slot] = Math.min(t.minTimes[slot], time);
+            t.maxTimes[slot] = Math.max(t.maxTimes[slot], time);
+        }
+
+        t.lastTimes[slot] = time;
+        t.lastSequences[slot] = sequence;
+
+        final long second = time / 1000;
+
+        if (second > t.currentSeconds[slot]) {
+            final long passed = t.currentSecondCounts[slot];
+            final int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(passed));
+            t.histograms[slot * HISTOGRAM_BUCKETS + bucket]++;
+            t.currentSeconds[slot] = second;
+            t.currentSecondCounts[slot] = 0;
+        }
+
+        // Identities of seconds already passed count towards the current one
+        final long inSecond = ++t.currentSecondCounts[slot];
+
+        if (inSecond > t.peakPerSecond[slot]) {
+            t.peakPerSecond[slot] = inSecond;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Get number of generators observed.
+     *
+     * @return number of generators.
+     */
+    public synchronized int getGeneratorCount() {
+        return table.generators;
+    }
+
+    /**
+     * Get summaries of all generators observed, ordered by generator ID as unsigned integer.
+     *
+     * @return summaries.
+     */
+    public synchronized Summary[] getSummaries() {
+        final Table t = table;
+        final Summary[] summaries = new Summary[t.generators];
+        int next = 0;
+
+        for (int slot = 0; slot <= t.mask; slot++) {
+            if (t.used[slot]) {
+                summaries[next++] = t.summary(slot);
+            }
+        }
+
+        Arrays.sort(summaries, (left, right) -> Integer.compareUnsigned(left.generatorId, right.generatorId));
+        return summaries;
+    }
+
+    /**
+     * Get summary of a generator.
+     *
+     * @param generatorId generator ID as big-endian integer.
+     * @return summary, or null if no identity of the generator was observed.
+     */
+    public synchronized Summary getSummary(final int generatorId) {
+        final int slot = table.find(generatorId);
+        return table.used[slot] ? table.summary(slot) : null;
+    }
+
+    /**
+     * Forget all generators.
+     */
+    public synchronized void reset() {
+        table = new Table(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Write summaries of all generators in Prometheus text exposition format, one series per generator labelled
+     * with its hex generator ID. Times and skew are in seconds, the identities per second histogram covers whole
+     * seconds of identity time that have passed.
+     *
+     * @param target appendable to write to.
+     * @throws IOException if writing fails.
+     */
+    public void writePrometheus(final Appendable target) throws IOException {
+        final Summary[] summaries = getSummaries();
+
+        family(target, "meson_stream_ids_total", "counter", "Identities observed");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_ids_total", summary, summary.count);
+        }
+
+        family(target, "meson_stream_min_time_seconds", "gauge", "Smallest identity time");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_min_time_seconds", summary, summary.minTime / 1000.0);
+        }
+
+        family(target, "meson_stream_max_time_seconds", "gauge", "Largest identity time");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_max_time_seconds", summary, summary.maxTime / 1000.0);
+        }
+
+        family(target, "meson_stream_last_time_seconds", "gauge", "Time of the last identity");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_last_time_seconds", summary, summary.lastTime / 1000.0);
+        }
+
+        family(target, "meson_stream_ordering_violations_total", "counter", "Identities smaller than the one before");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_ordering_violations_total", summary, summary.orderingViolations);
+        }
+
+        family(target, "meson_stream_time_regressions_total", "counter", "Identities with time before the one before");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_time_regressions_total", summary, summary.timeRegressions);
+        }
+
+        family(target, "meson_stream_sequence_resets_total", "counter", "Sequence decreases without time decrease");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_sequence_resets_total", summary, summary.sequenceResets);
+        }
+
+        family(target, "meson_stream_sequence_gaps_total", "counter", "Sequence increases by more than one");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_sequence_gaps_total", summary, summary.sequenceGaps);
+        }
+
+        family(target, "meson_stream_missing_sequences_total", "counter", "Sequence numbers skipped by gaps");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_missing_sequences_total", summary, summary.missingSequences);
+        }
+
+        family(target, "meson_stream_duplicates_total", "counter", "Identities equal to the one before");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_duplicates_total", summary, summary.duplicates);
+        }
+
+        family(target, "meson_stream_skew_seconds", "gauge", "Estimated clock skew, positive when ahead");
+        for (final Summary summary : summaries) {
+            if (summary.hasSkew()) {
+                sample(target, "meson_stream_skew_seconds", summary, summary.skew / 1000.0);
+            }
+        }
+
+        family(target, "meson_stream_peak_ids_per_second", "gauge", "Most identities in one second");
+        for (final Summary summary : summaries) {
+            sample(target, "meson_stream_peak_ids_per_second", summary, summary.peakPerSecond);
+        }
+
+        family(target, "meson_stream_ids_per_second", "histogram", "Identities per second of identity time");
+        for (final Summary summary : summaries) {
+            long cumulative = 0;
+
+            for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+                cumulative += summary.histogram[bucket];
+
+                target.append("meson_stream_ids_per_second_bucket{generator=\"").append(summary.getGeneratorIdHex())
+                        .append("\",le=\"")
+                        .append(HISTOGRAM_BUCKETS - 1 == bucket ? "+Inf" : Long.toString((1L << bucket) - 1))
+                        .append("\"} ").append(Long.toString(cumulative)).append('\n');
+            }
+
+            sample(target, "meson_stream_ids_per_second_sum", summary, summary.histogramSum);
+            sample(target, "meson_stream_ids_per_second_count", summary, cumulative);
+        }
+    }
+
+    /**
+     * Get summaries of all generators in Prometheus text exposition format.
+     *
+     * @return report, see {@link #writePrometheus(Appendable)}.
+     */
+    public String toPrometheus() {
+        final StringBuilder builder = new StringBuilder();
+
+        try {
+            writePrometheus(builder);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return builder.toString();
+    }
+
+    private static void family(final Appendable target, final String name, final String type, final String help)
+            throws IOException {
+        target.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        target.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final Appendable target, final String name, final Summary summary, final long value)
+            throws IOException {
+        target.append(name).append("{generator=\"").append(summary.getGeneratorIdHex()).append("\"} ")
+                .append(Long.toString(value)).append('\n');
+    }
+
+    private static void sample(final Appendable target, final String name, final Summary summary, final double value)
+            throws IOException {
+        target.append(name).append("{generator=\"").append(summary.getGeneratorIdHex()).append("\"} ")
+                .append(Double.toString(value)).append('\n');
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("MesonStreamAnalyzer{generators=%d}", table.generators);
+    }
+
+    /**
+     * Point-in-time copy of the summary of one generator.
+     */
+    public static final class Summary {
+        private final int generatorId;
+        private final long count;
+        private final long minTime;
+        private final long maxTime;
+        private final long lastTime;
+        private final long orderingViolations;
+        private final long timeRegressions;
+        private final long sequenceResets;
+        private final long sequenceGaps;
+        private final long missingSequences;
+        private final long duplicates;
+        private final long skew;
+        private final long peakPerSecond;
+        private final long[] histogram;
+        private final long histogramSum;
+
+        Summary(
+                final int generatorId,
+                final long count,
+                final long minTime,
+                final long maxTime,
+                final long lastTime,
+                final long orderingViolations,
+                final long timeRegressions,
+                final long sequenceResets,
+                final long sequenceGaps,
+                final long missingSequences,
+                final long duplicates,
+                final long skew,
+                final long peakPerSecond,
+                final long[] histogram,
+                final long histogramSum
+        ) {
+            this.generatorId = generatorId;
+            this.count = count;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.lastTime = lastTime;
+            this.orderingViolations = orderingViolations;
+            this.timeRegressions = timeRegressions;
+            this.sequenceResets = sequenceResets;
+            this.sequenceGaps = sequenceGaps;
+            this.missingSequences = missingSequences;
+            this.duplicates = duplicates;
+            this.skew = skew;
+            this.peakPerSecond = peakPerSecond;
+            this.histogram = histogram;
+            this.histogramSum = histogramSum;
+        }
+
+        /**
+         * Get generator ID.
+         *
+         * @return generator ID as big-endian integer.
+         */
+        public int getGeneratorId() {
+            return generatorId;
+        }
+
+        /**
+         * Get generator ID as hex string.
+         *
+         * @return 8 character hex string.
+         */
+        public String getGeneratorIdHex() {
+            return String.format("%08x", generatorId);
+        }
+
+        /**
+         * Get number of identities observed.
+         *
+         * @return number of identities.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get smallest identity time.
+         *
+         * @return UNIX timestamp in milliseconds.
+         */
+        public long getMinTime() {
+            return minTime;
+        }
+
+        /**
+         * Get largest identity time.
+         *
+         * @return UNIX timestamp in milliseconds.
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        /**
+         * Get time of the last identity observed.
+         *
+         * @return UNIX timestamp in milliseconds.
+         */
+        public long getLastTime() {
+            return lastTime;
+        }
+
+        /**
+         * Get number of identities smaller than the identity observed before them.
+         *
+         * @return number of ordering violations.
+         */
+        public long getOrderingViolations() {
+            return orderingViolations;
+        }
+
+        /**
+         * Get number of identities with time before the time of the identity observed before them.
+         *
+         * @return number of time regressions.
+         */
+        public long getTimeRegressions() {
+            return timeRegressions;
+        }
+
+        /**
+         * Get number of sequence decreases without time decreasing, as on counter resets and restarts.
+         *
+         * @return number of sequence resets.
+         */
+        public long getSequenceResets() {
+            return sequenceResets;
+        }
+
+        /**
+         * Get number of sequence increases by more than one.
+         *
+         * @return number of sequence gaps.
+         */
+        public long getSequenceGaps() {
+            return sequenceGaps;
+        }
+
+        /**
+         * Get number of sequence numbers skipped by gaps, identities issued but not observed.
+         *
+         * @return number of missing sequence numbers.
+         */
+        public long getMissingSequences() {
+            return missingSequences;
+        }
+
+        /**
+         * Get number of identities equal to the identity observed before them.
+         *
+         * @return number of duplicates.
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        /**
+         * Check if skew was estimated, that is identities were observed with receive time.
+         *
+         * @return whether or not skew was estimated.
+         */
+        public boolean hasSkew() {
+            return NO_SKEW != skew;
+        }
+
+        /**
+         * Get estimated clock skew: largest identity time minus local receive time.
+         *
+         * @return skew in milliseconds, positive when the generator clock runs ahead.
+         */
+        public long getSkew() {
+            return skew;
+        }
+
+        /**
+         * Get most identities observed in one second of identity time.
+         *
+         * @return peak identities per second.
+         */
+        public long getPeakPerSecond() {
+            return peakPerSecond;
+        }
+
+        /**
+         * Get number of passed seconds of identity time with up to {@code 2^bucket - 1} identities, and more than
+         * the bucket before.
+         *
+         * @param bucket bucket, between 0 and {@link MesonStreamAnalyzer#HISTOGRAM_BUCKETS} - 1.
+         * @return number of seconds.
+         */
+        public long getSecondsInBucket(final int bucket) {
+            return histogram[bucket];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Summary{generator=%s, count=%d, orderingViolations=%d, sequenceResets=%d, "
+                            + "sequenceGaps=%d, skew=%s}",
+                    getGeneratorIdHex(), count, orderingViolations, sequenceResets, sequenceGaps,
+                    hasSkew() ? skew + "ms" : "n/a");
+        }
+    }
+}
@@ -0,0 +1,506 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrent cache keyed by Meson identities, expiring entries by age of the identity itself.
+ * <p>
+ * The time embedded in every identity is the time its entity was created, so entries are placed in segments by that
+ * time, one segment per bucket of {@code bucketMillis}, held in a ring. Once all of a bucket is older than
+ * {@code maxAgeMillis} the whole segment is dropped from the ring at once; entries carry no timestamps of their own and
+ * are never scanned for expiry. Entries thus live for at least {@code maxAgeMillis} and at most one bucket longer.
+ * Identities already too old are not cached, neither are identities more than one bucket ahead of the clock.
+ * <p>
+ * When the cache grows past {@code maximumSize}, entries are evicted from the oldest bucket first, by approximate LRU:
+ * a few entries of the bucket are sampled and the least recently read one is dropped. Samples are taken by a cursor
+ * that keeps rotating through the bucket, so successive evictions look at different entries. Every bucket counts its
+ * own entries and closes its count when dropped, so writes racing with expiry never leave the size off. Hit, miss,
+ * eviction and expiry counts are kept in {@link LongAdder}'s.
+ *
+ * @param <V> type of cached values.
+ */
+public final class MesonTimeCache<V> {
+    private static final int LRU_SAMPLES = 8;
+
+    private final long maxAgeMillis;
+    private final long bucketMillis;
+    private final long maximumSize;
+    private final LongSupplier clock;
+    private final int slots;
+    private final AtomicReferenceArray<Bucket<V>> ring;
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong expiredBefore;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Create a cache without a size bound.
+     *
+     * @param maxAgeMillis age of identities after which their entries expire, in milliseconds.
+     * @param bucketMillis width of time buckets entries are expired in, in milliseconds.
+     */
+    public MesonTimeCache(final long maxAgeMillis, final long bucketMillis) {
+        this(maxAgeMillis, bucketMillis, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create a cache.
+     *
+     * @param maxAgeMillis age of identities after which their entries expire, in milliseconds.
+     * @param bucketMillis width of time buckets entries are expired in, in milliseconds, at least 1/65536 of the maximum
+     *                     age.
+     * @param maximumSize  number of entries above which entries are evicted.
+     */
+    public MesonTimeCache(final long maxAgeMillis, final long bucketMillis, final long maximumSize) {
+        this(maxAgeMillis, bucketMillis, maximumSize, System::currentTimeMillis);
+    }
+
+    MesonTimeCache(final long maxAgeMillis, final long bucketMillis, final long maximumSize, final LongSupplier clock) {
+        if (1 > bucketMillis || bucketMillis > maxAgeMillis) {
+            throw new IllegalArgumentException("Bucket width must be between 1 and maximum age");
+        }
+
+        if (1 << 16 < maxAgeMillis / bucketMillis) {
+            throw new IllegalArgumentException("Maximum age must not span more than 65536 buckets");
+        }
+
+        if (1 > maximumSize) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+
+        this.maxAgeMillis = maxAgeMillis;
+        this.bucketMillis = bucketMillis;
+        this.maximumSize = maximumSize;
+        this.clock = clock;
+        // Buckets from the oldest live one up to one ahead of the current one
+        this.slots = (int) (maxAgeMillis / bucketMillis) + 3;
+        this.ring = new AtomicReferenceArray<>(slots);
+        this.expiredBefore = new AtomicLong(oldestBucket(clock.getAsLong()));
+    }
+
+    /**
+     * Get value cached for given identity.
+     *
+     * @param key Meson identity.
+     * @return cached value, or null if there is none.
+     */
+    public V get(final Meson key) {
+        final long index = key.getTime() / bucketMillis;
+        final long now = clock.getAsLong();
+        expire(now);
+
+        final Bucket<V> bucket = ring.get(slot(index));
+
+        if (null != bucket && bucket.index == index && index >= oldestBucket(now)) {
+            final Entry<V> entry = bucket.entries.get(key);
+
+            if (null != entry) {
+                entry.accessed = System.nanoTime();
+                hits.increment();
+                return entry.value;
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Cache a value for given identity, unless the identity is too old or ahead of the clock.
+     *
+     * @param key   Meson identity.
+     * @param value value to cache.
+     * @return whether or not the value was cached.
+     */
+    public boolean put(final Meson key, final V value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Value must not be null");
+        }
+
+        final long index = key.getTime() / bucketMillis;
+        final Entry<V> entry = new Entry<>(value);
+
+        while (true) {
+            final Bucket<V> bucket = bucketFor(index);
+
+            if (null == bucket) {
+                return false;
+            }
+
+            if (!bucket.reserve()) {
+                // Dropped since it was looked up, look again
+                continue;
+            }
+
+            final long reserved = size.incrementAndGet();
+
+            if (null != bucket.entries.put(key, entry)) {
+                release(bucket);
+            }
+
+            if (bucket != ring.get(slot(index))) {
+                // Dropped while the entry was put, it must not outlive the bucket
+                if (bucket.entries.remove(key, entry)) {
+                    release(bucket);
+                }
+
+                return false;
+            }
+
+            if (reserved > maximumSize) {
+                evict();
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Get value cached for given identity, computing and caching it if there is none.
+     *
+     * @param key      Meson identity.
+     * @param function function to compute the value with.
+     * @return cached or computed value.
+     */
+    public V computeIfAbsent(final Meson key, final Function<? super Meson, ? extends V> function) {
+        final V cached = get(key);
+
+        if (null != cached) {
+            return cached;
+        }
+
+        final V value = function.apply(key);
+
+        if (null != value) {
+            put(key, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Remove value cached for given identity.
+     *
+     * @param key Meson identity.
+     * @return removed value, or null if there was none.
+     */
+    public V remove(final Meson key) {
+        final long index = key.getTime() / bucketMillis;
+        final Bucket<V> bucket = ring.get(slot(index));
+
+        if (null == bucket || bucket.index != index) {
+            return null;
+        }
+
+        final Entry<V> entry = bucket.entries.remove(key);
+
+        if (null == entry) {
+            return null;
+        }
+
+        release(bucket);
+        return entry.value;
+    }
+
+    /**
+     * Drop all buckets whose identities have all reached the maximum age. Runs on every read and write, call it to
+     * release memory of an idle cache.
+     */
+    public void expire() {
+        expire(clock.getAsLong());
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        for (int i = 0; i < slots; i++) {
+            final Bucket<V> bucket = ring.getAndSet(i, null);
+
+            if (null != bucket) {
+                size.addAndGet(-bucket.close());
+            }
+        }
+    }
+
+    /**
+     * Get approximate number of cached entries.
+     *
+     * @return number of entries.
+     */
+    public long size() {
+        return Math.max(0L, size.get());
+    }
+
+    /**
+     * Get number of reads that found a value.
+     *
+     * @return number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Get number of reads that found no value.
+     *
+     * @return number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Get number of entries evicted to keep the cache within its maximum size.
+     *
+     * @return number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get number of entries dropped along with their expired buckets.
+     *
+     * @return number of expired entries.
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * Expose cache metrics through a metrics registry.
+     *
+     * @param registry registry adapter to register the metrics with.
+     * @param name     name of the cache, metric names are prefixed with {@code meson.cache.<name>.}.
+     */
+    public void bindTo(final MesonMetricsRegistry registry, final String name) {
+        final String prefix = "meson.cache." + name + ".";
+
+        registry.gauge(prefix + "size", "Entries in the cache", this::size);
+        registry.counter(prefix + "hits", "Reads that found a value", hits::sum);
+        registry.counter(prefix + "misses", "Reads that found no value", misses::sum);
+        registry.counter(prefix + "evictions", "Entries evicted by size", evictions::sum);
+        registry.counter(prefix + "expirations", "Entries expired by age", expirations::sum);
+    }
+
+    private Bucket<V> bucketFor(final long index) {
+        final long now = clock.getAsLong();
+        expire(now);
+
+        if (index < oldestBucket(now) || index > now / bucketMillis + 1) {
+            return null;
+        }
+
+        final int slot = slot(index);
+
+        while (true) {
+            final Bucket<V> bucket = ring.get(slot);
+
+            if (null != bucket && bucket.index == index) {
+                return bucket;
+            }
+
+            if (null != bucket && bucket.index > index) {
+                // Slot already reused by a newer bucket, so this one expired meanwhile
+                return null;
+            }
+
+            final Bucket<V> created = new Bucket<>(index);
+
+            if (ring.compareAndSet(slot, bucket, created)) {
+                drop(bucket);
+                return created;
+            }
+        }
+    }
+
+    private void expire(final long now) {
+        final long oldest = oldestBucket(now);
+
+        while (true) {
+            final long before = expiredBefore.get();
+
+            if (oldest <= before) {
+                return;
+            }
+
+            if (expiredBefore.compareAndSet(before, oldest)) {
+                // Every bucket in the ring is visited at most once, however long the cache was idle
+                for (long index = Math.max(before, oldest - slots); index < oldest; index++) {
+                    final int slot = slot(index);
+                    final Bucket<V> bucket = ring.get(slot);
+
+                    if (null != bucket && bucket.index < oldest && ring.compareAndSet(slot, bucket, null)) {
+                        drop(bucket);
+                    }
+                }
+
+                return;
+            }
+        }
+    }
+
+    private void drop(final Bucket<V> bucket) {
+        if (null == bucket) {
+            return;
+        }
+
+        final long dropped = bucket.close();
+        size.addAndGet(-dropped);
+        expirations.add(dropped);
+    }
+
+    private void release(final Bucket<V> bucket) {
+        if (bucket.release()) {
+            size.decrementAndGet();
+        }
+    }
+
+    private void evict() {
+        final long now = clock.getAsLong();
+        final long newest = now / bucketMillis + 1;
+
+        for (long index = oldestBucket(now); index <= newest && size.get() > maximumSize; index++) {
+            final Bucket<V> bucket = ring.get(slot(index));
+
+            if (null == bucket || bucket.index != index) {
+                continue;
+            }
+
+            while (size.get() > maximumSize && !bucket.entries.isEmpty()) {
+                final Map.Entry<Meson, Entry<V>> victim = bucket.sample();
+
+                if (null != victim && bucket.entries.remove(victim.getKey(), victim.getValue())) {
+                    release(bucket);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private long oldestBucket(final long now) {
+        return (now - maxAgeMillis) / bucketMillis;
+    }
+
+    private int slot(final long index) {
+        return (int) Math.floorMod(index, (long) slots);
+    }
+
+    private static final class Bucket<V> {
+        private static final long CLOSED = -1L;
+
+        private final long index;
+        private final ConcurrentHashMap<Meson, Entry<V>> entries = new ConcurrentHashMap<>();
+        // Entries counted into the cache size, or CLOSED once the bucket is dropped
+        private final AtomicLong count = new AtomicLong();
+        private Iterator<Map.Entry<Meson, Entry<V>>> cursor;
+
+        private Bucket(final long index) {
+            this.index = index;
+        }
+
+        /**
+         * Count an entry about to be put, unless the bucket is dropped.
+         */
+        private boolean reserve() {
+            while (true) {
+                final long current = count.get();
+
+                if (CLOSED == current) {
+                    return false;
+                }
+
+                if (count.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Uncount an entry, unless the bucket is dropped and its count already taken off the cache size.
+         */
+        private boolean release() {
+            while (true) {
+                final long current = count.get();
+
+                if (CLOSED == current) {
+                    return false;
+                }
+
+                if (count.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private long close() {
+            final long dropped = count.getAndSet(CLOSED);
+            return CLOSED == dropped ? 0L : dropped;
+        }
+
+        /**
+         * Pick the least recently read of a few entries, continuing from where the previous sample stopped.
+         */
+        private synchronized Map.Entry<Meson, Entry<V>> sample() {
+            Map.Entry<Meson, Entry<V>> victim = null;
+            boolean rewound = false;
+
+            for (int i = 0; i < LRU_SAMPLES; i++) {
+                if (null == cursor || !cursor.hasNext()) {
+                    if (rewound) {
+                        break;
+                    }
+
+                    cursor = entries.entrySet().iterator();
+                    rewound = true;
+
+                    if (!cursor.hasNext()) {
+                        break;
+                    }
+                }
+
+                final Map.Entry<Meson, Entry<V>> candidate = cursor.next();
+
+                if (null == victim || candidate.getValue().accessed < victim.getValue().accessed) {
+                    victim = candidate;
+                }
+            }
+
+            return victim;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private volatile long accessed = System.nanoTime();
+
+        private Entry(final V value) {
+            this.value = value;
+        }
+    }
+}
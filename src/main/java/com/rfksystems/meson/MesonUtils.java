@@ -139,4 +139,39 @@ class MesonUtils {
                 | (bytes[offset + 2] & 0xFF) << 8
                 | (bytes[offset + 3] & 0xFF));
     }
+
+    static long mostSignificantBits(final long time, final int generatorId) {
+        return time << 16 | (generatorId >>> 16);
+    }
+
+    static long leastSignificantBits(final int generatorId, final int sequence) {
+        return (generatorId & 0xFFFFL) << 32 | (sequence & 0xFFFFFFFFL);
+    }
+
+    static long timeFromBits(final long mostSignificantBits) {
+        return mostSignificantBits >>> 16;
+    }
+
+    static int generatorIdFromBits(final long mostSignificantBits, final long leastSignificantBits) {
+        return (int) (mostSignificantBits << 16) | (int) (leastSignificantBits >>> 32) & 0xFFFF;
+    }
+
+    static int sequenceFromBits(final long leastSignificantBits) {
+        return (int) leastSignificantBits;
+    }
+
+    static int compareBits(
+            final long mostSignificantBits,
+            final long leastSignificantBits,
+            final long otherMostSignificantBits,
+            final long otherLeastSignificantBits
+    ) {
+        final int result = Long.compareUnsigned(mostSignificantBits, otherMostSignificantBits);
+
+        if (0 != result) {
+            return result;
+        }
+
+        return Long.compareUnsigned(leastSignificantBits, otherLeastSignificantBits);
+    }
 }
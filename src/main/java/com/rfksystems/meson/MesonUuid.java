@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static com.rfksystems.meson.Meson.BUFFER_SIZE_BYTES;
+
+/**
+ * Conversions between Meson identities and fixed width 128 bit forms that databases index natively.
+ * <p>
+ * <b>UUID</b>: identities map to RFC 9562 version 8 (custom) UUID's, laid out as
+ * <pre>
+ * | time (48) | version 0b1000 (4) | generator ID bits 31-20 (12) |
+ * | variant 0b10 (2) | generator ID bits 19-0 (20) | sequence (32) | zero padding (10) |
+ * </pre>
+ * Fields keep their order and the inserted bits are constant, so these UUID's sort in the same order as the Meson
+ * identities they come from, both as unsigned bytes (PostgreSQL {@code uuid}, {@code BINARY(16)}) and by
+ * {@link UUID#compareTo(UUID)}, up to year 6429 where the top bit of the time gets set.
+ * <p>
+ * <b>Padded bytes</b>: the 14 byte binary form of {@link Meson#toByteArray()} followed by two zero bytes, for
+ * {@code BINARY(16)} columns and 16 byte aligned records. Sorts as Meson identities do.
+ * <p>
+ * Conversions on primitive halves allocate nothing.
+ */
+public final class MesonUuid {
+    /**
+     * Size of padded binary form in bytes.
+     */
+    public static final int PADDED_SIZE_BYTES = 16;
+
+    private static final long VERSION = 8L << 12;
+    private static final long VERSION_MASK = 0xFL << 12;
+    private static final long VARIANT = 2L << 62;
+    private static final long VARIANT_MASK = 3L << 62;
+    private static final long PADDING_MASK = 0x3FFL;
+
+    private MesonUuid() {
+    }
+
+    /**
+     * Convert a Meson identity to an order preserving version 8 UUID.
+     *
+     * @param meson Meson identity.
+     * @return UUID.
+     */
+    public static UUID toUuid(final Meson meson) {
+        final long msb = meson.getMostSignificantBits();
+        final long lsb = meson.getLeastSignificantBits();
+        return new UUID(uuidMostSignificantBits(msb, lsb), uuidLeastSignificantBits(msb, lsb));
+    }
+
+    /**
+     * Convert an UUID created by {@link #toUuid(Meson)} back to Meson identity.
+     *
+     * @param uuid UUID holding a Meson identity.
+     * @return Meson identity.
+     * @throws IllegalArgumentException if the UUID does not hold a Meson identity.
+     */
+    public static Meson fromUuid(final UUID uuid) {
+        final long uuidMsb = uuid.getMostSignificantBits();
+        final long uuidLsb = uuid.getLeastSignificantBits();
+
+        if (!isMesonUuid(uuidMsb, uuidLsb)) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException("UUID does not hold a Meson identity");
+        }
+
+        return new Meson(mostSignificantBits(uuidMsb, uuidLsb), leastSignificantBits(uuidMsb, uuidLsb));
+    }
+
+    /**
+     * Check if UUID bits have the layout of {@link #toUuid(Meson)}.
+     *
+     * @param uuidMostSignificantBits  most significant bits of the UUID.
+     * @param uuidLeastSignificantBits least significant bits of the UUID.
+     * @return whether or not the UUID holds a Meson identity.
+     */
+    public static boolean isMesonUuid(final long uuidMostSignificantBits, final long uuidLeastSignificantBits) {
+        return VERSION == (uuidMostSignificantBits & VERSION_MASK)
+                && VARIANT == (uuidLeastSignificantBits & VARIANT_MASK)
+                && 0 == (uuidLeastSignificantBits & PADDING_MASK);
+    }
+
+    /**
+     * Get most significant bits of the UUID of a Meson identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return most significant bits of the UUID.
+     */
+    public static long uuidMostSignificantBits(final long mostSignificantBits, final long leastSignificantBits) {
+        // Time, version, upper 12 bits of generator ID
+        return mostSignificantBits & 0xFFFFFFFFFFFF0000L | VERSION | (mostSignificantBits >>> 4 & 0xFFFL);
+    }
+
+    /**
+     * Get least significant bits of the UUID of a Meson identity.
+     *
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @return least significant bits of the UUID.
+     */
+    public static long uuidLeastSignificantBits(final long mostSignificantBits, final long leastSignificantBits) {
+        // Lower 20 bits of generator ID are 4 from most significant bits and 16 from least significant bits
+        final long generatorIdLow = (mostSignificantBits & 0xFL) << 16 | leastSignificantBits >>> 32 & 0xFFFFL;
+        return VARIANT | generatorIdLow << 42 | (leastSignificantBits & 0xFFFFFFFFL) << 10;
+    }
+
+    /**
+     * Get most significant bits of the Meson identity held by UUID bits.
+     *
+     * @param uuidMostSignificantBits  most significant bits of the UUID.
+     * @param uuidLeastSignificantBits least significant bits of the UUID.
+     * @return most significant bits of the identity.
+     */
+    public static long mostSignificantBits(final long uuidMostSignificantBits, final long uuidLeastSignificantBits) {
+        return uuidMostSignificantBits & 0xFFFFFFFFFFFF0000L
+                | (uuidMostSignificantBits & 0xFFFL) << 4
+                | uuidLeastSignificantBits >>> 58 & 0xFL;
+    }
+
+    /**
+     * Get least significant bits of the Meson identity held by UUID bits.
+     *
+     * @param uuidMostSignificantBits  most significant bits of the UUID.
+     * @param uuidLeastSignificantBits least significant bits of the UUID.
+     * @return least significant bits of the identity.
+     */
+    public static long leastSignificantBits(final long uuidMostSignificantBits, final long uuidLeastSignificantBits) {
+        return (uuidLeastSignificantBits >>> 42 & 0xFFFFL) << 32 | uuidLeastSignificantBits >>> 10 & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Create padded 16 byte binary form of a Meson identity.
+     *
+     * @param meson Meson identity.
+     * @return 16 bytes.
+     */
+    public static byte[] toPaddedBytes(final Meson meson) {
+        final byte[] bytes = new byte[PADDED_SIZE_BYTES];
+        putPadded(ByteBuffer.wrap(bytes), 0, meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+        return bytes;
+    }
+
+    /**
+     * Read Meson identity from its padded 16 byte binary form.
+     *
+     * @param bytes 16 bytes.
+     * @return Meson identity.
+     * @throws IllegalArgumentException if the bytes do not hold a Meson identity.
+     */
+    public static Meson fromPaddedBytes(final byte[] bytes) {
+        if (PADDED_SIZE_BYTES != bytes.length) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException(String.format("Expected %d bytes", PADDED_SIZE_BYTES));
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        if (0 != buffer.getShort(BUFFER_SIZE_BYTES)) {
+            MesonMetrics.recordParseFailure();
+            throw new IllegalArgumentException("Padding must be zero");
+        }
+
+        return new Meson(getPaddedMostSignificantBits(buffer, 0), getPaddedLeastSignificantBits(buffer, 0));
+    }
+
+    /**
+     * Write padded 16 byte binary form of a Meson identity at given index of a buffer, leaving its position as is.
+     *
+     * @param target               big-endian buffer to write to.
+     * @param index                index to write at.
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     */
+    public static void putPadded(
+            final ByteBuffer target,
+            final int index,
+            final long mostSignificantBits,
+            final long leastSignificantBits
+    ) {
+        target.putLong(index, mostSignificantBits);
+        target.putLong(index + 8, leastSignificantBits << 16);
+    }
+
+    /**
+     * Read most significant bits of the identity in padded binary form at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return most significant bits of the identity.
+     */
+    public static long getPaddedMostSignificantBits(final ByteBuffer source, final int index) {
+        return source.getLong(index);
+    }
+
+    /**
+     * Read least significant bits of the identity in padded binary form at given index of a buffer.
+     *
+     * @param source big-endian buffer to read from.
+     * @param index  index to read at.
+     * @return least significant bits of the identity.
+     */
+    public static long getPaddedLeastSignificantBits(final ByteBuffer source, final int index) {
+        return source.getLong(index + 8) >>> 16;
+    }
+}
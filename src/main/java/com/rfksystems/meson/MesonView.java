@@ -0,0 +1,229 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.nio.ByteBuffer;
+
+import static com.rfksystems.meson.Meson.BUFFER_SIZE_BYTES;
+import static com.rfksystems.meson.MesonUtils.compareBits;
+
+/**
+ * Mutable, reusable view of a Meson identity in its 14 byte binary form ({@link Meson#toByteArray()}), stored in a
+ * {@code byte[]}, a heap {@link ByteBuffer} or an off-heap (direct or memory mapped) {@link ByteBuffer}.
+ * <p>
+ * A view is pointed at an identity with one of the {@code wrap} methods and reads fields straight from the
+ * underlying storage when asked, so scanning millions of stored identities allocates nothing. Convert to an
+ * immutable {@link Meson} with {@link #toMeson()} only for identities that are kept.
+ * <p>
+ * Buffers must be big-endian, as they are by default. A view is not thread safe, and reflects later writes to the
+ * storage it is pointed at.
+ */
+public final class MesonView implements Comparable<MesonView> {
+    private ByteBuffer source;
+    private byte[] array;
+    private int index;
+
+    /**
+     * Create a view not pointed at any identity yet.
+     */
+    public MesonView() {
+    }
+
+    /**
+     * Point this view at an identity in a byte array.
+     *
+     * @param bytes  array holding the identity.
+     * @param offset offset of the identity in the array.
+     * @return this view.
+     */
+    public MesonView wrap(final byte[] bytes, final int offset) {
+        checkBounds(bytes.length, offset);
+
+        // Wrapping buffer is kept for as long as the view stays on the same array
+        if (bytes != array) {
+            array = bytes;
+            source = ByteBuffer.wrap(bytes);
+        }
+
+        index = offset;
+        return this;
+    }
+
+    /**
+     * Point this view at an identity at given index of a buffer, regardless of its position.
+     *
+     * @param buffer big-endian buffer holding the identity.
+     * @param index  index of the identity in the buffer.
+     * @return this view.
+     */
+    public MesonView wrap(final ByteBuffer buffer, final int index) {
+        checkBounds(buffer.limit(), index);
+
+        array = null;
+        source = buffer;
+        this.index = index;
+        return this;
+    }
+
+    /**
+     * Point this view at the n-th of identities stored back to back in a buffer from index zero.
+     *
+     * @param buffer big-endian buffer holding the identities.
+     * @param n      number of the identity.
+     * @return this view.
+     */
+    public MesonView wrapNth(final ByteBuffer buffer, final int n) {
+        return wrap(buffer, n * BUFFER_SIZE_BYTES);
+    }
+
+    /**
+     * Get time of the identity.
+     *
+     * @return UNIX timestamp in milliseconds.
+     */
+    public long getTime() {
+        return (source.getShort(index) & 0xFFFFL) << 32 | source.getInt(index + 2) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Get generator ID of the identity.
+     *
+     * @return generator ID as big-endian integer.
+     */
+    public int getGeneratorId() {
+        return source.getInt(index + 6);
+    }
+
+    /**
+     * Get sequence number of the identity.
+     *
+     * @return sequence number.
+     */
+    public int getSequence() {
+        return source.getInt(index + 10);
+    }
+
+    /**
+     * Get most significant bits of the 128 bit form of the identity, see {@link Meson#getMostSignificantBits()}.
+     *
+     * @return most significant bits.
+     */
+    public long getMostSignificantBits() {
+        return source.getLong(index);
+    }
+
+    /**
+     * Get least significant bits of the 128 bit form of the identity, see {@link Meson#getLeastSignificantBits()}.
+     *
+     * @return least significant bits.
+     */
+    public long getLeastSignificantBits() {
+        return source.getLong(index + 6) & 0xFFFFFFFFFFFFL;
+    }
+
+    /**
+     * Check if the identity would pass validation of {@link Meson}.
+     *
+     * @return whether or not the identity is valid.
+     */
+    public boolean isValid() {
+        return 0 <= getSequence();
+    }
+
+    /**
+     * Compare with the identity another view is pointed at, in the order of {@link Meson#compareTo(Meson)}.
+     *
+     * @param other other view.
+     * @return negative, zero or positive as this identity is less than, equal to or greater than the other.
+     */
+    @Override
+    public int compareTo(final MesonView other) {
+        return compareBits(
+                getMostSignificantBits(),
+                getLeastSignificantBits(),
+                other.getMostSignificantBits(),
+                other.getLeastSignificantBits()
+        );
+    }
+
+    /**
+     * Compare with a Meson identity, in the order of {@link Meson#compareTo(Meson)}.
+     *
+     * @param other Meson identity.
+     * @return negative, zero or positive as this identity is less than, equal to or greater than the other.
+     */
+    public int compareTo(final Meson other) {
+        return compareBits(
+                getMostSignificantBits(),
+                getLeastSignificantBits(),
+                other.getMostSignificantBits(),
+                other.getLeastSignificantBits()
+        );
+    }
+
+    /**
+     * Write ASCII hex form of the identity at given index of a buffer, leaving its position as is.
+     *
+     * @param target big-endian buffer with room for {@link MesonHex#length(boolean)} bytes at index.
+     * @param index  index to write at.
+     * @param format whether to write format hex string ({@link Meson#toFormatString()}) rather than compact one.
+     */
+    public void writeHex(final ByteBuffer target, final int index, final boolean format) {
+        MesonHex.encode(source, this.index, target, index, format);
+    }
+
+    /**
+     * Append compact hex form of the identity, as of {@link Meson#toHexString()}, to a string builder.
+     *
+     * @param target string builder to append to.
+     * @return the string builder.
+     */
+    public StringBuilder appendHex(final StringBuilder target) {
+        appendHexChars(target, MesonHex.spread(source.getInt(index)), 8);
+        appendHexChars(target, MesonHex.spread(source.getShort(index + 4) << 16), 4);
+        appendHexChars(target, MesonHex.spread(getGeneratorId()), 8);
+        appendHexChars(target, MesonHex.spread(getSequence()), 8);
+        return target;
+    }
+
+    /**
+     * Copy the identity into an immutable Meson identity.
+     *
+     * @return Meson identity.
+     * @throws IllegalArgumentException if the identity is not valid.
+     */
+    public Meson toMeson() {
+        return new Meson(getMostSignificantBits(), getLeastSignificantBits());
+    }
+
+    @Override
+    public String toString() {
+        return null == source ? "MesonView{}" : "MesonView{" + appendHex(new StringBuilder()) + "}";
+    }
+
+    private static void appendHexChars(final StringBuilder target, final long chars, final int count) {
+        for (int i = 0; i < count; i++) {
+            target.append((char) (chars >>> 56 - 8 * i & 0xFF));
+        }
+    }
+
+    private static void checkBounds(final int length, final int offset) {
+        if (0 > offset || offset > length - BUFFER_SIZE_BYTES) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Identity of %d bytes at offset %d exceeds length %d", BUFFER_SIZE_BYTES, offset, length));
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson.jdbc;
+
+import com.rfksystems.meson.Meson;
+import com.rfksystems.meson.MesonBuffer;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * JDBC binding of Meson identities as fixed width columns, without going through Strings.
+ * <p>
+ * {@link Mapping#BINARY} stores the 14 byte binary form in a {@code BINARY(14)} column, {@link Mapping#LONGS} stores
+ * the 128 bit form in two {@code BIGINT} columns, most significant first. Both sort in identity order, so range scans by
+ * time use plain index ranges, see {@link #setTimeBound(PreparedStatement, int, Mapping, long)}. {@link Mapping#TEXT}
+ * maps the {@code VARCHAR(30)} format string, for existing schemas and migrations.
+ * <p>
+ * {@code null} identities are bound as SQL {@code NULL} and read back as {@code null}.
+ */
+public final class MesonJdbc {
+    private MesonJdbc() {
+    }
+
+    /**
+     * Column mapping of Meson identities.
+     */
+    public enum Mapping {
+        /**
+         * Format string, {@link Meson#toFormatString()}, in a {@code VARCHAR(30)} column.
+         */
+        TEXT(1, 30),
+
+        /**
+         * Binary form, {@link Meson#toByteArray()}, in a {@code BINARY(14)} column.
+         */
+        BINARY(1, Meson.BUFFER_SIZE_BYTES),
+
+        /**
+         * Most and least significant bits in two {@code BIGINT} columns. Sorts in identity order for times before
+         * the year 6429, when the sign bit of the most significant bits gets set.
+         */
+        LONGS(2, 16);
+
+        /**
+         * Latest time {@link #LONGS} sorts in identity order, before the sign bit of the most significant bits is
+         * set.
+         */
+        public static final long MAX_LONGS_TIME = Long.MAX_VALUE >>> 16;
+
+        private final int columnCount;
+        private final int sizeBytes;
+
+        Mapping(final int columnCount, final int sizeBytes) {
+            this.columnCount = columnCount;
+            this.sizeBytes = sizeBytes;
+        }
+
+        /**
+         * Get number of columns, and parameters, taken by an identity.
+         *
+         * @return 1 or 2.
+         */
+        public int getColumnCount() {
+            return columnCount;
+        }
+
+        /**
+         * Get size of an identity in a row or index key, before any overhead of the database.
+         *
+         * @return size in bytes.
+         */
+        public int getSizeBytes() {
+            return sizeBytes;
+        }
+    }
+
+    /**
+     * Bind identity to statement parameters.
+     *
+     * @param statement      statement.
+     * @param parameterIndex index of the first parameter, starting at 1.
+     * @param mapping        column mapping.
+     * @param meson          Meson identity, or {@code null}.
+     * @throws SQLException if binding fails.
+     */
+    public static void set(
+            final PreparedStatement statement,
+            final int parameterIndex,
+            final Mapping mapping,
+            final Meson meson
+    ) throws SQLException {
+        if (null == meson) {
+            setNull(statement, parameterIndex, mapping);
+            return;
+        }
+
+        set(statement, parameterIndex, mapping, meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+    }
+
+    /**
+     * Bind identity given in 128 bit form to statement parameters.
+     *
+     * @param statement            statement.
+     * @param parameterIndex       index of the first parameter, starting at 1.
+     * @param mapping              column mapping.
+     * @param mostSignificantBits  most significant bits of the identity.
+     * @param leastSignificantBits least significant bits of the identity.
+     * @throws SQLException if binding fails.
+     */
+    public static void set(
+            final PreparedStatement statement,
+            final int parameterIndex,
+            final Mapping mapping,
+            final long mostSignificantBits,
+            final long leastSignificantBits
+    ) throws SQLException {
+        switch (mapping) {
+            case TEXT:
+                statement.setString(parameterIndex,
+                        new Meson(mostSignificantBits, leastSignificantBits).toFormatString());
+                break;
+            case BINARY:
+                statement.setBytes(parameterIndex, toBytes(mostSignificantBits, leastSignificantBits));
+                break;
+            default:
+                statement.setLong(parameterIndex, mostSignificantBits);
+                statement.setLong(parameterIndex + 1, leastSignificantBits);
+        }
+    }
+
+    /**
+     * Bind SQL {@code NULL} to the parameters of an identity.
+     *
+     * @param statement      statement.
+     * @param parameterIndex index of the first parameter, starting at 1.
+     * @param mapping        column mapping.
+     * @throws SQLException if binding fails.
+     */
+    public static void setNull(
+            final PreparedStatement statement,
+            final int parameterIndex,
+            final Mapping mapping
+    ) throws SQLException {
+        switch (mapping) {
+            case TEXT:
+                statement.setNull(parameterIndex, Types.VARCHAR);
+                break;
+            case BINARY:
+                statement.setNull(parameterIndex, Types.BINARY);
+                break;
+            default:
+                statement.setNull(parameterIndex, Types.BIGINT);
+                statement.setNull(parameterIndex + 1, Types.BIGINT);
+        }
+    }
+
+    /**
+     * Bind the smallest identity of a millisecond, to select time ranges with {@code id >= ? AND id < ?}, or
+     * {@code msb >= ? AND msb < ?} for {@link Mapping#LONGS}, where only the first parameter is bound.
+     *
+     * @param statement      statement.
+     * @param parameterIndex index of the parameter, starting at 1.
+     * @param mapping        column mapping.
+     * @param time           UNIX timestamp in milliseconds, between {@link Meson#MIN_TIME} and {@link Meson#MAX_TIME},
+     *                       and at most {@link Mapping#MAX_LONGS_TIME} for {@link Mapping#LONGS}.
+     * @throws SQLException if binding fails.
+     */
+    public static void setTimeBound(
+            final PreparedStatement statement,
+            final int parameterIndex,
+            final Mapping mapping,
+            final long time
+    ) throws SQLException {
+        if (Meson.MIN_TIME > time || Meson.MAX_TIME < time) {
+            throw new IllegalArgumentException(String.format(
+                    "Time must be between %d and %d, got %d", Meson.MIN_TIME, Meson.MAX_TIME, time));
+        }
+
+        if (Mapping.LONGS == mapping && Mapping.MAX_LONGS_TIME < time) {
+            throw new IllegalArgumentException(String.format(
+                    "Time must be at most %d for LONGS, got %d", Mapping.MAX_LONGS_TIME, time));
+        }
+
+        switch (mapping) {
+            case TEXT:
+                statement.setString(parameterIndex, new Meson(time << 16, 0L).toFormatString());
+                break;
+            case BINARY:
+                statement.setBytes(parameterIndex, toBytes(time << 16, 0L));
+                break;
+            default:
+                statement.setLong(parameterIndex, time << 16);
+        }
+    }
+
+    /**
+     * Read identity from result columns.
+     *
+     * @param resultSet   result set positioned on a row.
+     * @param columnIndex index of the first column, starting at 1.
+     * @param mapping     column mapping.
+     * @return Meson identity, or {@code null} if the column is SQL {@code NULL}.
+     * @throws SQLException             if reading fails.
+     * @throws IllegalArgumentException if the value is not a valid identity.
+     */
+    public static Meson get(
+            final ResultSet resultSet,
+            final int columnIndex,
+            final Mapping mapping
+    ) throws SQLException {
+        switch (mapping) {
+            case TEXT: {
+                final String string = resultSet.getString(columnIndex);
+                return null == string ? null : new Meson(string);
+            }
+            case BINARY: {
+                final byte[] bytes = resultSet.getBytes(columnIndex);
+                return null == bytes ? null : new Meson(bytes);
+            }
+            default: {
+                final long mostSignificantBits = resultSet.getLong(columnIndex);
+
+                if (resultSet.wasNull()) {
+                    return null;
+                }
+
+                return new Meson(mostSignificantBits, resultSet.getLong(columnIndex + 1));
+            }
+        }
+    }
+
+    /**
+     * Bind and add a range of identities to the batch of a statement, executing it every {@code batchSize} rows and
+     * once more at the end. Parameters other than the identity are left as bound.
+     *
+     * @param statement      insert statement.
+     * @param parameterIndex index of the first parameter of the identity, starting at 1.
+     * @param mapping        column mapping.
+     * @param ids            identities.
+     * @param from           index of the first identity, inclusive.
+     * @param to             index of the last identity, exclusive.
+     * @param batchSize      rows per executed batch.
+     * @return number of rows added.
+     * @throws SQLException if binding or executing fails.
+     */
+    public static int insertBatch(
+            final PreparedStatement statement,
+            final int parameterIndex,
+            final Mapping mapping,
+            final MesonBuffer ids,
+            final int from,
+            final int to,
+            final int batchSize
+    ) throws SQLException {
+        if (0 > from || from > to || to > ids.size()) {
+            throw new IndexOutOfBoundsException(String.format(
+                    "Range %d to %d out of bounds for size %d", from, to, ids.size()));
+        }
+
+        if (1 > batchSize) {
+            throw new IllegalArgumentException(String.format("Batch size must be positive, got %d", batchSize));
+        }
+
+        int pending = 0;
+
+        for (int i = from; i < to; i++) {
+            set(statement, parameterIndex, mapping, ids.getMostSignificantBits(i), ids.getLeastSignificantBits(i));
+            statement.addBatch();
+
+            if (batchSize == ++pending) {
+                statement.executeBatch();
+                pending = 0;
+            }
+        }
+
+        if (0 != pending) {
+            statement.executeBatch();
+        }
+
+        return to - from;
+    }
+
+    /**
+     * Read identities of all remaining rows into a buffer in their 128 bit form, skipping SQL {@code NULL}.
+     *
+     * @param resultSet   result set.
+     * @param columnIndex index of the first column, starting at 1.
+     * @param mapping     column mapping.
+     * @param target      buffer to append identities to.
+     * @return number of identities read.
+     * @throws SQLException             if reading fails.
+     * @throws IllegalArgumentException if a value is not a valid identity.
+     */
+    public static int readAll(
+            final ResultSet resultSet,
+            final int columnIndex,
+            final Mapping mapping,
+            final MesonBuffer target
+    ) throws SQLException {
+        int count = 0;
+
+        while (resultSet.next()) {
+            if (Mapping.BINARY == mapping) {
+                final byte[] bytes = resultSet.getBytes(columnIndex);
+
+                if (null == bytes) {
+                    continue;
+                }
+
+                checkLength(bytes);
+                target.add(mostSignificantBits(bytes), leastSignificantBits(bytes));
+            } else {
+                final Meson meson = get(resultSet, columnIndex, mapping);
+
+                if (null == meson) {
+                    continue;
+                }
+
+                target.add(meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+            }
+
+            count++;
+        }
+
+        return count;
+    }
+
+    private static byte[] toBytes(final long mostSignificantBits, final long leastSignificantBits) {
+        final byte[] bytes = new byte[Meson.BUFFER_SIZE_BYTES];
+
+        for (int i = 0; i < 8; i++) {
+            bytes[i] = (byte) (mostSignificantBits >>> (56 - 8 * i));
+        }
+
+        for (int i = 0; i < 6; i++) {
+            bytes[8 + i] = (byte) (leastSignificantBits >>> (40 - 8 * i));
+        }
+
+        return bytes;
+    }
+
+    private static long mostSignificantBits(final byte[] bytes) {
+        long bits = 0;
+
+        for (int i = 0; i < 8; i++) {
+            bits = bits << 8 | bytes[i] & 0xFF;
+        }
+
+        return bits;
+    }
+
+    private static long leastSignificantBits(final byte[] bytes) {
+        long bits = 0;
+
+        for (int i = 8; i < Meson.BUFFER_SIZE_BYTES; i++) {
+            bits = bits << 8 | bytes[i] & 0xFF;
+        }
+
+        if (0 > (int) bits) {
+            throw new IllegalArgumentException("Sequence must not be negative");
+        }
+
+        return bits;
+    }
+
+    private static void checkLength(final byte[] bytes) {
+        if (Meson.BUFFER_SIZE_BYTES != bytes.length) {
+            throw new IllegalArgumentException(String.format(
+                    "Expected %d bytes, got %d", Meson.BUFFER_SIZE_BYTES, bytes.length));
+        }
+    }
+}
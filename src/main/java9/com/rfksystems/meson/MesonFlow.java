@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 RFK Systems
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and limitations under the License.
+ */
+
+package com.rfksystems.meson;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * {@link Flow.Publisher} of new Meson identities, for Java 9 and later (packaged under {@code META-INF/versions/9}).
+ * <p>
+ * Every subscriber gets an unbounded sequence of identities, emitted only as requested. The demand of each
+ * {@link Flow.Subscription#request(long)} is reserved from the shared sequence counter as one block, so requesting
+ * identities in bulk per window costs one counter update per window instead of one per identity. The publisher
+ * never completes, cancel the subscription to stop it.
+ */
+public final class MesonFlow {
+    private MesonFlow() {
+    }
+
+    /**
+     * Create a publisher emitting identities on the thread requesting them.
+     *
+     * @return publisher of new Meson identities.
+     */
+    public static Flow.Publisher<Meson> publisher() {
+        return publisher(Runnable::run);
+    }
+
+    /**
+     * Create a publisher emitting identities on given executor.
+     *
+     * @param executor executor to emit on.
+     * @return publisher of new Meson identities.
+     */
+    public static Flow.Publisher<Meson> publisher(final Executor executor) {
+        Objects.requireNonNull(executor, "executor");
+
+        return subscriber -> {
+            Objects.requireNonNull(subscriber, "subscriber");
+
+            final MesonEmitter emitter = new MesonEmitter(subscriber::onNext, subscriber::onError, executor);
+
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long count) {
+                    emitter.request(count);
+                }
+
+                @Override
+                public void cancel() {
+                    emitter.cancel();
+                }
+            });
+        };
+    }
+}
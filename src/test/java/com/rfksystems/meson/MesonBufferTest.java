@@ -0,0 +1,68 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonBufferTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+
+    @Test
+    public void test_grows_and_reads_back() {
+        final MesonBuffer buffer = new MesonBuffer(1);
+        final List<Meson> expected = new ArrayList<>();
+
+        for (int i = 0; i < 5000; i++) {
+            final Meson meson = new Meson(1_500_000_000_000L + i / 10, GENERATOR_ID, i);
+            expected.add(meson);
+            buffer.add(meson);
+        }
+
+        assertThat(buffer.size()).isEqualTo(expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            final Meson meson = expected.get(i);
+
+            assertThat(buffer.get(i)).isEqualTo(meson);
+            assertThat(buffer.getTime(i)).isEqualTo(meson.getTime());
+            assertThat(buffer.getSequence(i)).isEqualTo(meson.getSequence());
+        }
+    }
+
+    @Test
+    public void test_add_all_and_sort() {
+        final List<Meson> expected = new ArrayList<>();
+        final MesonBuffer first = new MesonBuffer();
+        final MesonBuffer second = new MesonBuffer();
+
+        for (int i = 0; i < 3000; i++) {
+            final Meson meson = new Meson(1000L + (i * 7919L) % 3000L, GENERATOR_ID, i);
+            expected.add(meson);
+            (0 == i % 2 ? first : second).add(meson);
+        }
+
+        first.addAll(second);
+        assertThat(first.isSorted()).isFalse();
+
+        first.sort();
+        Collections.sort(expected);
+
+        assertThat(first.isSorted()).isTrue();
+        assertThat(first.size()).isEqualTo(expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(first.get(i)).isEqualTo(expected.get(i));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_rejects_index_past_size() {
+        final MesonBuffer buffer = new MesonBuffer();
+        buffer.add(new Meson(1000L, GENERATOR_ID, 0));
+        buffer.getMostSignificantBits(1);
+    }
+}
@@ -0,0 +1,307 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonBurstGeneratorTest {
+    private static final byte[] GENERATOR_ID = {0x0a, 0x00, 0x00, 0x01};
+    private static final long START = 1_600_000_000_000L;
+
+    @Test
+    public void test_borrows_future_milliseconds_and_converges() {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator generator = new MesonBurstGenerator(4, 10, GENERATOR_ID, clock::get, nanos::get);
+
+        for (int i = 0; i < 4; i++) {
+            final Meson meson = generator.next();
+            assertThat(meson.getTime()).isEqualTo(START);
+            assertThat(meson.getSequence()).isEqualTo(i);
+        }
+
+        assertThat(generator.getDrift()).isEqualTo(0);
+        assertThat(generator.getBorrowed()).isEqualTo(0);
+
+        // Burst of 9 more uses up 2 milliseconds ahead of the clock and starts a third
+        Meson last = null;
+
+        for (int i = 0; i < 9; i++) {
+            last = generator.next();
+        }
+
+        assertThat(last.getTime()).isEqualTo(START + 3);
+        assertThat(last.getSequence()).isEqualTo(0);
+        assertThat(generator.getDrift()).isEqualTo(3);
+        assertThat(generator.getLargestDrift()).isEqualTo(3);
+        assertThat(generator.getBorrowed()).isEqualTo(3);
+
+        // Clock not past logical time yet, borrowed millisecond continues
+        clock.set(START + 2);
+        assertThat(generator.next().getTime()).isEqualTo(START + 3);
+        assertThat(generator.getDrift()).isEqualTo(1);
+
+        // Clock overtakes, wall time is used again
+        clock.set(START + 5);
+        final Meson converged = generator.next();
+        assertThat(converged.getTime()).isEqualTo(START + 5);
+        assertThat(converged.getSequence()).isEqualTo(0);
+        assertThat(generator.getDrift()).isEqualTo(0);
+        assertThat(generator.getLargestDrift()).isEqualTo(3);
+        assertThat(generator.getStalls()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_clock_regression_keeps_order() {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator generator = new MesonBurstGenerator(4, 10, GENERATOR_ID, clock::get, nanos::get);
+        final Meson before = generator.next();
+
+        clock.set(START - 5);
+        final Meson after = generator.next();
+
+        assertThat(after).isGreaterThan(before);
+        assertThat(after.getTime()).isEqualTo(START);
+        assertThat(generator.getLargestDrift()).isEqualTo(0);
+        assertThat(generator.getClockRegressions()).isEqualTo(1);
+        assertThat(generator.getLargestClockRegression()).isEqualTo(5);
+    }
+
+    @Test
+    public void test_clock_stepped_back_past_drift_bound_does_not_stall() {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator generator = new MesonBurstGenerator(2, 3, GENERATOR_ID, clock::get, nanos::get);
+        Meson previous = generator.next();
+
+        // Stepped back an hour, far past the drift bound, while identities keep coming at two per millisecond
+        clock.set(START - 3_600_000L);
+
+        for (int i = 0; i < 100; i++) {
+            nanos.addAndGet(500_000L);
+            final Meson meson = generator.next();
+            assertThat(meson).isGreaterThan(previous);
+            previous = meson;
+        }
+
+        assertThat(previous.getTime()).isEqualTo(START + 50);
+        assertThat(generator.getStalls()).isEqualTo(0);
+        assertThat(generator.getClockRegressions()).isEqualTo(100);
+        assertThat(generator.getLargestClockRegression()).isEqualTo(3_600_000L);
+        assertThat(generator.getDrift()).isEqualTo(0);
+
+        // Caught up, wall time is used again
+        clock.set(START + 60);
+        final Meson caughtUp = generator.next();
+
+        assertThat(caughtUp).isGreaterThan(previous);
+        assertThat(caughtUp.getTime()).isEqualTo(START + 60);
+        assertThat(generator.getClockRegressions()).isEqualTo(100);
+        assertThat(generator.getStalls()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_drift_stays_bounded_while_clock_is_set_back() throws Exception {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator generator = new MesonBurstGenerator(2, 3, GENERATOR_ID, clock::get, nanos::get);
+        clock.set(START - 3_600_000L);
+
+        // Fills the latest millisecond and the three ahead, as measured by the monotonic clock
+        final Meson[] burst = generator.batch(8);
+        assertThat(burst[7].getTime()).isEqualTo(START + 3);
+        assertThat(generator.getDrift()).isEqualTo(3);
+
+        final Meson[] stalled = new Meson[1];
+        final Thread thread = new Thread(() -> stalled[0] = generator.next());
+        thread.start();
+
+        while (0 == generator.getStalls()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(thread.isAlive()).isTrue();
+
+        // Monotonic clock moves on, wall clock is still an hour behind
+        nanos.set(1_000_000L);
+        thread.join();
+
+        assertThat(stalled[0].getTime()).isEqualTo(START + 4);
+        assertThat(stalled[0]).isGreaterThan(burst[7]);
+        assertThat(generator.getLargestDrift()).isAtMost(generator.getMaxDriftMillis());
+        assertThat(generator.getDrift()).isAtMost(generator.getMaxDriftMillis());
+    }
+
+    @Test
+    public void test_stalls_at_drift_bound() throws Exception {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator generator = new MesonBurstGenerator(2, 3, GENERATOR_ID, clock::get, nanos::get);
+
+        // Fills current millisecond and the three ahead
+        final Meson[] burst = generator.batch(8);
+        assertThat(burst[7].getTime()).isEqualTo(START + 3);
+        assertThat(generator.getDrift()).isEqualTo(3);
+
+        final Meson[] stalled = new Meson[1];
+        final Thread thread = new Thread(() -> stalled[0] = generator.next());
+        thread.start();
+
+        while (0 == generator.getStalls()) {
+            Thread.sleep(1);
+        }
+
+        assertThat(thread.isAlive()).isTrue();
+        clock.set(START + 1);
+        thread.join();
+
+        assertThat(stalled[0].getTime()).isEqualTo(START + 4);
+        assertThat(stalled[0]).isGreaterThan(burst[7]);
+        assertThat(generator.getLargestDrift()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_unique_and_ordered_under_concurrency() throws Exception {
+        final MesonBurstGenerator generator = new MesonBurstGenerator(64, 50, GENERATOR_ID);
+        final int threads = 4;
+        final int perThread = 100_000;
+        final List<List<Meson>> results = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final List<Meson> result = new ArrayList<>(perThread);
+            results.add(result);
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    result.add(generator.next());
+                }
+            }));
+        }
+
+        for (final Thread worker : workers) {
+            worker.start();
+        }
+
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        final Set<Meson> unique = new HashSet<>();
+
+        for (final List<Meson> result : results) {
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(result.get(i).getSequence()).isLessThan(64);
+
+                if (0 < i) {
+                    assertThat(result.get(i)).isGreaterThan(result.get(i - 1));
+                }
+            }
+
+            unique.addAll(result);
+        }
+
+        assertThat(unique).hasSize(threads * perThread);
+        assertThat(generator.getLargestDrift()).isAtMost(50L);
+    }
+
+    @Test
+    public void test_generators_side_by_side() {
+        final AtomicLong clock = new AtomicLong(START);
+        final AtomicLong nanos = new AtomicLong();
+        final MesonBurstGenerator first = new MesonBurstGenerator(4, 10, GENERATOR_ID, clock::get, nanos::get);
+        final MesonBurstGenerator second = new MesonBurstGenerator(
+                4, 10, new byte[]{0x0a, 0x00, 0x00, 0x02}, clock::get, nanos::get);
+        final Set<Meson> unique = new HashSet<>();
+        Meson previousFirst = null;
+        Meson previousSecond = null;
+
+        // Same clock, same ticks, told apart by generator ID only
+        for (int i = 0; i < 100; i++) {
+            final Meson fromFirst = first.next();
+            final Meson fromSecond = second.next();
+
+            assertThat(fromFirst.getTime()).isEqualTo(fromSecond.getTime());
+            assertThat(fromFirst.getSequence()).isEqualTo(fromSecond.getSequence());
+            assertThat(unique.add(fromFirst)).isTrue();
+            assertThat(unique.add(fromSecond)).isTrue();
+
+            if (null != previousFirst) {
+                assertThat(fromFirst).isGreaterThan(previousFirst);
+                assertThat(fromSecond).isGreaterThan(previousSecond);
+            }
+
+            previousFirst = fromFirst;
+            previousSecond = fromSecond;
+
+            if (3 == i % 4) {
+                clock.incrementAndGet();
+            }
+        }
+
+        for (final Meson meson : first.batch(16)) {
+            assertThat(unique.add(meson)).isTrue();
+        }
+
+        for (final Meson meson : second.batch(16)) {
+            assertThat(unique.add(meson)).isTrue();
+        }
+    }
+
+    @Test
+    public void test_invalid_arguments_are_rejected() {
+        final Runnable[] invalid = {
+                () -> new MesonBurstGenerator(0, 10, GENERATOR_ID),
+                () -> new MesonBurstGenerator(MesonBurstGenerator.MAX_SEQUENCES_PER_MILLISECOND + 1, 10, GENERATOR_ID),
+                () -> new MesonBurstGenerator(16, -1, GENERATOR_ID),
+                () -> new MesonBurstGenerator(16, 10, new byte[3]),
+                () -> new MesonBurstGenerator(2, 3, GENERATOR_ID).batch(9),
+                () -> new MesonBurstGenerator(GENERATOR_ID).batch(-1),
+        };
+
+        for (final Runnable runnable : invalid) {
+            try {
+                runnable.run();
+                fail("Arguments must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().isNotEmpty();
+            }
+        }
+    }
+
+    @Test
+    public void benchmark_burst() {
+        final int count = 2_000_000;
+        final MesonBurstGenerator generator = new MesonBurstGenerator(GENERATOR_ID);
+
+        for (int run = 0; run < 5; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                sink += new Meson().getSequence();
+            }
+
+            final long plain = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                sink += generator.next().getSequence();
+            }
+
+            final long burst = System.nanoTime() - start;
+
+            System.out.printf("%d identities: new Meson() %.1fms, burst generator %.1fms, largest drift %dms, "
+                            + "borrowed %dms, stalls %d (%d)%n",
+                    count, plain / 1e6, burst / 1e6, generator.getLargestDrift(), generator.getBorrowed(),
+                    generator.getStalls(), sink);
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.rfksystems.meson.MesonUtils.sequenceFromBits;
+import static com.rfksystems.meson.MesonUtils.timeFromBits;
+
+public class MesonConcurrencyTest {
+    private static final int CALLERS = 10000;
+    private static final int IDS_PER_CALLER = 1000;
+
+    @Test
+    public void test_batch_is_ordered_and_unique() throws Exception {
+        final Meson[] batch = Meson.batch(100000);
+
+        assertThat(batch).hasLength(100000);
+
+        for (int i = 1; i < batch.length; i++) {
+            assertThat(batch[i - 1].compareTo(batch[i])).isLessThan(0);
+        }
+
+        assertThat(Meson.batch(0)).hasLength(0);
+    }
+
+    @Test
+    public void test_batch_is_ordered_across_counter_reset() {
+        // Counter resets within the same millisecond only sometimes, repeat to hit it
+        for (int run = 0; run < 10; run++) {
+            // Leave room for one reservation only, the next one resets the counter
+            final int target = Meson.BORDERLINE_COUNTER_VALUE - MesonSequence.MAX_RESERVATION - 10;
+
+            while (MesonSequence.current() > target) {
+                MesonSequence.reserve(MesonSequence.MAX_RESERVATION);
+            }
+
+            while (MesonSequence.current() < target) {
+                MesonSequence.reserve(Math.min(MesonSequence.MAX_RESERVATION, target - MesonSequence.current()));
+            }
+
+            final Meson[] batch = Meson.batch(2 * MesonSequence.MAX_RESERVATION);
+
+            for (int i = 1; i < batch.length; i++) {
+                assertThat(batch[i - 1].compareTo(batch[i])).isLessThan(0);
+            }
+        }
+    }
+
+    @Test
+    public void test_batch_is_counted_in_metrics() throws Exception {
+        MesonMetrics.reset();
+        MesonMetrics.enable();
+
+        try {
+            Meson.batch(100);
+            Meson.batch(300);
+
+            final MesonMetricsSnapshot snapshot = MesonMetrics.snapshot();
+            assertThat(snapshot.getGenerated()).isEqualTo(400L);
+            assertThat(snapshot.getBatches()).isEqualTo(2L);
+            assertThat(snapshot.getLargestBatch()).isEqualTo(300L);
+            assertThat(snapshot.getAverageBatchSize()).isEqualTo(200.0);
+        } finally {
+            MesonMetrics.disable();
+            MesonMetrics.reset();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_reservation_is_bounded() throws Exception {
+        MesonSequence.reserve(MesonSequence.MAX_RESERVATION + 1);
+    }
+
+    @Test
+    public void test_concurrent_unique_and_ordered_per_thread() throws Exception {
+        final int threads = 16;
+        final int ids = 100000;
+        final long[][] msbs = new long[threads][ids];
+        final long[][] lsbs = new long[threads][ids];
+        final List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers.add(new Thread(() -> {
+                for (int i = 0; i < ids; i++) {
+                    final Meson meson = Meson.createConcurrent();
+                    msbs[thread][i] = meson.getMostSignificantBits();
+                    lsbs[thread][i] = meson.getLeastSignificantBits();
+                }
+            }));
+        }
+
+        final boolean metrics = MesonMetrics.isEnabled();
+        MesonMetrics.enable();
+        final long resetsBefore = MesonMetrics.snapshot().getSequenceResets();
+
+        try {
+            workers.forEach(Thread::start);
+
+            for (final Thread worker : workers) {
+                worker.join();
+            }
+        } finally {
+            if (!metrics) {
+                MesonMetrics.disable();
+            }
+        }
+
+        final long resets = MesonMetrics.snapshot().getSequenceResets() - resetsBefore;
+
+        for (int t = 0; t < threads; t++) {
+            long excused = 0;
+
+            for (int i = 1; i < ids; i++) {
+                // A block taken across a counter reset starts over, which only shows within the same millisecond.
+                // Excused only next to the borderline value, or once per reset recorded during the run
+                final int previous = sequenceFromBits(lsbs[t][i - 1]);
+                final boolean counterReset = timeFromBits(msbs[t][i - 1]) == timeFromBits(msbs[t][i])
+                        && previous > sequenceFromBits(lsbs[t][i])
+                        && (previous > Meson.BORDERLINE_COUNTER_VALUE - MesonSequence.MAX_RESERVATION
+                        || excused < resets);
+
+                if (counterReset) {
+                    excused++;
+                } else {
+                    assertWithMessage("Thread %s at %s", t, i)
+                            .that(MesonUtils.compareBits(msbs[t][i - 1], lsbs[t][i - 1], msbs[t][i], lsbs[t][i]))
+                            .isLessThan(0);
+                }
+            }
+        }
+
+        // Generator ID is the same for all identities, sequence numbers alone must be unique
+        final long[] sequences = new long[threads * ids];
+
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < ids; i++) {
+                sequences[t * ids + i] = lsbs[t][i] & 0xFFFFFFFFL;
+            }
+        }
+
+        Arrays.sort(sequences);
+
+        for (int i = 1; i < sequences.length; i++) {
+            assertThat(sequences[i]).isNotEqualTo(sequences[i - 1]);
+        }
+    }
+
+    @Test
+    public void benchmark_platform_threads_10k_callers() throws Exception {
+        final long shared = runCallers(null, Meson::new);
+        final long striped = runCallers(null, Meson::createConcurrent);
+
+        System.out.printf("Platform threads, %d callers, shared counter: %dms\n", CALLERS, shared);
+        System.out.printf("Platform threads, %d callers, striped: %dms\n", CALLERS, striped);
+    }
+
+    @Test
+    public void benchmark_virtual_threads_10k_callers() throws Exception {
+        final ExecutorService probe = MesonStressHarness.newVirtualThreadExecutor();
+
+        if (null == probe) {
+            System.out.println("Virtual threads are not supported by this JVM, skipping benchmark");
+            return;
+        }
+
+        probe.shutdown();
+
+        final long shared = runCallers(MesonStressHarness.newVirtualThreadExecutor(), Meson::new);
+        final long striped = runCallers(MesonStressHarness.newVirtualThreadExecutor(), Meson::createConcurrent);
+
+        System.out.printf("Virtual threads, %d callers, shared counter: %dms\n", CALLERS, shared);
+        System.out.printf("Virtual threads, %d callers, striped: %dms\n", CALLERS, striped);
+    }
+
+    /**
+     * Start all callers at once, either as platform threads or on given virtual thread executor.
+     *
+     * @return milliseconds until all callers are done.
+     */
+    private long runCallers(final ExecutorService virtual, final Supplier<Meson> generator) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Runnable caller = () -> {
+            try {
+                start.await();
+            } catch (final InterruptedException e) {
+                return;
+            }
+
+            for (int i = 0; i < IDS_PER_CALLER; i++) {
+                generator.get();
+            }
+        };
+
+        final List<Thread> threads = new ArrayList<>();
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (int i = 0; i < CALLERS; i++) {
+            if (null == virtual) {
+                final Thread thread = new Thread(caller);
+                thread.start();
+                threads.add(thread);
+            } else {
+                futures.add(virtual.submit(caller));
+            }
+        }
+
+        final long begin = System.currentTimeMillis();
+        start.countDown();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+
+        final long elapsed = System.currentTimeMillis() - begin;
+
+        if (null != virtual) {
+            virtual.shutdown();
+            virtual.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        return elapsed;
+    }
+}
@@ -0,0 +1,102 @@
+package com.rfksystems.meson;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonEntropyTest {
+    @After
+    public void tearDown() {
+        MesonEntropy.useFast();
+    }
+
+    @Test
+    public void test_seeds_are_never_negative() {
+        for (final MesonEntropy.Strategy strategy : MesonEntropy.Strategy.values()) {
+            use(strategy);
+            assertThat(MesonEntropy.getStrategy()).isEqualTo(strategy);
+
+            for (int i = 0; i < 100_000; i++) {
+                assertThat(MesonEntropy.nextSeed()).isAtLeast(0);
+            }
+        }
+    }
+
+    @Test
+    public void test_configured_seed_is_reproducible() {
+        MesonEntropy.useSeed(42);
+        final int[] first = {MesonEntropy.nextSeed(), MesonEntropy.nextSeed(), MesonEntropy.nextSeed()};
+
+        MesonEntropy.useSeed(42);
+        final int[] second = {MesonEntropy.nextSeed(), MesonEntropy.nextSeed(), MesonEntropy.nextSeed()};
+
+        assertThat(second).isEqualTo(first);
+        assertThat(first[0]).isNotEqualTo(first[1]);
+
+        MesonEntropy.useSeed(43);
+        assertThat(MesonEntropy.nextSeed()).isNotEqualTo(first[0]);
+    }
+
+    @Test
+    public void test_reset_draws_from_strategy() {
+        final int count = MesonSequence.MAX_RESERVATION;
+
+        // Move the counter up to the borderline value
+        while (MesonSequence.current() <= Meson.BORDERLINE_COUNTER_VALUE - count) {
+            MesonSequence.reserve(count);
+        }
+
+        MesonEntropy.useSeed(7);
+        final int expected = MesonEntropy.nextSeed();
+        MesonEntropy.useSeed(7);
+
+        assertThat(expected).isAtMost(Meson.BORDERLINE_COUNTER_VALUE - count);
+        assertThat(MesonSequence.reserve(count)).isEqualTo(expected);
+    }
+
+    @Test
+    public void benchmark_seeding() {
+        final int count = 100_000;
+
+        for (int run = 0; run < 3; run++) {
+            long sink = 0;
+            final long[] took = new long[MesonEntropy.Strategy.values().length];
+
+            for (final MesonEntropy.Strategy strategy : MesonEntropy.Strategy.values()) {
+                use(strategy);
+                final long start = System.nanoTime();
+
+                for (int i = 0; i < count; i++) {
+                    sink += MesonEntropy.nextSeed();
+                }
+
+                took[strategy.ordinal()] = System.nanoTime() - start;
+            }
+
+            final long start = System.nanoTime();
+
+            for (int i = 0; i < count / 100; i++) {
+                sink += new SecureRandom().nextInt();
+            }
+
+            final long secureRandom = System.nanoTime() - start;
+
+            System.out.printf("Seed: fast %.1fns, secure %.1fns, seeded %.1fns, new SecureRandom() %.1fns (%d)%n",
+                    (double) took[0] / count, (double) took[1] / count, (double) took[2] / count,
+                    (double) secureRandom / (count / 100), sink & 1);
+        }
+    }
+
+    private static void use(final MesonEntropy.Strategy strategy) {
+        if (MesonEntropy.Strategy.SECURE == strategy) {
+            MesonEntropy.useSecure();
+        } else if (MesonEntropy.Strategy.SEEDED == strategy) {
+            MesonEntropy.useSeed(1);
+        } else {
+            MesonEntropy.useFast();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.rfksystems.meson;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonFlowTest {
+    @Test
+    public void test_emits_only_requested() {
+        final List<Meson> received = new ArrayList<>();
+        final MesonEmitter emitter = new MesonEmitter(received::add, e -> {
+            throw new AssertionError(e);
+        }, Runnable::run);
+
+        emitter.request(10);
+        assertThat(received).hasSize(10);
+
+        emitter.request(2500);
+        assertThat(received).hasSize(2510);
+        assertThat(received).containsNoDuplicates();
+
+        emitter.cancel();
+        emitter.request(10);
+        assertThat(received).hasSize(2510);
+    }
+
+    @Test
+    public void test_request_from_on_next_does_not_recurse() {
+        final int[] received = {0};
+        final int[] depth = {0, 0};
+        final MesonEmitter[] emitter = {null};
+
+        emitter[0] = new MesonEmitter(meson -> {
+            depth[0]++;
+            depth[1] = Math.max(depth[1], depth[0]);
+
+            if (100_000 > ++received[0]) {
+                emitter[0].request(1);
+            }
+
+            depth[0]--;
+        }, e -> {
+            throw new AssertionError(e);
+        }, Runnable::run);
+
+        emitter[0].request(1);
+
+        assertThat(received[0]).isEqualTo(100_000);
+        assertThat(depth[1]).isEqualTo(1);
+    }
+
+    @Test
+    public void test_non_positive_request_is_an_error() {
+        final List<Meson> received = new ArrayList<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final MesonEmitter emitter = new MesonEmitter(received::add, error::set, Runnable::run);
+
+        emitter.request(5);
+        emitter.request(0);
+        emitter.request(5);
+
+        assertThat(received).hasSize(5);
+        assertThat(error.get()).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void test_emits_on_executor() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final CountDownLatch latch = new CountDownLatch(1000);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        try {
+            final MesonEmitter emitter = new MesonEmitter(meson -> {
+                thread.set(Thread.currentThread());
+                latch.countDown();
+            }, e -> {
+                throw new AssertionError(e);
+            }, executor);
+
+            for (int i = 0; i < 10; i++) {
+                emitter.request(100);
+            }
+
+            assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+            assertThat(thread.get()).isNotSameAs(Thread.currentThread());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_flow_publisher() throws Exception {
+        final Class<?> flow;
+        final Class<?> publisherClass;
+
+        // Java 9+ only, compiled from src/main/java9
+        try {
+            flow = Class.forName("java.util.concurrent.Flow$Subscriber");
+            publisherClass = Class.forName("com.rfksystems.meson.MesonFlow");
+        } catch (final ClassNotFoundException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+
+        final List<Object> received = new ArrayList<>();
+        final AtomicReference<Object> subscription = new AtomicReference<>();
+        final Object subscriber = Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{flow},
+                (proxy, method, args) -> {
+                    if ("onSubscribe".equals(method.getName())) {
+                        subscription.set(args[0]);
+                    } else if ("onNext".equals(method.getName())) {
+                        received.add(args[0]);
+                    }
+
+                    return null;
+                });
+
+        final Object publisher = publisherClass.getMethod("publisher").invoke(null);
+        publisher.getClass().getMethod("subscribe", flow).invoke(publisher, subscriber);
+
+        final Method request = Class.forName("java.util.concurrent.Flow$Subscription").getMethod("request", long.class);
+        request.invoke(subscription.get(), 3L);
+
+        assertThat(received).hasSize(3);
+        assertThat(received.get(0)).isInstanceOf(Meson.class);
+    }
+
+    @Test
+    public void benchmark_emitter() {
+        final int count = 2_000_000;
+
+        for (int run = 0; run < 3; run++) {
+            final long[] sink = {0};
+            final MesonEmitter emitter = new MesonEmitter(meson -> sink[0] += meson.getSequence(), e -> {
+                throw new AssertionError(e);
+            }, Runnable::run);
+
+            final long start = System.nanoTime();
+
+            for (int window = 0; window < count / 1000; window++) {
+                emitter.request(1000);
+            }
+
+            final long took = System.nanoTime() - start;
+
+            System.out.printf("Emitter, windows of 1000: %.1fns/id (%d)%n", (double) took / count, sink[0] & 1);
+        }
+    }
+}
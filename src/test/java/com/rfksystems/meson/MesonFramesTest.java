@@ -0,0 +1,313 @@
+package com.rfksystems.meson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonFramesTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_frame_round_trip() {
+        final Meson[] mesons = Meson.batch(1000);
+        final MesonBuffer ids = new MesonBuffer();
+
+        for (final Meson meson : mesons) {
+            ids.add(meson);
+        }
+
+        for (final ByteBuffer target : Arrays.asList(
+                ByteBuffer.allocate(2 * MesonFrames.sizeOf(1000)),
+                ByteBuffer.allocateDirect(2 * MesonFrames.sizeOf(1000)))) {
+            MesonFrames.write(target, mesons);
+            MesonFrames.write(target, ids, 0, ids.size());
+            assertThat(target.remaining()).isEqualTo(0);
+            target.flip();
+
+            // Identities are in their binary form
+            final byte[] first = new byte[Meson.BUFFER_SIZE_BYTES];
+            target.position(MesonFrames.HEADER_SIZE_BYTES);
+            target.get(first).rewind();
+            assertThat(first).isEqualTo(mesons[0].toByteArray());
+
+            final MesonBuffer decoded = new MesonBuffer();
+            assertThat(MesonFrames.read(target, decoded)).isEqualTo(1000);
+            assertThat(MesonFrames.read(target, decoded)).isEqualTo(1000);
+            assertThat(MesonFrames.read(target, decoded)).isEqualTo(-1);
+            assertThat(decoded.size()).isEqualTo(2000);
+
+            for (int i = 0; i < decoded.size(); i++) {
+                assertThat(decoded.get(i)).isEqualTo(mesons[i % 1000]);
+            }
+        }
+    }
+
+    @Test
+    public void test_read_waits_for_whole_frame() {
+        final Meson[] mesons = Meson.batch(10);
+        final ByteBuffer encoded = ByteBuffer.allocate(MesonFrames.sizeOf(10));
+        MesonFrames.write(encoded, mesons);
+        encoded.flip();
+
+        final ByteBuffer partial = ByteBuffer.allocate(encoded.capacity());
+        final MesonBuffer decoded = new MesonBuffer();
+
+        // Feed one byte at a time, like a transport delivering arbitrary pieces
+        while (encoded.hasRemaining()) {
+            partial.put(encoded.get());
+            partial.flip();
+            final int read = MesonFrames.read(partial, decoded);
+
+            if (encoded.hasRemaining()) {
+                assertThat(read).isEqualTo(-1);
+                assertThat(partial.position()).isEqualTo(0);
+            } else {
+                assertThat(read).isEqualTo(10);
+                assertThat(partial.hasRemaining()).isFalse();
+            }
+
+            partial.position(partial.limit()).limit(partial.capacity());
+        }
+
+        assertThat(decoded.get(9)).isEqualTo(mesons[9]);
+
+        final ByteBuffer empty = ByteBuffer.allocate(MesonFrames.sizeOf(0));
+        MesonFrames.write(empty, new Meson[0]);
+        empty.flip();
+        assertThat(MesonFrames.read(empty, decoded)).isEqualTo(0);
+        assertThat(empty.hasRemaining()).isFalse();
+    }
+
+    @Test
+    public void test_invalid_frames_are_rejected() {
+        final MesonBuffer decoded = new MesonBuffer();
+
+        try {
+            MesonFrames.read(ByteBuffer.allocate(8).putInt(0, -1), decoded);
+            fail("Negative counts must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("exceeds");
+        }
+
+        final ByteBuffer negative = ByteBuffer.allocate(MesonFrames.sizeOf(2));
+        MesonFrames.write(negative, Meson.batch(2));
+        negative.putInt(negative.limit() - 4, -5).flip();
+
+        try {
+            MesonFrames.read(negative, decoded);
+            fail("Negative sequences must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("Identity 1");
+            assertThat(negative.position()).isEqualTo(0);
+            assertThat(decoded.isEmpty()).isTrue();
+        }
+
+        try {
+            MesonFrames.write(ByteBuffer.allocate(20), Meson.batch(2));
+            fail("Frames must fit the target");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("remaining");
+        }
+    }
+
+    @Test
+    public void test_gathering_write_of_encoded_batches() throws IOException {
+        final Meson[] mesons = Meson.batch(3000);
+        final ByteBuffer[] batches = new ByteBuffer[3];
+
+        for (int b = 0; b < batches.length; b++) {
+            batches[b] = ByteBuffer.allocateDirect(1000 * Meson.BUFFER_SIZE_BYTES);
+
+            for (int i = 0; i < 1000; i++) {
+                MesonLayout.STANDARD.put(batches[b], i * Meson.BUFFER_SIZE_BYTES, mesons[b * 1000 + i]);
+            }
+        }
+
+        final File file = folder.newFile();
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final long written = MesonFrames.write(channel, batches);
+            assertThat(written).isEqualTo(3L * MesonFrames.sizeOf(1000));
+            assertThat(batches[2].hasRemaining()).isFalse();
+        }
+
+        final MesonBuffer decoded = readAll(file);
+        assertThat(decoded.size()).isEqualTo(3000);
+
+        for (int i = 0; i < 3000; i++) {
+            assertThat(decoded.get(i)).isEqualTo(mesons[i]);
+        }
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            MesonFrames.write(channel, ByteBuffer.allocate(15));
+            fail("Partial identities must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("whole number");
+        }
+    }
+
+    @Test
+    public void test_little_endian_buffers_and_non_blocking_channels_are_rejected() throws IOException {
+        final ByteBuffer little = ByteBuffer.allocate(MesonFrames.sizeOf(2)).order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            MesonFrames.write(little, Meson.batch(2));
+            fail("Little-endian targets must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("big-endian");
+            assertThat(little.position()).isEqualTo(0);
+        }
+
+        final ByteBuffer frame = ByteBuffer.allocate(MesonFrames.sizeOf(2));
+        MesonFrames.write(frame, Meson.batch(2));
+        frame.flip();
+        frame.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            MesonFrames.read(frame, new MesonBuffer());
+            fail("Little-endian sources must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("big-endian");
+        }
+
+        final Pipe pipe = Pipe.open();
+
+        try (final Pipe.SinkChannel sink = pipe.sink()) {
+            sink.configureBlocking(false);
+            MesonFrames.write(sink, ByteBuffer.allocate(Meson.BUFFER_SIZE_BYTES));
+            fail("Non-blocking channels must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("blocking");
+        } finally {
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void test_large_batch_over_pipe() throws Exception {
+        final int count = MesonFrames.MAX_IDS + 12_345;
+        final MesonBuffer ids = new MesonBuffer(count);
+
+        for (final Meson meson : Meson.batch(count)) {
+            ids.add(meson);
+        }
+
+        final Pipe pipe = Pipe.open();
+        final MesonBuffer decoded = new MesonBuffer(count);
+
+        final Thread reader = new Thread(() -> {
+            final ByteBuffer in = ByteBuffer.allocate(MesonFrames.sizeOf(MesonFrames.MAX_IDS));
+
+            try {
+                while (0 <= pipe.source().read(in)) {
+                    in.flip();
+
+                    while (0 < MesonFrames.read(in, decoded)) {
+                        // Drain whole frames
+                    }
+
+                    in.compact();
+                }
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        reader.start();
+
+        try (final Pipe.SinkChannel sink = pipe.sink()) {
+            final long written = MesonFrames.write(sink, ids, ByteBuffer.allocateDirect(4096));
+            assertThat(written).isEqualTo((long) count * Meson.BUFFER_SIZE_BYTES + 2 * MesonFrames.HEADER_SIZE_BYTES);
+        }
+
+        reader.join();
+        pipe.source().close();
+
+        assertThat(decoded.size()).isEqualTo(count);
+
+        for (int i = 0; i < count; i += 997) {
+            assertThat(decoded.getMostSignificantBits(i)).isEqualTo(ids.getMostSignificantBits(i));
+            assertThat(decoded.getLeastSignificantBits(i)).isEqualTo(ids.getLeastSignificantBits(i));
+        }
+    }
+
+    @Test
+    public void benchmark_frames() throws IOException {
+        final int count = 1_000_000;
+        final Meson[] mesons = Meson.batch(count);
+        final MesonBuffer ids = new MesonBuffer(count);
+
+        for (final Meson meson : mesons) {
+            ids.add(meson);
+        }
+
+        final ByteBuffer direct = ByteBuffer.allocateDirect(MesonFrames.sizeOf(count));
+        final File file = folder.newFile();
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+
+            for (final Meson meson : mesons) {
+                direct.put(meson.toByteArray());
+            }
+
+            final long arrays = System.nanoTime() - start;
+            direct.clear();
+
+            start = System.nanoTime();
+            MesonFrames.write(direct, ids, 0, count);
+            final long encoded = System.nanoTime() - start;
+            direct.flip();
+
+            final MesonBuffer decoded = new MesonBuffer(count);
+            start = System.nanoTime();
+            MesonFrames.read(direct, decoded);
+            final long decodedIn = System.nanoTime() - start;
+            direct.clear();
+
+            start = System.nanoTime();
+
+            try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                MesonFrames.write(channel, ids, ByteBuffer.allocateDirect(64 * 1024));
+            }
+
+            final long gathered = System.nanoTime() - start;
+
+            System.out.printf("%d identities: byte arrays %.1fms, frame encode %.1fms, decode %.1fms, "
+                            + "channel write %.1fms%n",
+                    count, arrays / 1e6, encoded / 1e6, decodedIn / 1e6, gathered / 1e6);
+        }
+    }
+
+    private static MesonBuffer readAll(final File file) throws IOException {
+        final MesonBuffer decoded = new MesonBuffer();
+
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer in = ByteBuffer.allocate((int) channel.size());
+
+            while (in.hasRemaining() && 0 <= channel.read(in)) {
+                // Read the whole file
+            }
+
+            in.flip();
+
+            while (0 < MesonFrames.read(in, decoded)) {
+                // Drain whole frames
+            }
+        }
+
+        return decoded;
+    }
+}
@@ -0,0 +1,144 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonGeneratorIdsTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+
+    @Test
+    public void test_intern_returns_canonical_array() {
+        final MesonGeneratorIds ids = new MesonGeneratorIds(64);
+        final byte[] first = ids.get(0x01020304);
+
+        assertThat(first).isEqualTo(GENERATOR_ID);
+        assertThat(ids.get(0x01020304)).isSameAs(first);
+        assertThat(MesonGeneratorIds.intern(new byte[]{9, 1, 2, 3, 4}, 1))
+                .isSameAs(MesonGeneratorIds.intern(0x01020304));
+    }
+
+    @Test
+    public void test_concurrent_intern_agrees() throws Exception {
+        final MesonGeneratorIds ids = new MesonGeneratorIds(4096);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            final List<Future<byte[][]>> futures = new ArrayList<>();
+
+            for (int thread = 0; thread < 4; thread++) {
+                futures.add(executor.submit(() -> {
+                    final byte[][] interned = new byte[2000][];
+
+                    for (int i = 0; i < interned.length; i++) {
+                        interned[i] = ids.get(0x7F000000 + i);
+                    }
+
+                    return interned;
+                }));
+            }
+
+            final byte[][] expected = futures.get(0).get();
+
+            for (final Future<byte[][]> future : futures) {
+                final byte[][] interned = future.get();
+
+                for (int i = 0; i < interned.length; i++) {
+                    assertThat(interned[i]).isSameAs(expected[i]);
+                    assertThat(MesonUtils.intFromBytes(interned[i], 0)).isEqualTo(0x7F000000 + i);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void test_overflow_stays_correct() {
+        final MesonGeneratorIds ids = new MesonGeneratorIds(64);
+
+        for (int i = 0; i < 256; i++) {
+            assertThat(MesonUtils.intFromBytes(ids.get(0x40000000 + i), 0)).isEqualTo(0x40000000 + i);
+        }
+
+        // Table is full, still returns correct arrays
+        assertThat(ids.get(0x50000000)).isEqualTo(MesonUtils.intToBytes(0x50000000));
+    }
+
+    @Test
+    public void test_generator_id_is_not_exposed() {
+        final Meson meson = new Meson(1_500_000_000_000L, GENERATOR_ID.clone(), 7);
+        final byte[] exposed = meson.getGeneratorId();
+        exposed[0] = 42;
+
+        assertThat(meson.getGeneratorId()).isEqualTo(GENERATOR_ID);
+        assertThat(meson.getGeneratorIdAsInt()).isEqualTo(0x01020304);
+        assertThat(new Meson(meson.toHexString()).getGeneratorIdAsInt()).isEqualTo(0x01020304);
+
+        // Array given to constructor is not retained either
+        final byte[] given = GENERATOR_ID.clone();
+        final Meson fromGiven = new Meson(1_500_000_000_000L, given, 7);
+        given[0] = 42;
+        assertThat(fromGiven).isEqualTo(meson);
+    }
+
+    @Test
+    public void test_serialization_restores_generator_id() throws Exception {
+        final Meson meson = new Meson(1_500_000_000_000L, GENERATOR_ID, 7);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (final ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(meson);
+        }
+
+        final Meson read;
+
+        try (final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (Meson) input.readObject();
+        }
+
+        assertThat(read).isEqualTo(meson);
+        assertThat(read.getGeneratorIdAsInt()).isEqualTo(0x01020304);
+        assertThat(read.getMostSignificantBits()).isEqualTo(meson.getMostSignificantBits());
+        assertThat(read.compareTo(meson)).isEqualTo(0);
+    }
+
+    @Test
+    public void benchmark_decode_memory() {
+        final int count = 1_000_000;
+        final String[] hex = new String[count];
+
+        for (int i = 0; i < count; i++) {
+            hex[i] = new Meson(1_500_000_000_000L + i, MesonUtils.intToBytes(i % 1000), i).toHexString();
+        }
+
+        for (int run = 0; run < 3; run++) {
+            final Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            final long before = runtime.totalMemory() - runtime.freeMemory();
+            final long start = System.nanoTime();
+            final Meson[] decoded = new Meson[count];
+
+            for (int i = 0; i < count; i++) {
+                decoded[i] = new Meson(hex[i]);
+            }
+
+            final long took = System.nanoTime() - start;
+            System.gc();
+            final long retained = runtime.totalMemory() - runtime.freeMemory() - before;
+
+            System.out.printf("Decode 1M identities of 1000 generators: %.1fns/id, ~%d bytes retained per identity (%d)%n",
+                    (double) took / count, retained / count, decoded[count - 1].getSequence());
+        }
+    }
+}
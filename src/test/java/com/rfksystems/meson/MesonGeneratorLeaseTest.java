@@ -0,0 +1,219 @@
+package com.rfksystems.meson;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonGeneratorLeaseTest {
+    private static final long HEARTBEAT = 50L;
+    private static final long STALE = 1000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void restore_derived_generator_id() {
+        MesonGeneratorIdentity.reset();
+    }
+
+    @Test
+    public void test_lease_installs_and_restores_generator_id() throws Exception {
+        final String derived = Meson.generatorIdAsHex();
+        final MesonGeneratorLease lease = acquire();
+
+        assertThat(lease.isValid()).isTrue();
+        assertThat(lease.isCollisionDetected()).isFalse();
+        assertThat(lease.getCollisions()).isEmpty();
+        assertThat(lease.getGeneratorIdHex()).isEqualTo(derived);
+        assertThat(new File(folder.getRoot(), derived + ".claim").isFile()).isTrue();
+        assertThat(new Meson().getGeneratorIdHex()).isEqualTo(lease.getGeneratorIdHex());
+
+        lease.release(true);
+        assertThat(Meson.generatorIdAsHex()).isEqualTo(derived);
+    }
+
+    @Test
+    public void test_closed_lease_stops_generation() throws Exception {
+        acquire().close();
+        assertGenerationStopped();
+
+        try (final MesonGeneratorLease lease = acquire()) {
+            assertThat(new Meson().getGeneratorIdHex()).isEqualTo(lease.getGeneratorIdHex());
+        }
+    }
+
+    @Test
+    public void test_second_lease_in_process_is_rejected() throws Exception {
+        try (final MesonGeneratorLease lease = acquire()) {
+            try {
+                acquire();
+                fail("Second lease must be rejected");
+            } catch (final IllegalStateException e) {
+                assertThat(e).hasMessageThat().contains("already open");
+            }
+
+            assertThat(lease.isValid()).isTrue();
+            assertThat(Meson.generatorIdAsHex()).isEqualTo(lease.getGeneratorIdHex());
+        }
+    }
+
+    @Test
+    public void test_collision_is_detected_and_next_id_is_claimed() throws Exception {
+        final String derived = Meson.generatorIdAsHex();
+
+        // Lock held by another generator
+        try (final RandomAccessFile other = new RandomAccessFile(new File(folder.getRoot(), derived + ".claim"), "rw");
+             final FileLock lock = other.getChannel().lock();
+             final MesonGeneratorLease lease = acquire()) {
+            assertThat(lock.isValid()).isTrue();
+            assertThat(lease.getGeneratorIdHex()).isNotEqualTo(derived);
+            assertThat(lease.isCollisionDetected()).isTrue();
+            assertThat(lease.getCollisions()).containsExactly(derived);
+            assertThat(Meson.generatorIdAsHex()).isEqualTo(lease.getGeneratorIdHex());
+        }
+    }
+
+    @Test
+    public void test_fresh_unlocked_claim_is_respected() throws Exception {
+        final String derived = Meson.generatorIdAsHex();
+        writeClaim(new File(folder.getRoot(), derived + ".claim"), System.currentTimeMillis());
+
+        try (final MesonGeneratorLease lease = acquire()) {
+            assertThat(lease.isCollisionDetected()).isTrue();
+            assertThat(lease.getGeneratorIdHex()).isNotEqualTo(derived);
+        }
+    }
+
+    @Test
+    public void test_stale_claim_is_reclaimed() throws Exception {
+        final String derived = Meson.generatorIdAsHex();
+        writeClaim(new File(folder.getRoot(), derived + ".claim"), System.currentTimeMillis() - 120000L);
+
+        try (final MesonGeneratorLease lease = acquire()) {
+            assertThat(lease.isCollisionDetected()).isFalse();
+            assertThat(lease.getGeneratorIdHex()).isEqualTo(derived);
+        }
+    }
+
+    @Test
+    public void test_claim_overwritten_while_verifying_is_given_up() throws Exception {
+        final String derived = Meson.generatorIdAsHex();
+        final File file = new File(folder.getRoot(), derived + ".claim");
+
+        // Another generator took the same stale claim just after this one
+        final Thread other = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+                writeClaim(file, System.currentTimeMillis());
+            } catch (final Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        other.start();
+
+        try (final MesonGeneratorLease lease = MesonGeneratorLease.acquire(folder.getRoot(), 500L, 5000L)) {
+            other.join();
+            assertThat(lease.getGeneratorIdHex()).isNotEqualTo(derived);
+            assertThat(lease.getCollisions()).containsExactly(derived);
+        }
+    }
+
+    @Test
+    public void test_lost_claim_stops_generation() throws Exception {
+        final File file;
+
+        try (final MesonGeneratorLease lease = acquire()) {
+            file = new File(folder.getRoot(), lease.getGeneratorIdHex() + ".claim");
+            writeClaim(file, System.currentTimeMillis());
+
+            final long deadline = System.currentTimeMillis() + 5000L;
+
+            while (lease.isValid() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(HEARTBEAT);
+            }
+
+            assertThat(lease.isValid()).isFalse();
+            assertGenerationStopped();
+        }
+
+        assertGenerationStopped();
+
+        // Claim of the other generator is left alone
+        try (final RandomAccessFile claimFile = new RandomAccessFile(file, "r")) {
+            claimFile.seek(Long.BYTES);
+            assertThat(claimFile.readLong()).isEqualTo(42L);
+        }
+    }
+
+    @Test
+    public void test_stalled_heartbeat_stops_generation() throws Exception {
+        try (final MesonGeneratorLease lease = acquire()) {
+            // Heartbeat is held off, as by a blocked write, for as long as the claim takes to turn stale
+            synchronized (lease) {
+                Thread.sleep(STALE);
+                assertGenerationStopped();
+            }
+
+            final long deadline = System.currentTimeMillis() + 5000L;
+            boolean renewed = false;
+
+            while (!renewed && System.currentTimeMillis() < deadline) {
+                Thread.sleep(HEARTBEAT);
+
+                try {
+                    renewed = new Meson().getGeneratorIdHex().equals(lease.getGeneratorIdHex());
+                } catch (final IllegalStateException e) {
+                    // Not renewed yet
+                }
+            }
+
+            // Nobody reclaimed it meanwhile, the next heartbeat renews the claim
+            assertThat(renewed).isTrue();
+            assertThat(lease.isValid()).isTrue();
+        }
+    }
+
+    @Test
+    public void test_released_claim_is_reclaimed_right_away() throws Exception {
+        acquire().close();
+
+        try (final MesonGeneratorLease lease = acquire()) {
+            assertThat(lease.getCollisions()).isEmpty();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_stale_threshold_must_exceed_heartbeat() throws Exception {
+        MesonGeneratorLease.acquire(folder.getRoot(), 1000L, 1000L);
+    }
+
+    private MesonGeneratorLease acquire() throws IOException {
+        return MesonGeneratorLease.acquire(folder.getRoot(), HEARTBEAT, STALE);
+    }
+
+    private static void assertGenerationStopped() {
+        try {
+            new Meson();
+            fail("Identities must not be created with a released generator ID");
+        } catch (final IllegalStateException e) {
+            assertThat(e).hasMessageThat().contains("lease");
+        }
+    }
+
+    private static void writeClaim(final File file, final long heartbeat) throws IOException {
+        try (final RandomAccessFile claimFile = new RandomAccessFile(file, "rw")) {
+            claimFile.writeLong(heartbeat);
+            claimFile.writeLong(42L);
+            claimFile.writeUTF("other@host");
+        }
+    }
+}
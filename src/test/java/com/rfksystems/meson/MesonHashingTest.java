@@ -0,0 +1,176 @@
+package com.rfksystems.meson;
+
+import com.google.common.collect.Range;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.LongUnaryOperator;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonHashingTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+    private static final int COUNT = 1_000_000;
+    private static final Range<Integer> AVALANCHE = Range.closed(16, 48);
+
+    @Test
+    public void test_hash_spreads_sequential_identities() {
+        // Worst case input: one generator, one millisecond, consecutive sequences
+        assertUniform(sequence -> MesonHashing.hash64(
+                MesonUtils.mostSignificantBits(1_500_000_000_000L, 0x01020304),
+                MesonUtils.leastSignificantBits(0x01020304, (int) sequence)
+        ));
+
+        // Consecutive milliseconds, same sequence
+        assertUniform(time -> MesonHashing.hash64(
+                MesonUtils.mostSignificantBits(1_500_000_000_000L + time, 0x01020304),
+                MesonUtils.leastSignificantBits(0x01020304, 0)
+        ));
+    }
+
+    @Test
+    public void test_hash_code_is_consistent_with_equals_and_spread() {
+        final Meson meson = new Meson(1_500_000_000_000L, GENERATOR_ID, 42);
+
+        assertThat(meson.hashCode()).isEqualTo(new Meson(meson.toHexString()).hashCode());
+        assertThat(meson.hashCode())
+                .isEqualTo(new Meson(meson.getMostSignificantBits(), meson.getLeastSignificantBits()).hashCode());
+        assertUniform(sequence -> new Meson(1_500_000_000_000L, GENERATOR_ID, (int) sequence).hashCode());
+    }
+
+    @Test
+    public void test_hash_avalanche() {
+        final long msb = MesonUtils.mostSignificantBits(1_500_000_000_000L, 0x01020304);
+        final long lsb = MesonUtils.leastSignificantBits(0x01020304, 12345);
+        final long hash = MesonHashing.hash64(msb, lsb);
+
+        // Every input bit flips about half of the output bits
+        for (int bit = 0; bit < 64; bit++) {
+            assertThat(Long.bitCount(hash ^ MesonHashing.hash64(msb ^ 1L << bit, lsb))).isIn(AVALANCHE);
+
+            if (bit < 48) {
+                assertThat(Long.bitCount(hash ^ MesonHashing.hash64(msb, lsb ^ 1L << bit))).isIn(AVALANCHE);
+            }
+        }
+    }
+
+    @Test
+    public void test_jump_consistent_hash_moves_minimal_keys() {
+        final int[] previous = new int[COUNT / 10];
+
+        for (int i = 0; i < previous.length; i++) {
+            previous[i] = MesonHashing.jumpConsistentHash(MesonHashing.hash64(0, i), 10);
+        }
+
+        int moved = 0;
+
+        for (int i = 0; i < previous.length; i++) {
+            final int bucket = MesonHashing.jumpConsistentHash(MesonHashing.hash64(0, i), 11);
+
+            if (bucket != previous[i]) {
+                assertThat(bucket).isEqualTo(10);
+                moved++;
+            }
+        }
+
+        // 1/11 of keys expected to move
+        assertThat((double) moved / previous.length).isWithin(0.01).of(1.0 / 11);
+        assertThat(MesonHashing.jumpConsistentHash(12345L, 1)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_rendezvous_moves_only_keys_of_removed_node() {
+        final long[] nodes = {11, 22, 33, 44, 55};
+        final long[] remaining = {11, 22, 44, 55};
+        final int[] counts = new int[nodes.length];
+
+        for (int i = 0; i < COUNT / 10; i++) {
+            final int node = MesonHashing.rendezvous(0, i, nodes);
+            final int after = MesonHashing.rendezvous(0, i, remaining);
+            counts[node]++;
+
+            if (2 != node) {
+                assertThat(remaining[after]).isEqualTo(nodes[node]);
+            }
+        }
+
+        for (final int count : counts) {
+            assertThat((double) count / (COUNT / 10)).isWithin(0.01).of(0.2);
+        }
+    }
+
+    @Test
+    public void test_time_partition_follows_time_prefix() {
+        final Meson a = new Meson(1_500_000_000_000L, GENERATOR_ID, 1);
+        final Meson b = new Meson(1_500_000_000_999L, GENERATOR_ID, 2);
+        final Meson c = new Meson(1_500_000_001_000L, GENERATOR_ID, 3);
+
+        assertThat(MesonHashing.timeBucket(a.getMostSignificantBits(), 1000)).isEqualTo(1_500_000_000L);
+        assertThat(MesonHashing.timePartition(a, 1000, 16)).isEqualTo(MesonHashing.timePartition(b, 1000, 16));
+        assertThat(MesonHashing.timePartition(c, 1000, 16))
+                .isEqualTo((MesonHashing.timePartition(a, 1000, 16) + 1) % 16);
+    }
+
+    @Test
+    public void benchmark_hashing() {
+        final Meson[] ids = Meson.batch(COUNT);
+
+        for (int run = 0; run < 3; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+
+            for (final Meson meson : ids) {
+                sink += MesonHashing.hash64(meson);
+            }
+
+            final long hashTook = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (final Meson meson : ids) {
+                sink += Objects.hash(meson.getTime(), meson.getSequence(), Arrays.hashCode(meson.getGeneratorId()));
+            }
+
+            final long objectsTook = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (final Meson meson : ids) {
+                sink += meson.toHexString().hashCode();
+            }
+
+            final long hexTook = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (final Meson meson : ids) {
+                sink += MesonHashing.jumpConsistentHash(meson, 1024);
+            }
+
+            final long jumpTook = System.nanoTime() - start;
+
+            System.out.printf("hash64: %.1fns/id, Objects.hash: %.1fns/id, hex hashCode: %.1fns/id, jump(1024): %.1fns/id (%d)%n",
+                    (double) hashTook / COUNT, (double) objectsTook / COUNT, (double) hexTook / COUNT,
+                    (double) jumpTook / COUNT, sink & 1);
+        }
+    }
+
+    /**
+     * Chi-squared test of low ten bits over 1024 buckets, 1023 degrees of freedom, bound at p &lt; 0.001.
+     */
+    private static void assertUniform(final LongUnaryOperator hash) {
+        final int buckets = 1024;
+        final long[] counts = new long[buckets];
+
+        for (long i = 0; i < COUNT; i++) {
+            counts[(int) (hash.applyAsLong(i) & (buckets - 1))]++;
+        }
+
+        final double expected = (double) COUNT / buckets;
+        double chiSquared = 0;
+
+        for (final long count : counts) {
+            chiSquared += (count - expected) * (count - expected) / expected;
+        }
+
+        assertThat(chiSquared).isLessThan(1170.0);
+    }
+}
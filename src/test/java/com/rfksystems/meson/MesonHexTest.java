@@ -0,0 +1,137 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonHexTest {
+    private static final int COUNT = 1000;
+
+    @Test
+    public void test_encodes_as_meson_does() {
+        final byte[] binary = randomIds(COUNT);
+        final String compact = new String(MesonHex.encode(binary, false), StandardCharsets.US_ASCII);
+        final String format = new String(MesonHex.encode(binary, true), StandardCharsets.US_ASCII);
+
+        for (int i = 0; i < COUNT; i++) {
+            final byte[] id = new byte[Meson.BUFFER_SIZE_BYTES];
+            System.arraycopy(binary, i * Meson.BUFFER_SIZE_BYTES, id, 0, id.length);
+
+            assertThat(compact.substring(i * 28, i * 28 + 28)).isEqualTo(MesonUtils.bytesToHex(id));
+        }
+
+        final Meson meson = new Meson("000000000064-01020304-000000c8");
+        assertThat(new String(MesonHex.encode(meson.toByteArray(), true), StandardCharsets.US_ASCII))
+                .isEqualTo(meson.toFormatString());
+        assertThat(format).hasLength(COUNT * 30);
+    }
+
+    @Test
+    public void test_round_trip() {
+        final byte[] binary = randomIds(COUNT);
+
+        assertThat(MesonHex.decode(MesonHex.encode(binary, false), false)).isEqualTo(binary);
+        assertThat(MesonHex.decode(MesonHex.encode(binary, true), true)).isEqualTo(binary);
+    }
+
+    @Test
+    public void test_decodes_upper_case() {
+        final byte[] hex = "0162915BE2DA-900035C9-1A2A5D29".getBytes(StandardCharsets.US_ASCII);
+
+        assertThat(MesonHex.decode(hex, true)).isEqualTo(new Meson("0162915be2da900035c91a2a5d29").toByteArray());
+    }
+
+    @Test
+    public void test_rejects_every_invalid_character_at_every_position() {
+        final byte[] valid = "0162915be2da900035c91a2a5d29".getBytes(StandardCharsets.US_ASCII);
+        final byte[] invalid = {'g', 'G', '/', ':', '@', '`', ' ', '-', 0x10, 0x19, (byte) 0x80, (byte) 0xB0};
+
+        for (int position = 0; position < valid.length; position++) {
+            for (final byte character : invalid) {
+                final byte[] hex = valid.clone();
+                hex[position] = character;
+
+                try {
+                    MesonHex.decode(hex, false);
+                    fail("Accepted " + character + " at " + position);
+                } catch (final IllegalArgumentException e) {
+                    assertThat(e).hasMessageThat().contains("index 0");
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_rejects_misplaced_dashes() {
+        MesonHex.decode("0162915be2d-a900035c9-1a2a5d29".getBytes(StandardCharsets.US_ASCII), true);
+    }
+
+    @Test
+    public void test_byte_buffers_advance() {
+        final byte[] binary = randomIds(10);
+        final ByteBuffer source = ByteBuffer.allocateDirect(binary.length + 3);
+        source.position(3);
+        source.put(binary).position(3);
+
+        final ByteBuffer hex = ByteBuffer.allocateDirect(10 * 30);
+        MesonHex.encode(source, hex, 10, true);
+
+        assertThat(source.remaining()).isEqualTo(0);
+        assertThat(hex.remaining()).isEqualTo(0);
+
+        hex.flip();
+        final ByteBuffer decoded = ByteBuffer.allocate(binary.length);
+        MesonHex.decode(hex, decoded, 10, true);
+
+        assertThat(decoded.array()).isEqualTo(binary);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void test_bounds_are_checked() {
+        MesonHex.encode(new byte[14], 0, new byte[27], 0, 1, false);
+    }
+
+    @Test
+    public void benchmark_bulk_against_per_id() {
+        final int count = 1000000;
+        final byte[] binary = randomIds(count);
+        final byte[] hex = new byte[count * 28];
+
+        for (int warmup = 0; warmup < 3; warmup++) {
+            MesonHex.encode(binary, 0, hex, 0, count, false);
+            MesonHex.decode(hex, 0, binary, 0, count, false);
+        }
+
+        final long encode = System.nanoTime();
+        MesonHex.encode(binary, 0, hex, 0, count, false);
+        final long encodeNanos = System.nanoTime() - encode;
+
+        final long decode = System.nanoTime();
+        MesonHex.decode(hex, 0, binary, 0, count, false);
+        final long decodeNanos = System.nanoTime() - decode;
+
+        final byte[] id = new byte[14];
+        final long perId = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(binary, i * 14, id, 0, 14);
+            MesonUtils.hexToBytes(MesonUtils.bytesToHex(id));
+        }
+
+        final long perIdNanos = System.nanoTime() - perId;
+
+        System.out.printf("Bulk encode 1m: %dms, bulk decode 1m: %dms\n", encodeNanos / 1000000, decodeNanos / 1000000);
+        System.out.printf("Per ID encode and decode 1m: %dms\n", perIdNanos / 1000000);
+    }
+
+    private byte[] randomIds(final int count) {
+        final byte[] bytes = new byte[count * Meson.BUFFER_SIZE_BYTES];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
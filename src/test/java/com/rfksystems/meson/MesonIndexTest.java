@@ -0,0 +1,343 @@
+package com.rfksystems.meson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonIndexTest {
+    private static final int COUNT = 200_000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_append_lookup_and_reopen() throws IOException {
+        final File file = folder.newFile();
+        final Meson[] mesons = Meson.batch(COUNT);
+
+        try (final MesonIndex index = MesonIndex.open(file)) {
+            for (int i = 0; i < COUNT; i++) {
+                index.append(mesons[i], i * 100L);
+            }
+
+            assertThat(index.size()).isEqualTo(COUNT);
+            assertLookups(index, mesons);
+
+            // Keys of one generator share time and generator bytes
+            assertThat((double) index.getSizeInBytes() / COUNT).isLessThan(16.0);
+        }
+
+        try (final MesonIndex index = MesonIndex.open(file)) {
+            assertThat(index.size()).isEqualTo(COUNT);
+            assertLookups(index, mesons);
+
+            final Meson next = new Meson(mesons[COUNT - 1].getTime() + 1);
+            index.append(next, 7L);
+            assertThat(index.get(next)).isEqualTo(7L);
+            assertThat(index.size()).isEqualTo(COUNT + 1);
+        }
+    }
+
+    @Test
+    public void test_directory_is_persisted() throws IOException {
+        final File file = folder.newFile();
+        final Meson[] mesons = Meson.batch(COUNT);
+        final int pages;
+
+        try (final MesonIndex index = MesonIndex.open(file)) {
+            for (int i = 0; i < COUNT; i++) {
+                index.append(mesons[i], i);
+            }
+
+            pages = index.getPageCount();
+        }
+
+        // Directory follows the header and leaf pages, break it to tell it is what opening reads
+        try (final RandomAccessFile raw = new RandomAccessFile(file, "rw")) {
+            raw.seek((pages + 1L) * MesonIndex.PAGE_SIZE);
+            raw.write(new byte[pages * 16]);
+        }
+
+        try (final MesonIndex index = MesonIndex.open(file)) {
+            assertThat(index.get(mesons[0])).isEqualTo(MesonIndex.NOT_FOUND);
+        }
+
+        final File grown = folder.newFile();
+
+        try (final MesonIndex index = MesonIndex.open(grown)) {
+            for (int i = 0; i < COUNT / 2; i++) {
+                index.append(mesons[i], i);
+            }
+        }
+
+        try (final MesonIndex index = MesonIndex.open(grown)) {
+            for (int i = COUNT / 2; i < COUNT; i++) {
+                index.append(mesons[i], i);
+            }
+
+            // Pages added since the last flush overwrote the directory, a second reader rebuilds it from leaves
+            try (final MesonIndex reader = MesonIndex.open(grown)) {
+                assertThat(reader.size()).isEqualTo(COUNT);
+                assertLookups(reader, mesons);
+            }
+        }
+
+        try (final MesonIndex index = MesonIndex.open(grown)) {
+            assertLookups(index, mesons);
+        }
+    }
+
+    @Test
+    public void test_bulk_load_matches_appends() throws IOException {
+        final MesonBuffer keys = randomKeys(new Random(41), COUNT);
+        final long[] values = new long[COUNT];
+        final Meson[] mesons = new Meson[COUNT];
+
+        for (int i = 0; i < COUNT; i++) {
+            values[i] = i * 3L;
+            mesons[i] = keys.get(i);
+        }
+
+        final File appended = folder.newFile();
+        final File loaded = new File(folder.getRoot(), "loaded.idx");
+
+        try (final MesonIndex index = MesonIndex.open(appended)) {
+            for (int i = 0; i < COUNT; i++) {
+                index.append(keys.getMostSignificantBits(i), keys.getLeastSignificantBits(i), values[i]);
+            }
+
+            assertLookups(index, mesons);
+        }
+
+        try (final MesonIndex index = MesonIndex.bulkLoad(loaded, keys, values)) {
+            assertThat(index.size()).isEqualTo(COUNT);
+            assertLookups(index, mesons);
+        }
+
+        final byte[] expected = Files.readAllBytes(appended.toPath());
+        assertThat(Files.readAllBytes(loaded.toPath())).isEqualTo(expected);
+    }
+
+    @Test
+    public void test_absent_keys_are_not_found() throws IOException {
+        final MesonBuffer keys = randomKeys(new Random(43), 10_000);
+        final MesonBuffer present = new MesonBuffer();
+        final MesonBuffer absent = new MesonBuffer();
+
+        for (int i = 0; i < keys.size(); i++) {
+            (0 == i % 2 ? present : absent).add(keys.getMostSignificantBits(i), keys.getLeastSignificantBits(i));
+        }
+
+        try (final MesonIndex index = MesonIndex.bulkLoad(folder.newFile(), present, new long[present.size()])) {
+            for (int i = 0; i < absent.size(); i++) {
+                assertThat(index.get(absent.getMostSignificantBits(i), absent.getLeastSignificantBits(i)))
+                        .isEqualTo(MesonIndex.NOT_FOUND);
+            }
+
+            assertThat(index.get(0L, 0L)).isEqualTo(MesonIndex.NOT_FOUND);
+            assertThat(index.get(-1L, 0xFFFFFFFFFFFFL)).isEqualTo(MesonIndex.NOT_FOUND);
+        }
+
+        try (final MesonIndex index = MesonIndex.open(folder.newFile())) {
+            assertThat(index.get(new Meson())).isEqualTo(MesonIndex.NOT_FOUND);
+            assertThat(index.scan(0, Meson.MAX_TIME, (msb, lsb, value) -> fail())).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void test_time_range_scan() throws IOException {
+        final Random random = new Random(47);
+        final MesonBuffer keys = randomKeys(random, COUNT);
+        final TreeMap<Meson, Long> expected = new TreeMap<>();
+        final long[] values = new long[COUNT];
+
+        for (int i = 0; i < COUNT; i++) {
+            values[i] = i;
+            expected.put(keys.get(i), (long) i);
+        }
+
+        try (final MesonIndex index = MesonIndex.bulkLoad(folder.newFile(), keys, values)) {
+            final long first = keys.getTime(0);
+            final long last = keys.getTime(COUNT - 1);
+
+            for (int run = 0; run < 100; run++) {
+                final long from = first - 10 + (long) (random.nextDouble() * (last - first + 20));
+                final long to = from + random.nextInt(5000);
+                final long[] visited = {0};
+                final Meson[] previous = {null};
+
+                final long count = index.scan(from, to, (msb, lsb, value) -> {
+                    final Meson meson = new Meson(msb, lsb);
+                    assertThat(meson.getTime()).isAtLeast(from);
+                    assertThat(meson.getTime()).isLessThan(to);
+                    assertThat(value).isEqualTo(expected.get(meson));
+
+                    if (null != previous[0]) {
+                        assertThat(meson).isGreaterThan(previous[0]);
+                    }
+
+                    previous[0] = meson;
+                    visited[0]++;
+                });
+
+                final long inRange = expected.keySet().stream()
+                        .filter(meson -> meson.getTime() >= from && meson.getTime() < to)
+                        .count();
+
+                assertThat(count).isEqualTo(inRange);
+                assertThat(visited[0]).isEqualTo(inRange);
+            }
+
+            assertThat(index.scan(0, Meson.MAX_TIME, (msb, lsb, value) -> {
+            })).isEqualTo(COUNT);
+            assertThat(index.scan(0, Long.MAX_VALUE, (msb, lsb, value) -> {
+            })).isEqualTo(COUNT);
+
+            // Past the last possible identity, rather than wrapping around to the first page
+            assertThat(index.scan(Meson.MAX_TIME + 1, Long.MAX_VALUE, (msb, lsb, value) -> {
+                throw new AssertionError("Visited " + new Meson(msb, lsb));
+            })).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void test_invalid_input_is_rejected() throws IOException {
+        final Meson[] mesons = Meson.batch(2);
+
+        try (final MesonIndex index = MesonIndex.open(folder.newFile())) {
+            index.append(mesons[1], 1L);
+
+            try {
+                index.append(mesons[0], 0L);
+                fail("Keys out of order must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().contains("ascending");
+            }
+
+            try {
+                index.append(mesons[1], 2L);
+                fail("Duplicate keys must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().contains("ascending");
+            }
+
+            try {
+                index.append(new Meson(mesons[1].getTime() + 1), -1L);
+                fail("Negative values must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().contains("negative");
+            }
+
+            assertThat(index.size()).isEqualTo(1);
+        }
+
+        final File garbage = folder.newFile();
+        Files.write(garbage.toPath(), new byte[MesonIndex.PAGE_SIZE]);
+
+        try {
+            MesonIndex.open(garbage).close();
+            fail("Files other than indexes must be rejected");
+        } catch (final IOException e) {
+            assertThat(e).hasMessageThat().startsWith("Not a Meson index");
+        }
+
+        try {
+            MesonIndex.bulkLoad(garbage, new MesonBuffer(), new long[0]);
+            fail("Existing files must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().startsWith("Index file must not exist");
+        }
+    }
+
+    @Test
+    public void benchmark_index() throws IOException {
+        final int count = 2_000_000;
+        final MesonBuffer keys = new MesonBuffer(count);
+        final long[] values = new long[count];
+
+        for (final Meson meson : Meson.batch(count)) {
+            keys.add(meson);
+        }
+
+        for (int i = 0; i < count; i++) {
+            values[i] = i * 128L;
+        }
+
+        for (int run = 0; run < 3; run++) {
+            final File file = new File(folder.getRoot(), "benchmark-" + run + ".idx");
+            long start = System.nanoTime();
+
+            try (final MesonIndex index = MesonIndex.bulkLoad(file, keys, values)) {
+                final long loaded = System.nanoTime() - start;
+                final Random random = new Random(run);
+                long sink = 0;
+                start = System.nanoTime();
+
+                for (int i = 0; i < count; i++) {
+                    final int key = random.nextInt(count);
+                    sink += index.get(keys.getMostSignificantBits(key), keys.getLeastSignificantBits(key));
+                }
+
+                final long looked = System.nanoTime() - start;
+
+                System.out.printf("%d batched keys: bulk load %.1fms, %d random lookups %.1fms, %.1f bytes per entry (%d)%n",
+                        count, loaded / 1e6, count, looked / 1e6, (double) index.getSizeInBytes() / count, sink);
+            }
+        }
+
+        // Keys of a few generators spread over a minute, pages span many milliseconds and share only time bytes
+        final MesonBuffer spread = randomKeys(new Random(47), count);
+
+        try (final MesonIndex index = MesonIndex.bulkLoad(
+                new File(folder.getRoot(), "benchmark-spread.idx"), spread, values)) {
+            System.out.printf("%d keys over a minute: %.1f bytes per entry, %d bytes unprefixed%n",
+                    count, (double) index.getSizeInBytes() / count, Meson.BUFFER_SIZE_BYTES + Long.BYTES);
+        }
+    }
+
+    private static void assertLookups(final MesonIndex index, final Meson[] mesons) {
+        for (int i = 0; i < mesons.length; i++) {
+            final long value = index.get(mesons[i]);
+
+            if (value != index.get(mesons[i].getMostSignificantBits(), mesons[i].getLeastSignificantBits())) {
+                fail("Lookups must agree");
+            }
+
+            assertThat(value).isNotEqualTo(MesonIndex.NOT_FOUND);
+        }
+    }
+
+    /**
+     * Sorted, distinct keys of a few generators over about a minute.
+     */
+    private static MesonBuffer randomKeys(final Random random, final int count) {
+        final TreeMap<Meson, Boolean> sorted = new TreeMap<>();
+        final long start = 1_600_000_000_000L;
+
+        while (sorted.size() < count) {
+            sorted.put(new Meson(
+                    start + random.nextInt(60_000),
+                    MesonUtils.intToBytes(random.nextInt(4) * 0x01010101),
+                    random.nextInt(Integer.MAX_VALUE)
+            ), Boolean.TRUE);
+        }
+
+        final MesonBuffer buffer = new MesonBuffer(count);
+
+        for (final Meson meson : sorted.keySet()) {
+            buffer.add(meson);
+        }
+
+        return buffer;
+    }
+}
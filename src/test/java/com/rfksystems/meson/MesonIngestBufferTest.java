@@ -0,0 +1,314 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonIngestBufferTest {
+    @Test
+    public void test_drains_sorted_and_distinct() {
+        final Random random = new Random(71);
+        final MesonIngestBuffer buffer = new MesonIngestBuffer(100_000, 4);
+        final TreeSet<Meson> expected = new TreeSet<>();
+        final List<Meson> mesons = new ArrayList<>(Arrays.asList(Meson.batch(30_000)));
+
+        // Near sorted with some swaps, shuffled tail and duplicates
+        for (int i = 0; i < 1000; i++) {
+            Collections.swap(mesons, random.nextInt(20_000), random.nextInt(20_000));
+        }
+
+        Collections.shuffle(mesons.subList(25_000, 30_000), random);
+        mesons.addAll(mesons.subList(0, 100));
+
+        for (final Meson meson : mesons) {
+            assertThat(buffer.offer(meson)).isTrue();
+            expected.add(meson);
+        }
+
+        assertThat(buffer.size()).isEqualTo(30_100);
+
+        final MesonBuffer drained = buffer.drain();
+        assertThat(drained.size()).isEqualTo(expected.size());
+        assertThat(drained.isSorted()).isTrue();
+
+        int index = 0;
+
+        for (final Meson meson : expected) {
+            assertThat(drained.get(index++)).isEqualTo(meson);
+        }
+
+        assertThat(buffer.size()).isEqualTo(0);
+        assertThat(buffer.drain().isEmpty()).isTrue();
+
+        // Blocks are reused
+        buffer.offer(mesons.get(0));
+        assertThat(buffer.drain().get(0)).isEqualTo(mesons.get(0));
+    }
+
+    @Test
+    public void test_concurrent_writers_and_drains() throws InterruptedException {
+        final int writers = 16;
+        final int perWriter = 50_000;
+        final MesonIngestBuffer buffer = new MesonIngestBuffer(64 * 1024, 8);
+        final CountDownLatch done = new CountDownLatch(writers);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final byte[] generatorId = MesonUtils.intToBytes(w);
+
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perWriter; i++) {
+                        buffer.put(new Meson(1_600_000_000_000L + i / 100, generatorId, i));
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+
+        final MesonBuffer all = new MesonBuffer(writers * perWriter);
+        int drains = 0;
+
+        while (!done.await(1, TimeUnit.MILLISECONDS)) {
+            final MesonBuffer drained = buffer.drain();
+            assertThat(drained.isSorted()).isTrue();
+            all.addAll(drained);
+            drains++;
+        }
+
+        all.addAll(buffer.drain());
+
+        assertThat(drains).isGreaterThan(0);
+        assertThat(all.size()).isEqualTo(writers * perWriter);
+
+        // Every identity exactly once
+        all.sort();
+
+        for (int i = 1; i < all.size(); i++) {
+            assertThat(all.compare(i - 1, i)).isLessThan(0);
+        }
+    }
+
+    @Test
+    public void test_drain_takes_everything_added_before_it() throws InterruptedException {
+        final int writers = 8;
+        final MesonIngestBuffer buffer = new MesonIngestBuffer(writers * 64, writers);
+        final AtomicIntegerArray added = new AtomicIntegerArray(writers);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            final byte[] generatorId = MesonUtils.intToBytes(w);
+
+            threads.add(new Thread(() -> {
+                for (int i = 0; !stop.get(); ) {
+                    if (buffer.offer(new Meson(1_600_000_000_000L, generatorId, i))) {
+                        added.set(writer, ++i);
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+
+        final int[] drained = new int[writers];
+
+        try {
+            for (int round = 0; round < 2000; round++) {
+                final int[] before = new int[writers];
+
+                for (int w = 0; w < writers; w++) {
+                    before[w] = added.get(w);
+                }
+
+                final MesonBuffer ids = buffer.drain();
+
+                for (int i = 0; i < ids.size(); i++) {
+                    drained[ids.getGeneratorId(i)]++;
+                }
+
+                for (int w = 0; w < writers; w++) {
+                    assertThat(drained[w]).isAtLeast(before[w]);
+                }
+            }
+        } finally {
+            stop.set(true);
+
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        }
+
+        // Nothing left behind in spare blocks by writers racing the drains
+        final MesonBuffer rest = buffer.drain();
+
+        assertThat(buffer.size()).isEqualTo(0);
+
+        for (int i = 0; i < rest.size(); i++) {
+            drained[rest.getGeneratorId(i)]++;
+        }
+
+        for (int w = 0; w < writers; w++) {
+            assertThat(drained[w]).isEqualTo(added.get(w));
+        }
+    }
+
+    @Test
+    public void test_back_pressure() throws InterruptedException {
+        final MesonIngestBuffer buffer = new MesonIngestBuffer(10, 2);
+        final Meson[] mesons = Meson.batch(11);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(buffer.offer(mesons[i])).isTrue();
+        }
+
+        // Full stripe moves on to the other one, until both are full
+        assertThat(buffer.offer(mesons[10])).isFalse();
+        assertThat(buffer.getRejected()).isEqualTo(1);
+
+        final AtomicBoolean put = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            try {
+                buffer.put(mesons[10]);
+                put.set(true);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        writer.start();
+
+        Thread.sleep(20);
+        assertThat(put.get()).isFalse();
+
+        assertThat(buffer.drain().size()).isEqualTo(10);
+        writer.join();
+        assertThat(put.get()).isTrue();
+        assertThat(buffer.drain().get(0)).isEqualTo(mesons[10]);
+
+        buffer.offer(mesons[0]);
+        Thread.currentThread().interrupt();
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                buffer.put(mesons[i]);
+            }
+
+            fail("Waiting puts must be interruptible");
+        } catch (final InterruptedException e) {
+            assertThat(buffer.size()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    public void test_invalid_arguments() {
+        for (final int[] arguments : new int[][]{{100, 0}, {100, 3}, {100, 2048}, {1, 2}}) {
+            try {
+                new MesonIngestBuffer(arguments[0], arguments[1]);
+                fail("Invalid capacity or stripes must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().contains("must be");
+            }
+        }
+
+        assertThat(new MesonIngestBuffer(100, 8).getCapacity()).isEqualTo(96);
+    }
+
+    @Test
+    public void benchmark_ingest() throws InterruptedException {
+        final int total = 2_000_000;
+
+        for (final int writers : new int[]{16, 64}) {
+            final Meson[][] perWriter = new Meson[writers][];
+
+            for (int w = 0; w < writers; w++) {
+                perWriter[w] = Meson.batch(total / writers);
+            }
+
+            for (int run = 0; run < 3; run++) {
+                final ConcurrentSkipListSet<Meson> set = new ConcurrentSkipListSet<>();
+                final long skipList = ingest(perWriter, set::add, () -> {
+                    final MesonBuffer drained = new MesonBuffer(set.size());
+                    Meson meson;
+
+                    while (null != (meson = set.pollFirst())) {
+                        drained.add(meson);
+                    }
+
+                    return drained.size();
+                });
+
+                final MesonIngestBuffer buffer = new MesonIngestBuffer(1 << 18);
+                final long ingest = ingest(perWriter, meson -> {
+                    try {
+                        buffer.put(meson);
+                    } catch (final InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, () -> buffer.drain().size());
+
+                System.out.printf("%d writers, %d identities: skip list %.1fms, ingest buffer %.1fms%n",
+                        writers, total, skipList / 1e6, ingest / 1e6);
+            }
+        }
+    }
+
+    private interface Drain {
+        int drain();
+    }
+
+    /**
+     * Add all identities from one thread per writer while draining, return nanoseconds until all are drained.
+     */
+    private static long ingest(
+            final Meson[][] perWriter,
+            final Consumer<Meson> add,
+            final Drain drain
+    ) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(perWriter.length);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (final Meson[] mesons : perWriter) {
+            threads.add(new Thread(() -> {
+                for (final Meson meson : mesons) {
+                    add.accept(meson);
+                }
+
+                done.countDown();
+            }));
+        }
+
+        final long start = System.nanoTime();
+        threads.forEach(Thread::start);
+        long drained = 0;
+
+        while (!done.await(5, TimeUnit.MILLISECONDS)) {
+            drained += drain.drain();
+        }
+
+        drained += drain.drain();
+        final long took = System.nanoTime() - start;
+
+        assertThat(drained).isEqualTo((long) perWriter.length * perWriter[0].length);
+        return took;
+    }
+}
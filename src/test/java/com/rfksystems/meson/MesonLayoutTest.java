@@ -0,0 +1,207 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonLayoutTest {
+    private static final int COUNT = 100_000;
+
+    @Test
+    public void test_standard_matches_byte_array_form() {
+        for (final Meson meson : Meson.batch(1000)) {
+            assertThat(MesonLayout.STANDARD.toBytes(meson)).isEqualTo(meson.toByteArray());
+            assertThat(MesonLayout.STANDARD.fromBytes(meson.toByteArray())).isEqualTo(meson);
+        }
+    }
+
+    @Test
+    public void test_aligned_matches_padded_uuid_form() {
+        for (final Meson meson : Meson.batch(1000)) {
+            assertThat(MesonLayout.ALIGNED.toBytes(meson)).isEqualTo(MesonUuid.toPaddedBytes(meson));
+            assertThat(MesonLayout.ALIGNED.fromBytes(MesonUuid.toPaddedBytes(meson))).isEqualTo(meson);
+        }
+    }
+
+    @Test
+    public void test_round_trip_and_order() {
+        final MesonLayout[] layouts = {
+                MesonLayout.STANDARD,
+                MesonLayout.COMPACT,
+                MesonLayout.ALIGNED,
+                MesonLayout.of(41, 10, 12, 1288834974657L),
+                MesonLayout.of(48, 32, 32, 0),
+                MesonLayout.of(1, 1, 1, 0),
+        };
+
+        final Random random = new Random(23);
+
+        for (final MesonLayout layout : layouts) {
+            final int size = layout.getSizeBytes();
+            final ByteBuffer buffer = ByteBuffer.allocate(COUNT * size + 1);
+            final Meson[] mesons = new Meson[COUNT];
+
+            for (int i = 0; i < COUNT; i++) {
+                mesons[i] = randomFitting(random, layout);
+                layout.put(buffer, 1 + i * size, mesons[i]);
+            }
+
+            for (int i = 0; i < COUNT; i++) {
+                final int index = 1 + i * size;
+                assertThat(layout.get(buffer, index)).isEqualTo(mesons[i]);
+                assertThat(layout.getTime(buffer, index)).isEqualTo(mesons[i].getTime());
+                assertThat(layout.getGeneratorId(buffer, index)).isEqualTo(mesons[i].getGeneratorIdAsInt());
+                assertThat(layout.getSequence(buffer, index)).isEqualTo(mesons[i].getSequence());
+
+                if (0 < i) {
+                    final int expected = mesons[i - 1].compareTo(mesons[i]);
+                    assertThat(Integer.signum(layout.compare(buffer, index - size, buffer, index)))
+                            .isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test_generic_packing_matches_specialized_layouts() {
+        final Random random = new Random(29);
+        final MesonLayout compact = MesonLayout.of(40, 16, 24, MesonLayout.COMPACT_EPOCH);
+        final MesonLayout standard = MesonLayout.of(48, 32, 32, 0);
+
+        for (int i = 0; i < COUNT; i++) {
+            final Meson small = randomFitting(random, MesonLayout.COMPACT);
+            assertThat(compact.toBytes(small)).isEqualTo(MesonLayout.COMPACT.toBytes(small));
+
+            final Meson large = randomFitting(random, MesonLayout.STANDARD);
+            assertThat(standard.toBytes(large)).isEqualTo(large.toByteArray());
+        }
+    }
+
+    @Test
+    public void test_fields_not_fitting_are_rejected() {
+        final MesonLayout layout = MesonLayout.COMPACT;
+
+        assertThat(layout.getMaxTime()).isEqualTo(MesonLayout.COMPACT_EPOCH + (1L << 40) - 1);
+        assertThat(layout.fits(MesonLayout.COMPACT_EPOCH, 0xFFFF, 0xFFFFFF)).isTrue();
+        assertThat(layout.fits(MesonLayout.COMPACT_EPOCH - 1, 0, 0)).isFalse();
+        assertThat(layout.fits(layout.getMaxTime() + 1, 0, 0)).isFalse();
+        assertThat(layout.fits(MesonLayout.COMPACT_EPOCH, 0x10000, 0)).isFalse();
+        assertThat(layout.fits(MesonLayout.COMPACT_EPOCH, 0, 0x1000000)).isFalse();
+        assertThat(MesonLayout.STANDARD.fits(0, -1, Integer.MAX_VALUE)).isTrue();
+        assertThat(MesonLayout.STANDARD.fits(0, 0, -1)).isFalse();
+
+        try {
+            layout.toBytes(new Meson());
+            fail("Generated identity has 32 bit generator ID and 31 bit sequence");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("does not fit");
+        }
+
+        try {
+            layout.fromBytes(new byte[Meson.BUFFER_SIZE_BYTES]);
+            fail("Standard size is not compact size");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().isEqualTo("Expected 10 bytes");
+        }
+    }
+
+    @Test
+    public void test_burst_identities_with_short_generator_id_fit_compact() {
+        final MesonBurstGenerator generator = new MesonBurstGenerator(new byte[]{0, 0, 0x12, 0x34});
+
+        for (final Meson meson : generator.batch(10000)) {
+            assertThat(MesonLayout.COMPACT.fromBytes(MesonLayout.COMPACT.toBytes(meson))).isEqualTo(meson);
+        }
+    }
+
+    @Test
+    public void test_invalid_widths_are_rejected() {
+        final int[][] widths = {{0, 16, 24}, {49, 16, 24}, {40, 0, 24}, {40, 33, 24}, {40, 16, 0}, {40, 16, 33}};
+
+        for (final int[] width : widths) {
+            try {
+                MesonLayout.of(width[0], width[1], width[2], 0);
+                fail("Widths must be rejected");
+            } catch (final IllegalArgumentException e) {
+                assertThat(e).hasMessageThat().contains("must take between");
+            }
+        }
+
+        try {
+            MesonLayout.of(40, 16, 24, -1);
+            fail("Epoch must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().startsWith("Epoch must be between");
+        }
+    }
+
+    @Test
+    public void benchmark_layouts() {
+        final int count = 1_000_000;
+        final Meson[] mesons = new Meson[count];
+        final Random random = new Random(31);
+
+        for (int i = 0; i < count; i++) {
+            mesons[i] = randomFitting(random, MesonLayout.COMPACT);
+        }
+
+        final ByteBuffer fixed = ByteBuffer.allocate(count * Meson.BUFFER_SIZE_BYTES);
+
+        for (int run = 0; run < 5; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                fixed.position(i * Meson.BUFFER_SIZE_BYTES);
+                fixed.put(mesons[i].toByteArray());
+            }
+
+            for (int i = 1; i < count; i++) {
+                sink += MesonUtils.compareBits(
+                        fixed.getLong((i - 1) * Meson.BUFFER_SIZE_BYTES),
+                        fixed.getLong((i - 1) * Meson.BUFFER_SIZE_BYTES + 6) & 0xFFFFFFFFFFFFL,
+                        fixed.getLong(i * Meson.BUFFER_SIZE_BYTES),
+                        fixed.getLong(i * Meson.BUFFER_SIZE_BYTES + 6) & 0xFFFFFFFFFFFFL
+                );
+            }
+
+            final long took = System.nanoTime() - start;
+            final StringBuilder report = new StringBuilder(String.format(
+                    "Encode and compare %d identities: toByteArray %.1fms", count, took / 1e6));
+
+            for (final MesonLayout layout : new MesonLayout[]{
+                    MesonLayout.STANDARD, MesonLayout.COMPACT, MesonLayout.ALIGNED,
+                    MesonLayout.of(40, 16, 24, MesonLayout.COMPACT_EPOCH)}) {
+                final int size = layout.getSizeBytes();
+                final ByteBuffer buffer = ByteBuffer.allocate(count * size);
+                start = System.nanoTime();
+
+                for (int i = 0; i < count; i++) {
+                    layout.put(buffer, i * size, mesons[i]);
+                }
+
+                for (int i = 1; i < count; i++) {
+                    sink += layout.compare(buffer, (i - 1) * size, buffer, i * size);
+                }
+
+                report.append(String.format(", %d bytes%s %.1fms",
+                        size, layout instanceof MesonLayout.Generic ? " generic" : "",
+                        (System.nanoTime() - start) / 1e6));
+            }
+
+            System.out.println(report.append(" (").append(sink).append(")"));
+        }
+    }
+
+    private static Meson randomFitting(final Random random, final MesonLayout layout) {
+        final long time = layout.getEpoch() + (random.nextLong() >>> 1) % (layout.getMaxTime() - layout.getEpoch() + 1);
+        final int generatorId = (int) (random.nextLong() >>> (64 - layout.getGeneratorIdBits()));
+        final int sequence = (int) (random.nextLong() >>> (64 - Math.min(31, layout.getSequenceBits())));
+
+        return new Meson(time, MesonUtils.intToBytes(generatorId), sequence);
+    }
+}
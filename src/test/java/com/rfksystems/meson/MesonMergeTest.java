@@ -0,0 +1,155 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonMergeTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+
+    @Test
+    public void test_merges_sorted_sources() {
+        final Random random = new Random(42);
+        final List<Meson> expected = new ArrayList<>();
+        final List<MesonCursor> sources = new ArrayList<>();
+
+        for (int s = 0; s < 37; s++) {
+            final MesonBuffer buffer = source(random, random.nextInt(300), expected);
+            sources.add(buffer.cursor());
+        }
+
+        Collections.sort(expected);
+        assertMerged(MesonMerge.merge(sources, false), expected);
+    }
+
+    @Test
+    public void test_distinct_merge_drops_equal_identities() {
+        final Meson a = new Meson("0162915be2da900035c91a2a5d29");
+        final Meson b = new Meson("0162915be2da900035c91a2a5d30");
+        final Meson c = new Meson("0162915be2db900035c91a2a5d29");
+
+        final List<MesonCursor> sources = Arrays.asList(
+                MesonMerge.cursor(Arrays.asList(a, b, b, c).iterator()),
+                MesonMerge.cursor(Arrays.asList(a, c).iterator()),
+                MesonMerge.cursor(Collections.<Meson>emptyIterator()),
+                MesonMerge.cursor(Collections.singletonList(b).iterator())
+        );
+
+        assertMerged(MesonMerge.merge(sources, true), Arrays.asList(a, b, c));
+    }
+
+    @Test
+    public void test_merges_binary_segments_and_single_source() {
+        final Meson a = new Meson("0162915be2da900035c91a2a5d29");
+        final Meson b = new Meson("0162915be2da900035c91a2a5d30");
+        final ByteBuffer segment = ByteBuffer.allocate(3 + 2 * Meson.BUFFER_SIZE_BYTES);
+        segment.position(3);
+        segment.put(a.toByteArray()).put(b.toByteArray());
+        segment.position(3);
+
+        assertMerged(
+                MesonMerge.merge(Collections.singletonList(MesonMerge.cursor(segment)), false),
+                Arrays.asList(a, b)
+        );
+        assertThat(MesonMerge.merge(Collections.<MesonCursor>emptyList(), false).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_parallel_merge_matches_sequential_merge() {
+        final Random random = new Random(7);
+        final List<Meson> all = new ArrayList<>();
+        final List<MesonCursor> sources = new ArrayList<>();
+
+        for (int s = 0; s < 500; s++) {
+            sources.add(source(random, random.nextInt(100), all).cursor());
+        }
+
+        // Every identity twice, distinct merge keeps one of each
+        for (int s = 0; s < 3; s++) {
+            final MesonBuffer copy = new MesonBuffer();
+
+            for (int i = s; i < all.size(); i += 3) {
+                copy.add(all.get(i));
+            }
+
+            copy.sort();
+            sources.add(copy.cursor());
+        }
+
+        final List<Meson> expected = new ArrayList<>(new TreeSet<>(all));
+        assertMerged(MesonMerge.mergeParallel(sources, true, 8, new ForkJoinPool(4)), expected);
+    }
+
+    @Test
+    public void benchmark_merge() {
+        final int fanIn = 256;
+        final int perSource = 40_000;
+        final Random random = new Random(1);
+        final List<MesonBuffer> buffers = new ArrayList<>();
+
+        for (int s = 0; s < fanIn; s++) {
+            final MesonBuffer buffer = new MesonBuffer(perSource);
+            final int generatorId = random.nextInt();
+            long time = 1_500_000_000_000L;
+
+            for (int i = 0; i < perSource; i++) {
+                time += random.nextInt(3);
+                buffer.add(MesonUtils.mostSignificantBits(time, generatorId), MesonUtils.leastSignificantBits(generatorId, i));
+            }
+
+            buffers.add(buffer);
+        }
+
+        for (int run = 0; run < 3; run++) {
+            final List<MesonCursor> sources = new ArrayList<>();
+
+            for (final MesonBuffer buffer : buffers) {
+                sources.add(buffer.cursor());
+            }
+
+            final MesonMerge merge = new MesonMerge(sources, false);
+            long count = 0;
+            final long start = System.nanoTime();
+
+            while (merge.advance()) {
+                count++;
+            }
+
+            final long took = System.nanoTime() - start;
+            assertThat(count).isEqualTo((long) fanIn * perSource);
+            System.out.printf("Merged %d identities from %d sources in %d ms (%.1f M/s)%n",
+                    count, fanIn, took / 1_000_000, count * 1000.0 / took);
+        }
+    }
+
+    private static MesonBuffer source(final Random random, final int count, final List<Meson> all) {
+        final MesonBuffer buffer = new MesonBuffer();
+
+        for (int i = 0; i < count; i++) {
+            final Meson meson = new Meson(1000L + random.nextInt(5000), GENERATOR_ID, random.nextInt(Integer.MAX_VALUE));
+            buffer.add(meson);
+            all.add(meson);
+        }
+
+        buffer.sort();
+        return buffer;
+    }
+
+    private static void assertMerged(final MesonBuffer merged, final List<Meson> expected) {
+        assertThat(merged.size()).isEqualTo(expected.size());
+        assertThat(merged.isSorted()).isTrue();
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(merged.get(i)).isEqualTo(expected.get(i));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.rfksystems.meson;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonMetricsTest {
+    @Before
+    public void setUp() {
+        MesonMetrics.reset();
+        MesonMetrics.enable();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MesonMetrics.disable();
+        MesonMetrics.reset();
+        MesonMetrics.unregisterMBean();
+    }
+
+    @Test
+    public void test_generation_is_counted() {
+        for (int i = 0; i < 1000; i++) {
+            new Meson();
+        }
+
+        Meson.directToByteArray();
+        Meson.directToHexString();
+
+        assertThat(MesonMetrics.snapshot().getGenerated()).isEqualTo(1002L);
+    }
+
+    @Test
+    public void test_nothing_is_counted_when_disabled() {
+        MesonMetrics.disable();
+
+        new Meson();
+        Meson.isValidHexString("1");
+
+        final MesonMetricsSnapshot snapshot = MesonMetrics.snapshot();
+        assertThat(snapshot.getGenerated()).isEqualTo(0L);
+        assertThat(snapshot.getValidationFailures()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_clock_step_back_is_counted_once() {
+        // Clock one second behind for a million identities
+        for (int i = 0; i < 1_000_000; i++) {
+            MesonMetrics.observeClock(10_000L, 9_000L + i / 1000);
+        }
+
+        assertThat(MesonMetrics.snapshot().getClockRegressions()).isEqualTo(1L);
+
+        MesonMetrics.observeClock(10_000L, 10_000L);
+        assertThat(MesonMetrics.snapshot().getClockRegressions()).isEqualTo(1L);
+
+        // Passing the last time ends the step, the next one is counted again
+        MesonMetrics.observeClock(10_000L, 10_001L);
+        MesonMetrics.observeClock(10_001L, 9_500L);
+        MesonMetrics.observeClock(10_001L, 9_501L);
+        assertThat(MesonMetrics.snapshot().getClockRegressions()).isEqualTo(2L);
+
+        MesonMetrics.observeClock(10_001L, 10_002L);
+    }
+
+    @Test
+    public void test_parse_and_validation_failures_are_counted() {
+        try {
+            new Meson("0162915be2da900035c91a2a5d2");
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            new Meson(0x64, new byte[]{0x1, 0x2}, 0xc8);
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+
+        assertThat(Meson.isValidHexString("1")).isFalse();
+
+        final MesonMetricsSnapshot snapshot = MesonMetrics.snapshot();
+        assertThat(snapshot.getParseFailures()).isEqualTo(1L);
+        assertThat(snapshot.getValidationFailures()).isEqualTo(2L);
+    }
+
+    @Test
+    public void test_rate_between_snapshots() throws Exception {
+        final MesonMetricsSnapshot before = MesonMetrics.snapshot();
+
+        for (int i = 0; i < 1000; i++) {
+            new Meson();
+        }
+
+        Thread.sleep(5);
+        final MesonMetricsSnapshot after = MesonMetrics.snapshot();
+
+        assertThat(after.generatedPerSecond(before)).isGreaterThan(0.0);
+        assertThat(before.generatedPerSecond(after)).isEqualTo(0.0);
+    }
+
+    @Test
+    public void test_binds_to_registry() {
+        final Map<String, LongSupplier> counters = new HashMap<>();
+        final Map<String, DoubleSupplier> gauges = new HashMap<>();
+
+        MesonMetrics.bindTo(new MesonMetricsRegistry() {
+            @Override
+            public void counter(final String name, final String description, final LongSupplier value) {
+                counters.put(name, value);
+            }
+
+            @Override
+            public void gauge(final String name, final String description, final DoubleSupplier value) {
+                gauges.put(name, value);
+            }
+        });
+
+        new Meson();
+
+        assertThat(counters).containsKey("meson.sequence.resets");
+        assertThat(counters).containsKey("meson.clock.regressions");
+        assertThat(gauges).containsKey("meson.batches.largest");
+        assertThat(counters.get("meson.generated").getAsLong()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_exposed_over_jmx() throws Exception {
+        MesonMetrics.registerMBean();
+        MesonMetrics.registerMBean();
+
+        new Meson();
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(MesonMetrics.MBEAN_NAME);
+
+        assertThat(server.isRegistered(name)).isTrue();
+        assertThat(server.getAttribute(name, "Generated")).isEqualTo(1L);
+        assertThat(server.getAttribute(name, "Enabled")).isEqualTo(true);
+    }
+}
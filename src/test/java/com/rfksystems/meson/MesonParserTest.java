@@ -0,0 +1,210 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonParserTest {
+    private static final String HEX_PATTERN = "[0-9a-fA-F]{28}|[0-9a-fA-F]{12}-[0-9a-fA-F]{8}-[0-9a-fA-F]{8}";
+
+    @Test
+    public void test_parse_strings_matches_constructor() {
+        final List<String> strings = mixedStrings(new Random(61), 20_000);
+        final MesonBuffer target = new MesonBuffer();
+        final BitSet invalid = new BitSet();
+
+        final int valid = MesonParser.parse(strings, target, invalid, ForkJoinPool.commonPool(), 64);
+
+        assertThat(target.size()).isEqualTo(strings.size());
+        assertThat(valid + invalid.cardinality()).isEqualTo(strings.size());
+        assertMatchesConstructor(strings, target, 0, invalid);
+    }
+
+    @Test
+    public void test_parse_delimited_bytes() {
+        final List<String> strings = mixedStrings(new Random(67), 10_000);
+
+        for (final char delimiter : new char[]{',', '\n'}) {
+            final String joined = String.join(String.valueOf(delimiter), strings) + delimiter;
+            final byte[] bytes = ("junk" + joined).getBytes(StandardCharsets.US_ASCII);
+            final ByteBuffer source = ByteBuffer.allocateDirect(bytes.length);
+            source.put(bytes).position(4);
+
+            final MesonBuffer target = new MesonBuffer();
+            target.add(new Meson());
+            final BitSet invalid = new BitSet();
+
+            final int valid = MesonParser.parse(source, (byte) delimiter, target, invalid, ForkJoinPool.commonPool(), 100);
+
+            assertThat(source.position()).isEqualTo(4);
+            assertThat(target.size()).isEqualTo(strings.size() + 1);
+            assertThat(valid + invalid.cardinality()).isEqualTo(strings.size());
+            assertMatchesConstructor(strings, target, 1, invalid);
+        }
+    }
+
+    @Test
+    public void test_small_and_empty_inputs() {
+        final Meson meson = new Meson();
+        final MesonBuffer target = new MesonBuffer();
+        final BitSet invalid = new BitSet();
+
+        assertThat(MesonParser.parse(Arrays.asList(
+                meson.toHexString(),
+                meson.toFormatString().toUpperCase(),
+                null,
+                "",
+                meson.toHexString().substring(1) + "g",
+                meson.toFormatString().replace('-', '_')
+        ), target, invalid)).isEqualTo(2);
+
+        assertThat(target.get(0)).isEqualTo(meson);
+        assertThat(target.get(1)).isEqualTo(meson);
+        assertThat(invalid.toString()).isEqualTo("{2, 3, 4, 5}");
+        assertThat(target.getMostSignificantBits(2)).isEqualTo(0L);
+
+        final MesonBuffer empty = new MesonBuffer();
+        assertThat(MesonParser.parse(ByteBuffer.allocate(0), (byte) ',', empty, invalid)).isEqualTo(0);
+        assertThat(MesonParser.parse(new ArrayList<String>(), empty, invalid)).isEqualTo(0);
+        assertThat(empty.isEmpty()).isTrue();
+
+        final BitSet gaps = new BitSet();
+        final ByteBuffer source = ByteBuffer.wrap((",," + meson.toHexString()).getBytes(StandardCharsets.US_ASCII));
+        assertThat(MesonParser.parse(source, (byte) ',', empty, gaps)).isEqualTo(1);
+        assertThat(gaps.toString()).isEqualTo("{0, 1}");
+        assertThat(empty.get(2)).isEqualTo(meson);
+
+        try {
+            MesonParser.parse(Arrays.asList("a"), empty, gaps, ForkJoinPool.commonPool(), 10);
+            fail("Thresholds under 64 must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().startsWith("Threshold must be at least");
+        }
+    }
+
+    @Test
+    public void benchmark_parse() {
+        final int count = 1_000_000;
+        final List<String> strings = new ArrayList<>(count);
+        final StringBuilder joined = new StringBuilder();
+
+        for (final Meson meson : Meson.batch(count)) {
+            strings.add(meson.toFormatString());
+            joined.append(meson.toFormatString()).append(',');
+        }
+
+        final ByteBuffer bytes = ByteBuffer.wrap(joined.toString().getBytes(StandardCharsets.US_ASCII));
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            final List<Meson> looped = new ArrayList<>(count);
+
+            for (final String string : strings) {
+                if (Meson.isValidHexString(string)) {
+                    looped.add(new Meson(string));
+                }
+            }
+
+            final long loop = System.nanoTime() - start;
+
+            final MesonBuffer target = new MesonBuffer(count);
+            start = System.nanoTime();
+            MesonParser.parse(strings, target, new BitSet(), ForkJoinPool.commonPool(), Integer.MAX_VALUE);
+            final long sequential = System.nanoTime() - start;
+
+            target.clear();
+            start = System.nanoTime();
+            MesonParser.parse(strings, target, new BitSet());
+            final long parallel = System.nanoTime() - start;
+
+            target.clear();
+            start = System.nanoTime();
+            MesonParser.parse(bytes, (byte) ',', target, new BitSet());
+            final long delimited = System.nanoTime() - start;
+
+            System.out.printf("%d identities: validate and construct %.1fms, bulk %.1fms, parallel %.1fms, "
+                            + "delimited bytes %.1fms (%d)%n",
+                    count, loop / 1e6, sequential / 1e6, parallel / 1e6, delimited / 1e6, looped.size());
+        }
+    }
+
+    private static void assertMatchesConstructor(
+            final List<String> strings,
+            final MesonBuffer target,
+            final int base,
+            final BitSet invalid
+    ) {
+        for (int i = 0; i < strings.size(); i++) {
+            final String string = strings.get(i);
+            Meson expected;
+
+            // The constructor takes characters other than hex digits for zeros, the parser rejects them
+            if (!string.matches(HEX_PATTERN)) {
+                expected = null;
+            } else {
+                expected = Meson.isValidHexString(string) ? new Meson(string) : null;
+            }
+
+            if (null == expected) {
+                assertThat(invalid.get(i)).isTrue();
+                assertThat(target.getMostSignificantBits(base + i)).isEqualTo(0L);
+                assertThat(target.getLeastSignificantBits(base + i)).isEqualTo(0L);
+            } else {
+                assertThat(invalid.get(i)).isFalse();
+                assertThat(target.get(base + i)).isEqualTo(expected);
+            }
+        }
+    }
+
+    /**
+     * Valid identities in both forms and cases, mixed with broken ones.
+     */
+    private static List<String> mixedStrings(final Random random, final int count) {
+        final List<String> strings = new ArrayList<>(count);
+        final Meson[] mesons = Meson.batch(count);
+
+        for (int i = 0; i < count; i++) {
+            final String format = mesons[i].toFormatString();
+            final String compact = mesons[i].toHexString();
+
+            switch (random.nextInt(8)) {
+                case 0:
+                    strings.add(format.toUpperCase());
+                    break;
+                case 1:
+                    strings.add(compact.substring(0, 27));
+                    break;
+                case 2: {
+                    final char[] chars = compact.toCharArray();
+                    chars[random.nextInt(chars.length)] = "gxz -\u00e9".charAt(random.nextInt(6));
+                    strings.add(new String(chars));
+                    break;
+                }
+                case 3:
+                    // Negative sequence
+                    strings.add(compact.substring(0, 20) + "8" + compact.substring(21));
+                    break;
+                case 4:
+                    strings.add(format.substring(0, 12) + "0" + format.substring(13));
+                    break;
+                case 5:
+                    strings.add(format);
+                    break;
+                default:
+                    strings.add(compact);
+            }
+        }
+
+        return strings;
+    }
+}
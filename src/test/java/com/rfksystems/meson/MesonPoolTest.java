@@ -0,0 +1,241 @@
+package com.rfksystems.meson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonPoolTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_takes_prefilled_ids_in_order() throws Exception {
+        try (final MesonPool pool = new MesonPool(1000)) {
+            assertThat(pool.capacity()).isEqualTo(1024);
+            awaitFull(pool);
+
+            Meson previous = pool.take();
+
+            for (int i = 0; i < 1000; i++) {
+                final Meson meson = pool.take();
+                assertThat(previous.compareTo(meson)).isLessThan(0);
+                previous = meson;
+            }
+
+            assertThat(pool.getTaken()).isEqualTo(1001L);
+            assertThat(pool.getStarvations()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void test_falls_back_when_drained() throws Exception {
+        final MesonPool pool = new MesonPool(16, 4, 16);
+        awaitFull(pool);
+        pool.close();
+
+        final Set<Meson> mesons = new HashSet<>();
+
+        for (int i = 0; i < 100; i++) {
+            mesons.add(pool.take());
+        }
+
+        assertThat(mesons).hasSize(100);
+        assertThat(pool.getTaken()).isEqualTo(16L);
+        assertThat(pool.getStarvations()).isEqualTo(84L);
+        assertThat(pool.occupancy()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_refills_below_low_watermark() throws Exception {
+        try (final MesonPool pool = new MesonPool(64, 16, 8)) {
+            awaitFull(pool);
+
+            for (int i = 0; i < 60; i++) {
+                pool.take();
+            }
+
+            // Producer refills once below the low watermark, consumers may drain it a bit before it parks again
+            final long deadline = System.currentTimeMillis() + 10000;
+
+            while (pool.occupancy() <= 16 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+
+            assertThat(pool.occupancy()).isGreaterThan(16);
+            assertThat(pool.getRefills()).isAtLeast(8L + 1L);
+        }
+    }
+
+    @Test
+    public void test_concurrent_consumers_unique() throws Exception {
+        final Set<Meson> mesons = ConcurrentHashMap.newKeySet();
+        final List<Thread> consumers = new ArrayList<>();
+
+        try (final MesonPool pool = new MesonPool(256)) {
+            for (int t = 0; t < 8; t++) {
+                consumers.add(new Thread(() -> {
+                    for (int i = 0; i < 50000; i++) {
+                        mesons.add(pool.take());
+                    }
+                }));
+            }
+
+            consumers.forEach(Thread::start);
+
+            for (final Thread consumer : consumers) {
+                consumer.join();
+            }
+
+            assertThat(mesons).hasSize(8 * 50000);
+            assertThat(pool.getTaken() + pool.getStarvations()).isEqualTo(8L * 50000L);
+        }
+    }
+
+    @Test
+    public void test_binds_to_registry() throws Exception {
+        final Set<String> names = new HashSet<>();
+
+        try (final MesonPool pool = new MesonPool(16)) {
+            pool.bindTo(new MesonMetricsRegistry() {
+                @Override
+                public void counter(final String name, final String description, final LongSupplier value) {
+                    names.add(name);
+                }
+
+                @Override
+                public void gauge(final String name, final String description, final DoubleSupplier value) {
+                    names.add(name);
+                }
+            });
+        }
+
+        assertThat(names).containsAllOf("meson.pool.occupancy", "meson.pool.starvations");
+    }
+
+    @Test
+    public void test_large_capacity() throws Exception {
+        try (final MesonPool pool = new MesonPool(1 << 20)) {
+            assertThat(pool.capacity()).isEqualTo(1 << 20);
+            awaitFull(pool);
+            assertThat(pool.getRefills()).isAtLeast(16L);
+        }
+    }
+
+    @Test
+    public void test_producer_failure_is_reported() throws Exception {
+        try (final MesonPool pool = new MesonPool(16, 4, 4)) {
+            awaitFull(pool);
+            assertThat(pool.getFailure()).isNull();
+
+            MesonGeneratorIdentity.release();
+
+            try {
+                // Identities generated before the release are not handed out
+                for (int i = 0; i < 16; i++) {
+                    try {
+                        pool.take();
+                        fail("Generation must stop once the generator ID is released");
+                    } catch (final IllegalStateException e) {
+                        assertThat(e).hasMessageThat().contains("lease");
+                    }
+                }
+
+                final long deadline = System.currentTimeMillis() + 10000;
+
+                while (null == pool.getFailure() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+            } finally {
+                MesonGeneratorIdentity.reset();
+            }
+
+            assertThat(pool.getFailure()).isInstanceOf(IllegalStateException.class);
+            assertThat(pool.take()).isNotNull();
+            assertThat(pool.getTaken()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void test_identities_of_replaced_generator_id_expire() throws Exception {
+        try (final MesonPool pool = new MesonPool(16, 4, 4)) {
+            awaitFull(pool);
+
+            try (final MesonGeneratorLease lease = MesonGeneratorLease.acquire(folder.getRoot(), 50L, 1000L)) {
+                final Meson meson = pool.take();
+
+                assertThat(meson.getGeneratorIdHex()).isEqualTo(lease.getGeneratorIdHex());
+                assertThat(pool.getExpired()).isAtLeast(1L);
+            } finally {
+                MesonGeneratorIdentity.reset();
+            }
+        }
+    }
+
+    @Test
+    public void test_idle_pool_drops_old_identities() throws Exception {
+        try (final MesonPool pool = new MesonPool(16, 4, 4, 200L)) {
+            awaitFull(pool);
+            Thread.sleep(500L);
+
+            // Nothing was taken, the producer dropped them on its own
+            assertThat(pool.getExpired()).isAtLeast(1L);
+
+            for (int i = 0; i < 16; i++) {
+                assertThat(System.currentTimeMillis() - pool.take().getTime()).isLessThan(300L);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_low_watermark_below_capacity() throws Exception {
+        new MesonPool(16, 16, 4);
+    }
+
+    @Test
+    public void benchmark_take_against_direct() throws Exception {
+        final int count = 1000000;
+
+        try (final MesonPool pool = new MesonPool(1 << 20, 1 << 18, 1 << 16)) {
+            awaitFull(pool);
+
+            final long pooled = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                pool.take();
+            }
+
+            final long pooledNanos = System.nanoTime() - pooled;
+            final long direct = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                new Meson();
+            }
+
+            final long directNanos = System.nanoTime() - direct;
+
+            System.out.printf("Pool take: %.1fns/id, %d starvations\n", (double) pooledNanos / count, pool.getStarvations());
+            System.out.printf("Direct: %.1fns/id\n", (double) directNanos / count);
+        }
+    }
+
+    private void awaitFull(final MesonPool pool) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+
+        while (pool.occupancy() < pool.capacity() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertThat(pool.occupancy()).isEqualTo(pool.capacity());
+    }
+}
@@ -0,0 +1,120 @@
+package com.rfksystems.meson;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonScannerTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_finds_compact_and_formatted_tokens_on_word_boundaries() throws IOException {
+        final File file = write(
+                "0162915be2da900035c91a2a5d29 start of file\n" +
+                        "{\"id\":\"0162915be2da-900035c9-1a2a5d30\",\"n\":1}\n" +
+                        "prefixed x0162915be2da900035c91a2a5d31 and suffixed 0162915be2da900035c91a2a5d32_\n" +
+                        "too long 0162915be2da900035c91a2a5d33a, not hex 0162915be2da900035c91a2a5d3g\n" +
+                        "negative sequence 0162915be2da900035c9ffffffff\n" +
+                        "path /var/log/0162915be2da900035c91a2a5d34.log end of file 0162915be2da900035c91a2a5d35"
+        );
+
+        final List<Long> offsets = new ArrayList<>();
+        final MesonBuffer buffer = new MesonBuffer();
+        final long found = MesonScanner.scan(file, (msb, lsb, offset) -> {
+            buffer.add(msb, lsb);
+            offsets.add(offset);
+        });
+
+        assertThat(found).isEqualTo(4);
+        assertThat(buffer.get(0)).isEqualTo(new Meson("0162915be2da900035c91a2a5d29"));
+        assertThat(buffer.get(1)).isEqualTo(new Meson("0162915be2da900035c91a2a5d30"));
+        assertThat(buffer.get(2)).isEqualTo(new Meson("0162915be2da900035c91a2a5d34"));
+        assertThat(buffer.get(3)).isEqualTo(new Meson("0162915be2da900035c91a2a5d35"));
+
+        final String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+        assertThat(offsets.get(1)).isEqualTo((long) content.indexOf("0162915be2da-900035c9-1a2a5d30"));
+    }
+
+    @Test
+    public void test_empty_file() throws IOException {
+        assertThat(MesonScanner.scan(write("")).size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_parallel_scan_matches_sequential_scan() throws IOException {
+        final List<Meson> expected = new ArrayList<>();
+        final File file = folder.newFile();
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < 20_000; i++) {
+                final Meson meson = new Meson(1_500_000_000_000L + i, GENERATOR_ID, i);
+                expected.add(meson);
+
+                // Vary line length so tokens straddle chunk edges
+                writer.write("{\"seq\":" + i + ",\"pad\":\"" + new String(new char[i % 17]).replace('\0', 'x') + "\",");
+                writer.write("\"id\":\"" + (0 == i % 2 ? meson.toString() : meson.toFormatString()) + "\"}\n");
+            }
+        }
+
+        final MesonBuffer sequential = MesonScanner.scan(file);
+        final MesonBuffer parallel = MesonScanner.scanParallel(file, new ForkJoinPool(4), 4096);
+
+        assertThat(sequential.size()).isEqualTo(expected.size());
+        assertThat(parallel.size()).isEqualTo(expected.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(sequential.get(i)).isEqualTo(expected.get(i));
+            assertThat(parallel.get(i)).isEqualTo(expected.get(i));
+        }
+    }
+
+    @Test
+    public void benchmark_scan() throws IOException {
+        final File file = folder.newFile();
+        final int count = 1_000_000;
+
+        try (final BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < count; i++) {
+                writer.write("2018-04-01T12:00:00Z INFO request=" + new Meson(1_500_000_000_000L, GENERATOR_ID, i)
+                        + " status=200 took=12ms\n");
+            }
+        }
+
+        long start = System.nanoTime();
+        final long found = MesonScanner.scan(file, (msb, lsb, offset) -> {
+        });
+        long took = System.nanoTime() - start;
+
+        assertThat(found).isEqualTo(count);
+        System.out.printf("Scanned %d bytes, %d identities in %d ms sequentially%n",
+                file.length(), found, took / 1_000_000);
+
+        start = System.nanoTime();
+        final MesonBuffer buffer = MesonScanner.scanParallel(file);
+        took = System.nanoTime() - start;
+
+        assertThat(buffer.size()).isEqualTo(count);
+        System.out.printf("Scanned %d bytes, %d identities in %d ms in parallel%n",
+                file.length(), buffer.size(), took / 1_000_000);
+    }
+
+    private File write(final String content) throws IOException {
+        final File file = folder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+}
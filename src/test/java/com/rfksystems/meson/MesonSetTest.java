@@ -0,0 +1,264 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonSetTest {
+    private static final long TIME = 1_500_000_000_000L;
+
+    @Test
+    public void test_matches_tree_set() {
+        final Random random = new Random(3);
+        final MesonSet set = new MesonSet();
+        final TreeSet<Meson> expected = new TreeSet<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            final Meson meson = random(random);
+            final int operation = random.nextInt(10);
+
+            if (8 > operation) {
+                assertThat(set.add(meson)).isEqualTo(expected.add(meson));
+            } else {
+                assertThat(set.remove(meson)).isEqualTo(expected.remove(meson));
+            }
+        }
+
+        assertSame(set, expected);
+
+        for (int i = 0; i < 10_000; i++) {
+            final Meson meson = random(random);
+            assertThat(set.contains(meson)).isEqualTo(expected.contains(meson));
+        }
+
+        set.optimize();
+        assertSame(set, expected);
+    }
+
+    @Test
+    public void test_bulk_build_matches_tree_set() {
+        final Random random = new Random(5);
+        final MesonBuffer buffer = new MesonBuffer();
+        final TreeSet<Meson> expected = new TreeSet<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            final Meson meson = random(random);
+            buffer.add(meson);
+            expected.add(meson);
+        }
+
+        final MesonSet set = MesonSet.of(buffer);
+        assertSame(set, expected);
+
+        final MesonBuffer more = new MesonBuffer();
+        long added = 0;
+
+        for (int i = 0; i < 100_000; i++) {
+            final Meson meson = random(random);
+            more.add(meson);
+
+            if (expected.add(meson)) {
+                added++;
+            }
+        }
+
+        assertThat(set.addAll(more)).isEqualTo(added);
+        assertSame(set, expected);
+        assertThat(set.add(expected.first())).isFalse();
+    }
+
+    @Test
+    public void test_set_algebra() {
+        final Random random = new Random(5);
+        final MesonSet left = new MesonSet();
+        final MesonSet right = new MesonSet();
+        final TreeSet<Meson> leftExpected = new TreeSet<>();
+        final TreeSet<Meson> rightExpected = new TreeSet<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            final Meson meson = random(random);
+
+            if (random.nextBoolean()) {
+                left.add(meson);
+                leftExpected.add(meson);
+            }
+
+            if (random.nextBoolean()) {
+                right.add(meson);
+                rightExpected.add(meson);
+            }
+        }
+
+        final TreeSet<Meson> union = new TreeSet<>(leftExpected);
+        union.addAll(rightExpected);
+        final TreeSet<Meson> intersection = new TreeSet<>(leftExpected);
+        intersection.retainAll(rightExpected);
+        final TreeSet<Meson> difference = new TreeSet<>(leftExpected);
+        difference.removeAll(rightExpected);
+
+        assertSame(MesonSet.union(left, right), union);
+        assertSame(MesonSet.intersection(left, right), intersection);
+        assertSame(MesonSet.difference(left, right), difference);
+        assertSame(MesonSet.difference(right, right), new TreeSet<>());
+
+        // Inputs are left untouched
+        assertSame(left, leftExpected);
+        assertSame(right, rightExpected);
+    }
+
+    @Test
+    public void test_compresses_dense_runs() {
+        final MesonSet set = new MesonSet();
+        final int generatorId = 0x01020304;
+        int sequence = 1000;
+
+        // 1M identities in 100 milliseconds, consecutive sequences
+        for (int ms = 0; ms < 100; ms++) {
+            for (int i = 0; i < 10_000; i++) {
+                set.add(MesonUtils.mostSignificantBits(TIME + ms, generatorId),
+                        MesonUtils.leastSignificantBits(generatorId, sequence++));
+            }
+        }
+
+        set.optimize();
+
+        assertThat(set.size()).isEqualTo(1_000_000L);
+        assertThat(set.getSizeInBytes()).isLessThan(16_000L);
+        assertThat(set.contains(MesonUtils.mostSignificantBits(TIME + 50, generatorId),
+                MesonUtils.leastSignificantBits(generatorId, 1000 + 50 * 10_000 + 1))).isTrue();
+        assertThat(set.contains(MesonUtils.mostSignificantBits(TIME + 50, generatorId),
+                MesonUtils.leastSignificantBits(generatorId, 999))).isFalse();
+
+        final MesonCursor cursor = set.cursor();
+        long previousLsb = -1;
+        long count = 0;
+
+        while (cursor.advance()) {
+            assertThat(cursor.getLeastSignificantBits()).isGreaterThan(previousLsb);
+            previousLsb = cursor.getLeastSignificantBits();
+            count++;
+        }
+
+        assertThat(count).isEqualTo(1_000_000L);
+    }
+
+    @Test
+    public void test_packs_sparse_identities() {
+        final MesonSet set = new MesonSet();
+        final int generatorId = 0x01020304;
+
+        // One identity per millisecond, each alone in its partition
+        for (int ms = 0; ms < 100_000; ms++) {
+            set.add(MesonUtils.mostSignificantBits(TIME + ms, generatorId),
+                    MesonUtils.leastSignificantBits(generatorId, 1000 + ms));
+        }
+
+        set.optimize();
+
+        assertThat(set.size()).isEqualTo(100_000L);
+        assertThat((double) set.getSizeInBytes() / set.size()).isLessThan(16.0);
+        assertThat(set.contains(MesonUtils.mostSignificantBits(TIME + 500, generatorId),
+                MesonUtils.leastSignificantBits(generatorId, 1500))).isTrue();
+
+        // A second identity in a millisecond gets a container, and gives it up again
+        final long msb = MesonUtils.mostSignificantBits(TIME + 500, generatorId);
+        assertThat(set.add(msb, MesonUtils.leastSignificantBits(generatorId, 1501))).isTrue();
+        assertThat(set.contains(msb, MesonUtils.leastSignificantBits(generatorId, 1500))).isTrue();
+        assertThat(set.remove(msb, MesonUtils.leastSignificantBits(generatorId, 1500))).isTrue();
+        assertThat(set.contains(msb, MesonUtils.leastSignificantBits(generatorId, 1501))).isTrue();
+        assertThat(set.size()).isEqualTo(100_000L);
+    }
+
+    @Test
+    public void benchmark_set() {
+        final int count = 2_000_000;
+        final Meson[] ids = Meson.batch(count);
+        final MesonSet set = new MesonSet();
+        final Set<Meson> hashSet = new HashSet<>();
+
+        long start = System.nanoTime();
+
+        for (final Meson meson : ids) {
+            set.add(meson);
+        }
+
+        set.optimize();
+        final long setAdd = System.nanoTime() - start;
+        start = System.nanoTime();
+
+        for (final Meson meson : ids) {
+            hashSet.add(meson);
+        }
+
+        final long hashSetAdd = System.nanoTime() - start;
+
+        final MesonSet copy = MesonSet.difference(set, new MesonSet());
+        start = System.nanoTime();
+        final MesonSet union = MesonSet.union(set, copy);
+        final MesonSet intersection = MesonSet.intersection(set, copy);
+        final long algebra = System.nanoTime() - start;
+
+        assertThat(union.size()).isEqualTo(set.size());
+        assertThat(intersection.size()).isEqualTo(set.size());
+        System.out.printf("MesonSet add: %.1fns/id, %d bytes; HashSet add: %.1fns/id; union + intersection: %d ms%n",
+                (double) setAdd / count, set.getSizeInBytes(), (double) hashSetAdd / count, algebra / 1_000_000);
+
+        // Sparse identities out of order, each alone in its millisecond
+        final int sparse = 200_000;
+        final MesonBuffer shuffled = new MesonBuffer(sparse);
+        final Random random = new Random(7);
+
+        for (int i = 0; i < sparse; i++) {
+            final long ms = random.nextInt(1_000_000_000);
+            shuffled.add(MesonUtils.mostSignificantBits(TIME + ms, 1), MesonUtils.leastSignificantBits(1, i));
+        }
+
+        final MesonSet oneByOne = new MesonSet();
+        start = System.nanoTime();
+
+        for (int i = 0; i < sparse; i++) {
+            oneByOne.add(shuffled.getMostSignificantBits(i), shuffled.getLeastSignificantBits(i));
+        }
+
+        final long unsortedAdd = System.nanoTime() - start;
+        start = System.nanoTime();
+        final MesonSet bulk = MesonSet.of(shuffled);
+        final long bulkBuild = System.nanoTime() - start;
+
+        assertThat(bulk.size()).isEqualTo(oneByOne.size());
+        System.out.printf("%d unsorted sparse identities: add one by one %d ms, MesonSet.of %d ms%n",
+                sparse, unsortedAdd / 1_000_000, bulkBuild / 1_000_000);
+    }
+
+    private static Meson random(final Random random) {
+        final int generatorId = random.nextInt(4);
+
+        // Mix of dense and sparse sequences in a handful of milliseconds
+        final int sequence = random.nextBoolean() ? random.nextInt(10_000) : random.nextInt(Integer.MAX_VALUE);
+        return new Meson(
+                MesonUtils.mostSignificantBits(TIME + random.nextInt(4), generatorId),
+                MesonUtils.leastSignificantBits(generatorId, sequence)
+        );
+    }
+
+    private static void assertSame(final MesonSet set, final TreeSet<Meson> expected) {
+        assertThat(set.size()).isEqualTo((long) expected.size());
+
+        final MesonCursor cursor = set.cursor();
+        final Iterator<Meson> iterator = expected.iterator();
+
+        while (iterator.hasNext()) {
+            assertThat(cursor.advance()).isTrue();
+            assertThat(new Meson(cursor.getMostSignificantBits(), cursor.getLeastSignificantBits()))
+                    .isEqualTo(iterator.next());
+        }
+
+        assertThat(cursor.advance()).isFalse();
+    }
+}
@@ -0,0 +1,39 @@
+package com.rfksystems.meson;
+
+import java.util.UUID;
+
+/**
+ * Standalone measurement of the "generate one ID" path in a fresh JVM, class loading and static initialization
+ * included. Prints nanoseconds spent and the identity generated.
+ * <p>
+ * Run with test classes on class path, optionally with generator ID configured and a class data sharing archive:
+ * <pre>
+ * java -Dmeson.generatorId=0a000001 -XX:SharedArchiveFile=meson.jsa \
+ *     -cp target/classes:target/test-classes com.rfksystems.meson.MesonStartupBenchmark
+ * </pre>
+ * Pass {@code uuid} as the only argument to measure {@link UUID#randomUUID()} instead, for reference.
+ */
+public class MesonStartupBenchmark {
+    public static void main(final String[] args) {
+        if (1 == args.length && "retry".equals(args[0])) {
+            // Report every attempt, a failed one must not break the next
+            for (int i = 0; i < 2; i++) {
+                try {
+                    System.out.println(new Meson().toHexString());
+                } catch (final Throwable t) {
+                    System.out.println(t.getClass().getName() + ": " + t.getMessage());
+                }
+            }
+
+            return;
+        }
+
+        final boolean uuid = 1 == args.length && "uuid".equals(args[0]);
+
+        final long start = System.nanoTime();
+        final String id = uuid ? UUID.randomUUID().toString() : new Meson().toHexString();
+        final long took = System.nanoTime() - start;
+
+        System.out.println(took + " " + id);
+    }
+}
@@ -0,0 +1,118 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonStartupBenchmarkTest {
+    private static final int RUNS = 5;
+
+    @Test
+    public void test_configured_generator_id_is_used() throws Exception {
+        final String[] output = launch(false, "-Dmeson.generatorId=0a0b0c0d");
+
+        assertThat(new Meson(output[1]).getGeneratorIdHex()).isEqualTo("0a0b0c0d");
+    }
+
+    @Test
+    public void test_invalid_generator_id_is_rejected() throws Exception {
+        final List<String> output = retry("-Dmeson.generatorId=0a0b0c0x");
+        final String expected = IllegalStateException.class.getName()
+                + ": System property meson.generatorId must hold 8 hex characters, got 0a0b0c0x";
+
+        // Same descriptive failure on every attempt, not a class left unusable by its failed initialization
+        assertThat(output).containsExactly(expected, expected).inOrder();
+    }
+
+    @Test
+    public void test_invalid_entropy_falls_back() throws Exception {
+        final List<String> output = retry("-Dmeson.entropy=bogus");
+
+        // Generation keeps working on every attempt, not a sequence counter left uninitializable
+        assertThat(output).hasSize(2);
+        assertThat(new Meson(output.get(1))).isGreaterThan(new Meson(output.get(0)));
+    }
+
+    @Test
+    public void benchmark_startup() throws Exception {
+        final long configured = median(false, "-Dmeson.generatorId=0a0b0c0d");
+        final long derived = median(false);
+        final long uuid = median(true);
+
+        System.out.printf("First identity in fresh JVM, median of %d: configured generator ID %.1fms, "
+                        + "derived generator ID %.1fms, UUID.randomUUID %.1fms%n",
+                RUNS, configured / 1e6, derived / 1e6, uuid / 1e6);
+
+        // Opt-in bound, e.g. -Dmeson.benchmark.startupLimitMillis=25 on a quiet machine, catches entropy or
+        // management subsystem creeping back into static initialization
+        final Long limit = Long.getLong("meson.benchmark.startupLimitMillis");
+
+        if (null != limit) {
+            assertThat(configured).isLessThan(limit * 1_000_000L);
+        }
+    }
+
+    private static long median(final boolean uuid, final String... options) throws Exception {
+        final long[] took = new long[RUNS];
+
+        for (int i = 0; i < RUNS; i++) {
+            took[i] = Long.parseLong(launch(uuid, options)[0]);
+        }
+
+        Arrays.sort(took);
+        return took[RUNS / 2];
+    }
+
+    private static String[] launch(final boolean uuid, final String... options) throws Exception {
+        final Process process = start(uuid ? "uuid" : null, options);
+        final String line;
+
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            line = reader.readLine();
+        }
+
+        assertThat(process.waitFor()).isEqualTo(0);
+        return line.split(" ");
+    }
+
+    private static List<String> retry(final String... options) throws Exception {
+        final Process process = start("retry", options);
+        final List<String> lines = new ArrayList<>();
+
+        try (final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+
+            while (null != (line = reader.readLine())) {
+                lines.add(line);
+            }
+        }
+
+        assertThat(process.waitFor()).isEqualTo(0);
+        return lines;
+    }
+
+    private static Process start(final String argument, final String... options) throws Exception {
+        final List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(Arrays.asList(options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MesonStartupBenchmark.class.getName());
+
+        if (null != argument) {
+            command.add(argument);
+        }
+
+        return new ProcessBuilder(command).redirectErrorStream(true).start();
+    }
+}
@@ -0,0 +1,157 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonStreamAnalyzerTest {
+    private static final long START = 1_600_000_000_000L;
+    private static final byte[] GENERATOR = {0x0a, 0x00, 0x00, 0x01};
+    private static final byte[] OTHER = {(byte) 0xff, 0x00, 0x00, 0x02};
+
+    @Test
+    public void test_summarizes_per_generator() {
+        final MesonStreamAnalyzer analyzer = new MesonStreamAnalyzer();
+        final List<Meson> stream = Arrays.asList(
+                new Meson(START, GENERATOR, 10),
+                new Meson(START, OTHER, 500),
+                new Meson(START + 1, GENERATOR, 11),
+                new Meson(START + 1, GENERATOR, 15),     // gap of 3
+                new Meson(START + 1, GENERATOR, 15),     // duplicate
+                new Meson(START + 2, GENERATOR, 3),      // reset
+                new Meson(START + 1, GENERATOR, 4),      // time regression
+                new Meson(START + 1, GENERATOR, 2),      // reset within the same millisecond
+                new Meson(START + 3000, GENERATOR, 3)
+        );
+
+        assertThat(analyzer.acceptAll(stream.iterator())).isEqualTo(9);
+        assertThat(analyzer.getGeneratorCount()).isEqualTo(2);
+
+        final MesonStreamAnalyzer.Summary summary = analyzer.getSummary(0x0a000001);
+        assertThat(summary.getGeneratorIdHex()).isEqualTo("0a000001");
+        assertThat(summary.getCount()).isEqualTo(8);
+        assertThat(summary.getMinTime()).isEqualTo(START);
+        assertThat(summary.getMaxTime()).isEqualTo(START + 3000);
+        assertThat(summary.getLastTime()).isEqualTo(START + 3000);
+        assertThat(summary.getSequenceGaps()).isEqualTo(1);
+        assertThat(summary.getMissingSequences()).isEqualTo(3);
+        assertThat(summary.getDuplicates()).isEqualTo(1);
+        assertThat(summary.getSequenceResets()).isEqualTo(2);
+        assertThat(summary.getTimeRegressions()).isEqualTo(1);
+        assertThat(summary.getOrderingViolations()).isEqualTo(2);
+        assertThat(summary.hasSkew()).isFalse();
+        assertThat(summary.getPeakPerSecond()).isEqualTo(7);
+
+        // One passed second with 7 identities, in bucket up to 7
+        assertThat(summary.getSecondsInBucket(3)).isEqualTo(1);
+
+        final MesonStreamAnalyzer.Summary other = analyzer.getSummary(0xff000002);
+        assertThat(other.getCount()).isEqualTo(1);
+        assertThat(other.getOrderingViolations()).isEqualTo(0);
+
+        assertThat(analyzer.getSummary(0x12345678)).isNull();
+        assertThat(analyzer.getSummaries()[0].getGeneratorId()).isEqualTo(0x0a000001);
+        assertThat(analyzer.getSummaries()[1].getGeneratorId()).isEqualTo(0xff000002);
+    }
+
+    @Test
+    public void test_estimates_skew() {
+        final MesonStreamAnalyzer analyzer = new MesonStreamAnalyzer();
+
+        // Generator ahead by 250ms, delivered with 5 to 50ms delay
+        final Random random = new Random(53);
+
+        for (int i = 0; i < 1000; i++) {
+            final long issued = START + i;
+            final Meson meson = new Meson(issued + 250, GENERATOR, i);
+            analyzer.acceptReceived(meson.getMostSignificantBits(), meson.getLeastSignificantBits(),
+                    issued + 5 + random.nextInt(45));
+        }
+
+        final MesonStreamAnalyzer.Summary summary = analyzer.getSummary(0x0a000001);
+        assertThat(summary.hasSkew()).isTrue();
+        assertThat(summary.getSkew()).isEqualTo(245);
+        assertThat(summary.getSequenceGaps()).isEqualTo(0);
+        assertThat(summary.getOrderingViolations()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_many_generators_and_reset() {
+        final MesonStreamAnalyzer analyzer = new MesonStreamAnalyzer();
+        final MesonBuffer buffer = new MesonBuffer();
+
+        for (int generator = 0; generator < 1000; generator++) {
+            for (int i = 0; i < 10; i++) {
+                buffer.add(new Meson(START + i, MesonUtils.intToBytes(generator), i));
+            }
+        }
+
+        assertThat(analyzer.acceptAll(buffer.cursor())).isEqualTo(10_000);
+        assertThat(analyzer.getGeneratorCount()).isEqualTo(1000);
+
+        for (final MesonStreamAnalyzer.Summary summary : analyzer.getSummaries()) {
+            assertThat(summary.getCount()).isEqualTo(10);
+            assertThat(summary.getSequenceGaps()).isEqualTo(0);
+            assertThat(summary.getMaxTime()).isEqualTo(START + 9);
+        }
+
+        analyzer.reset();
+        assertThat(analyzer.getGeneratorCount()).isEqualTo(0);
+        assertThat(analyzer.getSummaries()).isEmpty();
+    }
+
+    @Test
+    public void test_prometheus_report() {
+        final MesonStreamAnalyzer analyzer = new MesonStreamAnalyzer();
+        analyzer.accept(new Meson(START, GENERATOR, 1));
+        analyzer.accept(new Meson(START + 1000, GENERATOR, 3));
+        analyzer.acceptReceived(new Meson(START, OTHER, 1).getMostSignificantBits(),
+                new Meson(START, OTHER, 1).getLeastSignificantBits(), START - 1500);
+
+        final String report = analyzer.toPrometheus();
+
+        assertThat(report).contains("# TYPE meson_stream_ids_total counter\n");
+        assertThat(report).contains("meson_stream_ids_total{generator=\"0a000001\"} 2\n");
+        assertThat(report).contains("meson_stream_sequence_gaps_total{generator=\"0a000001\"} 1\n");
+        assertThat(report).contains("meson_stream_max_time_seconds{generator=\"0a000001\"} 1.600000001E9\n");
+        assertThat(report).contains("meson_stream_skew_seconds{generator=\"ff000002\"} 1.5\n");
+        assertThat(report).doesNotContain("meson_stream_skew_seconds{generator=\"0a000001\"}");
+        assertThat(report).contains("# TYPE meson_stream_ids_per_second histogram\n");
+        assertThat(report).contains("meson_stream_ids_per_second_bucket{generator=\"0a000001\",le=\"0\"} 0\n");
+        assertThat(report).contains("meson_stream_ids_per_second_bucket{generator=\"0a000001\",le=\"1\"} 1\n");
+        assertThat(report).contains("meson_stream_ids_per_second_bucket{generator=\"0a000001\",le=\"+Inf\"} 1\n");
+        assertThat(report).contains("meson_stream_ids_per_second_sum{generator=\"0a000001\"} 1\n");
+        assertThat(report).contains("meson_stream_ids_per_second_count{generator=\"0a000001\"} 1\n");
+
+        for (final String line : report.split("\n")) {
+            assertThat(line).matches("# (HELP|TYPE) .*|[a-z_]+\\{generator=\"[0-9a-f]{8}\"(,le=\"[^\"]+\")?} [-0-9.E+]+");
+        }
+    }
+
+    @Test
+    public void benchmark_analyzer() {
+        final int count = 5_000_000;
+        final MesonBuffer buffer = new MesonBuffer(count);
+        final Random random = new Random(59);
+
+        for (final Meson meson : Meson.batch(count)) {
+            buffer.add(meson.getMostSignificantBits() ^ random.nextInt(16), meson.getLeastSignificantBits());
+        }
+
+        final MesonStreamAnalyzer analyzer = new MesonStreamAnalyzer();
+
+        for (int run = 0; run < 5; run++) {
+            analyzer.reset();
+            final long start = System.nanoTime();
+            analyzer.acceptAll(buffer.cursor());
+            final long took = System.nanoTime() - start;
+
+            System.out.printf("Analyzed %d identities of %d generators in %.1fms, %.1fns per identity%n",
+                    count, analyzer.getGeneratorCount(), took / 1e6, (double) took / count);
+        }
+    }
+}
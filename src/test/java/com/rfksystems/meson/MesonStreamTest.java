@@ -0,0 +1,81 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonStreamTest {
+    @Test
+    public void test_sized_stream() {
+        final List<Meson> mesons = Meson.stream(10_000).collect(Collectors.toList());
+
+        assertThat(mesons).hasSize(10_000);
+        assertThat(mesons).containsNoDuplicates();
+        assertThat(Meson.stream(0).count()).isEqualTo(0L);
+
+        final Spliterator<Meson> spliterator = Meson.stream(5000).spliterator();
+        assertThat(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.DISTINCT)).isTrue();
+        assertThat(spliterator.getExactSizeIfKnown()).isEqualTo(5000L);
+    }
+
+    @Test
+    public void test_sequential_stream_ascends() {
+        final List<Meson> mesons = Meson.stream().limit(5000).collect(Collectors.toList());
+        assertThat(mesons).hasSize(5000);
+
+        for (int i = 1; i < mesons.size(); i++) {
+            final Meson previous = mesons.get(i - 1);
+            final Meson current = mesons.get(i);
+
+            // Sequence counter may get reset once in a while
+            if (current.getSequence() > previous.getSequence()) {
+                assertThat(current).isGreaterThan(previous);
+            }
+        }
+    }
+
+    @Test
+    public void test_parallel_stream_unique() {
+        final Set<Meson> sized = Meson.stream(1_000_000).parallel().collect(Collectors.toSet());
+        assertThat(sized).hasSize(1_000_000);
+
+        final Set<Meson> unbounded = Meson.stream().parallel().limit(200_000).collect(Collectors.toSet());
+        assertThat(unbounded).hasSize(200_000);
+    }
+
+    @Test
+    public void test_splits_cover_count() {
+        final Spliterator<Meson> spliterator = Meson.stream(100_000).spliterator();
+        final Spliterator<Meson> split = spliterator.trySplit();
+
+        assertThat(split).isNotNull();
+        assertThat(spliterator.estimateSize() + split.estimateSize()).isEqualTo(100_000L);
+
+        final Spliterator<Meson> small = Meson.stream(100).spliterator();
+        assertThat(small.trySplit()).isNull();
+    }
+
+    @Test
+    public void benchmark_stream() {
+        final int count = 2_000_000;
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            long sink = Stream.generate(Meson::new).parallel().limit(count).mapToLong(Meson::getSequence).sum();
+            final long generate = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sink += Meson.stream(count).parallel().mapToLong(Meson::getSequence).sum();
+            final long stream = System.nanoTime() - start;
+
+            System.out.printf("Parallel Stream.generate(Meson::new): %.1fns/id, Meson.stream: %.1fns/id (%d)%n",
+                    (double) generate / count, (double) stream / count, sink & 1);
+        }
+    }
+}
@@ -0,0 +1,552 @@
+package com.rfksystems.meson;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.rfksystems.meson.Meson.BORDERLINE_COUNTER_VALUE;
+import static com.rfksystems.meson.MesonSequence.MAX_RESERVATION;
+import static com.rfksystems.meson.MesonUtils.compareBits;
+import static com.rfksystems.meson.MesonUtils.sequenceFromBits;
+import static com.rfksystems.meson.MesonUtils.timeFromBits;
+
+/**
+ * Standalone uniqueness and ordering stress harness, meant to qualify releases at billions of identities.
+ * <p>
+ * Every worker checks that identities it receives increase monotonically, and spills them as 128 bit values into an
+ * off-heap buffer. Full buffers are sorted in place and written to disk as runs, then all runs are merged with an
+ * external k-way merge that counts duplicates. Heap usage stays flat regardless of the number of identities.
+ * <p>
+ * Run with test classes on class path:
+ * <pre>
+ * java -cp target/classes:target/test-classes com.rfksystems.meson.MesonStressHarness \
+ *     --threads=16 --ids=100000000 --run-size=4194304 --virtual --dir=/tmp/meson-stress
+ * </pre>
+ * A sequence counter reset, about every two billion identities generated by the process, drops the sequence
+ * number; within the same millisecond that puts an identity before the previous one of the thread. Such a drop is
+ * counted as a counter reset rather than an ordering violation only if a reset really happened: the previous
+ * sequence number was within a reservation of {@link Meson#BORDERLINE_COUNTER_VALUE}, or {@link MesonMetrics}, kept
+ * enabled for the run, recorded a sequence reset not yet matched to a drop of the thread.
+ */
+public class MesonStressHarness {
+    private static final int ID_SIZE_LONGS = 2;
+
+    private final int threads;
+    private final long idsPerThread;
+    private final int runSize;
+    private final boolean virtual;
+    private final File directory;
+    private final Supplier<Meson> generator;
+
+    public MesonStressHarness(
+            final int threads,
+            final long idsPerThread,
+            final int runSize,
+            final boolean virtual,
+            final File directory
+    ) {
+        this(threads, idsPerThread, runSize, virtual, directory, Meson::new);
+    }
+
+    public MesonStressHarness(
+            final int threads,
+            final long idsPerThread,
+            final int runSize,
+            final boolean virtual,
+            final File directory,
+            final Supplier<Meson> generator
+    ) {
+        if (0 >= threads || 0 >= idsPerThread || 0 >= runSize) {
+            throw new IllegalArgumentException("Threads, identities per thread and run size must be positive");
+        }
+
+        if (runSize > Integer.MAX_VALUE / (ID_SIZE_LONGS * Long.BYTES)) {
+            throw new IllegalArgumentException("Run size must fit in a single direct buffer");
+        }
+
+        this.threads = threads;
+        this.idsPerThread = idsPerThread;
+        this.runSize = (int) Math.min(runSize, idsPerThread);
+        this.virtual = virtual;
+        this.directory = directory;
+        this.generator = generator;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long ids = 10000000L;
+        int runSize = 1 << 22;
+        boolean virtual = false;
+        File directory = new File(System.getProperty("java.io.tmpdir"), "meson-stress");
+
+        for (final String arg : args) {
+            final String value = arg.substring(arg.indexOf('=') + 1);
+
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(value);
+            } else if (arg.startsWith("--ids=")) {
+                ids = Long.parseLong(value);
+            } else if (arg.startsWith("--run-size=")) {
+                runSize = Integer.parseInt(value);
+            } else if (arg.equals("--virtual")) {
+                virtual = true;
+            } else if (arg.startsWith("--dir=")) {
+                directory = new File(value);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + arg);
+            }
+        }
+
+        final Result result = new MesonStressHarness(threads, ids, runSize, virtual, directory).run();
+        System.out.println(result);
+
+        if (!result.isPassed()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Create an executor running every task on its own virtual thread, if supported by the running JVM.
+     *
+     * @return virtual thread executor, or null if virtual threads are not available.
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public Result run() throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        final ExecutorService executor = virtual ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+
+        if (null == executor) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM");
+        }
+
+        final List<File> runs = new ArrayList<>();
+        final AtomicLong violations = new AtomicLong();
+        final AtomicLong counterResets = new AtomicLong();
+        final List<Future<?>> futures = new ArrayList<>();
+        final boolean metrics = MesonMetrics.isEnabled();
+        MesonMetrics.enable();
+        final long resetsBefore = MesonMetrics.snapshot().getSequenceResets();
+        final long peakDirectBefore = directMemoryUsed();
+        final AtomicLong peakDirect = new AtomicLong(peakDirectBefore);
+        final long start = System.nanoTime();
+
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            futures.add(executor.submit(() -> {
+                generate(thread, runs, peakDirect, violations, counterResets, resetsBefore);
+                return null;
+            }));
+        }
+
+        executor.shutdown();
+
+        try {
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } finally {
+            if (!metrics) {
+                MesonMetrics.disable();
+            }
+        }
+
+        final long generateNanos = System.nanoTime() - start;
+        final long mergeStart = System.nanoTime();
+        final long[] merged = merge(runs);
+        final long mergeNanos = System.nanoTime() - mergeStart;
+
+        for (final File run : runs) {
+            run.delete();
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+
+        return new Result(
+                (long) threads * idsPerThread,
+                merged[0],
+                merged[1],
+                violations.get(),
+                counterResets.get(),
+                runs.size(),
+                generateNanos,
+                mergeNanos,
+                runtime.totalMemory() - runtime.freeMemory(),
+                peakDirect.get() - peakDirectBefore
+        );
+    }
+
+    private void generate(
+            final int thread,
+            final List<File> runs,
+            final AtomicLong peakDirect,
+            final AtomicLong violations,
+            final AtomicLong counterResets,
+            final long resetsBefore
+    ) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(runSize * ID_SIZE_LONGS * Long.BYTES);
+        final LongBuffer longs = buffer.asLongBuffer();
+        peakDirect.accumulateAndGet(directMemoryUsed(), Math::max);
+
+        long previousMsb = 0;
+        long previousLsb = 0;
+        long resetsSeen = resetsBefore;
+        int count = 0;
+        int run = 0;
+
+        for (long i = 0; i < idsPerThread; i++) {
+            final Meson meson = generator.get();
+            final long msb = meson.getMostSignificantBits();
+            final long lsb = meson.getLeastSignificantBits();
+
+            if (0 != i && 0 <= compareBits(previousMsb, previousLsb, msb, lsb)) {
+                final boolean dropped = timeFromBits(previousMsb) == timeFromBits(msb)
+                        && sequenceFromBits(previousLsb) > sequenceFromBits(lsb);
+
+                if (dropped && sequenceFromBits(previousLsb) > BORDERLINE_COUNTER_VALUE - MAX_RESERVATION) {
+                    counterResets.incrementAndGet();
+                } else if (dropped && MesonMetrics.snapshot().getSequenceResets() > resetsSeen) {
+                    // Each reset recorded excuses a single drop of this thread
+                    resetsSeen++;
+                    counterResets.incrementAndGet();
+                } else {
+                    violations.incrementAndGet();
+                }
+            }
+
+            previousMsb = msb;
+            previousLsb = lsb;
+
+            longs.put(count * ID_SIZE_LONGS, msb);
+            longs.put(count * ID_SIZE_LONGS + 1, lsb);
+
+            if (++count == runSize) {
+                spill(buffer, longs, count, new File(directory, "run-" + thread + "-" + run++), runs);
+                count = 0;
+            }
+        }
+
+        if (0 != count) {
+            spill(buffer, longs, count, new File(directory, "run-" + thread + "-" + run), runs);
+        }
+    }
+
+    private void spill(
+            final ByteBuffer buffer,
+            final LongBuffer longs,
+            final int count,
+            final File file,
+            final List<File> runs
+    ) throws IOException {
+        if (!isSorted(longs, count)) {
+            heapSort(longs, count);
+        }
+
+        // Longs view shares the buffer, written straight from off-heap memory
+        final ByteBuffer bytes = buffer.duplicate();
+        bytes.clear().limit(count * ID_SIZE_LONGS * Long.BYTES);
+
+        try (final RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            final FileChannel channel = out.getChannel();
+
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+
+        synchronized (runs) {
+            runs.add(file);
+        }
+    }
+
+    /**
+     * Merge sorted runs, counting identities and duplicates.
+     *
+     * @return array of total count and duplicate count.
+     */
+    private long[] merge(final List<File> runs) throws IOException {
+        final int size = runs.size();
+        final LongBuffer[] sources = new LongBuffer[size];
+        final long[] msbs = new long[size];
+        final long[] lsbs = new long[size];
+        final int[] heap = new int[size];
+        int heapSize = 0;
+
+        for (int i = 0; i < size; i++) {
+            try (final RandomAccessFile in = new RandomAccessFile(runs.get(i), "r")) {
+                sources[i] = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length()).asLongBuffer();
+            }
+
+            if (sources[i].hasRemaining()) {
+                msbs[i] = sources[i].get();
+                lsbs[i] = sources[i].get();
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, msbs, lsbs);
+            }
+        }
+
+        long total = 0;
+        long duplicates = 0;
+        long lastMsb = 0;
+        long lastLsb = 0;
+
+        while (0 < heapSize) {
+            final int top = heap[0];
+            final long msb = msbs[top];
+            final long lsb = lsbs[top];
+
+            if (0 != total && msb == lastMsb && lsb == lastLsb) {
+                duplicates++;
+            }
+
+            total++;
+            lastMsb = msb;
+            lastLsb = lsb;
+
+            if (sources[top].hasRemaining()) {
+                msbs[top] = sources[top].get();
+                lsbs[top] = sources[top].get();
+            } else {
+                heap[0] = heap[--heapSize];
+            }
+
+            siftDown(heap, 0, heapSize, msbs, lsbs);
+        }
+
+        return new long[]{total, duplicates};
+    }
+
+    private static void siftUp(final int[] heap, int index, final long[] msbs, final long[] lsbs) {
+        final int item = heap[index];
+
+        while (0 < index) {
+            final int parent = (index - 1) >>> 1;
+
+            if (0 <= compareBits(msbs[item], lsbs[item], msbs[heap[parent]], lsbs[heap[parent]])) {
+                break;
+            }
+
+            heap[index] = heap[parent];
+            index = parent;
+        }
+
+        heap[index] = item;
+    }
+
+    private static void siftDown(final int[] heap, int index, final int size, final long[] msbs, final long[] lsbs) {
+        if (0 == size) {
+            return;
+        }
+
+        final int item = heap[index];
+
+        while (true) {
+            int child = 2 * index + 1;
+
+            if (child >= size) {
+                break;
+            }
+
+            if (child + 1 < size
+                    && 0 > compareBits(msbs[heap[child + 1]], lsbs[heap[child + 1]], msbs[heap[child]], lsbs[heap[child]])) {
+                child++;
+            }
+
+            if (0 >= compareBits(msbs[item], lsbs[item], msbs[heap[child]], lsbs[heap[child]])) {
+                break;
+            }
+
+            heap[index] = heap[child];
+            index = child;
+        }
+
+        heap[index] = item;
+    }
+
+    private static boolean isSorted(final LongBuffer longs, final int count) {
+        for (int i = 1; i < count; i++) {
+            if (0 < compare(longs, i - 1, i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void heapSort(final LongBuffer longs, final int count) {
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(longs, i, count);
+        }
+
+        for (int end = count - 1; end > 0; end--) {
+            swap(longs, 0, end);
+            siftDown(longs, 0, end);
+        }
+    }
+
+    private static void siftDown(final LongBuffer longs, int index, final int size) {
+        while (true) {
+            int child = 2 * index + 1;
+
+            if (child >= size) {
+                return;
+            }
+
+            if (child + 1 < size && 0 < compare(longs, child + 1, child)) {
+                child++;
+            }
+
+            if (0 <= compare(longs, index, child)) {
+                return;
+            }
+
+            swap(longs, index, child);
+            index = child;
+        }
+    }
+
+    private static int compare(final LongBuffer longs, final int a, final int b) {
+        return compareBits(
+                longs.get(a * ID_SIZE_LONGS),
+                longs.get(a * ID_SIZE_LONGS + 1),
+                longs.get(b * ID_SIZE_LONGS),
+                longs.get(b * ID_SIZE_LONGS + 1)
+        );
+    }
+
+    private static void swap(final LongBuffer longs, final int a, final int b) {
+        final long msb = longs.get(a * ID_SIZE_LONGS);
+        final long lsb = longs.get(a * ID_SIZE_LONGS + 1);
+        longs.put(a * ID_SIZE_LONGS, longs.get(b * ID_SIZE_LONGS));
+        longs.put(a * ID_SIZE_LONGS + 1, longs.get(b * ID_SIZE_LONGS + 1));
+        longs.put(b * ID_SIZE_LONGS, msb);
+        longs.put(b * ID_SIZE_LONGS + 1, lsb);
+    }
+
+    private static long directMemoryUsed() {
+        long used = 0;
+
+        for (final BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            used += pool.getMemoryUsed();
+        }
+
+        return used;
+    }
+
+    public static final class Result {
+        private final long expected;
+        private final long total;
+        private final long duplicates;
+        private final long orderingViolations;
+        private final long counterResets;
+        private final int runs;
+        private final long generateNanos;
+        private final long mergeNanos;
+        private final long heapUsed;
+        private final long peakDirectMemory;
+
+        Result(
+                final long expected,
+                final long total,
+                final long duplicates,
+                final long orderingViolations,
+                final long counterResets,
+                final int runs,
+                final long generateNanos,
+                final long mergeNanos,
+                final long heapUsed,
+                final long peakDirectMemory
+        ) {
+            this.expected = expected;
+            this.total = total;
+            this.duplicates = duplicates;
+            this.orderingViolations = orderingViolations;
+            this.counterResets = counterResets;
+            this.runs = runs;
+            this.generateNanos = generateNanos;
+            this.mergeNanos = mergeNanos;
+            this.heapUsed = heapUsed;
+            this.peakDirectMemory = peakDirectMemory;
+        }
+
+        public boolean isPassed() {
+            return expected == total && 0 == duplicates && 0 == orderingViolations;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getOrderingViolations() {
+            return orderingViolations;
+        }
+
+        /**
+         * Get number of times a thread saw the sequence number drop within a millisecond, as it does once the
+         * sequence counter resets, and a reset accounted for the drop. Not counted as ordering violations.
+         *
+         * @return number of counter resets seen.
+         */
+        public long getCounterResets() {
+            return counterResets;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+
+        public double getIdsPerSecond() {
+            return total * 1e9 / Math.max(1L, generateNanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s: %d/%d ids, %d duplicates, %d ordering violations, %d counter resets, %d runs%n"
+                            + "generated in %dms (%.0f ids/s), merged in %dms (%.0f ids/s)%n"
+                            + "heap used %dMB, peak direct/mapped memory %dMB",
+                    isPassed() ? "PASSED" : "FAILED",
+                    total,
+                    expected,
+                    duplicates,
+                    orderingViolations,
+                    counterResets,
+                    runs,
+                    TimeUnit.NANOSECONDS.toMillis(generateNanos),
+                    getIdsPerSecond(),
+                    TimeUnit.NANOSECONDS.toMillis(mergeNanos),
+                    total * 1e9 / Math.max(1L, mergeNanos),
+                    heapUsed >> 20,
+                    peakDirectMemory >> 20
+            );
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.rfksystems.meson;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.ExecutorService;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonStressHarnessTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_platform_threads_unique_and_ordered() throws Exception {
+        final MesonStressHarness.Result result =
+                new MesonStressHarness(4, 250000, 100000, false, folder.getRoot()).run();
+
+        System.out.println(result);
+
+        assertThat(result.isPassed()).isTrue();
+        assertThat(result.getTotal()).isEqualTo(1000000L);
+        assertThat(result.getDuplicates()).isEqualTo(0L);
+        assertThat(result.getOrderingViolations()).isEqualTo(0L);
+        assertThat(result.getRuns()).isEqualTo(12);
+    }
+
+    @Test
+    public void test_virtual_threads_unique_and_ordered() throws Exception {
+        final ExecutorService executor = MesonStressHarness.newVirtualThreadExecutor();
+        Assume.assumeNotNull(executor);
+        executor.shutdown();
+
+        final MesonStressHarness.Result result =
+                new MesonStressHarness(1000, 1000, 1000, true, folder.getRoot()).run();
+
+        System.out.println(result);
+
+        assertThat(result.isPassed()).isTrue();
+        assertThat(result.getOrderingViolations()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_counter_reset_passes() throws Exception {
+        // Counter resets within this run
+        final int target = Meson.BORDERLINE_COUNTER_VALUE - 50000;
+
+        while (MesonSequence.current() > target) {
+            MesonSequence.reserve(MesonSequence.MAX_RESERVATION);
+        }
+
+        while (MesonSequence.current() < target) {
+            MesonSequence.reserve(Math.min(MesonSequence.MAX_RESERVATION, target - MesonSequence.current()));
+        }
+
+        final MesonStressHarness.Result result =
+                new MesonStressHarness(1, 100000, 100000, false, folder.getRoot()).run();
+
+        System.out.println(result);
+
+        assertThat(result.isPassed()).isTrue();
+        assertThat(result.getOrderingViolations()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_sequence_drop_within_millisecond_is_counter_reset() throws Exception {
+        final byte[] generatorId = {1, 2, 3, 4};
+        final int[] calls = {0};
+
+        final MesonStressHarness.Result result = new MesonStressHarness(
+                1,
+                1000,
+                100,
+                false,
+                folder.getRoot(),
+                () -> {
+                    final int call = calls[0]++;
+                    final int sequence = 500 > call ? Meson.BORDERLINE_COUNTER_VALUE - 500 + call : call;
+                    return new Meson(1_600_000_000_000L, generatorId, sequence);
+                }
+        ).run();
+
+        assertThat(result.isPassed()).isTrue();
+        assertThat(result.getOrderingViolations()).isEqualTo(0L);
+        assertThat(result.getCounterResets()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_sequence_swap_within_millisecond_fails() throws Exception {
+        final byte[] generatorId = {1, 2, 3, 4};
+        final int[] calls = {0};
+
+        final MesonStressHarness.Result result = new MesonStressHarness(
+                1,
+                1000,
+                100,
+                false,
+                folder.getRoot(),
+                () -> {
+                    final int call = calls[0]++;
+                    // Sequence 10 followed by 9, far from any counter reset
+                    final int sequence = 9 == call ? 10 : 10 == call ? 9 : call;
+                    return new Meson(1_600_000_000_000L, generatorId, sequence);
+                }
+        ).run();
+
+        assertThat(result.getDuplicates()).isEqualTo(0L);
+        assertThat(result.getCounterResets()).isEqualTo(0L);
+        assertThat(result.getOrderingViolations()).isEqualTo(1L);
+        assertThat(result.isPassed()).isFalse();
+    }
+
+    @Test
+    public void test_duplicates_and_disorder_are_detected() throws Exception {
+        final Meson first = new Meson("0162915be2e1900035c91a2a5d33");
+        final Meson second = new Meson("0162915be2da900035c91a2a5d29");
+        final int[] calls = {0};
+
+        final MesonStressHarness.Result result = new MesonStressHarness(
+                1,
+                1000,
+                100,
+                false,
+                folder.getRoot(),
+                () -> 0 == calls[0]++ % 2 ? first : second
+        ).run();
+
+        assertThat(result.isPassed()).isFalse();
+        assertThat(result.getTotal()).isEqualTo(1000L);
+        assertThat(result.getDuplicates()).isEqualTo(998L);
+        assertThat(result.getOrderingViolations()).isEqualTo(500L);
+    }
+
+    @Test
+    public void test_disorder_alone_fails() throws Exception {
+        final byte[] generatorId = {1, 2, 3, 4};
+        final int[] calls = {0};
+
+        final MesonStressHarness.Result result = new MesonStressHarness(
+                1,
+                1000,
+                100,
+                false,
+                folder.getRoot(),
+                () -> new Meson(1_600_000_000_000L - calls[0]++, generatorId, 0)
+        ).run();
+
+        assertThat(result.getDuplicates()).isEqualTo(0L);
+        assertThat(result.getOrderingViolations()).isEqualTo(999L);
+        assertThat(result.isPassed()).isFalse();
+    }
+}
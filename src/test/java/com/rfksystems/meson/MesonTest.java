@@ -77,6 +77,34 @@ public class MesonTest {
         assertCommon(meson);
     }
 
+    @Test
+    public void test_from_most_and_least_significant_bits() throws Exception {
+        final Meson meson = new Meson(TEST_GENERATOR_BYTES);
+
+        assertThat(meson.getMostSignificantBits()).isEqualTo(0x640102L);
+        assertThat(meson.getLeastSignificantBits()).isEqualTo(0x0304000000c8L);
+        assertCommon(new Meson(meson.getMostSignificantBits(), meson.getLeastSignificantBits()));
+    }
+
+    @Test
+    public void test_bits_sort_as_meson() throws Exception {
+        final Meson lower = new Meson("0162915be2e19000ffff1a2a5d33");
+        final Meson higher = new Meson("0162915be2e1900100001a2a5d33");
+
+        assertThat(lower.compareTo(higher)).isLessThan(0);
+        assertThat(MesonUtils.compareBits(
+                lower.getMostSignificantBits(),
+                lower.getLeastSignificantBits(),
+                higher.getMostSignificantBits(),
+                higher.getLeastSignificantBits()
+        )).isLessThan(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_from_bits_rejects_upper_least_significant_bits() throws Exception {
+        new Meson(0x640102L, 0x10304000000c8L);
+    }
+
     @Test
     public void test_concurrent_unique() throws Exception {
         final List<String> t1Hex = new ArrayList<>();
@@ -0,0 +1,205 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class MesonTimeCacheTest {
+    private static final byte[] GENERATOR_ID = {1, 2, 3, 4};
+    private static final long START = 1_500_000_000_000L;
+
+    private final AtomicLong clock = new AtomicLong(START);
+
+    @Test
+    public void test_hits_and_misses() {
+        final MesonTimeCache<String> cache = new MesonTimeCache<>(10_000, 1000, 100, clock::get);
+        final Meson key = id(START - 500, 1);
+
+        assertThat(cache.get(key)).isNull();
+        assertThat(cache.put(key, "a")).isTrue();
+        assertThat(cache.get(key)).isEqualTo("a");
+        assertThat(cache.get(new Meson(key.toHexString()))).isEqualTo("a");
+        assertThat(cache.computeIfAbsent(id(START, 2), k -> "b")).isEqualTo("b");
+        assertThat(cache.size()).isEqualTo(2L);
+        assertThat(cache.remove(key)).isEqualTo("a");
+        assertThat(cache.size()).isEqualTo(1L);
+
+        assertThat(cache.getHits()).isEqualTo(2L);
+        assertThat(cache.getMisses()).isEqualTo(2L);
+    }
+
+    @Test
+    public void test_expires_whole_buckets_by_identity_time() {
+        final MesonTimeCache<String> cache = new MesonTimeCache<>(10_000, 1000, Long.MAX_VALUE, clock::get);
+
+        for (int i = 0; i < 10; i++) {
+            // Ten identities in each of the ten buckets of the last 10 seconds
+            for (int j = 0; j < 10; j++) {
+                assertThat(cache.put(id(START - 9_999 + i * 1000, i * 10 + j), "v")).isTrue();
+            }
+        }
+
+        assertThat(cache.size()).isEqualTo(100L);
+
+        clock.set(START + 1000);
+        cache.expire();
+        assertThat(cache.size()).isEqualTo(90L);
+        assertThat(cache.getExpirations()).isEqualTo(10L);
+        assertThat(cache.get(id(START - 9_999, 0))).isNull();
+        assertThat(cache.get(id(START - 8_999, 10))).isEqualTo("v");
+
+        // Idle for much longer than maximum age
+        clock.set(START + 1_000_000);
+        assertThat(cache.get(id(START - 8_999, 10))).isNull();
+        assertThat(cache.size()).isEqualTo(0L);
+        assertThat(cache.getExpirations()).isEqualTo(100L);
+    }
+
+    @Test
+    public void test_rejects_identities_too_old_or_ahead_of_clock() {
+        final MesonTimeCache<String> cache = new MesonTimeCache<>(10_000, 1000, 100, clock::get);
+
+        assertThat(cache.put(id(START - 20_000, 1), "old")).isFalse();
+        assertThat(cache.put(id(START + 1500, 2), "skewed")).isTrue();
+        assertThat(cache.put(id(START + 5000, 3), "future")).isFalse();
+        assertThat(cache.size()).isEqualTo(1L);
+    }
+
+    @Test
+    public void test_evicts_least_recently_read_from_oldest_bucket() {
+        final MesonTimeCache<Integer> cache = new MesonTimeCache<>(10_000, 1000, 8, clock::get);
+        final List<Meson> old = new ArrayList<>();
+
+        for (int i = 0; i < 4; i++) {
+            old.add(id(START - 5000, i));
+            cache.put(old.get(i), i);
+        }
+
+        for (int i = 0; i < 4; i++) {
+            cache.put(id(START, 100 + i), i);
+        }
+
+        // Read all but the first old entry, making it least recently used
+        for (int i = 1; i < 4; i++) {
+            cache.get(old.get(i));
+        }
+
+        cache.put(id(START, 200), 0);
+
+        assertThat(cache.size()).isEqualTo(8L);
+        assertThat(cache.getEvictions()).isEqualTo(1L);
+        assertThat(cache.get(old.get(0))).isNull();
+
+        for (int i = 1; i < 4; i++) {
+            assertThat(cache.get(old.get(i))).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void test_eviction_samples_rotate_through_bucket() {
+        final MesonTimeCache<Integer> cache = new MesonTimeCache<>(10_000, 1000, 64, clock::get);
+        // Bucket entries are iterated in the order of a map filled the same way
+        final ConcurrentHashMap<Meson, Integer> order = new ConcurrentHashMap<>();
+        final List<Meson> old = new ArrayList<>();
+
+        for (int i = 0; i < 64; i++) {
+            old.add(id(START - 5000, i));
+            order.put(old.get(i), i);
+            cache.put(old.get(i), i);
+        }
+
+        final List<Meson> iterated = new ArrayList<>(order.keySet());
+
+        for (int i = 0; i < 4; i++) {
+            cache.put(id(START, 100 + i), i);
+        }
+
+        assertThat(cache.getEvictions()).isEqualTo(4L);
+
+        int furthest = 0;
+
+        for (int i = 0; i < iterated.size(); i++) {
+            if (null == cache.get(iterated.get(i))) {
+                furthest = i;
+            }
+        }
+
+        // Always sampling from the start would only ever evict among the first few entries
+        assertThat(furthest).isAtLeast(24);
+    }
+
+    @Test
+    public void test_size_survives_puts_racing_expiry() throws InterruptedException {
+        final MesonTimeCache<Integer> cache = new MesonTimeCache<>(10, 1, Long.MAX_VALUE, clock::get);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100_000;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    // Oldest live bucket, dropped as soon as the clock ticks
+                    cache.put(id(clock.get() - 10, offset + i), i);
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        final Thread ticker = new Thread(() -> {
+            while (threads.stream().anyMatch(Thread::isAlive)) {
+                clock.incrementAndGet();
+                Thread.yield();
+            }
+        });
+
+        ticker.start();
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        ticker.join();
+        clock.addAndGet(1_000);
+        cache.expire();
+
+        assertThat(cache.size()).isEqualTo(0L);
+    }
+
+    @Test
+    public void test_concurrent_access() throws InterruptedException {
+        final MesonTimeCache<Integer> cache = new MesonTimeCache<>(60_000, 100, 10_000);
+        final List<Thread> threads = new ArrayList<>();
+
+        for (int t = 0; t < 4; t++) {
+            final int offset = t * 100_000;
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    final Meson key = new Meson(System.currentTimeMillis(), GENERATOR_ID, offset + i);
+                    cache.put(key, i);
+                    cache.get(key);
+                }
+            });
+
+            threads.add(thread);
+            thread.start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(cache.size()).isAtMost(10_000L + threads.size());
+        assertThat(cache.getHits() + cache.getMisses()).isEqualTo(200_000L);
+        assertThat(cache.getEvictions()).isAtLeast(190_000L - threads.size());
+    }
+
+    private static Meson id(final long time, final int sequence) {
+        return new Meson(time, GENERATOR_ID, sequence);
+    }
+}
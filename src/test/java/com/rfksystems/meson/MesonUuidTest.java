@@ -0,0 +1,141 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonUuidTest {
+    @Test
+    public void test_uuid_round_trip_and_layout() {
+        final Meson meson = new Meson("0162915be2da-900035c9-1a2a5d29");
+        final UUID uuid = meson.toUuid();
+
+        assertThat(uuid.version()).isEqualTo(8);
+        assertThat(uuid.variant()).isEqualTo(2);
+        assertThat(uuid.toString()).isEqualTo("0162915b-e2da-8900-80d7-2468a974a400");
+        assertThat(new Meson(uuid)).isEqualTo(meson);
+        assertThat(MesonUuid.fromUuid(UUID.fromString(uuid.toString()))).isEqualTo(meson);
+    }
+
+    @Test
+    public void test_uuid_round_trip_random() {
+        final Random random = new Random(11);
+
+        for (int i = 0; i < 100_000; i++) {
+            final Meson meson = random(random);
+            assertThat(new Meson(meson.toUuid())).isEqualTo(meson);
+        }
+    }
+
+    @Test
+    public void test_uuid_preserves_order() {
+        final Random random = new Random(13);
+        final List<Meson> mesons = new ArrayList<>();
+
+        for (int i = 0; i < 20_000; i++) {
+            mesons.add(random(random));
+        }
+
+        final List<UUID> uuids = new ArrayList<>();
+        final List<byte[]> padded = new ArrayList<>();
+
+        for (final Meson meson : mesons) {
+            uuids.add(meson.toUuid());
+            padded.add(MesonUuid.toPaddedBytes(meson));
+        }
+
+        Collections.sort(mesons);
+        Collections.sort(uuids);
+        padded.sort(MesonUuidTest::compareUnsigned);
+
+        for (int i = 0; i < mesons.size(); i++) {
+            assertThat(MesonUuid.fromUuid(uuids.get(i))).isEqualTo(mesons.get(i));
+            assertThat(MesonUuid.fromPaddedBytes(padded.get(i))).isEqualTo(mesons.get(i));
+        }
+
+        // Unsigned byte order of UUID's, as databases compare them
+        final List<UUID> byBytes = new ArrayList<>(uuids);
+        Collections.shuffle(byBytes, random);
+        byBytes.sort(Comparator.comparing(MesonUuidTest::uuidBytes, MesonUuidTest::compareUnsigned));
+        assertThat(byBytes).isEqualTo(uuids);
+    }
+
+    @Test
+    public void test_rejects_foreign_uuid() {
+        try {
+            MesonUuid.fromUuid(UUID.randomUUID());
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+
+        final UUID uuid = new Meson("0162915be2da900035c91a2a5d29").toUuid();
+
+        try {
+            MesonUuid.fromUuid(new UUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits() | 1));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void test_padded_bytes() {
+        final Meson meson = new Meson("0162915be2da900035c91a2a5d29");
+        final byte[] padded = MesonUuid.toPaddedBytes(meson);
+
+        assertThat(Arrays.copyOf(padded, Meson.BUFFER_SIZE_BYTES)).isEqualTo(meson.toByteArray());
+        assertThat(padded[14]).isEqualTo((byte) 0);
+        assertThat(padded[15]).isEqualTo((byte) 0);
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(48);
+        MesonUuid.putPadded(buffer, 16, meson.getMostSignificantBits(), meson.getLeastSignificantBits());
+        assertThat(new Meson(
+                MesonUuid.getPaddedMostSignificantBits(buffer, 16),
+                MesonUuid.getPaddedLeastSignificantBits(buffer, 16)
+        )).isEqualTo(meson);
+
+        padded[15] = 1;
+
+        try {
+            MesonUuid.fromPaddedBytes(padded);
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static Meson random(final Random random) {
+        return new Meson(
+                random.nextLong() >>> 17,
+                MesonUtils.intToBytes(random.nextInt()),
+                random.nextInt(Integer.MAX_VALUE)
+        );
+    }
+
+    private static byte[] uuidBytes(final UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    private static int compareUnsigned(final byte[] left, final byte[] right) {
+        for (int i = 0; i < left.length; i++) {
+            final int comparison = Integer.compare(left[i] & 0xFF, right[i] & 0xFF);
+
+            if (0 != comparison) {
+                return comparison;
+            }
+        }
+
+        return 0;
+    }
+}
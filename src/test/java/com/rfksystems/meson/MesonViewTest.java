@@ -0,0 +1,136 @@
+package com.rfksystems.meson;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonViewTest {
+    private static final int COUNT = 100_000;
+
+    @Test
+    public void test_reads_fields_from_array_and_buffers() {
+        final Random random = new Random(17);
+        final Meson[] mesons = new Meson[COUNT];
+        final byte[] bytes = new byte[COUNT * Meson.BUFFER_SIZE_BYTES + 3];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(COUNT * Meson.BUFFER_SIZE_BYTES);
+
+        for (int i = 0; i < COUNT; i++) {
+            mesons[i] = new Meson(
+                    random.nextLong() >>> 16,
+                    MesonUtils.intToBytes(random.nextInt()),
+                    random.nextInt(Integer.MAX_VALUE)
+            );
+
+            System.arraycopy(mesons[i].toByteArray(), 0, bytes, 3 + i * Meson.BUFFER_SIZE_BYTES, Meson.BUFFER_SIZE_BYTES);
+            direct.put(mesons[i].toByteArray());
+        }
+
+        final MesonView arrayView = new MesonView();
+        final MesonView directView = new MesonView();
+
+        for (int i = 0; i < COUNT; i++) {
+            final Meson meson = mesons[i];
+            arrayView.wrap(bytes, 3 + i * Meson.BUFFER_SIZE_BYTES);
+            directView.wrapNth(direct, i);
+
+            for (final MesonView view : new MesonView[]{arrayView, directView}) {
+                assertThat(view.getTime()).isEqualTo(meson.getTime());
+                assertThat(view.getSequence()).isEqualTo(meson.getSequence());
+                assertThat(view.getGeneratorId()).isEqualTo(MesonUtils.intFromBytes(meson.getGeneratorId(), 0));
+                assertThat(view.getMostSignificantBits()).isEqualTo(meson.getMostSignificantBits());
+                assertThat(view.getLeastSignificantBits()).isEqualTo(meson.getLeastSignificantBits());
+                assertThat(view.compareTo(meson)).isEqualTo(0);
+                assertThat(view.toMeson()).isEqualTo(meson);
+            }
+        }
+    }
+
+    @Test
+    public void test_compare_and_hex() {
+        final Meson first = new Meson("0162915be2da900035c91a2a5d29");
+        final Meson second = new Meson("0162915be2e1900035c91a2a5d33");
+        final ByteBuffer buffer = ByteBuffer.allocate(2 * Meson.BUFFER_SIZE_BYTES);
+        buffer.put(first.toByteArray()).put(second.toByteArray());
+
+        final MesonView a = new MesonView().wrapNth(buffer, 0);
+        final MesonView b = new MesonView().wrapNth(buffer, 1);
+
+        assertThat(a.compareTo(b)).isLessThan(0);
+        assertThat(b.compareTo(a)).isGreaterThan(0);
+        assertThat(a.compareTo(second)).isLessThan(0);
+        assertThat(a.isValid()).isTrue();
+
+        assertThat(a.appendHex(new StringBuilder()).toString()).isEqualTo(first.toHexString());
+
+        final ByteBuffer hex = ByteBuffer.allocate(MesonHex.length(true));
+        b.writeHex(hex, 0, true);
+        assertThat(new String(hex.array(), StandardCharsets.US_ASCII)).isEqualTo(second.toFormatString());
+        assertThat(b.toString()).isEqualTo("MesonView{" + second.toHexString() + "}");
+    }
+
+    @Test
+    public void test_invalid_and_out_of_bounds() {
+        final byte[] bytes = new Meson("0162915be2da900035c91a2a5d29").toByteArray();
+        bytes[10] = (byte) 0x80;
+
+        final MesonView view = new MesonView().wrap(bytes, 0);
+        assertThat(view.isValid()).isFalse();
+
+        try {
+            view.toMeson();
+            fail();
+        } catch (final IllegalArgumentException e) {
+            // Expected
+        }
+
+        try {
+            view.wrap(bytes, 1);
+            fail();
+        } catch (final IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void benchmark_view() {
+        final int count = 2_000_000;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(count * Meson.BUFFER_SIZE_BYTES);
+
+        for (final Meson meson : Meson.batch(count)) {
+            buffer.put(meson.toByteArray());
+        }
+
+        final byte[] bytes = new byte[Meson.BUFFER_SIZE_BYTES];
+        final MesonView view = new MesonView();
+
+        for (int run = 0; run < 5; run++) {
+            long sink = 0;
+            long start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                buffer.position(i * Meson.BUFFER_SIZE_BYTES);
+                buffer.get(bytes);
+                final Meson meson = new Meson(bytes);
+                sink += meson.getTime() + meson.getSequence();
+            }
+
+            final long decode = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (int i = 0; i < count; i++) {
+                view.wrapNth(buffer, i);
+                sink += view.getTime() + view.getSequence();
+            }
+
+            final long viewed = System.nanoTime() - start;
+
+            System.out.printf("Read time and sequence, new Meson(byte[]): %.1fns/id, MesonView: %.1fns/id (%d)%n",
+                    (double) decode / count, (double) viewed / count, sink & 1);
+        }
+    }
+}
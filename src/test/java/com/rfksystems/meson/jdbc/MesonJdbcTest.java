@@ -0,0 +1,281 @@
+package com.rfksystems.meson.jdbc;
+
+import com.rfksystems.meson.Meson;
+import com.rfksystems.meson.MesonBuffer;
+import com.rfksystems.meson.jdbc.MesonJdbc.Mapping;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class MesonJdbcTest {
+    /**
+     * Orders keys the way a database orders the column types of each mapping: strings, unsigned bytes, signed longs.
+     */
+    private static final Comparator<Object[]> KEY_ORDER = (left, right) -> {
+        for (int i = 0; i < left.length; i++) {
+            final int result = compareValues(left[i], right[i]);
+
+            if (0 != result) {
+                return result;
+            }
+        }
+
+        return 0;
+    };
+
+    @Test
+    public void test_bind_and_read_every_mapping() throws SQLException {
+        final Meson[] mesons = Meson.batch(100);
+
+        for (final Mapping mapping : Mapping.values()) {
+            final Table table = new Table(mapping.getColumnCount());
+            final PreparedStatement insert = table.insert();
+
+            for (final Meson meson : mesons) {
+                MesonJdbc.set(insert, 1, mapping, meson);
+                insert.addBatch();
+            }
+
+            MesonJdbc.setNull(insert, 1, mapping);
+            insert.addBatch();
+            insert.executeBatch();
+
+            final ResultSet rows = table.select(null, null);
+            int index = 0;
+
+            while (rows.next()) {
+                final Meson read = MesonJdbc.get(rows, 1, mapping);
+
+                if (index < mesons.length) {
+                    assertThat(read).isEqualTo(mesons[index++]);
+                } else {
+                    assertThat(read).isNull();
+                }
+            }
+
+            assertThat(index).isEqualTo(mesons.length);
+        }
+
+        assertThat(Mapping.BINARY.getSizeBytes()).isEqualTo(14);
+        assertThat(Mapping.TEXT.getSizeBytes()).isEqualTo(mesons[0].toFormatString().length());
+    }
+
+    @Test
+    public void test_columns_sort_in_identity_order() throws SQLException {
+        final MesonBuffer ids = new MesonBuffer();
+
+        for (final long time : new long[]{0L, 1L, 255L, 256L, 1_600_000_000_000L, (1L << 47) - 1}) {
+            for (final int generator : new int[]{0, 0x7fffffff, 0x80000000, 0xffffffff}) {
+                for (final int sequence : new int[]{0, 1, Integer.MAX_VALUE}) {
+                    ids.add(new Meson(time, intToBytes(generator), sequence));
+                }
+            }
+        }
+
+        ids.sort();
+
+        for (final Mapping mapping : Mapping.values()) {
+            final Table table = new Table(mapping.getColumnCount());
+            final MesonBuffer shuffled = new MesonBuffer();
+
+            for (int i = ids.size() - 1; 0 <= i; i--) {
+                shuffled.add(ids.getMostSignificantBits(i), ids.getLeastSignificantBits(i));
+            }
+
+            assertThat(MesonJdbc.insertBatch(table.insert(), 1, mapping, shuffled, 0, shuffled.size(), 7))
+                    .isEqualTo(ids.size());
+
+            final MesonBuffer read = new MesonBuffer();
+            assertThat(MesonJdbc.readAll(table.select(null, null), 1, mapping, read)).isEqualTo(ids.size());
+
+            for (int i = 0; i < ids.size(); i++) {
+                assertThat(read.get(i)).isEqualTo(ids.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void test_time_range_bounds() throws SQLException {
+        final MesonBuffer ids = new MesonBuffer();
+        final long start = 1_600_000_000_000L;
+
+        for (int i = 0; i < 1000; i++) {
+            ids.add(new Meson(start + i / 10, intToBytes(i % 3 * 0x40000001), i));
+        }
+
+        for (final Mapping mapping : Mapping.values()) {
+            final Table table = new Table(mapping.getColumnCount());
+            MesonJdbc.insertBatch(table.insert(), 1, mapping, ids, 0, ids.size(), 1000);
+
+            final PreparedStatement bounds = table.insert();
+            MesonJdbc.setTimeBound(bounds, 1, mapping, start + 20);
+            MesonJdbc.setTimeBound(bounds, 1 + mapping.getColumnCount(), mapping, start + 30);
+
+            final Object[] parameters = table.parameters();
+            final int width = mapping.getColumnCount();
+            final Object[] from = new Object[width];
+            final Object[] to = new Object[width];
+            System.arraycopy(parameters, 0, from, 0, width);
+            System.arraycopy(parameters, width, to, 0, width);
+
+            if (Mapping.LONGS == mapping) {
+                // Only the most significant bits are bound, any least significant bits are in range
+                from[1] = Long.MIN_VALUE;
+                to[1] = Long.MIN_VALUE;
+            }
+
+            final MesonBuffer read = new MesonBuffer();
+            assertThat(MesonJdbc.readAll(table.select(from, to), 1, mapping, read)).isEqualTo(100);
+
+            for (int i = 0; i < read.size(); i++) {
+                assertThat(read.getTime(i)).isAtLeast(start + 20);
+                assertThat(read.getTime(i)).isLessThan(start + 30);
+            }
+        }
+
+        try {
+            MesonJdbc.setTimeBound(new Table(1).insert(), 1, Mapping.BINARY, -1L);
+            fail("Negative times must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().startsWith("Time must be between");
+        }
+
+        // Binary keys sort unsigned, signed longs past 2^47 would sort before all others
+        MesonJdbc.setTimeBound(new Table(1).insert(), 1, Mapping.BINARY, Meson.MAX_TIME);
+        MesonJdbc.setTimeBound(new Table(2).insert(), 1, Mapping.LONGS, Mapping.MAX_LONGS_TIME);
+
+        try {
+            MesonJdbc.setTimeBound(new Table(2).insert(), 1, Mapping.LONGS, 1L << 47);
+            fail("Times past the order of signed longs must be rejected");
+        } catch (final IllegalArgumentException e) {
+            assertThat(e).hasMessageThat().contains("LONGS");
+        }
+    }
+
+    private static int compareValues(final Object left, final Object right) {
+        if (left instanceof byte[]) {
+            final byte[] a = (byte[]) left;
+            final byte[] b = (byte[]) right;
+
+            for (int i = 0; i < Math.min(a.length, b.length); i++) {
+                final int result = Integer.compare(a[i] & 0xFF, b[i] & 0xFF);
+
+                if (0 != result) {
+                    return result;
+                }
+            }
+
+            return Integer.compare(a.length, b.length);
+        }
+
+        @SuppressWarnings("unchecked") final Comparable<Object> comparable = (Comparable<Object>) left;
+        return comparable.compareTo(right);
+    }
+
+    private static byte[] intToBytes(final int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    /**
+     * Table of identity columns, sorted like an index on them, with just enough JDBC to insert and scan it.
+     * SQL NULL rows sort last.
+     */
+    private static final class Table {
+        private final int width;
+        private final NavigableMap<Object[], Object[]> rows = new TreeMap<>(KEY_ORDER);
+        private final List<Object[]> nulls = new ArrayList<>();
+        private final List<Object[]> batch = new ArrayList<>();
+        private Object[] parameters;
+
+        Table(final int width) {
+            this.width = width;
+            this.parameters = new Object[2 * width];
+        }
+
+        Object[] parameters() {
+            return parameters;
+        }
+
+        PreparedStatement insert() {
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setString":
+                            case "setBytes":
+                            case "setLong":
+                                parameters[(Integer) args[0] - 1] = args[1];
+                                return null;
+                            case "setNull":
+                                parameters[(Integer) args[0] - 1] = null;
+                                return null;
+                            case "addBatch":
+                                final Object[] row = new Object[width];
+                                System.arraycopy(parameters, 0, row, 0, width);
+                                batch.add(row);
+                                return null;
+                            case "executeBatch":
+                                for (final Object[] added : batch) {
+                                    if (null == added[0]) {
+                                        nulls.add(added);
+                                    } else {
+                                        rows.put(added, added);
+                                    }
+                                }
+
+                                final int[] counts = new int[batch.size()];
+                                batch.clear();
+                                return counts;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        ResultSet select(final Object[] from, final Object[] to) {
+            final List<Object[]> selected = new ArrayList<>();
+
+            if (null == from) {
+                selected.addAll(rows.values());
+                selected.addAll(nulls);
+            } else {
+                for (final Map.Entry<Object[], Object[]> entry : rows.subMap(from, true, to, false).entrySet()) {
+                    selected.add(entry.getValue());
+                }
+            }
+
+            final int[] cursor = {-1};
+            final boolean[] wasNull = {false};
+
+            return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return ++cursor[0] < selected.size();
+                            case "wasNull":
+                                return wasNull[0];
+                            case "getString":
+                            case "getBytes":
+                            case "getLong": {
+                                final Object value = selected.get(cursor[0])[(Integer) args[0] - 1];
+                                wasNull[0] = null == value;
+                                return null == value && "getLong".equals(method.getName()) ? 0L : value;
+                            }
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+    }
+}